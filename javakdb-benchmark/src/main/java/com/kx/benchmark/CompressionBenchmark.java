@@ -0,0 +1,253 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for measuring kdb+ IPC compression of table payloads.
+ *
+ * <p>Each payload is a table serialized as a sync message of 6 to 8MB:
+ * {@code quotes} has symbol, timestamp, price and size columns as a tick
+ * database would hold them, {@code sortedLongs} a column of slowly increasing
+ * ids, and {@code randomDoubles} a column which does not compress, so that the
+ * attempt is abandoned. The compression ratio of each payload is printed when
+ * its state is set up.</p>
+ *
+ * <p>Results are reported as throughput in operations per second, and the
+ * {@code bytes} counter as uncompressed bytes per second.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class CompressionBenchmark {
+
+    /** Number of rows in each table. */
+    private static final int ROWS = 250_000;
+
+    /**
+     * Creates a compression benchmark instance.
+     */
+    public CompressionBenchmark() {
+    }
+
+    /**
+     * Creates the table for a payload.
+     *
+     * @param payload name of the payload
+     * @param rows number of rows, a multiple of 8, of the quotes table, which the other payloads have 4 times
+     * @return the table
+     */
+    static c.Flip createTable(String payload, int rows) {
+        Random random = new Random(42);
+        if ("sortedLongs".equals(payload)) {
+            long[] id = new long[rows * 4];
+            for (int i = 0; i < id.length; i++) {
+                id[i] = 1_000_000L + i / 3;
+            }
+            return new c.Flip(new String[]{"id"}, new Object[]{id});
+        }
+        if ("randomDoubles".equals(payload)) {
+            double[] value = new double[rows * 4];
+            for (int i = 0; i < value.length; i++) {
+                value[i] = random.nextDouble();
+            }
+            return new c.Flip(new String[]{"value"}, new Object[]{value});
+        }
+        // sorted by sym then time, as a date partition of a tick database is, with prices on a grid of ticks which
+        // change on a minority of quotes
+        String[] tickers = {"AAPL", "MSFT", "GOOG", "AMZN", "IBM", "ORCL", "INTC", "CSCO"};
+        String[] sym = new String[rows];
+        long[] time = new long[rows];
+        double[] price = new double[rows];
+        int[] size = new int[rows];
+        int perTicker = rows / tickers.length;
+        for (int i = 0; i < rows; i++) {
+            if (i % perTicker == 0) {
+                time[i] = 800_000_000_000_000_000L;
+                price[i] = 100 + i / perTicker;
+            } else {
+                time[i] = time[i - 1] + random.nextInt(1_000_000);
+                price[i] = random.nextInt(4) == 0 ? price[i - 1] + (random.nextInt(5) - 2) / 100.0 : price[i - 1];
+            }
+            sym[i] = tickers[Math.min(i / perTicker, tickers.length - 1)];
+            size[i] = 100 * (1 + random.nextInt(5));
+        }
+        return new c.Flip(new String[]{"sym", "time", "price", "size"},
+                new Object[]{sym, new c.TimestampColumn(time), price, size});
+    }
+
+    /**
+     * State holding a payload serialized both uncompressed and compressed.
+     */
+    @State(Scope.Thread)
+    public static class PayloadState {
+        /** Name of the payload. */
+        @Param({"quotes", "sortedLongs", "randomDoubles"})
+        String payload;
+
+        /** The table. */
+        c.Flip table;
+
+        /** The serialized message, uncompressed. */
+        byte[] message;
+
+        /** The message compressed, or the message itself if it does not compress. */
+        byte[] compressed;
+
+        /** Compressor reused by every invocation. */
+        c.Compressor compressor;
+
+        /** Connection object serializing and deserializing the message. */
+        c connection;
+
+        /**
+         * Serializes and compresses the payload, printing its compression ratio.
+         *
+         * @throws IOException if the payload cannot be serialized
+         */
+        @Setup
+        public void setup() throws IOException {
+            table = createTable(payload, ROWS);
+            connection = new c();
+            compressor = new c.Compressor();
+            message = connection.serialize(1, table, false);
+            compressed = compressor.compress(message);
+            System.out.printf("%n%s: %d bytes compressed to %d, ratio %.2f%n",
+                    payload, message.length, compressed.length, (double) message.length / compressed.length);
+        }
+    }
+
+    /**
+     * State holding a connection which decides whether to compress each
+     * message by a compression policy.
+     */
+    @State(Scope.Thread)
+    public static class PolicyState {
+        /**
+         * The policy: {@code fixed} compresses every message longer than 2000
+         * bytes, {@code adaptive} is a {@link c.AdaptiveCompressionPolicy}.
+         */
+        @Param({"fixed", "adaptive"})
+        String policy;
+
+        /** Connection object serializing the message, as if to a remote process. */
+        c connection;
+
+        /**
+         * Creates the connection with the policy.
+         */
+        @Setup
+        public void setup() {
+            connection = new c();
+            connection.zip(true);
+            if ("adaptive".equals(policy)) {
+                connection.setCompressionPolicy(new c.AdaptiveCompressionPolicy());
+            }
+        }
+    }
+
+    /**
+     * Counts the uncompressed bytes processed, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        /** Uncompressed bytes processed. */
+        public long bytes;
+
+        /** Resets the counter for each iteration. */
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Measures compressing the serialized message.
+     *
+     * @param state benchmark state containing the message
+     * @param counter counter of the bytes compressed
+     * @return the compressed message
+     */
+    @Benchmark
+    public byte[] compress(PayloadState state, Bytes counter) {
+        counter.bytes += state.message.length;
+        return state.compressor.compress(state.message);
+    }
+
+    /**
+     * Measures uncompressing the compressed message.
+     *
+     * @param state benchmark state containing the compressed message
+     * @param counter counter of the bytes uncompressed
+     * @return the uncompressed message
+     */
+    @Benchmark
+    public byte[] uncompress(PayloadState state, Bytes counter) {
+        counter.bytes += state.message.length;
+        return state.compressor.uncompress(state.compressed);
+    }
+
+    /**
+     * Measures serializing the table into a compressed message.
+     *
+     * @param state benchmark state containing the table
+     * @param counter counter of the bytes serialized
+     * @return the compressed message
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] serializeCompressed(PayloadState state, Bytes counter) throws IOException {
+        counter.bytes += state.message.length;
+        return state.connection.serialize(1, state.table, true);
+    }
+
+    /**
+     * Measures serializing the table into a message, compressed if the
+     * policy decides so, as it is written to a connection.
+     *
+     * @param state benchmark state containing the table
+     * @param policy state containing the connection with the policy
+     * @param counter counter of the bytes serialized
+     * @return the message
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] serializeWithPolicy(PayloadState state, PolicyState policy, Bytes counter) throws IOException {
+        counter.bytes += state.message.length;
+        return policy.connection.serialize(1, state.table, true);
+    }
+
+    /**
+     * Measures deserializing the table from the compressed message, which
+     * reuses the buffer it is uncompressed into.
+     *
+     * @param state benchmark state containing the compressed message
+     * @param counter counter of the bytes deserialized
+     * @return the deserialized table
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object deserializeCompressed(PayloadState state, Bytes counter) throws Exception {
+        counter.bytes += state.message.length;
+        return state.connection.deserialize(state.compressed);
+    }
+}
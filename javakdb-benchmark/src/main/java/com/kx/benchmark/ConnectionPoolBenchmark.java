@@ -0,0 +1,209 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JMH benchmarks for measuring the throughput of sync requests made by many
+ * threads sharing kdb+ connections.
+ *
+ * <p>Requests are answered by a {@link LoopbackServer}, a local stand-in for a
+ * kdb+ process which echoes each sync request back as its response. Sixteen
+ * threads share either a single {@link c}, whose {@code k} serializes them, or a
+ * {@link c.ConnectionPool} of each size.</p>
+ *
+ * <p>Results are reported as throughput in operations per millisecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+@Threads(16)
+public class ConnectionPoolBenchmark {
+
+    /**
+     * Creates a connection pool benchmark instance.
+     */
+    public ConnectionPoolBenchmark() {
+    }
+
+    /**
+     * A local stand-in for a kdb+ process, accepting connections through
+     * {@link c#c(ServerSocket)} and serving each on its own thread, which
+     * responds to every sync request with the request itself.
+     */
+    public static class LoopbackServer {
+        private final ServerSocket server;
+        private final List<c> peers = new CopyOnWriteArrayList<c>();
+        private final long delayNanos;
+
+        /**
+         * Starts the server on an ephemeral loopback port.
+         *
+         * @throws IOException if the server socket cannot be opened
+         */
+        public LoopbackServer() throws IOException {
+            this(0);
+        }
+
+        /**
+         * Starts a slow server on an ephemeral loopback port, which pauses
+         * after reading each message, as a congested consumer would.
+         *
+         * @param delayNanos time to pause after each message, in nanoseconds
+         * @throws IOException if the server socket cannot be opened
+         */
+        public LoopbackServer(long delayNanos) throws IOException {
+            this.delayNanos = delayNanos;
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            serve(new c(server));
+                        }
+                    } catch (IOException e) {
+                        // server socket closed by close()
+                    }
+                }
+            }, "javakdb-benchmark-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        /**
+         * Returns the port the server is listening on.
+         *
+         * @return the local port
+         */
+        public int getPort() {
+            return server.getLocalPort();
+        }
+
+        private void serve(final c peer) {
+            peers.add(peer);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            Object[] msg = peer.readMsg();
+                            if ((byte) msg[0] == 1) {
+                                peer.kr(msg[1]);
+                            }
+                            if (delayNanos > 0) {
+                                LockSupport.parkNanos(delayNanos);
+                            }
+                        }
+                    } catch (Exception e) {
+                        // connection closed by the client or close()
+                    }
+                }
+            }, "javakdb-benchmark-peer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Stops accepting connections and closes those accepted.
+         *
+         * @throws IOException if closing fails
+         */
+        public void close() throws IOException {
+            server.close();
+            for (c peer : peers) {
+                peer.close();
+            }
+        }
+    }
+
+    /**
+     * State shared by all benchmark threads: the loopback server, and the
+     * connections to it.
+     */
+    @State(Scope.Benchmark)
+    public static class PoolState {
+        /** Maximum size of the pool, or 0 to share a single connection. */
+        @Param({"0", "1", "4", "16"})
+        int size;
+
+        /** Pool of connections to the server, or null when sharing one. */
+        c.ConnectionPool pool;
+
+        /** Connection shared by every thread when size is 0. */
+        c connection;
+
+        /** Request sent by each invocation. */
+        Object request;
+
+        private LoopbackServer server;
+
+        /**
+         * Starts the loopback server and connects to it.
+         *
+         * @throws Exception if the loopback connection cannot be established
+         */
+        @Setup
+        public void setup() throws Exception {
+            server = new LoopbackServer();
+            String host = InetAddress.getLoopbackAddress().getHostAddress();
+            if (size == 0) {
+                connection = new c(host, server.getPort(), "bench:bench");
+            } else {
+                pool = new c.ConnectionPool(host, server.getPort(), "bench:bench", false, size);
+            }
+            request = new Object[]{"f".toCharArray(), new long[]{1, 2, 3, 4, 5, 6, 7, 8}};
+        }
+
+        /**
+         * Closes the connections and the loopback server.
+         *
+         * @throws Exception if closing fails
+         */
+        @TearDown
+        public void tearDown() throws Exception {
+            if (connection != null) {
+                connection.close();
+            }
+            if (pool != null) {
+                pool.close();
+            }
+            server.close();
+        }
+    }
+
+    /**
+     * Measures sync requests made by every thread, through the pool or on the
+     * single shared connection.
+     *
+     * @param state shared benchmark state containing the connections and request
+     * @return the deserialized response
+     * @throws Exception if the request fails
+     */
+    @Benchmark
+    public Object request(PoolState state) throws Exception {
+        return state.pool == null ? state.connection.k(state.request) : state.pool.k(state.request);
+    }
+}
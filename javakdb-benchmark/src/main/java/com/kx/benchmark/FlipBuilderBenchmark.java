@@ -0,0 +1,146 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for measuring batching the rows of a feed into a table and
+ * serializing it.
+ *
+ * <p>Each invocation adds a batch of trade rows, of a timestamp, symbol, price
+ * and size, and serializes the table. {@code builder} adds them to a
+ * {@link c.FlipBuilder}, reused from one batch to the next, and serializes its
+ * view; {@code rowObjects} collects an {@code Object[]} of boxed values per row,
+ * as a feed handler might, and copies them into column arrays to serialize.</p>
+ *
+ * <p>Results are reported as average time per batch in microseconds.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class FlipBuilderBenchmark {
+
+    /** Names of the columns of the table. */
+    private static final String[] COLUMNS = {"time", "sym", "price", "size"};
+
+    /**
+     * Creates a flip builder benchmark instance.
+     */
+    public FlipBuilderBenchmark() {
+    }
+
+    /**
+     * State holding the values of a batch of rows, and the builder they are
+     * added to.
+     */
+    @State(Scope.Thread)
+    public static class BatchState {
+        /** Number of rows in a batch. */
+        @Param({"100", "10000"})
+        int rows;
+
+        /** Timestamp of each row, as nanoseconds since 2000.01.01. */
+        long[] time;
+
+        /** Symbol of each row. */
+        String[] sym;
+
+        /** Price of each row. */
+        double[] price;
+
+        /** Size of each row. */
+        long[] size;
+
+        /** Builder reused for each batch. */
+        c.FlipBuilder builder;
+
+        /** Connection object serializing the table. */
+        c connection;
+
+        /**
+         * Generates the values of the rows.
+         */
+        @Setup
+        public void setup() {
+            String[] tickers = {"AAPL", "MSFT", "GOOG", "AMZN", "IBM", "ORCL", "INTC", "CSCO"};
+            Random random = new Random(42);
+            time = new long[rows];
+            sym = new String[rows];
+            price = new double[rows];
+            size = new long[rows];
+            for (int i = 0; i < rows; i++) {
+                time[i] = 800_000_000_000_000_000L + i * 1_000_000L;
+                sym[i] = tickers[random.nextInt(tickers.length)];
+                price[i] = 100 + random.nextInt(10_000) / 100.0;
+                size[i] = 100 * (1 + random.nextInt(10));
+            }
+            builder = new c.FlipBuilder(COLUMNS, "psfj");
+            connection = new c();
+        }
+    }
+
+    /**
+     * Measures adding the rows to a builder and serializing its view.
+     *
+     * @param state benchmark state containing the rows
+     * @return the serialized table
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] builder(BatchState state) throws IOException {
+        c.FlipBuilder builder = state.builder;
+        builder.clear();
+        for (int i = 0; i < state.rows; i++) {
+            builder.add(state.time[i]).add(state.sym[i]).add(state.price[i]).add(state.size[i]);
+        }
+        return state.connection.serialize(0, builder.view(), false);
+    }
+
+    /**
+     * Measures collecting the rows as boxed objects, copying them into column
+     * arrays, and serializing those.
+     *
+     * @param state benchmark state containing the rows
+     * @return the serialized table
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] rowObjects(BatchState state) throws IOException {
+        List<Object[]> batch = new ArrayList<>();
+        for (int i = 0; i < state.rows; i++) {
+            batch.add(new Object[]{state.time[i], state.sym[i], state.price[i], state.size[i]});
+        }
+        int n = batch.size();
+        long[] time = new long[n];
+        String[] sym = new String[n];
+        double[] price = new double[n];
+        long[] size = new long[n];
+        for (int i = 0; i < n; i++) {
+            Object[] row = batch.get(i);
+            time[i] = (Long) row[0];
+            sym[i] = (String) row[1];
+            price[i] = (Double) row[2];
+            size[i] = (Long) row[3];
+        }
+        c.Flip table = new c.Flip(COLUMNS, new Object[]{new c.TimestampColumn(time), sym, price, size});
+        return state.connection.serialize(0, table, false);
+    }
+}
@@ -0,0 +1,126 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for measuring writing large tables over a connection made
+ * through a socket channel, with and without gathering writes.
+ *
+ * <p>The connection is accepted from a {@link ServerSocketChannel}, and its
+ * peer reads and discards the messages written. Each message is a table of
+ * trade rows built by a {@link c.FlipBuilder}, whose price and size columns are
+ * views over little endian arrays. With a gather threshold of 0 the message is
+ * serialized into a single buffer before it is written; otherwise those columns
+ * are written from their own arrays.</p>
+ *
+ * <p>Results are reported as throughput in operations per second.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class GatherWriteBenchmark {
+
+    /**
+     * Creates a gather write benchmark instance.
+     */
+    public GatherWriteBenchmark() {
+    }
+
+    /**
+     * State holding the connection, its reading peer, and the table written.
+     */
+    @State(Scope.Thread)
+    public static class ChannelState {
+        /** Number of rows in the table. */
+        @Param({"10000", "1000000"})
+        int rows;
+
+        /** Length from which vectors are gathered, or 0 to serialize them. */
+        @Param({"0", "4096"})
+        int gatherThreshold;
+
+        /** Connection writing the table. */
+        c connection;
+
+        /** The table. */
+        c.Flip table;
+
+        private ServerSocketChannel server;
+
+        private Thread reader;
+
+        /**
+         * Accepts a connection from a peer reading its messages, and builds
+         * the table.
+         *
+         * @throws Exception if the connection cannot be established
+         */
+        @Setup
+        public void setup() throws Exception {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            reader = new Thread(() -> {
+                try {
+                    c peer = new c(InetAddress.getLoopbackAddress().getHostAddress(), port, "bench:bench");
+                    while (true) {
+                        peer.readMsg();
+                    }
+                } catch (Exception e) {
+                    // connection closed by tearDown
+                }
+            }, "javakdb-benchmark-reader");
+            reader.setDaemon(true);
+            reader.start();
+            connection = new c(server);
+            connection.setGatherThreshold(gatherThreshold);
+            c.FlipBuilder builder = new c.FlipBuilder(new String[]{"sym", "price", "size"}, "sfj", rows);
+            for (int i = 0; i < rows; i++) {
+                builder.add(i % 2 == 0 ? "IBM" : "MSFT").add(100 + i % 100 / 100.0).add((long) i);
+            }
+            table = builder.view();
+        }
+
+        /**
+         * Closes the connection and the server channel.
+         *
+         * @throws Exception if closing fails
+         */
+        @TearDown
+        public void tearDown() throws Exception {
+            connection.close();
+            reader.join(1000);
+            server.close();
+        }
+    }
+
+    /**
+     * Measures writing the table as an async message.
+     *
+     * @param state benchmark state containing the connection and table
+     * @throws Exception if writing fails
+     */
+    @Benchmark
+    public void write(ChannelState state) throws Exception {
+        state.connection.ks("upd", "trade", state.table);
+    }
+}
@@ -0,0 +1,118 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for measuring kdb+ IPC compression of very large messages,
+ * sequentially and in segments compressed in parallel.
+ *
+ * <p>Each payload is a table from {@link CompressionBenchmark}, of 2 million
+ * rows, serialized as a sync message of 50 to 64MB. With a parallelism of 0 the
+ * message is compressed sequentially; otherwise it is compressed in segments of
+ * {@code segmentSize} bytes on a {@link ForkJoinPool} of that many threads. The
+ * compression ratio of each configuration is printed when its state is set
+ * up.</p>
+ *
+ * <p>Results are reported as throughput in operations per second, and the
+ * {@code bytes} counter as uncompressed bytes per second.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelCompressionBenchmark {
+
+    /** Number of rows in the quotes table. */
+    private static final int ROWS = 2_000_000;
+
+    /**
+     * Creates a parallel compression benchmark instance.
+     */
+    public ParallelCompressionBenchmark() {
+    }
+
+    /**
+     * State holding a large serialized message, and the compressor for it.
+     */
+    @State(Scope.Thread)
+    public static class MessageState {
+        /** Name of the payload. */
+        @Param({"quotes", "sortedLongs"})
+        String payload;
+
+        /** Number of threads compressing segments, or 0 to compress sequentially. */
+        @Param({"0", "1", "2", "4"})
+        int parallelism;
+
+        /** Length of each segment in bytes. */
+        @Param({"1048576"})
+        int segmentSize;
+
+        /** The serialized message, uncompressed. */
+        byte[] message;
+
+        /** Compressor reused by every invocation. */
+        c.Compressor compressor;
+
+        private ForkJoinPool pool;
+
+        /**
+         * Serializes the payload and configures the compressor, printing the
+         * compression ratio.
+         *
+         * @throws IOException if the payload cannot be serialized
+         */
+        @Setup
+        public void setup() throws IOException {
+            message = new c().serialize(1, CompressionBenchmark.createTable(payload, ROWS), false);
+            compressor = new c.Compressor();
+            if (parallelism > 0) {
+                pool = new ForkJoinPool(parallelism);
+                compressor.setParallelism(pool, segmentSize);
+            }
+            byte[] compressed = compressor.compress(message);
+            System.out.printf("%n%s: %d bytes compressed to %d, ratio %.2f%n",
+                    payload, message.length, compressed.length, (double) message.length / compressed.length);
+        }
+
+        /**
+         * Shuts down the pool, if any.
+         */
+        @TearDown
+        public void tearDown() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Measures compressing the serialized message.
+     *
+     * @param state benchmark state containing the message and compressor
+     * @param counter counter of the bytes compressed
+     * @return the compressed message
+     */
+    @Benchmark
+    public byte[] compress(MessageState state, CompressionBenchmark.Bytes counter) {
+        counter.bytes += state.message.length;
+        return state.compressor.compress(state.message);
+    }
+}
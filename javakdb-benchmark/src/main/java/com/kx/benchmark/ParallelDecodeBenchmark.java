@@ -0,0 +1,158 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for measuring deserialization of large tables, with their
+ * columns decoded sequentially and in parallel.
+ *
+ * <p>Each message is a table of 20 columns, a quarter each of symbols,
+ * timestamps, floats and longs. With a parallelism of 0 its columns are decoded
+ * on the benchmark thread; otherwise they are decoded on a
+ * {@link ForkJoinPool} of that many threads, set by
+ * {@link c#setDecodePool(ForkJoinPool, int)} with a threshold of 0.</p>
+ *
+ * <p>Results are reported as the average time per message in milliseconds.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelDecodeBenchmark {
+
+    /** Number of columns in the table. */
+    private static final int COLUMNS = 20;
+
+    /**
+     * Creates a parallel decode benchmark instance.
+     */
+    public ParallelDecodeBenchmark() {
+    }
+
+    /**
+     * State holding a serialized table, and the connection decoding it.
+     */
+    @State(Scope.Thread)
+    public static class MessageState {
+        /** Number of rows in the table. */
+        @Param({"10000", "1000000"})
+        int rows;
+
+        /** Number of threads decoding columns, or 0 to decode them sequentially. */
+        @Param({"0", "1", "2", "4"})
+        int parallelism;
+
+        /** The serialized message. */
+        byte[] message;
+
+        /** Connection decoding the message. */
+        c connection;
+
+        private ForkJoinPool pool;
+
+        /**
+         * Serializes the table and configures the connection.
+         *
+         * @throws IOException if the table cannot be serialized
+         */
+        @Setup
+        public void setup() throws IOException {
+            connection = new c();
+            message = connection.serialize(2, createTable(rows), false);
+            if (parallelism > 0) {
+                pool = new ForkJoinPool(parallelism);
+                connection.setDecodePool(pool, 0);
+            }
+        }
+
+        /**
+         * Shuts down the pool, if any.
+         */
+        @TearDown
+        public void tearDown() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Creates a table of 20 columns, a quarter each of symbols, timestamps,
+     * floats and longs.
+     *
+     * @param rows number of rows
+     * @return the table
+     */
+    static c.Flip createTable(int rows) {
+        String[] names = new String[COLUMNS];
+        Object[] columns = new Object[COLUMNS];
+        String[] tickers = {"IBM", "MSFT", "AAPL", "GOOG", "AMZN", "ORCL", "INTC", "CSCO"};
+        for (int j = 0; j < COLUMNS; j++) {
+            switch (j % 4) {
+                case 0:
+                    names[j] = "sym" + j;
+                    String[] sym = new String[rows];
+                    for (int i = 0; i < rows; i++) {
+                        sym[i] = tickers[i % tickers.length];
+                    }
+                    columns[j] = sym;
+                    break;
+                case 1:
+                    names[j] = "time" + j;
+                    Instant[] time = new Instant[rows];
+                    for (int i = 0; i < rows; i++) {
+                        time[i] = Instant.ofEpochSecond(1_700_000_000L + i, i % 1000 * 1000L);
+                    }
+                    columns[j] = time;
+                    break;
+                case 2:
+                    names[j] = "price" + j;
+                    double[] price = new double[rows];
+                    for (int i = 0; i < rows; i++) {
+                        price[i] = 100 + i % 100 / 100.0;
+                    }
+                    columns[j] = price;
+                    break;
+                default:
+                    names[j] = "size" + j;
+                    long[] size = new long[rows];
+                    for (int i = 0; i < rows; i++) {
+                        size[i] = i;
+                    }
+                    columns[j] = size;
+                    break;
+            }
+        }
+        return new c.Flip(names, columns);
+    }
+
+    /**
+     * Measures deserializing the table.
+     *
+     * @param state benchmark state containing the message and connection
+     * @return the table
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object deserialize(MessageState state) throws Exception {
+        return state.connection.deserialize(state.message);
+    }
+}
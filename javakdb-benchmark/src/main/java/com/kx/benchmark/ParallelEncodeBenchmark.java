@@ -0,0 +1,101 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for measuring serialization of large tables, with their
+ * columns serialized sequentially and in parallel.
+ *
+ * <p>Each message is a bulk load {@code (".u.upd";`trade;table)} of the
+ * table from {@link ParallelDecodeBenchmark}. With a parallelism of 0 it is
+ * serialized on the benchmark thread; otherwise its items, and the columns of
+ * the table, are serialized on a {@link ForkJoinPool} of that many threads, set by
+ * {@link c#setEncodePool(ForkJoinPool, int)} with a threshold of 0.</p>
+ *
+ * <p>Results are reported as the average time per message in milliseconds.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ParallelEncodeBenchmark {
+
+    /**
+     * Creates a parallel encode benchmark instance.
+     */
+    public ParallelEncodeBenchmark() {
+    }
+
+    /**
+     * State holding a bulk load message, and the connection serializing it.
+     */
+    @State(Scope.Thread)
+    public static class MessageState {
+        /** Number of rows in the table. */
+        @Param({"10000", "1000000"})
+        int rows;
+
+        /** Number of threads serializing columns, or 0 to serialize them sequentially. */
+        @Param({"0", "1", "2", "4"})
+        int parallelism;
+
+        /** The message. */
+        Object[] message;
+
+        /** Connection serializing the message. */
+        c connection;
+
+        private ForkJoinPool pool;
+
+        /**
+         * Builds the message and configures the connection.
+         */
+        @Setup
+        public void setup() {
+            message = new Object[]{".u.upd", "trade", ParallelDecodeBenchmark.createTable(rows)};
+            connection = new c();
+            if (parallelism > 0) {
+                pool = new ForkJoinPool(parallelism);
+                connection.setEncodePool(pool, 0);
+            }
+        }
+
+        /**
+         * Shuts down the pool, if any.
+         */
+        @TearDown
+        public void tearDown() {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Measures serializing the message.
+     *
+     * @param state benchmark state containing the message and connection
+     * @return the serialized message
+     * @throws Exception if serialization fails
+     */
+    @Benchmark
+    public byte[] serialize(MessageState state) throws Exception {
+        return state.connection.serialize(0, state.message, false);
+    }
+}
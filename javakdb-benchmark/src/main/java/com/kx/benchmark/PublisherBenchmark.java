@@ -0,0 +1,123 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for measuring the rate at which a feed publishes rows to a
+ * kdb+ process.
+ *
+ * <p>Rows are sent to a {@link ConnectionPoolBenchmark.LoopbackServer}, which
+ * reads and discards async messages. With {@code perRow} each row is sent as
+ * its own async call of {@code .u.upd}; with {@code publisher} rows are added to
+ * a {@link c.Publisher}, which sends them in batches of up to 1000 rows, or
+ * after 1ms. The batch metrics of the publisher are printed at the end of each
+ * trial.</p>
+ *
+ * <p>Results are reported as throughput in rows per millisecond.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class PublisherBenchmark {
+
+    /**
+     * Creates a publisher benchmark instance.
+     */
+    public PublisherBenchmark() {
+    }
+
+    /**
+     * State holding the loopback server, the connection to it, and the
+     * publisher when batching.
+     */
+    @State(Scope.Benchmark)
+    public static class FeedState {
+        /** How rows are sent. */
+        @Param({"perRow", "publisher"})
+        String mode;
+
+        /** Connection to the server. */
+        c connection;
+
+        /** Publisher batching the rows, or null when sending each row. */
+        c.Publisher publisher;
+
+        /** Table the publisher batches rows to. */
+        c.Publisher.Table trade;
+
+        /** Value of the next row. */
+        long next;
+
+        private ConnectionPoolBenchmark.LoopbackServer server;
+
+        /**
+         * Starts the loopback server and connects to it.
+         *
+         * @throws Exception if the connection cannot be established
+         */
+        @Setup
+        public void setup() throws Exception {
+            server = new ConnectionPoolBenchmark.LoopbackServer();
+            connection = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), "bench:bench");
+            if ("publisher".equals(mode)) {
+                publisher = new c.Publisher(connection, ".u.upd", 1000, 1 << 20, TimeUnit.MILLISECONDS.toNanos(1));
+                trade = publisher.table("trade", new String[]{"sym", "price", "size"}, "sfj");
+            }
+        }
+
+        /**
+         * Sends the remaining rows, and closes the connection and server.
+         *
+         * @throws Exception if closing fails
+         */
+        @TearDown
+        public void tearDown() throws Exception {
+            if (publisher != null) {
+                publisher.close();
+                System.out.printf("%n%d rows in %d batches, largest %d rows, mean delay %dus, blocked %d times%n",
+                        publisher.getRows(), publisher.getBatches(), publisher.getMaxBatchRows(),
+                        publisher.getMeanDelayNanos() / 1000, publisher.getBlocked());
+            }
+            connection.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Measures publishing a row.
+     *
+     * @param state benchmark state containing the connection or publisher
+     * @throws Exception if sending fails
+     */
+    @Benchmark
+    public void publish(FeedState state) throws Exception {
+        long i = state.next++;
+        if (state.publisher == null) {
+            state.connection.ks(".u.upd", "trade", new Object[]{"IBM", 100 + i % 100 / 100.0, i});
+            return;
+        }
+        c.FlipBuilder rows = state.trade.begin();
+        try {
+            rows.add("IBM").add(100 + i % 100 / 100.0).add(i);
+        } finally {
+            state.trade.end();
+        }
+    }
+}
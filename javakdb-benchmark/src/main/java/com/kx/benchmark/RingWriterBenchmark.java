@@ -0,0 +1,174 @@
+package com.kx.benchmark;
+
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for measuring many threads publishing async messages over a
+ * single connection to a kdb+ process.
+ *
+ * <p>Messages are sent to a {@link ConnectionPoolBenchmark.LoopbackServer},
+ * which reads and discards async messages, from 1 to 32 threads. With
+ * {@code direct} each thread calls {@link c#ks(String, Object, Object)} on the
+ * shared connection, serializing and writing under its write lock; with
+ * {@code ring} each thread serializes its message and hands it to a
+ * {@link c.RingWriter}, whose writer thread coalesces them into writes.</p>
+ *
+ * <p>With a {@code consumerDelayMicros} above 0 the server pauses after each
+ * message, as a congested tickerplant link would, so that the socket and the
+ * ring fill and producers wait for the writer to free a slot.</p>
+ *
+ * <p>Results are reported as the distribution of time per message in
+ * microseconds, so that the tail latency of each is shown as well as its
+ * throughput.</p>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class RingWriterBenchmark {
+
+    /**
+     * Creates a ring writer benchmark instance.
+     */
+    public RingWriterBenchmark() {
+    }
+
+    /**
+     * State holding the loopback server, the connection to it, and the ring
+     * writer when handing off.
+     */
+    @State(Scope.Benchmark)
+    public static class ConnectionState {
+        /** How messages are written. */
+        @Param({"direct", "ring"})
+        String mode;
+
+        /** Time the server pauses after reading each message, in microseconds. */
+        @Param({"0", "20"})
+        long consumerDelayMicros;
+
+        /** Connection to the server. */
+        c connection;
+
+        /** Ring writer for the connection, or null when writing directly. */
+        c.RingWriter ring;
+
+        private ConnectionPoolBenchmark.LoopbackServer server;
+
+        /**
+         * Starts the loopback server and connects to it.
+         *
+         * @throws Exception if the connection cannot be established
+         */
+        @Setup
+        public void setup() throws Exception {
+            server = new ConnectionPoolBenchmark.LoopbackServer(TimeUnit.MICROSECONDS.toNanos(consumerDelayMicros));
+            connection = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), "bench:bench");
+            if ("ring".equals(mode)) {
+                ring = new c.RingWriter(connection, 4096);
+            }
+        }
+
+        /**
+         * Writes the remaining messages, and closes the connection and server.
+         *
+         * @throws Exception if closing fails
+         */
+        @TearDown
+        public void tearDown() throws Exception {
+            if (ring != null) {
+                ring.close();
+            }
+            connection.close();
+            server.close();
+        }
+    }
+
+    /**
+     * State holding the value of the next row each thread publishes.
+     */
+    @State(Scope.Thread)
+    public static class ProducerState {
+        /** Value of the next row. */
+        long next;
+    }
+
+    private static void publish(ConnectionState state, ProducerState producer) throws Exception {
+        long i = producer.next++;
+        Object[] row = {"IBM", 100 + i % 100 / 100.0, i};
+        if (state.ring == null) {
+            state.connection.ks(".u.upd", "trade", row);
+        } else {
+            state.ring.ks(".u.upd", "trade", row);
+        }
+    }
+
+    /**
+     * Measures publishing a message from a single thread.
+     *
+     * @param state benchmark state containing the connection or ring writer
+     * @param producer state of the publishing thread
+     * @throws Exception if sending fails
+     */
+    @Benchmark
+    @Threads(1)
+    public void threads1(ConnectionState state, ProducerState producer) throws Exception {
+        publish(state, producer);
+    }
+
+    /**
+     * Measures publishing a message from each of 4 threads.
+     *
+     * @param state benchmark state containing the connection or ring writer
+     * @param producer state of the publishing thread
+     * @throws Exception if sending fails
+     */
+    @Benchmark
+    @Threads(4)
+    public void threads4(ConnectionState state, ProducerState producer) throws Exception {
+        publish(state, producer);
+    }
+
+    /**
+     * Measures publishing a message from each of 16 threads.
+     *
+     * @param state benchmark state containing the connection or ring writer
+     * @param producer state of the publishing thread
+     * @throws Exception if sending fails
+     */
+    @Benchmark
+    @Threads(16)
+    public void threads16(ConnectionState state, ProducerState producer) throws Exception {
+        publish(state, producer);
+    }
+
+    /**
+     * Measures publishing a message from each of 32 threads.
+     *
+     * @param state benchmark state containing the connection or ring writer
+     * @param producer state of the publishing thread
+     * @throws Exception if sending fails
+     */
+    @Benchmark
+    @Threads(32)
+    public void threads32(ConnectionState state, ProducerState producer) throws Exception {
+        publish(state, producer);
+    }
+}
@@ -7,16 +7,27 @@ import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Measurement;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -30,6 +41,10 @@ import java.util.concurrent.TimeUnit;
  *
  * <p>Results are reported as average execution time in microseconds. JMH performs
  * five warm-up iterations, ten measurement iterations, and three forks.</p>
+ *
+ * <p>The publish benchmarks write to a loopback connection and are intended to be
+ * run with the GC profiler ({@code -prof gc}) to compare the allocation rate
+ * ({@code gc.alloc.rate.norm}) of each {@link c.BufferPool} mode.</p>
  */
 @BenchmarkMode(Mode.AverageTime)
 @OutputTimeUnit(TimeUnit.MICROSECONDS)
@@ -242,6 +257,25 @@ public class SerializationBenchmark {
         return values;
     }
 
+    /**
+     * Creates a symbol vector drawn from a small universe of tickers, as found in
+     * tick data, for the low-cardinality symbol benchmarks.
+     *
+     * @return an array containing {@link #SIZE} symbols from 2000 distinct tickers
+     */
+    private static String[] createTickers() {
+        String[] universe = new String[2000];
+        for (int i = 0; i < universe.length; ++i) {
+            universe[i] = "T" + Integer.toString(i * 7919, 36).toUpperCase();
+        }
+        Random random = new Random(42);
+        String[] values = new String[SIZE];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = universe[random.nextInt(universe.length)];
+        }
+        return values;
+    }
+
     /**
      * Creates values for the time-vector benchmark.
      *
@@ -303,6 +337,48 @@ public class SerializationBenchmark {
         return new Object[]{time, sym, price, size, price, size};
     }
 
+    /**
+     * Creates a 40-column table of 10,000 rows, as a dashboard query might
+     * return, of symbol, timestamp, float and long columns in turn.
+     *
+     * @return the wide table used by the benchmark
+     */
+    private static c.Flip createWideTable() {
+        int rows = 10_000;
+        String[] names = new String[40];
+        Object[] columns = new Object[names.length];
+        String[] tickers = createTickers();
+        Instant[] instants = createInstants();
+        for (int j = 0; j < names.length; j++) {
+            switch (j % 4) {
+                case 0:
+                    names[j] = "sym" + j;
+                    columns[j] = Arrays.copyOf(tickers, rows);
+                    break;
+                case 1:
+                    names[j] = "time" + j;
+                    columns[j] = Arrays.copyOf(instants, rows);
+                    break;
+                case 2:
+                    names[j] = "price" + j;
+                    double[] price = new double[rows];
+                    for (int i = 0; i < rows; i++) {
+                        price[i] = 100 + i % 100 / 100.0;
+                    }
+                    columns[j] = price;
+                    break;
+                default:
+                    names[j] = "size" + j;
+                    long[] size = new long[rows];
+                    for (int i = 0; i < rows; i++) {
+                        size[i] = 100L * (i % 10);
+                    }
+                    columns[j] = size;
+            }
+        }
+        return new c.Flip(names, columns);
+    }
+
     /**
      * Base JMH state shared by serialization and deserialization benchmarks.
      *
@@ -322,9 +398,17 @@ public class SerializationBenchmark {
         @Setup
         public final void setup() throws IOException {
             connection = new c();
+            configure();
             setupValues();
         }
 
+        /**
+         * Configures the javakdb connection object before the benchmark values are
+         * prepared. The default configuration is left unchanged.
+         */
+        protected void configure() {
+        }
+
         /**
          * Initializes the values required by a concrete benchmark state.
          *
@@ -518,6 +602,48 @@ public class SerializationBenchmark {
         }
     }
 
+    /** Serialization state for the low-cardinality symbol vector benchmark. */
+    public static class SerializeTickersState extends SerializeState<String[]> {
+        /** {@inheritDoc} */
+        @Override
+        protected String[] createValues() {
+            return createTickers();
+        }
+    }
+
+    /** Serialization state for the low-cardinality symbol vector benchmark, caching encoded symbols. */
+    public static class SerializeTickersCachedState extends SerializeTickersState {
+        /** {@inheritDoc} */
+        @Override
+        protected void configure() {
+            connection.setSymbolEncodingCache(new c.SymbolEncodingCache());
+        }
+    }
+
+    /** Serialization state for the low-cardinality symbol vector benchmark, sent as a {@link c.SymbolColumn}. */
+    public static class SerializeTickerColumnState extends SerializeState<c.SymbolColumn> {
+        /** {@inheritDoc} */
+        @Override
+        protected c.SymbolColumn createValues() {
+            String[] tickers = createTickers();
+            Map<String, Integer> codes = new HashMap<>();
+            int[] values = new int[tickers.length];
+            for (int i = 0; i < tickers.length; ++i) {
+                Integer code = codes.get(tickers[i]);
+                if (code == null) {
+                    code = codes.size();
+                    codes.put(tickers[i], code);
+                }
+                values[i] = code;
+            }
+            String[] dictionary = new String[codes.size()];
+            for (Map.Entry<String, Integer> entry : codes.entrySet()) {
+                dictionary[entry.getValue()] = entry.getKey();
+            }
+            return new c.SymbolColumn(values, dictionary);
+        }
+    }
+
     /** Serialization state for the time vector benchmark. */
     public static class SerializeLocalTimesState extends SerializeState<LocalTime[]> {
         /** {@inheritDoc} */
@@ -545,6 +671,15 @@ public class SerializationBenchmark {
         }
     }
 
+    /** Serialization state for the quote batch benchmark, serialized in a single pass. */
+    public static class SerializeQuoteBatchSinglePassState extends SerializeQuoteBatchState {
+        /** {@inheritDoc} */
+        @Override
+        protected void configure() {
+            connection.setSinglePassSerialization(true);
+        }
+    }
+
     /** Serialization state for the byte vector benchmark. */
     public static class SerializeBytesState extends SerializeState<byte[]> {
         /** {@inheritDoc} */
@@ -608,6 +743,15 @@ public class SerializationBenchmark {
         }
     }
 
+    /** Deserialization state for the long vector benchmark, decoded as a view over the message. */
+    public static class DeserializeLongsViewState extends DeserializeLongsState {
+        /** {@inheritDoc} */
+        @Override
+        protected void configure() {
+            connection.setColumnViews(true);
+        }
+    }
+
     /** Deserialization state for the real vector benchmark. */
     public static class DeserializeFloatsState extends DeserializeState<float[]> {
         /** {@inheritDoc} */
@@ -644,6 +788,33 @@ public class SerializationBenchmark {
         }
     }
 
+    /** Deserialization state for the timestamp vector benchmark, decoded as a {@link c.TimestampColumn}. */
+    public static class DeserializeTimestampColumnState extends DeserializeInstantsState {
+        /** {@inheritDoc} */
+        @Override
+        protected void configure() {
+            connection.setTemporalColumns(true);
+        }
+    }
+
+    /** Deserialization state for the low-cardinality symbol vector benchmark. */
+    public static class DeserializeTickersState extends DeserializeState<String[]> {
+        /** {@inheritDoc} */
+        @Override
+        protected String[] createValues() {
+            return createTickers();
+        }
+    }
+
+    /** Deserialization state for the low-cardinality symbol vector benchmark, interning symbols. */
+    public static class DeserializeTickersInternedState extends DeserializeTickersState {
+        /** {@inheritDoc} */
+        @Override
+        protected void configure() {
+            connection.setSymbolInternTable(new c.SymbolInternTable());
+        }
+    }
+
     /** Deserialization state for the boolean vector benchmark. */
     public static class DeserializeBooleansState extends DeserializeState<boolean[]> {
         /** {@inheritDoc} */
@@ -716,6 +887,30 @@ public class SerializationBenchmark {
         }
     }
 
+    /** Deserialization state for the wide table benchmark. */
+    public static class DeserializeWideTableState extends DeserializeState<c.Flip> {
+        /** {@inheritDoc} */
+        @Override
+        protected c.Flip createValues() {
+            return createWideTable();
+        }
+    }
+
+    /** Deserialization state for the wide table benchmark, decoded as a {@link c.LazyFlip}. */
+    public static class DeserializeWideTableLazyState extends DeserializeWideTableState {
+        /** {@inheritDoc} */
+        @Override
+        protected void configure() {
+            connection.setLazyTables(true);
+        }
+    }
+
+    /** Deserialization state for the wide table benchmark, decoding two of its columns and its last 1000 rows. */
+    public static class DeserializeWideTableProjectedState extends DeserializeWideTableState {
+        /** Columns and rows decoded. */
+        final c.DecodeOptions options = new c.DecodeOptions().columns("price2", "size3").lastRows(1000);
+    }
+
     /** Deserialization state for the byte vector benchmark. */
     public static class DeserializeBytesState extends DeserializeState<byte[]> {
         /** {@inheritDoc} */
@@ -725,6 +920,73 @@ public class SerializationBenchmark {
         }
     }
 
+    /**
+     * State for the publish benchmarks: a connection to a loopback peer which
+     * accepts the kdb+ handshake and discards everything written to it.
+     */
+    @State(Scope.Thread)
+    public static class PublishState {
+        /** Buffer pool mode used by the publishing connection. */
+        @Param({"none", "scratch", "sizeClass"})
+        String pool;
+
+        /** Connection publishing to the loopback peer. */
+        c connection;
+
+        /** Quote batch published by each invocation. */
+        Object[] values;
+
+        private ServerSocket server;
+        private Thread drain;
+
+        /**
+         * Starts the loopback peer and connects to it.
+         *
+         * @throws Exception if the loopback connection cannot be established
+         */
+        @Setup
+        public void setup() throws Exception {
+            server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+            drain = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        c peer = new c(server);
+                        InputStream in = peer.s.getInputStream();
+                        byte[] sink = new byte[65536];
+                        while (in.read(sink) >= 0) {
+                            // discard
+                        }
+                        peer.close();
+                    } catch (IOException e) {
+                        // connection closed by tear down
+                    }
+                }
+            }, "javakdb-benchmark-drain");
+            drain.setDaemon(true);
+            drain.start();
+            connection = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort(), "bench:bench");
+            if ("scratch".equals(pool)) {
+                connection.setBufferPool(new c.ScratchBufferPool());
+            } else if ("sizeClass".equals(pool)) {
+                connection.setBufferPool(new c.SizeClassBufferPool());
+            }
+            values = createQuoteBatch();
+        }
+
+        /**
+         * Closes the connection and the loopback peer.
+         *
+         * @throws Exception if closing fails
+         */
+        @TearDown
+        public void tearDown() throws Exception {
+            connection.close();
+            server.close();
+            drain.join(5000);
+        }
+    }
+
     /**
      * Measures serialization of the prepared boxed short atoms values.
      *
@@ -905,6 +1167,44 @@ public class SerializationBenchmark {
         return state.connection.serialize(0, state.values, false);
     }
 
+    /**
+     * Measures serialization of a low-cardinality symbol vector.
+     *
+     * @param state thread-local benchmark state containing the values to serialize
+     * @return the serialized kdb+ IPC message
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] serializeTickers(SerializeTickersState state) throws IOException {
+        return state.connection.serialize(0, state.values, false);
+    }
+
+    /**
+     * Measures serialization of a low-cardinality symbol vector with a
+     * {@link c.SymbolEncodingCache}.
+     *
+     * @param state thread-local benchmark state containing the values to serialize
+     * @return the serialized kdb+ IPC message
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] serializeTickersCached(SerializeTickersCachedState state) throws IOException {
+        return state.connection.serialize(0, state.values, false);
+    }
+
+    /**
+     * Measures serialization of a low-cardinality symbol vector held as a
+     * {@link c.SymbolColumn}.
+     *
+     * @param state thread-local benchmark state containing the values to serialize
+     * @return the serialized kdb+ IPC message
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] serializeTickerColumn(SerializeTickerColumnState state) throws IOException {
+        return state.connection.serialize(0, state.values, false);
+    }
+
     /**
      * Measures serialization of the prepared time vector values.
      *
@@ -941,6 +1241,19 @@ public class SerializationBenchmark {
         return state.connection.serialize(0, state.values, false);
     }
 
+    /**
+     * Measures serialization of the prepared quote batch values in a single pass,
+     * without first sizing the message; compare with {@link #serializeQuoteBatch}.
+     *
+     * @param state thread-local benchmark state containing the values to serialize
+     * @return the serialized kdb+ IPC message
+     * @throws IOException if serialization fails
+     */
+    @Benchmark
+    public byte[] serializeQuoteBatchSinglePass(SerializeQuoteBatchSinglePassState state) throws IOException {
+        return state.connection.serialize(0, state.values, false);
+    }
+
     /**
      * Measures serialization of the prepared byte vector values.
      *
@@ -1025,6 +1338,42 @@ public class SerializationBenchmark {
         return state.connection.deserialize(state.values);
     }
 
+    /**
+     * Measures deserialization of a prepared long vector IPC message as a
+     * {@link c.LongColumn} view, followed by a scan of the view.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the sum of the deserialized values
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public long deserializeLongsView(DeserializeLongsViewState state) throws Exception {
+        c.LongColumn column = (c.LongColumn) state.connection.deserialize(state.values);
+        long sum = 0;
+        for (int i = 0; i < column.size(); ++i) {
+            sum += column.getLong(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Measures deserialization of a prepared long vector IPC message, followed by a
+     * scan of the decoded array, for comparison with {@link #deserializeLongsView}.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the sum of the deserialized values
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public long deserializeLongsScan(DeserializeLongsState state) throws Exception {
+        long[] values = (long[]) state.connection.deserialize(state.values);
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
     /**
      * Measures deserialization of a prepared real vector IPC message.
      *
@@ -1073,6 +1422,44 @@ public class SerializationBenchmark {
         return state.connection.deserialize(state.values);
     }
 
+    /**
+     * Measures deserialization of a prepared low-cardinality symbol vector IPC message.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the deserialized Java value
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object deserializeTickers(DeserializeTickersState state) throws Exception {
+        return state.connection.deserialize(state.values);
+    }
+
+    /**
+     * Measures deserialization of a prepared low-cardinality symbol vector IPC message
+     * with a {@link c.SymbolInternTable}.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the deserialized Java value
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object deserializeTickersInterned(DeserializeTickersInternedState state) throws Exception {
+        return state.connection.deserialize(state.values);
+    }
+
+    /**
+     * Measures deserialization of a prepared timestamp vector IPC message into a
+     * {@link c.TimestampColumn} of nanoseconds rather than an array of Instants.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the deserialized Java value
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object deserializeTimestampColumn(DeserializeTimestampColumnState state) throws Exception {
+        return state.connection.deserialize(state.values);
+    }
+
     /**
      * Measures deserialization of a prepared boolean vector IPC message.
      *
@@ -1169,6 +1556,106 @@ public class SerializationBenchmark {
         return state.connection.deserialize(state.values);
     }
 
+    /**
+     * Measures deserialization of a prepared 40-column table, reading two of
+     * its columns.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the columns read
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object[] deserializeWideTable(DeserializeWideTableState state) throws Exception {
+        c.Flip table = (c.Flip) state.connection.deserialize(state.values);
+        return new Object[]{table.at("price2"), table.at("size3")};
+    }
+
+    /**
+     * Measures deserialization of a prepared 40-column table as a
+     * {@link c.LazyFlip}, decoding only the two columns read.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the columns read
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object[] deserializeWideTableLazy(DeserializeWideTableLazyState state) throws Exception {
+        c.Flip table = (c.Flip) state.connection.deserialize(state.values);
+        return new Object[]{table.at("price2"), table.at("size3")};
+    }
+
+    /**
+     * Measures deserialization of two columns and the last 1000 rows of a
+     * prepared 40-column table, skipping the rest.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the columns read
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public Object[] deserializeWideTableProjected(DeserializeWideTableProjectedState state) throws Exception {
+        c.Flip table = (c.Flip) state.connection.deserialize(state.values, state.options);
+        return new Object[]{table.at("price2"), table.at("size3")};
+    }
+
+    /**
+     * Visitor summing the float vectors of a message as it is parsed, without
+     * creating any object for them.
+     */
+    static final class FloatSumVisitor implements c.KVisitor {
+        /** Sum of the elements of the float vectors received. */
+        double sum;
+
+        @Override
+        public void onVector(int type, byte[] b, int offset, int count, boolean littleEndian) {
+            if (type != 9) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, offset, count * 8)
+                    .order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            for (int i = 0; i < count; i++) {
+                sum += buffer.getDouble();
+            }
+        }
+    }
+
+    /**
+     * Measures summing the float columns of a prepared 40-column table by
+     * deserializing it.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the sum
+     * @throws Exception if deserialization fails
+     */
+    @Benchmark
+    public double sumWideTable(DeserializeWideTableState state) throws Exception {
+        c.Flip table = (c.Flip) state.connection.deserialize(state.values);
+        double sum = 0;
+        for (Object column : table.y) {
+            if (column instanceof double[]) {
+                for (double v : (double[]) column) {
+                    sum += v;
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Measures summing the float columns of a prepared 40-column table with a
+     * {@link c.KVisitor} reading them from the message.
+     *
+     * @param state thread-local benchmark state containing the serialized message
+     * @return the sum
+     * @throws Exception if parsing fails
+     */
+    @Benchmark
+    public double sumWideTableVisitor(DeserializeWideTableState state) throws Exception {
+        FloatSumVisitor visitor = new FloatSumVisitor();
+        state.connection.parse(state.values, visitor);
+        return visitor.sum;
+    }
+
     /**
      * Measures deserialization of a prepared byte vector IPC message.
      *
@@ -1180,4 +1667,16 @@ public class SerializationBenchmark {
     public Object deserializeBytes(DeserializeBytesState state) throws Exception {
         return state.connection.deserialize(state.values);
     }
+
+    /**
+     * Measures publishing a quote batch as an async {@code .u.upd} message to a
+     * loopback peer, for each buffer pool mode.
+     *
+     * @param state thread-local benchmark state containing the connection and values
+     * @throws IOException if the message cannot be written
+     */
+    @Benchmark
+    public void publishQuoteBatch(PublishState state) throws IOException {
+        state.connection.ks(".u.upd", "quote", state.values);
+    }
 }
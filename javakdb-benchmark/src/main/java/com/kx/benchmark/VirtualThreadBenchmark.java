@@ -0,0 +1,143 @@
+package com.kx.benchmark;
+
+import com.kx.KThreads;
+import com.kx.c;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for measuring many concurrent requests, each made on its own
+ * thread, sharing a {@link c.ConnectionPool}.
+ *
+ * <p>Each invocation submits a burst of sync requests to an executor and waits
+ * for them all. The requests are answered by a {@link c.IpcServer} on the
+ * loopback interface which echoes each one back. With the {@code perTask}
+ * executor from {@link KThreads} every request has its own thread, which is a
+ * virtual thread when run on Java 21; the {@code fixed} executor is a pool of
+ * platform threads of the same size as the connection pool.</p>
+ *
+ * <p>Results are reported as average time per burst in milliseconds.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class VirtualThreadBenchmark {
+
+    /** Number of requests submitted by each invocation. */
+    private static final int BURST = 1000;
+
+    /** Number of connections shared by the requests. */
+    private static final int CONNECTIONS = 16;
+
+    /**
+     * Creates a virtual thread benchmark instance.
+     */
+    public VirtualThreadBenchmark() {
+    }
+
+    /**
+     * State for the burst benchmark: the loopback server, the pool of
+     * connections to it, and the executor the requests are made on.
+     */
+    @State(Scope.Benchmark)
+    public static class BurstState {
+        /** Executor the requests are made on. */
+        @Param({"fixed", "perTask"})
+        String executor;
+
+        /** Pool of connections to the server. */
+        c.ConnectionPool pool;
+
+        /** Executor running each request. */
+        ExecutorService requests;
+
+        /** Request sent by each task. */
+        Object request;
+
+        private ExecutorService serverThreads;
+        private c.IpcServer server;
+
+        /**
+         * Starts the loopback server and the executor.
+         *
+         * @throws Exception if the server cannot be started
+         */
+        @Setup
+        public void setup() throws Exception {
+            ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            serverThreads = KThreads.newExecutor("javakdb-benchmark-server");
+            server = new c.IpcServer(socket, null, new c.RequestHandler() {
+                @Override
+                public Object process(c c, byte msgType, Object msg) {
+                    return msg;
+                }
+            }, serverThreads);
+            server.start();
+            pool = new c.ConnectionPool(InetAddress.getLoopbackAddress().getHostAddress(), socket.getLocalPort(),
+                    "bench:bench", false, CONNECTIONS);
+            requests = "fixed".equals(executor)
+                    ? Executors.newFixedThreadPool(CONNECTIONS)
+                    : KThreads.newExecutor("javakdb-benchmark-request");
+            request = new Object[]{"f".toCharArray(), new long[]{1, 2, 3, 4, 5, 6, 7, 8}};
+        }
+
+        /**
+         * Stops the executors, and closes the connections and the server.
+         *
+         * @throws Exception if closing fails
+         */
+        @TearDown
+        public void tearDown() throws Exception {
+            requests.shutdown();
+            pool.close();
+            server.close();
+            serverThreads.shutdown();
+        }
+    }
+
+    /**
+     * Measures a burst of sync requests, each submitted as its own task, made
+     * through the shared pool.
+     *
+     * @param state benchmark state containing the pool and executor
+     * @return the number of responses received
+     * @throws Exception if a request fails
+     */
+    @Benchmark
+    public int burst(final BurstState state) throws Exception {
+        Callable<Object> task = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return state.pool.k(state.request);
+            }
+        };
+        Future<?>[] responses = new Future<?>[BURST];
+        for (int i = 0; i < BURST; i++) {
+            responses[i] = state.requests.submit(task);
+        }
+        for (Future<?> response : responses) {
+            response.get();
+        }
+        return responses.length;
+    }
+}
@@ -61,6 +61,26 @@ public class Feed{
     kconn.k(""); // sync chase ensures the remote has processed all msgs
   }
 
+  /**
+   * Example of batching rows in a FlipBuilder, which holds them in primitive columns rather than an object per row,
+   * and sending them as a bulk insert
+   * @param kconn Connection that will be sent the inserts
+   * @throws java.io.IOException when issue with KDB+ comms
+   * @throws c.KException if request evaluation resulted in an error
+   */
+  static void builderInserts(c kconn) throws java.io.IOException, c.KException{
+    String[]syms=new String[]{"ABC","DEF","GHI","JKL"}; // symbols to randomly choose from
+    // Column types given as q type chars, matching the remote schema
+    c.FlipBuilder rows=new c.FlipBuilder(new String[]{"time","sym","price","size"},"nsfj");
+    for(int i=0;i<10;i++){
+      long time=java.time.LocalTime.now().toNanoOfDay(); // timespans are added as nanoseconds since midnight
+      rows.add(time).add(syms[random.nextInt(syms.length)]).add((double)i).add(i*10L);
+    }
+    LOGGER.log(Level.INFO,"Populating 'mytable' with a 10 row bulk insert (using FlipBuilder)...");
+    rows.flush(kconn,QFUNC,TABLENAME); // the builder is cleared, ready for the next batch
+    kconn.k(""); // sync chase ensures the remote has processed all msgs
+  }
+
   /**
    * Run example tick feed
    * Requires a KDB+ server running on port 5010 on your machine i.e. q -p 5010
@@ -73,6 +93,7 @@ public class Feed{
       c=new c("localhost",5010,System.getProperty("user.name")+":mypassword");
       rowInserts(c);
       bulkInserts(c);
+      builderInserts(c);
     }
     catch(Exception e){
       LOGGER.log(Level.SEVERE,e.toString());
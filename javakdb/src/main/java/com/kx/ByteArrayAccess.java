@@ -47,24 +47,24 @@ final class ByteArrayAccess{
     return getIntLE(b,p)&0xffffffffL | (long)getIntLE(b,p+4)<<32;
   }
 
-  static void getShorts(byte[] b,int p,short[] dst,boolean littleEndian){
-    ByteBuffer.wrap(b,p,dst.length*2).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asShortBuffer().get(dst);
+  static void getShorts(byte[] b,int p,short[] dst,int off,int len,boolean littleEndian){
+    ByteBuffer.wrap(b,p,len*2).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asShortBuffer().get(dst,off,len);
   }
 
-  static void getInts(byte[] b,int p,int[] dst,boolean littleEndian){
-    ByteBuffer.wrap(b,p,dst.length*4).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asIntBuffer().get(dst);
+  static void getInts(byte[] b,int p,int[] dst,int off,int len,boolean littleEndian){
+    ByteBuffer.wrap(b,p,len*4).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asIntBuffer().get(dst,off,len);
   }
 
-  static void getLongs(byte[] b,int p,long[] dst,boolean littleEndian){
-    ByteBuffer.wrap(b,p,dst.length*8).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asLongBuffer().get(dst);
+  static void getLongs(byte[] b,int p,long[] dst,int off,int len,boolean littleEndian){
+    ByteBuffer.wrap(b,p,len*8).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asLongBuffer().get(dst,off,len);
   }
 
-  static void getFloats(byte[] b,int p,float[] dst,boolean littleEndian){
-    ByteBuffer.wrap(b,p,dst.length*4).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asFloatBuffer().get(dst);
+  static void getFloats(byte[] b,int p,float[] dst,int off,int len,boolean littleEndian){
+    ByteBuffer.wrap(b,p,len*4).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asFloatBuffer().get(dst,off,len);
   }
 
-  static void getDoubles(byte[] b,int p,double[] dst,boolean littleEndian){
-    ByteBuffer.wrap(b,p,dst.length*8).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asDoubleBuffer().get(dst);
+  static void getDoubles(byte[] b,int p,double[] dst,int off,int len,boolean littleEndian){
+    ByteBuffer.wrap(b,p,len*8).order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN).asDoubleBuffer().get(dst,off,len);
   }
 
   static void putShortBE(byte[] b,int p,short v){
@@ -97,28 +97,28 @@ final class ByteArrayAccess{
     putIntLE(b,p+4,(int)(v>>32));
   }
 
-  static void putShortsLE(byte[] b,int p,short[] a){
-    ByteBuffer.wrap(b,p,a.length*2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(a);
+  static void putShortsLE(byte[] b,int p,short[] a,int off,int len){
+    ByteBuffer.wrap(b,p,len*2).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(a,off,len);
   }
 
-  static void putIntsLE(byte[] b,int p,int[] a){
-    ByteBuffer.wrap(b,p,a.length*4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(a);
+  static void putIntsLE(byte[] b,int p,int[] a,int off,int len){
+    ByteBuffer.wrap(b,p,len*4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().put(a,off,len);
   }
 
-  static void putLongsLE(byte[] b,int p,long[] a){
-    ByteBuffer.wrap(b,p,a.length*8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(a);
+  static void putLongsLE(byte[] b,int p,long[] a,int off,int len){
+    ByteBuffer.wrap(b,p,len*8).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().put(a,off,len);
   }
 
-  static void putFloatsLE(byte[] b,int p,float[] a){
-    for(float v:a){
-      putIntLE(b,p,Float.floatToIntBits(v));
+  static void putFloatsLE(byte[] b,int p,float[] a,int off,int len){
+    for(int i=off;i<off+len;i++){
+      putIntLE(b,p,Float.floatToIntBits(a[i]));
       p+=4;
     }
   }
 
-  static void putDoublesLE(byte[] b,int p,double[] a){
-    for(double v:a){
-      putLongLE(b,p,Double.doubleToLongBits(v));
+  static void putDoublesLE(byte[] b,int p,double[] a,int off,int len){
+    for(int i=off;i<off+len;i++){
+      putLongLE(b,p,Double.doubleToLongBits(a[i]));
       p+=8;
     }
   }
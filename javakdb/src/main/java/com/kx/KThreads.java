@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 1998-2017 Kx Systems Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.kx;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads which block on kdb+ connections. These are daemon platform threads; on Java 21 the multi-release jar
+ * supplies a version of this class creating virtual threads, so that a thread blocked on a connection does not occupy a
+ * platform thread.
+ */
+public final class KThreads{
+  private KThreads(){}
+
+  /**
+   * Indicates whether the threads created are virtual threads
+   * @return false, as virtual threads require Java 21
+   */
+  public static boolean isVirtual(){
+    return false;
+  }
+
+  /**
+   * Creates an executor which does not bound the number of threads, suitable for tasks which block on connections, e.g. as
+   * the executor of a {@link c.IpcServer}, or for making requests through a {@link c.ConnectionPool}
+   * @param name prefix of the names of the threads
+   * @return a cached pool of daemon threads
+   */
+  public static ExecutorService newExecutor(String name){
+    AtomicInteger count=new AtomicInteger();
+    return Executors.newCachedThreadPool(task->{
+      Thread thread=new Thread(task,name+"-"+count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts a daemon thread
+   * @param task the task to run
+   * @param name the name of the thread
+   * @return the started thread
+   */
+  static Thread start(Runnable task,String name){
+    Thread thread=new Thread(task,name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+}
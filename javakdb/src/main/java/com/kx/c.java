@@ -18,10 +18,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
 import java.nio.charset.IllegalCharsetNameException;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Method;
@@ -32,6 +35,8 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.time.LocalDate;
@@ -40,11 +45,35 @@ import java.time.LocalDateTime;
 import java.time.Instant;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
@@ -119,6 +148,19 @@ public class c{
    * {@code o} is the outputStream of the socket used to write data to the remote kdb+ process.
    */
   OutputStream outStream;
+  /**
+   * {@code writeLock} guards the serializer state and the writing of messages to the connection. A lock rather than a
+   * monitor, so that a virtual thread blocked writing to the socket while holding it does not pin its carrier thread.
+   */
+  private final ReentrantLock writeLock=new ReentrantLock();
+  /**
+   * {@code readLock} guards the deserializer state and the reading of messages from the connection
+   */
+  private final ReentrantLock readLock=new ReentrantLock();
+  /**
+   * {@code requestLock} is held by {@link #k(Object)} from sending a sync message until its response has been read
+   */
+  private final ReentrantLock requestLock=new ReentrantLock();
   /**
    * {@code b} is the buffer used to store the incoming message bytes from the remote prior to de-serialization
    */
@@ -127,6 +169,63 @@ public class c{
    * {@code j} is the current position of the de-serializer within the read buffer b
    */
   int rBuffPos;
+  /**
+   * {@code rLimit} is the end of the bytes available to the de-serializer in rBuff: its length, or, when a message is being
+   * streamed, the end of the part of it read so far
+   */
+  int rLimit;
+  /**
+   * {@code readChunkSize} is the size of the window through which messages larger than it are decoded as they are read, or 0
+   * if messages are always read in full before being decoded
+   */
+  private int readChunkSize;
+  /**
+   * {@code rChunk} is the window reused for streamed messages
+   */
+  private byte[] rChunk;
+  /**
+   * Indicates whether rBuff is a window over a message being streamed, which is refilled from the connection as it is decoded
+   */
+  private boolean rStreaming;
+  /**
+   * Indicates whether short, int, long, real and float vectors are decoded as {@link ColumnView}s over rBuff rather than
+   * copied to arrays
+   */
+  private boolean columnViews;
+  /**
+   * Indicates whether temporal vectors are decoded as {@link Column}s of their int, long or double values rather than as
+   * arrays of objects
+   */
+  private boolean temporalColumns;
+  /**
+   * Indicates whether tables are decoded as {@link LazyFlip}s, whose columns are decoded as they are accessed
+   */
+  private boolean lazyTables;
+  /**
+   * {@code decodePool} decodes the columns of large tables in parallel, or null to decode them on the reading thread
+   */
+  private ForkJoinPool decodePool;
+  /**
+   * {@code decodeThreshold} is the length in bytes of the columns of a table from which they are decoded on {@code decodePool}
+   */
+  private int decodeThreshold;
+  /**
+   * {@code rOptions} selects the columns and rows of the tables decoded from the message being read, or null to decode them
+   * in full
+   */
+  private DecodeOptions rOptions;
+  /**
+   * {@code responseOptions} are the decode options of the response awaited by {@code k}, or null
+   */
+  private DecodeOptions responseOptions;
+  /**
+   * {@code symbolTable} caches the Strings of received symbols, or null to decode every symbol
+   */
+  private SymbolInternTable symbolTable;
+  /**
+   * {@code rRemaining} is the number of bytes of the message being streamed which have not yet been read into rBuff
+   */
+  private int rRemaining;
   /**
    * {@code wBuff} is the buffer used to store the outgoing message bytes when serializing an object
    */
@@ -135,6 +234,79 @@ public class c{
    * {@code wBuffPos} is the current position the serializer within the write buffer wBuff
    */
   int wBuffPos;
+  /**
+   * {@code wCap} is the capacity of wBuff checked by {@code reserve} while serializing in a single pass. Integer.MAX_VALUE
+   * when wBuff has been sized exactly by {@code nx}, so that no check is ever triggered.
+   */
+  private int wCap=Integer.MAX_VALUE;
+  /**
+   * {@code wPool} is the pool from which a growable wBuff was taken, or null
+   */
+  private BufferPool wPool;
+  /**
+   * {@code wSizeHint} is the initial capacity of a growable wBuff, the size of the last message serialized in a single pass
+   */
+  private int wSizeHint=64;
+  /**
+   * {@code wCompressor} compresses the messages sent, or null until one is compressed
+   */
+  private Compressor wCompressor;
+  /**
+   * {@code rCompressor} uncompresses the messages received, or null until one is uncompressed
+   */
+  private Compressor rCompressor;
+  /**
+   * {@code symbolCache} caches the encoded bytes of symbols sent, or null to encode every symbol
+   */
+  private SymbolEncodingCache symbolCache;
+  /**
+   * Indicates whether messages should be serialized in a single pass into a growable buffer, rather than sized by {@code nx}
+   * before being serialized into a buffer of the exact length
+   */
+  private boolean singlePass;
+  /**
+   * {@code serializeScratch} holds the working buffer reused by {@link #serialize(int,Object,boolean)} in single pass mode
+   * when no buffer pool is set
+   */
+  private ScratchBufferPool serializeScratch;
+  /**
+   * {@code writeChunkSize} is the size of the chunks in which messages larger than it are streamed to the connection, or 0
+   * if messages are always serialized in full before being written
+   */
+  private int writeChunkSize;
+  /**
+   * Indicates whether wBuff is a chunk of a message being streamed, which is written to the connection each time it fills
+   */
+  private boolean wStreaming;
+  /**
+   * {@code gatherThreshold} is the length from which vectors whose ipc bytes already exist are written from their own arrays
+   * by a gathering write, or 0 if messages are always serialized in full
+   */
+  private int gatherThreshold;
+  /**
+   * {@code wGather} collects the vectors written from their own arrays while a message is serialized for a gathering write,
+   * or null
+   */
+  private Gather wGather;
+  /**
+   * {@code encodePool} serializes the columns of large tables, and the items of a message which is a large general list, in
+   * parallel, or null to serialize them on the writing thread
+   */
+  private ForkJoinPool encodePool;
+  /**
+   * {@code encodeThreshold} is the length in bytes of the columns of a table, or items of a message, from which they are
+   * serialized on {@code encodePool}
+   */
+  private int encodeThreshold;
+  /**
+   * {@code encoders} are the writers which serialize items on {@code encodePool}, each used by one task at a time, or null
+   * if there is no pool
+   */
+  private ConcurrentLinkedQueue<c> encoders;
+  /**
+   * {@code gather} is reused by each gathering write, or null until one is made
+   */
+  private Gather gather;
   /**
   * {@code ipcVersion} indicates the ipc version to encode with
   */
@@ -163,6 +335,34 @@ public class c{
   public void zip(boolean b){
     zip=b;
   }
+  /**
+   * {@code compressionPolicy} decides which outgoing messages are compressed, or null to compress those longer than 2000
+   * bytes unless the connection is to a local interface
+   */
+  private CompressionPolicy compressionPolicy;
+  /**
+   * Sets the policy deciding which outgoing messages are compressed, when compression is enabled by {@link #zip(boolean)}
+   * @param policy The policy to use, e.g. an {@link AdaptiveCompressionPolicy}, which may be shared between connections. null
+   * to compress messages longer than 2000 bytes unless the connection is to a local interface. Default is null.
+   */
+  public void setCompressionPolicy(CompressionPolicy policy){
+    compressionPolicy=policy;
+  }
+  /**
+   * Sets the pool on which large outgoing messages are compressed in parallel, in segments of the given size, as described
+   * by {@link Compressor#setParallelism(ForkJoinPool,int)}.
+   * @param pool The pool to compress segments on, or null to compress every message sequentially. Default is null.
+   * @param segmentSize Length of each segment in bytes, at least 4096
+   * @throws IllegalArgumentException if segmentSize is less than 4096
+   */
+  public void setCompressionPool(ForkJoinPool pool,int segmentSize){
+    writeLock.lock();
+    try{
+      writeCompressor().setParallelism(pool,segmentSize);
+    }finally{
+      writeLock.unlock();
+    }
+  }
   private static boolean isLoopback(InetAddress addr){
     return addr.isAnyLocalAddress()||addr.isLoopbackAddress();
   }
@@ -295,7 +495,17 @@ public class c{
    * @throws IOException if access is denied or an I/O error occurs.
    */
   public c(ServerSocket s,IAuthenticate a) throws IOException{
-    io(s.accept());
+    this(s.accept(),a);
+  }
+  /**
+   * Initializes a new {@link c} instance for a client connection which has been accepted, completing the kdb+ handshake
+   * and authenticating the client
+   * @param s the accepted {@link Socket}
+   * @param a {@link IAuthenticate} instance to authenticate the connection. Accepts it if {@code null}.
+   * @throws IOException if access is denied or an I/O error occurs.
+   */
+  c(Socket s,IAuthenticate a) throws IOException{
+    io(s);
     ByteArrayOutputStream buffer = new ByteArrayOutputStream();
     byte[] temp = new byte[1];
     int bytesRead = 0;
@@ -685,194 +895,3552 @@ public class c{
     public Object at(String s){
       return y[find(x,s)];
     }
+    /**
+     * Returns a column given its index
+     * @param i index of the column
+     * @return the column values
+     */
+    Object column(int i){
+      return y[i];
+    }
+    /**
+     * Returns the columns, decoding any which have not been decoded
+     * @return {@code y}
+     */
+    Object[] columns(){
+      return y;
+    }
   }
   /**
-   * {@code KException} is used to indicate there was an error generated by the remote process during the processing of a sync message or if the connection failed due to access credentials.
-   * Network errors are reported as IOException.
+   * {@code LazyFlip} is a table decoded from a received message whose columns are decoded only as they are first accessed
+   * through {@link #at(String)} or {@link #column(int)}. Until then the corresponding element of {@code y} is null, so code
+   * reading {@code y} directly should first call {@link #columns()}. The table keeps the message it was received in
+   * reachable until every column has been decoded.
+   * @see c#setLazyTables(boolean)
    */
-  public static class KException extends Exception{
-    private static final long serialVersionUID = 1554689726734674152L; // autogenerated by serialver kx.c.KException
-    KException(String s){
-      super(s);
+  public static class LazyFlip extends Flip{
+    /** Decodes columns from the message, with the settings of the connection it was received on */
+    private final c decoder;
+    /** Position in the message of each column, or -1 once it has been decoded */
+    private final int[] offsets;
+    /** Number of columns not yet decoded */
+    private int remaining;
+    LazyFlip(String[] x,c decoder,int[] offsets){
+      super(x,new Object[x.length]);
+      this.decoder=decoder;
+      this.offsets=offsets;
+      remaining=offsets.length;
     }
-  }
-  private void compress(){
-    byte i=0;
-    boolean g;
-    final int origSize=wBuffPos;
-    int f=0;
-    int h0=0;
-    int h=0;
-    byte[] y=wBuff;
-    wBuff=new byte[y.length/2];
-    int c=12;
-    int d=c;
-    int e=wBuff.length;
-    int p=0;
-    int q;
-    int r;
-    int s0=0;
-    int s=8;
-    int t=wBuffPos;
-    int[] a=new int[256];
-    System.arraycopy(y,0,wBuff,0,4);
-    wBuff[2]=1;
-    wBuffPos=8;
-    w(origSize);
-    for(;s<t;i*=2){
-      if(0==i){
-        if(d>e-17){
-          wBuffPos=origSize;
-          wBuff=y;
-          return;
+    @Override
+    public Object at(String s){
+      return column(find(x,s));
+    }
+    /**
+     * Returns a column, decoding it if it has not yet been accessed
+     * @param i index of the column
+     * @return the column values
+     */
+    @Override
+    public synchronized Object column(int i){
+      if(offsets[i]>=0){
+        decoder.rBuffPos=offsets[i];
+        try{
+          y[i]=decoder.r();
+        }catch(UnsupportedEncodingException e){
+          throw new RuntimeException(e);  // the encoding was already used to decode the column names
         }
-        i=1;
-        wBuff[c]=(byte)f;
-        c=d++;
-        f=0;
-      }
-      g=(s>t-3)||(0==(p=a[h=0xFF&(y[s]^y[s+1])]))||(0!=(y[s]^y[p]));
-      if(0<s0){
-        a[h0]=s0;
-        s0=0;
+        offsets[i]=-1;
+        if(--remaining==0)
+          decoder.rBuff=null;  // the message is no longer needed
       }
-      if(g){
-        h0=h;
-        s0=s;
-        wBuff[d++]=y[s++];
-      }else{
-        a[h]=s;
-        f|=i;
-        p+=2;
-        r=s+=2;
-        q=Math.min(s+255,t);
-        while(y[p]==y[s]&&++s<q)
-          ++p;
-        wBuff[d++]=(byte)h;
-        wBuff[d++]=(byte)(s-r);
-      }
-    }
-    wBuff[c]=(byte)f;
-    wBuffPos=4;
-    w(d);
-    wBuffPos=d;
-    wBuff=Arrays.copyOf(wBuff,wBuffPos);
-  }
-  private void uncompress(){
-    int n=0;
-    int r=0;
-    int f=0;
-    int s=8;
-    int p=s;
-    short i=0;
-    byte[] dst=new byte[ri()];
-    int d=rBuffPos;
-    int[] aa=new int[256];
-    while(s<dst.length){
-      if(i==0){
-        f=0xff&rBuff[d++];
-        i=1;
-      }
-      if((f&i)!=0){
-        r=aa[0xff&rBuff[d++]];
-        dst[s++]=dst[r++];
-        dst[s++]=dst[r++];
-        n=0xff&rBuff[d++];
-        for(int m=0;m<n;m++)
-          dst[s+m]=dst[r+m];
-      }else
-        dst[s++]=rBuff[d++];
-      while(p<s-1)
-        aa[(0xff&dst[p])^(0xff&dst[p+1])]=p++;
-      if((f&i)!=0)
-        p=s+=n;
-      i*=2;
-      if(i==256)
-        i=0;
-    }
-    rBuff=dst;
-    rBuffPos=8;
-  }
-  /**
-   * Write byte to serialization buffer and increment buffer position
-   * @param x byte to write to buffer
-   */
-  void w(byte x){
-    wBuff[wBuffPos++]=x;
-  }
-  /** null integer, i.e. 0Ni */
-  static int ni=Integer.MIN_VALUE;
-  /** null long, i.e. 0N */
-  static long nj=Long.MIN_VALUE;
-  /** null float, i.e. 0Nf or 0n */
-  static double nf=Double.NaN;
-  /**
-   * Deserialize boolean from byte buffer
-   * @return Deserialized boolean
-   */
-  boolean rb(){
-    return 0!=rBuff[rBuffPos++];
-  }
-  /**
-   * Write boolean to serialization buffer
-   * @param x boolean to serialize
-   */
-  void w(boolean x){
-    w((byte)(x?1:0));
-  }
-  /**
-   * Deserialize char from byte buffer
-   * @return Deserialized char
-   */
-  char rc(){
-    return (char)(rBuff[rBuffPos++]&0xff);
-  }
-  /**
-   * Write char to serialization buffer
-   * @param c char to serialize
-   */
-  void w(char c){
-    w((byte)c);
-  }
-  /**
-   * Deserialize short from byte buffer
-   * @return Deserialized short
-   */
-  short rh(){
-    int p=rBuffPos;
-    short v=isLittleEndian?ByteArrayAccess.getShortLE(rBuff,p):ByteArrayAccess.getShortBE(rBuff,p);
-    rBuffPos=p+2;
-    return v;
-  }
-  /**
-   * Write short to serialization buffer in big endian format
-   * @param h short to serialize
-   */
-  void w(short h){
-    ByteArrayAccess.putShortLE(wBuff,wBuffPos,h);
-    wBuffPos+=2;
+      return y[i];
+    }
+    /**
+     * Decodes every column which has not yet been accessed
+     * @return {@code y}, holding every column
+     */
+    @Override
+    public Object[] columns(){
+      for(int i=0;i<y.length;i++)
+        column(i);
+      return y;
+    }
   }
   /**
-   * Deserialize int from byte buffer
-   * @return Deserialized int
+   * {@code DecodeOptions} selects the columns and rows of the tables decoded from a message, so that the bytes of those not
+   * wanted are skipped rather than decoded. It applies to every table in the message, including both halves of a keyed
+   * table, and is passed to {@link c#deserialize(byte[],DecodeOptions)} or {@link c#k(DecodeOptions,Object)}. It must not
+   * be modified while a message is decoded with it.
+   * <pre>
+   * Flip t=(Flip)c.k(new c.DecodeOptions().columns("time","price").lastRows(100),"select from trade where date=.z.d");
+   * </pre>
    */
-  int ri(){
-    int p=rBuffPos;
-    int v=isLittleEndian?ByteArrayAccess.getIntLE(rBuff,p):ByteArrayAccess.getIntBE(rBuff,p);
-    rBuffPos=p+4;
-    return v;
+  public static final class DecodeOptions{
+    /** Names of the columns wanted, or null for every column */
+    private String[] columns;
+    /** Whether a row window is set */
+    private boolean rows;
+    /** Whether the window is the last {@code count} rows */
+    private boolean last;
+    /** Index of the first row of the window */
+    private int start;
+    /** Number of rows of the window */
+    private int count;
+    /**
+     * Selects the columns to decode. Columns not named are skipped, and names which are not columns are ignored; the
+     * columns decoded keep their order in the table.
+     * @param names names of the columns wanted
+     * @return this
+     */
+    public DecodeOptions columns(String... names){
+      columns=names.clone();
+      return this;
+    }
+    /**
+     * Selects a window of rows to decode, clipped to the rows of each table
+     * @param start index of the first row, at least 0
+     * @param count number of rows, at least 0
+     * @return this
+     * @throws IllegalArgumentException if start or count is negative
+     */
+    public DecodeOptions rows(int start,int count){
+      if(start<0||count<0)
+        throw new IllegalArgumentException("Row window must not be negative, got "+start+" "+count);
+      rows=true;
+      last=false;
+      this.start=start;
+      this.count=count;
+      return this;
+    }
+    /**
+     * Selects the last rows of each table to decode
+     * @param count number of rows, at least 0
+     * @return this
+     * @throws IllegalArgumentException if count is negative
+     */
+    public DecodeOptions lastRows(int count){
+      if(count<0)
+        throw new IllegalArgumentException("Row count must not be negative, got "+count);
+      rows=true;
+      last=true;
+      start=0;
+      this.count=count;
+      return this;
+    }
+    /**
+     * Returns which columns of a table are wanted
+     * @param names names of the columns of the table
+     * @return whether each column is wanted
+     */
+    boolean[] wanted(String[] names){
+      boolean[] wanted=new boolean[names.length];
+      for(int i=0;i<names.length;i++)
+        wanted[i]=columns==null||find(columns,names[i])<columns.length;
+      return wanted;
+    }
+    /**
+     * Returns the index of the first row of the window in a table
+     * @param n number of rows in the table
+     * @return index of the first row
+     */
+    int first(int n){
+      if(!rows)
+        return 0;
+      return last?Math.max(0,n-count):Math.min(start,n);
+    }
+    /**
+     * Returns the number of rows of the window in a table
+     * @param n number of rows in the table
+     * @return number of rows in the window
+     */
+    int count(int n){
+      if(!rows)
+        return n;
+      return Math.min(count,n-first(n));
+    }
   }
   /**
-   * Write int to serialization buffer in big endian format
-   * @param i int to serialize
+   * {@code KVisitor} receives the contents of a message as {@link c#parse(byte[],KVisitor)} walks it, rather than as a graph
+   * of objects, so that they can be copied straight into the structures of the application. Vectors of fixed width elements,
+   * chars and symbols are passed as the bytes of the message in which they were received, which must not be retained beyond
+   * the call. Every method does nothing by default, so that only those of interest need be implemented.
+   * <p>
+   * A general list or symbol vector is passed as {@link #onListStart(int,int)}, its items, and {@link #onListEnd(int)}; a
+   * dictionary as {@link #onDictStart()}, its keys, its values, and {@link #onDictEnd()}; and a table as
+   * {@link #onTableStart()}, the dictionary of its column names and columns, and {@link #onTableEnd()}.
+   * </p>
+   * @see ObjectVisitor
    */
-  void w(int i){
-    ByteArrayAccess.putIntLE(wBuff,wBuffPos,i);
-    wBuffPos+=4;
+  public interface KVisitor{
+    /**
+     * Receives a boolean atom
+     * @param x the value
+     */
+    default void onBoolean(boolean x){
+    }
+    /**
+     * Receives a guid atom
+     * @param msb the most significant 64 bits
+     * @param lsb the least significant 64 bits
+     */
+    default void onGuid(long msb,long lsb){
+    }
+    /**
+     * Receives a byte atom
+     * @param x the value
+     */
+    default void onByte(byte x){
+    }
+    /**
+     * Receives a short atom
+     * @param x the value
+     */
+    default void onShort(short x){
+    }
+    /**
+     * Receives an atom represented by an int: an int, month, date, minute, second or time
+     * @param type kdb+ type of the atom, -6, -13, -14, -17, -18 or -19
+     * @param x the value, e.g. days since 2000.01.01 for a date
+     */
+    default void onInt(int type,int x){
+    }
+    /**
+     * Receives an atom represented by a long: a long, timestamp or timespan
+     * @param type kdb+ type of the atom, -7, -12 or -16
+     * @param x the value, e.g. nanoseconds since 2000.01.01 for a timestamp
+     */
+    default void onLong(int type,long x){
+    }
+    /**
+     * Receives a real atom
+     * @param x the value
+     */
+    default void onReal(float x){
+    }
+    /**
+     * Receives an atom represented by a double: a float or datetime
+     * @param type kdb+ type of the atom, -9 or -15
+     * @param x the value, days since 2000.01.01 for a datetime
+     */
+    default void onFloat(int type,double x){
+    }
+    /**
+     * Receives a char atom
+     * @param x the value
+     */
+    default void onChar(char x){
+    }
+    /**
+     * Receives a symbol, an atom or an element of a symbol vector
+     * @param b bytes of the message
+     * @param offset position in {@code b} of the symbol
+     * @param length length of the symbol in bytes, without its null terminator
+     */
+    default void onSymbol(byte[] b,int offset,int length){
+    }
+    /**
+     * Receives a char vector
+     * @param b bytes of the message
+     * @param offset position in {@code b} of the first char
+     * @param length length of the vector in bytes, in the encoding set by {@link c#setEncoding(String)}
+     */
+    default void onChars(byte[] b,int offset,int length){
+    }
+    /**
+     * Receives a vector of fixed width elements, any but chars and symbols
+     * @param type kdb+ type of the vector, e.g. 7 for longs
+     * @param b bytes of the message
+     * @param offset position in {@code b} of the first element
+     * @param count number of elements, each of {@code c.nt[type]} bytes
+     * @param littleEndian byte order of the elements, which for guids is always big endian
+     */
+    default void onVector(int type,byte[] b,int offset,int count,boolean littleEndian){
+    }
+    /**
+     * Receives the start of a general list or symbol vector
+     * @param type 0 for a general list, whose items follow, or 11 for a symbol vector, whose elements follow as symbols
+     * @param count number of items
+     */
+    default void onListStart(int type,int count){
+    }
+    /**
+     * Receives the end of a general list or symbol vector
+     * @param type 0 for a general list, or 11 for a symbol vector
+     */
+    default void onListEnd(int type){
+    }
+    /** Receives the start of a dictionary, whose keys and values follow */
+    default void onDictStart(){
+    }
+    /** Receives the end of a dictionary */
+    default void onDictEnd(){
+    }
+    /** Receives the start of a table, whose dictionary of column names to columns follows */
+    default void onTableStart(){
+    }
+    /** Receives the end of a table */
+    default void onTableEnd(){
+    }
+    /** Receives the generic null {@code (::)} */
+    default void onNull(){
+    }
+    /**
+     * Receives a function other than a lambda, which is passed as its source, a char vector
+     * @param type kdb+ type of the function, 101 to 112
+     */
+    default void onFunction(int type){
+    }
   }
   /**
-   * Deserialize UUID from byte buffer
-   * @return Deserialized UUID
+   * {@code ObjectVisitor} builds the objects which {@link c#deserialize(byte[])} returns from the contents passed to a
+   * {@link KVisitor}, as a reference for visitors and a base for those which convert only part of a message
+   */
+  public static class ObjectVisitor implements KVisitor{
+    /** A list, dictionary or table whose items are being received */
+    private static final class Frame{
+      final int type;
+      final Object items;
+      int n;
+      Frame(int type,Object items){
+        this.type=type;
+        this.items=items;
+      }
+    }
+    private final ArrayDeque<Frame> frames=new ArrayDeque<>();
+    /** Decodes vectors as {@code r} does */
+    private final c decoder=new c();
+    private Object result;
+    /**
+     * Returns the object built from the contents received
+     * @return the deserialised object
+     */
+    public Object result(){
+      return result;
+    }
+    /**
+     * Adds an object to the list, dictionary or table whose items are being received, or makes it the result
+     * @param x the object
+     */
+    protected void add(Object x){
+      Frame f=frames.peek();
+      if(f==null)
+        result=x;
+      else if(f.type==11)
+        ((String[])f.items)[f.n++]=(String)x;
+      else
+        ((Object[])f.items)[f.n++]=x;
+    }
+    @Override
+    public void onBoolean(boolean x){
+      add(x);
+    }
+    @Override
+    public void onGuid(long msb,long lsb){
+      add(new UUID(msb,lsb));
+    }
+    @Override
+    public void onByte(byte x){
+      add(x);
+    }
+    @Override
+    public void onShort(short x){
+      add(x);
+    }
+    @Override
+    public void onInt(int type,int x){
+      switch(type){
+        case -13:
+          add(new Month(x));
+          break;
+        case -14:
+          add(localDate(x));
+          break;
+        case -17:
+          add(new Minute(x));
+          break;
+        case -18:
+          add(new Second(x));
+          break;
+        case -19:
+          add(localTime(x));
+          break;
+        default:
+          add(x);
+      }
+    }
+    @Override
+    public void onLong(int type,long x){
+      add(type==-12?instant(x):type==-16?new Timespan(x):(Object)x);
+    }
+    @Override
+    public void onReal(float x){
+      add(x);
+    }
+    @Override
+    public void onFloat(int type,double x){
+      add(type==-15?localDateTime(x):(Object)x);
+    }
+    @Override
+    public void onChar(char x){
+      add(x);
+    }
+    @Override
+    public void onSymbol(byte[] b,int offset,int length){
+      add(length==0?"":new String(b,offset,length,encoding));
+    }
+    @Override
+    public void onChars(byte[] b,int offset,int length){
+      add(new String(b,offset,length,encoding).toCharArray());
+    }
+    @Override
+    public void onVector(int type,byte[] b,int offset,int count,boolean littleEndian){
+      decoder.rBuff=b;
+      decoder.rBuffPos=offset;
+      decoder.rLimit=b.length;
+      decoder.isLittleEndian=littleEndian;
+      try{
+        add(decoder.rVector(type,count));
+      }catch(UnsupportedEncodingException e){
+        throw new RuntimeException(e);  // not thrown for vectors of fixed width elements
+      }finally{
+        decoder.rBuff=null;
+      }
+    }
+    @Override
+    public void onListStart(int type,int count){
+      frames.push(new Frame(type,type==11?new String[count]:new Object[count]));
+    }
+    @Override
+    public void onListEnd(int type){
+      add(frames.pop().items);
+    }
+    @Override
+    public void onDictStart(){
+      frames.push(new Frame(99,new Object[2]));
+    }
+    @Override
+    public void onDictEnd(){
+      Object[] items=(Object[])frames.pop().items;
+      add(new Dict(items[0],items[1]));
+    }
+    @Override
+    public void onTableStart(){
+      frames.push(new Frame(98,new Object[1]));
+    }
+    @Override
+    public void onTableEnd(){
+      add(new Flip((Dict)((Object[])frames.pop().items)[0]));
+    }
+    @Override
+    public void onNull(){
+      add(null);
+    }
+    @Override
+    public void onFunction(int type){
+      add("func");
+    }
+  }
+  /**
+   * {@code Column} is a kdb+ vector held in a more compact form than the Java array which would otherwise represent it. It
+   * can be serialized wherever that array can.
+   */
+  public abstract static class Column{
+    Column(){
+    }
+    /**
+     * Returns the kdb+ type of the vector
+     * @return kdb+ type number, as returned by {@link c#t(Object)} for the equivalent array
+     */
+    public abstract int type();
+    /**
+     * Returns the number of elements in the vector
+     * @return number of elements
+     */
+    public abstract int size();
+    /**
+     * Returns an element of the vector, boxed as it would be in the equivalent array
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public abstract Object get(int i);
+    /**
+     * Copies the vector into the array which would otherwise represent it, e.g. a {@code long[]} for a vector of type 7
+     * @return a new array holding the elements of the vector
+     */
+    public abstract Object toArray();
+    /**
+     * Writes elements of the vector in little endian ipc format
+     * @param b buffer to write to
+     * @param p position in {@code b} of the first element
+     * @param off index of the first element to write
+     * @param len number of elements to write
+     */
+    abstract void write(byte[] b,int p,int off,int len);
+  }
+  /**
+   * {@code ColumnView} is a numeric vector which decodes its elements on access from the bytes of the message in which it
+   * was received, rather than copying them to an array. The bytes must not be modified while the view is in use.
+   * @see c#setColumnViews(boolean)
+   */
+  public abstract static class ColumnView extends Column{
+    /** Message bytes */
+    final byte[] b;
+    /** Position in {@code b} of the first element */
+    final int p;
+    /** Number of elements */
+    final int n;
+    /** Width of an element in bytes */
+    final int width;
+    /** Byte order of the elements */
+    final boolean littleEndian;
+    ColumnView(byte[] b,int p,int n,int width,boolean littleEndian){
+      this.b=b;
+      this.p=p;
+      this.n=n;
+      this.width=width;
+      this.littleEndian=littleEndian;
+    }
+    @Override
+    public int size(){
+      return n;
+    }
+    /**
+     * Returns the position in {@code b} of an element
+     * @param i index of the element
+     * @param shift log2 of the width of an element
+     * @return position of the first byte of the element
+     */
+    final int offset(int i,int shift){
+      if(i<0||i>=n)
+        throw new IndexOutOfBoundsException("Index "+i+" out of bounds for length "+n);
+      return p+(i<<shift);
+    }
+    /**
+     * Returns a read-only buffer over the bytes of the elements, in their byte order
+     * @return a buffer whose position is the first element and whose limit is the end of the last
+     */
+    public ByteBuffer asByteBuffer(){
+      return ByteBuffer.wrap(b,p,n*width).slice().asReadOnlyBuffer().order(littleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+    }
+    @Override
+    void write(byte[] dst,int d,int off,int len){
+      int s=p+off*width;
+      if(littleEndian){
+        System.arraycopy(b,s,dst,d,len*width);
+        return;
+      }
+      for(int i=0;i<len;i++,s+=width)
+        for(int k=0;k<width;k++)
+          dst[d++]=b[s+width-1-k];
+    }
+  }
+  /** {@code ShortColumn} is a view of a short vector (type 5) */
+  public static final class ShortColumn extends ColumnView{
+    ShortColumn(byte[] b,int p,int n,boolean littleEndian){
+      super(b,p,n,2,littleEndian);
+    }
+    @Override
+    public int type(){
+      return 5;
+    }
+    /**
+     * Returns an element of the vector
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public short getShort(int i){
+      int q=offset(i,1);
+      return littleEndian?ByteArrayAccess.getShortLE(b,q):ByteArrayAccess.getShortBE(b,q);
+    }
+    @Override
+    public Object get(int i){
+      return getShort(i);
+    }
+    @Override
+    public short[] toArray(){
+      short[] a=new short[n];
+      ByteArrayAccess.getShorts(b,p,a,0,n,littleEndian);
+      return a;
+    }
+  }
+  /** {@code IntColumn} is a view of an int vector (type 6) */
+  public static final class IntColumn extends ColumnView{
+    IntColumn(byte[] b,int p,int n,boolean littleEndian){
+      super(b,p,n,4,littleEndian);
+    }
+    @Override
+    public int type(){
+      return 6;
+    }
+    /**
+     * Returns an element of the vector
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public int getInt(int i){
+      int q=offset(i,2);
+      return littleEndian?ByteArrayAccess.getIntLE(b,q):ByteArrayAccess.getIntBE(b,q);
+    }
+    @Override
+    public Object get(int i){
+      return getInt(i);
+    }
+    @Override
+    public int[] toArray(){
+      int[] a=new int[n];
+      ByteArrayAccess.getInts(b,p,a,0,n,littleEndian);
+      return a;
+    }
+  }
+  /** {@code LongColumn} is a view of a long vector (type 7) */
+  public static final class LongColumn extends ColumnView{
+    LongColumn(byte[] b,int p,int n,boolean littleEndian){
+      super(b,p,n,8,littleEndian);
+    }
+    @Override
+    public int type(){
+      return 7;
+    }
+    /**
+     * Returns an element of the vector
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public long getLong(int i){
+      int q=offset(i,3);
+      return littleEndian?ByteArrayAccess.getLongLE(b,q):ByteArrayAccess.getLongBE(b,q);
+    }
+    @Override
+    public Object get(int i){
+      return getLong(i);
+    }
+    @Override
+    public long[] toArray(){
+      long[] a=new long[n];
+      ByteArrayAccess.getLongs(b,p,a,0,n,littleEndian);
+      return a;
+    }
+  }
+  /** {@code FloatColumn} is a view of a real vector (type 8) */
+  public static final class FloatColumn extends ColumnView{
+    FloatColumn(byte[] b,int p,int n,boolean littleEndian){
+      super(b,p,n,4,littleEndian);
+    }
+    @Override
+    public int type(){
+      return 8;
+    }
+    /**
+     * Returns an element of the vector
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public float getFloat(int i){
+      int q=offset(i,2);
+      return Float.intBitsToFloat(littleEndian?ByteArrayAccess.getIntLE(b,q):ByteArrayAccess.getIntBE(b,q));
+    }
+    @Override
+    public Object get(int i){
+      return getFloat(i);
+    }
+    @Override
+    public float[] toArray(){
+      float[] a=new float[n];
+      ByteArrayAccess.getFloats(b,p,a,0,n,littleEndian);
+      return a;
+    }
+  }
+  /** {@code DoubleColumn} is a view of a float vector (type 9) */
+  public static final class DoubleColumn extends ColumnView{
+    DoubleColumn(byte[] b,int p,int n,boolean littleEndian){
+      super(b,p,n,8,littleEndian);
+    }
+    @Override
+    public int type(){
+      return 9;
+    }
+    /**
+     * Returns an element of the vector
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public double getDouble(int i){
+      int q=offset(i,3);
+      return Double.longBitsToDouble(littleEndian?ByteArrayAccess.getLongLE(b,q):ByteArrayAccess.getLongBE(b,q));
+    }
+    @Override
+    public Object get(int i){
+      return getDouble(i);
+    }
+    @Override
+    public double[] toArray(){
+      double[] a=new double[n];
+      ByteArrayAccess.getDoubles(b,p,a,0,n,littleEndian);
+      return a;
+    }
+  }
+  /**
+   * {@code IntTemporalColumn} is a temporal vector held as the int values by which kdb+ represents it, creating the
+   * corresponding objects only as they are accessed
+   */
+  public abstract static class IntTemporalColumn extends Column{
+    /** Values, of which the first {@code n} are elements of the vector */
+    final int[] a;
+    /** Number of elements */
+    final int n;
+    IntTemporalColumn(int[] a,int n){
+      if(n<0||n>a.length)
+        throw new IllegalArgumentException("Length "+n+" out of range for an array of "+a.length);
+      this.a=a;
+      this.n=n;
+    }
+    @Override
+    public int size(){
+      return n;
+    }
+    /**
+     * Returns the kdb+ representation of an element, e.g. days since 2000.01.01 for a date
+     * @param i index of the element
+     * @return the int value of the element at {@code i}
+     */
+    public int getInt(int i){
+      if(i>=n)
+        throw new IndexOutOfBoundsException("Index "+i+" out of bounds for length "+n);
+      return a[i];
+    }
+    /**
+     * Returns the array holding the elements, which is not copied and may be longer than the vector
+     * @return the backing array
+     */
+    public int[] values(){
+      return a;
+    }
+    @Override
+    void write(byte[] b,int p,int off,int len){
+      ByteArrayAccess.putIntsLE(b,p,a,off,len);
+    }
+  }
+  /**
+   * {@code LongTemporalColumn} is a temporal vector held as the long values by which kdb+ represents it, creating the
+   * corresponding objects only as they are accessed
+   */
+  public abstract static class LongTemporalColumn extends Column{
+    /** Values, of which the first {@code n} are elements of the vector */
+    final long[] a;
+    /** Number of elements */
+    final int n;
+    LongTemporalColumn(long[] a,int n){
+      if(n<0||n>a.length)
+        throw new IllegalArgumentException("Length "+n+" out of range for an array of "+a.length);
+      this.a=a;
+      this.n=n;
+    }
+    @Override
+    public int size(){
+      return n;
+    }
+    /**
+     * Returns the kdb+ representation of an element, e.g. nanoseconds since 2000.01.01 for a timestamp
+     * @param i index of the element
+     * @return the long value of the element at {@code i}
+     */
+    public long getLong(int i){
+      if(i>=n)
+        throw new IndexOutOfBoundsException("Index "+i+" out of bounds for length "+n);
+      return a[i];
+    }
+    /**
+     * Returns the array holding the elements, which is not copied and may be longer than the vector
+     * @return the backing array
+     */
+    public long[] values(){
+      return a;
+    }
+    @Override
+    void write(byte[] b,int p,int off,int len){
+      ByteArrayAccess.putLongsLE(b,p,a,off,len);
+    }
+  }
+  /** {@code TimestampColumn} is a timestamp vector (type 12) held as nanoseconds since 2000.01.01 */
+  public static final class TimestampColumn extends LongTemporalColumn{
+    /**
+     * Create a timestamp vector
+     * @param nanos nanoseconds since 2000.01.01 of each element, with {@link c#nj} for null
+     */
+    public TimestampColumn(long[] nanos){
+      this(nanos,nanos.length);
+    }
+    /**
+     * Create a timestamp vector from the start of an array
+     * @param nanos nanoseconds since 2000.01.01 of each element, with {@link c#nj} for null
+     * @param n number of elements
+     */
+    public TimestampColumn(long[] nanos,int n){
+      super(nanos,n);
+    }
+    @Override
+    public int type(){
+      return 12;
+    }
+    /**
+     * Returns an element as an Instant
+     * @param i index of the element
+     * @return the element at {@code i}, or Instant.MIN if null
+     */
+    public Instant getInstant(int i){
+      return instant(getLong(i));
+    }
+    @Override
+    public Object get(int i){
+      return getInstant(i);
+    }
+    @Override
+    public Instant[] toArray(){
+      Instant[] x=new Instant[n];
+      for(int i=0;i<n;i++)
+        x[i]=instant(a[i]);
+      return x;
+    }
+  }
+  /** {@code TimespanColumn} is a timespan vector (type 16) held as nanoseconds */
+  public static final class TimespanColumn extends LongTemporalColumn{
+    /**
+     * Create a timespan vector
+     * @param nanos nanoseconds of each element, with {@link c#nj} for null
+     */
+    public TimespanColumn(long[] nanos){
+      this(nanos,nanos.length);
+    }
+    /**
+     * Create a timespan vector from the start of an array
+     * @param nanos nanoseconds of each element, with {@link c#nj} for null
+     * @param n number of elements
+     */
+    public TimespanColumn(long[] nanos,int n){
+      super(nanos,n);
+    }
+    @Override
+    public int type(){
+      return 16;
+    }
+    /**
+     * Returns an element as a Timespan
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public Timespan getTimespan(int i){
+      return new Timespan(getLong(i));
+    }
+    @Override
+    public Object get(int i){
+      return getTimespan(i);
+    }
+    @Override
+    public Timespan[] toArray(){
+      Timespan[] x=new Timespan[n];
+      for(int i=0;i<n;i++)
+        x[i]=new Timespan(a[i]);
+      return x;
+    }
+  }
+  /** {@code MonthColumn} is a month vector (type 13) held as months since 2000.01 */
+  public static final class MonthColumn extends IntTemporalColumn{
+    /**
+     * Create a month vector
+     * @param months months since 2000.01 of each element, with {@link c#ni} for null
+     */
+    public MonthColumn(int[] months){
+      this(months,months.length);
+    }
+    /**
+     * Create a month vector from the start of an array
+     * @param months months since 2000.01 of each element, with {@link c#ni} for null
+     * @param n number of elements
+     */
+    public MonthColumn(int[] months,int n){
+      super(months,n);
+    }
+    @Override
+    public int type(){
+      return 13;
+    }
+    /**
+     * Returns an element as a Month
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public Month getMonth(int i){
+      return new Month(getInt(i));
+    }
+    @Override
+    public Object get(int i){
+      return getMonth(i);
+    }
+    @Override
+    public Month[] toArray(){
+      Month[] x=new Month[n];
+      for(int i=0;i<n;i++)
+        x[i]=new Month(a[i]);
+      return x;
+    }
+  }
+  /** {@code DateColumn} is a date vector (type 14) held as days since 2000.01.01 */
+  public static final class DateColumn extends IntTemporalColumn{
+    /**
+     * Create a date vector
+     * @param days days since 2000.01.01 of each element, with {@link c#ni} for null
+     */
+    public DateColumn(int[] days){
+      this(days,days.length);
+    }
+    /**
+     * Create a date vector from the start of an array
+     * @param days days since 2000.01.01 of each element, with {@link c#ni} for null
+     * @param n number of elements
+     */
+    public DateColumn(int[] days,int n){
+      super(days,n);
+    }
+    @Override
+    public int type(){
+      return 14;
+    }
+    /**
+     * Returns an element as a LocalDate
+     * @param i index of the element
+     * @return the element at {@code i}, or LocalDate.MIN if null
+     */
+    public LocalDate getLocalDate(int i){
+      return localDate(getInt(i));
+    }
+    @Override
+    public Object get(int i){
+      return getLocalDate(i);
+    }
+    @Override
+    public LocalDate[] toArray(){
+      LocalDate[] x=new LocalDate[n];
+      for(int i=0;i<n;i++)
+        x[i]=localDate(a[i]);
+      return x;
+    }
+  }
+  /** {@code MinuteColumn} is a minute vector (type 17) held as minutes since midnight */
+  public static final class MinuteColumn extends IntTemporalColumn{
+    /**
+     * Create a minute vector
+     * @param minutes minutes since midnight of each element, with {@link c#ni} for null
+     */
+    public MinuteColumn(int[] minutes){
+      this(minutes,minutes.length);
+    }
+    /**
+     * Create a minute vector from the start of an array
+     * @param minutes minutes since midnight of each element, with {@link c#ni} for null
+     * @param n number of elements
+     */
+    public MinuteColumn(int[] minutes,int n){
+      super(minutes,n);
+    }
+    @Override
+    public int type(){
+      return 17;
+    }
+    /**
+     * Returns an element as a Minute
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public Minute getMinute(int i){
+      return new Minute(getInt(i));
+    }
+    @Override
+    public Object get(int i){
+      return getMinute(i);
+    }
+    @Override
+    public Minute[] toArray(){
+      Minute[] x=new Minute[n];
+      for(int i=0;i<n;i++)
+        x[i]=new Minute(a[i]);
+      return x;
+    }
+  }
+  /** {@code SecondColumn} is a second vector (type 18) held as seconds since midnight */
+  public static final class SecondColumn extends IntTemporalColumn{
+    /**
+     * Create a second vector
+     * @param seconds seconds since midnight of each element, with {@link c#ni} for null
+     */
+    public SecondColumn(int[] seconds){
+      this(seconds,seconds.length);
+    }
+    /**
+     * Create a second vector from the start of an array
+     * @param seconds seconds since midnight of each element, with {@link c#ni} for null
+     * @param n number of elements
+     */
+    public SecondColumn(int[] seconds,int n){
+      super(seconds,n);
+    }
+    @Override
+    public int type(){
+      return 18;
+    }
+    /**
+     * Returns an element as a Second
+     * @param i index of the element
+     * @return the element at {@code i}
+     */
+    public Second getSecond(int i){
+      return new Second(getInt(i));
+    }
+    @Override
+    public Object get(int i){
+      return getSecond(i);
+    }
+    @Override
+    public Second[] toArray(){
+      Second[] x=new Second[n];
+      for(int i=0;i<n;i++)
+        x[i]=new Second(a[i]);
+      return x;
+    }
+  }
+  /** {@code TimeColumn} is a time vector (type 19) held as milliseconds since midnight */
+  public static final class TimeColumn extends IntTemporalColumn{
+    /**
+     * Create a time vector
+     * @param millis milliseconds since midnight of each element, with {@link c#ni} for null
+     */
+    public TimeColumn(int[] millis){
+      this(millis,millis.length);
+    }
+    /**
+     * Create a time vector from the start of an array
+     * @param millis milliseconds since midnight of each element, with {@link c#ni} for null
+     * @param n number of elements
+     */
+    public TimeColumn(int[] millis,int n){
+      super(millis,n);
+    }
+    @Override
+    public int type(){
+      return 19;
+    }
+    /**
+     * Returns an element as a LocalTime
+     * @param i index of the element
+     * @return the element at {@code i}, or {@link c#LOCAL_TIME_NULL} if null
+     */
+    public LocalTime getLocalTime(int i){
+      return localTime(getInt(i));
+    }
+    @Override
+    public Object get(int i){
+      return getLocalTime(i);
+    }
+    @Override
+    public LocalTime[] toArray(){
+      LocalTime[] x=new LocalTime[n];
+      for(int i=0;i<n;i++)
+        x[i]=localTime(a[i]);
+      return x;
+    }
+  }
+  /** {@code DatetimeColumn} is a datetime vector (type 15) held as fractional days since 2000.01.01 */
+  public static final class DatetimeColumn extends Column{
+    /** Values, of which the first {@code n} are elements of the vector */
+    final double[] a;
+    /** Number of elements */
+    final int n;
+    /**
+     * Create a datetime vector
+     * @param days days since 2000.01.01 of each element, with the fraction of the day as the fractional part, and NaN for null
+     */
+    public DatetimeColumn(double[] days){
+      this(days,days.length);
+    }
+    /**
+     * Create a datetime vector from the start of an array
+     * @param days days since 2000.01.01 of each element, with the fraction of the day as the fractional part, and NaN for null
+     * @param n number of elements
+     */
+    public DatetimeColumn(double[] days,int n){
+      if(n<0||n>days.length)
+        throw new IllegalArgumentException("Length "+n+" out of range for an array of "+days.length);
+      a=days;
+      this.n=n;
+    }
+    @Override
+    public int type(){
+      return 15;
+    }
+    @Override
+    public int size(){
+      return n;
+    }
+    /**
+     * Returns the kdb+ representation of an element
+     * @param i index of the element
+     * @return days since 2000.01.01 of the element at {@code i}
+     */
+    public double getDouble(int i){
+      if(i>=n)
+        throw new IndexOutOfBoundsException("Index "+i+" out of bounds for length "+n);
+      return a[i];
+    }
+    /**
+     * Returns the array holding the elements, which is not copied and may be longer than the vector
+     * @return the backing array
+     */
+    public double[] values(){
+      return a;
+    }
+    /**
+     * Returns an element as a LocalDateTime
+     * @param i index of the element
+     * @return the element at {@code i}, or LocalDateTime.MIN if null
+     */
+    public LocalDateTime getLocalDateTime(int i){
+      return localDateTime(getDouble(i));
+    }
+    @Override
+    public Object get(int i){
+      return getLocalDateTime(i);
+    }
+    @Override
+    public LocalDateTime[] toArray(){
+      LocalDateTime[] x=new LocalDateTime[n];
+      for(int i=0;i<n;i++)
+        x[i]=localDateTime(a[i]);
+      return x;
+    }
+    @Override
+    void write(byte[] b,int p,int off,int len){
+      ByteArrayAccess.putDoublesLE(b,p,a,off,len);
+    }
+  }
+  /**
+   * {@code SymbolColumn} is a symbol vector (type 11) held as a code per element indexing a dictionary of distinct symbols,
+   * which is typically much smaller than the vector. When it is serialized each symbol in the dictionary is encoded once, and
+   * the encoded bytes copied for each element.
+   */
+  public static final class SymbolColumn extends Column{
+    /** Codes, of which the first {@code n} are elements of the vector */
+    final int[] codes;
+    /** Number of elements */
+    final int n;
+    /** Distinct symbols, indexed by the codes */
+    final String[] dictionary;
+    /** The dictionary as last encoded */
+    private volatile EncodedDictionary encoded;
+    /** The symbols of a dictionary encoded, with their null terminators, in a charset */
+    private static final class EncodedDictionary{
+      final Charset charset;
+      final byte[][] symbols;
+      EncodedDictionary(Charset charset,byte[][] symbols){
+        this.charset=charset;
+        this.symbols=symbols;
+      }
+    }
+    /**
+     * Create a symbol vector
+     * @param codes index in {@code dictionary} of each element
+     * @param dictionary distinct symbols
+     */
+    public SymbolColumn(int[] codes,String[] dictionary){
+      this(codes,codes.length,dictionary);
+    }
+    /**
+     * Create a symbol vector from the start of an array of codes
+     * @param codes index in {@code dictionary} of each element
+     * @param n number of elements
+     * @param dictionary distinct symbols
+     */
+    public SymbolColumn(int[] codes,int n,String[] dictionary){
+      if(n<0||n>codes.length)
+        throw new IllegalArgumentException("Length "+n+" out of range for an array of "+codes.length);
+      this.codes=codes;
+      this.n=n;
+      this.dictionary=dictionary;
+    }
+    /**
+     * Create a symbol vector from the start of an array of codes, with its dictionary already encoded
+     * @param codes index in {@code dictionary} of each element
+     * @param n number of elements
+     * @param dictionary distinct symbols
+     * @param encoded the symbols of {@code dictionary} encoded
+     */
+    SymbolColumn(int[] codes,int n,String[] dictionary,EncodedDictionary encoded){
+      this(codes,n,dictionary);
+      this.encoded=encoded;
+    }
+    @Override
+    public int type(){
+      return 11;
+    }
+    @Override
+    public int size(){
+      return n;
+    }
+    /**
+     * Returns the code of an element
+     * @param i index of the element
+     * @return index in the dictionary of the element at {@code i}
+     */
+    public int getCode(int i){
+      if(i>=n)
+        throw new IndexOutOfBoundsException("Index "+i+" out of bounds for length "+n);
+      return codes[i];
+    }
+    /**
+     * Returns the array holding the codes, which is not copied and may be longer than the vector
+     * @return the backing array of codes
+     */
+    public int[] codes(){
+      return codes;
+    }
+    /**
+     * Returns the dictionary of distinct symbols, which is not copied
+     * @return the dictionary
+     */
+    public String[] dictionary(){
+      return dictionary;
+    }
+    /**
+     * Returns an element
+     * @param i index of the element
+     * @return the symbol at {@code i}
+     */
+    public String getString(int i){
+      return dictionary[getCode(i)];
+    }
+    @Override
+    public Object get(int i){
+      return getString(i);
+    }
+    @Override
+    public String[] toArray(){
+      String[] x=new String[n];
+      for(int i=0;i<n;i++)
+        x[i]=dictionary[codes[i]];
+      return x;
+    }
+    /**
+     * Returns the symbols of the dictionary encoded with their null terminators, encoding them if the dictionary has not
+     * already been encoded in {@code charset}
+     * @param charset the encoding
+     * @return the encoded symbols, indexed by code
+     */
+    byte[][] encode(Charset charset){
+      EncodedDictionary e=encoded;
+      if(e==null||!e.charset.equals(charset)){
+        byte[][] symbols=new byte[dictionary.length][];
+        for(int i=0;i<symbols.length;i++)
+          symbols[i]=encodeSymbol(dictionary[i],charset);
+        encoded=e=new EncodedDictionary(charset,symbols);
+      }
+      return e.symbols;
+    }
+    @Override
+    void write(byte[] b,int p,int off,int len){
+      byte[][] symbols=encode(encoding);
+      for(int i=off;i<off+len;i++){
+        byte[] v=symbols[codes[i]];
+        System.arraycopy(v,0,b,p,v.length);
+        p+=v.length;
+      }
+    }
+  }
+  /**
+   * {@code FlipBuilder} accumulates the rows of a table, e.g. those of a feed, in growable primitive columns, so that they can
+   * be batched without an object per row or per element, and sent as a single table. Each row is added a value at a time, in
+   * the order of the columns, by the overload of {@code add} for the column's type:
+   * <pre>
+   * FlipBuilder rows=new FlipBuilder(new String[]{"time","sym","price","size"},"nsfj");
+   * rows.add(nanos).add("AAPL").add(93.5).add(300L);
+   * ...
+   * rows.flush(c,".u.upd","trade");
+   * </pre>
+   * <p>
+   * The types are given as q type chars: {@code j} long, {@code i} int, {@code f} float, {@code s} symbol, {@code p}
+   * timestamp and {@code n} timespan, of which temporal values are added as nanoseconds since 2000.01.01 and nanoseconds
+   * respectively. Long, int and float columns are held in their serialized form, so are written to a message by a single
+   * copy; symbols are held as codes indexing a dictionary of distinct symbols, which is kept from one batch to the next,
+   * each encoded once when it is first added. The dictionary is discarded when the builder is cleared once it holds more
+   * than {@link #setMaxSymbols(int) a maximum} number of symbols, so that it does not grow without bound.
+   * </p>
+   * <p>
+   * Instances are not thread-safe.
+   * </p>
+   */
+  public static class FlipBuilder{
+    private final String[] names;
+    private final char[] types;
+    /** Serialized little endian values of long, int and float columns, or null */
+    private final byte[][] bytes;
+    /** Values of timestamp and timespan columns, or null */
+    private final long[][] longs;
+    /** Codes of symbol columns, or null */
+    private final int[][] codes;
+    /** Index of each distinct symbol in the dictionary */
+    private final HashMap<String,Integer> index=new HashMap<>();
+    private String[] dictionary=new String[16];
+    /** Each symbol of the dictionary encoded in {@code charset}, with its null terminator */
+    private byte[][] encoded=new byte[16][];
+    private Charset charset=encoding;
+    private int symbols;
+    private int maxSymbols=1<<16;
+    /** The used part of the dictionary, as last passed to a {@link SymbolColumn}, or null if the dictionary has since grown */
+    private String[] shared;
+    /** The encoded symbols of {@code shared} */
+    private SymbolColumn.EncodedDictionary sharedEncoded;
+    private int rows;
+    /** Index of the column to which the next value is added */
+    private int column;
+    /** Width in bytes of the values of a row, excluding symbols */
+    private int width;
+    /** Length of the symbols added, with their terminators */
+    private long symbolBytes;
+    /**
+     * Creates a builder for a table of the given columns, with an initial capacity of 1024 rows
+     * @param names Names of the columns
+     * @param types q type char of each column: one of {@code jifspn}
+     * @throws IllegalArgumentException if the number of types differs from the number of columns, or a type is unsupported
+     */
+    public FlipBuilder(String[] names,String types){
+      this(names,types,1024);
+    }
+    /**
+     * Creates a builder for a table of the given columns
+     * @param names Names of the columns
+     * @param types q type char of each column: one of {@code jifspn}
+     * @param capacity Number of rows for which space is initially allocated
+     * @throws IllegalArgumentException if the number of types differs from the number of columns, or a type is unsupported
+     */
+    public FlipBuilder(String[] names,String types,int capacity){
+      if(names.length!=types.length())
+        throw new IllegalArgumentException("Expected a type for each of "+names.length+" columns, got "+types.length());
+      this.names=names.clone();
+      this.types=types.toCharArray();
+      bytes=new byte[names.length][];
+      longs=new long[names.length][];
+      codes=new int[names.length][];
+      capacity=Math.max(1,capacity);
+      for(int i=0;i<names.length;i++){
+        switch(this.types[i]){
+          case 'j':
+          case 'f':
+            bytes[i]=new byte[8*capacity];
+            break;
+          case 'i':
+            bytes[i]=new byte[4*capacity];
+            break;
+          case 'p':
+          case 'n':
+            longs[i]=new long[capacity];
+            break;
+          case 's':
+            codes[i]=new int[capacity];
+            break;
+          default:
+            throw new IllegalArgumentException("Unsupported type '"+this.types[i]+"' for column "+names[i]);
+        }
+        width+=this.types[i]=='i'?4:this.types[i]=='s'?0:8;
+      }
+    }
+    /**
+     * Returns the number of rows added
+     * @return the number of complete rows
+     */
+    public int size(){
+      return rows;
+    }
+    /**
+     * Sets the number of distinct symbols above which the dictionary is discarded when the builder is
+     * {@link #clear() cleared}, the default being 65536
+     * @param maxSymbols the maximum number of symbols kept from one batch to the next
+     * @throws IllegalArgumentException if {@code maxSymbols} is not positive
+     */
+    public void setMaxSymbols(int maxSymbols){
+      if(maxSymbols<1)
+        throw new IllegalArgumentException("Maximum symbols must be at least 1, got "+maxSymbols);
+      this.maxSymbols=maxSymbols;
+    }
+    /**
+     * Returns the number of distinct symbols in the dictionary
+     * @return the number of symbols
+     */
+    public int symbols(){
+      return symbols;
+    }
+    /**
+     * Returns the length of the rows added when serialized, excluding the table's header and column names
+     * @return the length of the values in bytes
+     */
+    public long dataSize(){
+      return (long)rows*width+symbolBytes;
+    }
+    /**
+     * Discards the values added to an incomplete row, so that the next value added starts a new row
+     */
+    public void discardRow(){
+      column=0;
+    }
+    /**
+     * Returns the index of the column to which the next value is added, and checks its type
+     * @param type expected type
+     * @param alt alternative expected type, or the same
+     * @param alt2 another alternative expected type, or the same
+     * @return the index of the column
+     */
+    private int next(char type,char alt,char alt2){
+      char t=types[column];
+      if(t!=type&&t!=alt&&t!=alt2)
+        throw new IllegalArgumentException("Column "+names[column]+" is of type "+t+", not "+type);
+      return column;
+    }
+    /** Moves to the next column, completing the row after the last */
+    private FlipBuilder advance(){
+      if(++column==types.length){
+        column=0;
+        rows++;
+      }
+      return this;
+    }
+    /**
+     * Ensures a column of serialized values has space for another
+     * @param i index of the column
+     * @param width width of a value in bytes
+     * @return the column
+     */
+    private byte[] room(int i,int width){
+      byte[] b=bytes[i];
+      if((rows+1)*width>b.length)
+        bytes[i]=b=Arrays.copyOf(b,Math.max(2*b.length,(rows+1)*width));
+      return b;
+    }
+    /**
+     * Adds a value to a long, timestamp or timespan column
+     * @param x the value, or {@link c#nj} for null; nanoseconds since 2000.01.01 for a timestamp
+     * @return this builder
+     * @throws IllegalArgumentException if the next column is not of one of those types
+     */
+    public FlipBuilder add(long x){
+      int i=next('j','p','n');
+      if(types[i]=='j')
+        ByteArrayAccess.putLongLE(room(i,8),8*rows,x);
+      else{
+        long[] a=longs[i];
+        if(rows==a.length)
+          longs[i]=a=Arrays.copyOf(a,2*a.length);
+        a[rows]=x;
+      }
+      return advance();
+    }
+    /**
+     * Adds a value to an int column, or to a long, timestamp or timespan column
+     * @param x the value, or {@link c#ni} for null
+     * @return this builder
+     * @throws IllegalArgumentException if the next column is not of one of those types
+     */
+    public FlipBuilder add(int x){
+      if(types[column]!='i')
+        return add(x==ni?nj:(long)x);
+      ByteArrayAccess.putIntLE(room(column,4),4*rows,x);
+      return advance();
+    }
+    /**
+     * Adds a value to a float column
+     * @param x the value, or {@link c#nf} for null
+     * @return this builder
+     * @throws IllegalArgumentException if the next column is not a float column
+     */
+    public FlipBuilder add(double x){
+      int i=next('f','f','f');
+      ByteArrayAccess.putLongLE(room(i,8),8*rows,Double.doubleToRawLongBits(x));
+      return advance();
+    }
+    /**
+     * Adds a value to a symbol column
+     * @param x the symbol, or null for an empty symbol
+     * @return this builder
+     * @throws IllegalArgumentException if the next column is not a symbol column
+     */
+    public FlipBuilder add(String x){
+      int i=next('s','s','s');
+      if(x==null)
+        x="";
+      Integer code=index.get(x);
+      if(code==null){
+        if(symbols==dictionary.length){
+          dictionary=Arrays.copyOf(dictionary,2*symbols);
+          encoded=Arrays.copyOf(encoded,2*symbols);
+        }
+        dictionary[symbols]=x;
+        encoded[symbols]=encodeSymbol(x,charset);
+        code=symbols++;
+        index.put(x,code);
+        shared=null;
+      }
+      int[] a=codes[i];
+      if(rows==a.length)
+        codes[i]=a=Arrays.copyOf(a,2*a.length);
+      a[rows]=code;
+      symbolBytes+=encoded[code].length;
+      return advance();
+    }
+    private void checkRows(){
+      if(column!=0)
+        throw new IllegalStateException("Row "+rows+" is incomplete, with "+column+" of "+types.length+" columns added");
+    }
+    /**
+     * Returns the rows added as a table whose columns are views of the builder's buffers, which is valid until the next
+     * row is added or the builder is cleared. Serializing it copies the values of each column as they are held.
+     * Long, int and float columns are {@link LongColumn}, {@link IntColumn} and {@link DoubleColumn}, timestamps and
+     * timespans {@link TimestampColumn} and {@link TimespanColumn}, and symbols a {@link SymbolColumn}.
+     * @return the table
+     * @throws IllegalStateException if a row is incomplete
+     */
+    public Flip view(){
+      checkRows();
+      if(!charset.equals(encoding)){
+        charset=encoding;
+        symbolBytes=0;
+        for(int i=0;i<symbols;i++)
+          encoded[i]=encodeSymbol(dictionary[i],charset);
+        for(int j=0;j<types.length;j++)
+          if(types[j]=='s')
+            for(int i=0;i<rows;i++)
+              symbolBytes+=encoded[codes[j][i]].length;
+        shared=null;
+      }
+      if(shared==null){
+        shared=Arrays.copyOf(dictionary,symbols);
+        sharedEncoded=new SymbolColumn.EncodedDictionary(charset,Arrays.copyOf(encoded,symbols));
+      }
+      Object[] y=new Object[types.length];
+      for(int i=0;i<y.length;i++){
+        switch(types[i]){
+          case 'j':
+            y[i]=new LongColumn(bytes[i],0,rows,true);
+            break;
+          case 'i':
+            y[i]=new IntColumn(bytes[i],0,rows,true);
+            break;
+          case 'f':
+            y[i]=new DoubleColumn(bytes[i],0,rows,true);
+            break;
+          case 'p':
+            y[i]=new TimestampColumn(longs[i],rows);
+            break;
+          case 'n':
+            y[i]=new TimespanColumn(longs[i],rows);
+            break;
+          default:
+            y[i]=new SymbolColumn(codes[i],rows,shared,sharedEncoded);
+        }
+      }
+      return new Flip(names.clone(),y);
+    }
+    /**
+     * Returns a copy of the rows added as a table, independent of the builder. Long, int and float columns are arrays,
+     * and the other columns as returned by {@link #view()}.
+     * @return the table
+     * @throws IllegalStateException if a row is incomplete
+     */
+    public Flip build(){
+      Flip f=view();
+      for(int i=0;i<types.length;i++){
+        switch(types[i]){
+          case 'j':
+          case 'i':
+          case 'f':
+            f.y[i]=((Column)f.y[i]).toArray();
+            break;
+          case 'p':
+            f.y[i]=new TimestampColumn(Arrays.copyOf(longs[i],rows));
+            break;
+          case 'n':
+            f.y[i]=new TimespanColumn(Arrays.copyOf(longs[i],rows));
+            break;
+          default:
+            f.y[i]=new SymbolColumn(Arrays.copyOf(codes[i],rows),rows,shared,sharedEncoded);
+        }
+      }
+      return f;
+    }
+    /**
+     * Sends the rows added as an async message calling a function with a table name and the table, e.g.
+     * {@code .u.upd[`trade;table]}, serialized directly from the builder's buffers, then clears the builder. Nothing is sent
+     * if no rows have been added.
+     * @param c The connection to send on
+     * @param function The function to call
+     * @param table The name of the table
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if a row is incomplete
+     */
+    public void flush(c c,String function,String table)throws IOException{
+      if(rows==0){
+        checkRows();
+        return;
+      }
+      c.ks(function,table,view());
+      clear();
+    }
+    /**
+     * Removes the rows added, keeping the buffers, and the dictionary of symbols unless it holds more than the
+     * {@link #setMaxSymbols(int) maximum}, for those added next
+     */
+    public void clear(){
+      rows=0;
+      column=0;
+      symbolBytes=0;
+      if(symbols>maxSymbols)
+        clearSymbols();
+    }
+    /**
+     * Discards the dictionary of symbols, which must not be referenced by the rows added
+     */
+    private void clearSymbols(){
+      index.clear();
+      dictionary=new String[16];
+      encoded=new byte[16][];
+      symbols=0;
+      shared=null;
+      sharedEncoded=null;
+    }
+  }
+  /**
+   * {@code Publisher} batches the rows of a feed into tables, and sends each batch as an async call of an update function
+   * such as {@code .u.upd}, so that the cost of a message is shared by many rows. Rows are added to the
+   * {@link FlipBuilder} of a table between {@link Table#begin()} and {@link Table#end()}, by any number of threads:
+   * <pre>
+   * Publisher publisher=new Publisher(c,".u.upd",1000,1&lt;&lt;20,1000000);
+   * Publisher.Table trade=publisher.table("trade",new String[]{"time","sym","price","size"},"nsfj");
+   * FlipBuilder rows=trade.begin();
+   * try{
+   *   rows.add(nanos).add("AAPL").add(93.5).add(300L);
+   * }finally{
+   *   trade.end();
+   * }
+   * </pre>
+   * <p>
+   * A dedicated thread sends a table's batch when it reaches the maximum number of rows or bytes, or when its first row has
+   * waited for the maximum latency. While one batch of a table is being sent, rows are added to another; if that too fills
+   * before the send completes, as when the connection is slow, {@link Table#begin()} blocks until it has, so that the rows
+   * buffered are bounded.
+   * </p>
+   * <p>
+   * Counters of the batches sent, their sizes, and the time their rows waited to be sent, are kept for monitoring. Once a
+   * batch fails to be sent, the publisher fails: the rows of later batches are discarded, and counted, rather than sent.
+   * </p>
+   */
+  public static class Publisher implements Closeable{
+    private final c c;
+    private final String function;
+    private final int maxRows;
+    private final long maxBytes;
+    private final long maxLatency;
+    private final ReentrantLock lock=new ReentrantLock();
+    /** Signalled when a batch may be due */
+    private final Condition due=lock.newCondition();
+    /** Signalled when a batch has been swapped for sending, or sent */
+    private final Condition sent=lock.newCondition();
+    private final ArrayList<Table> tables=new ArrayList<>();
+    private final Thread sender;
+    private boolean closed;
+    private Exception failure;
+    private final AtomicLong batches=new AtomicLong();
+    private final AtomicLong dropped=new AtomicLong();
+    private final AtomicLong rowsSent=new AtomicLong();
+    private final AtomicLong maxBatch=new AtomicLong();
+    private final AtomicLong delay=new AtomicLong();
+    private final AtomicLong maxDelay=new AtomicLong();
+    private final AtomicLong blocked=new AtomicLong();
+    /**
+     * {@code Table} is a table to which a {@link Publisher} batches rows
+     */
+    public final class Table{
+      private final String name;
+      /** Builder to which rows are added */
+      private FlipBuilder current;
+      /** Builder to swap in when the current batch is sent, or null while it is being sent */
+      private FlipBuilder spare;
+      /** When the first row of the current batch was added */
+      private long first;
+      /** Number of rows in the current batch when it was last locked by {@link #begin()} */
+      private int before;
+      Table(String name,String[] columns,String types){
+        this.name=name;
+        current=new FlipBuilder(columns,types);
+        spare=new FlipBuilder(columns,types);
+      }
+      private boolean full(){
+        return current.size()>=maxRows||current.dataSize()>=maxBytes;
+      }
+      /**
+       * Locks the publisher and returns the builder to which to add rows, waiting while the table's batches are full. Must
+       * be followed by {@link #end()}, in a finally block.
+       * @return the builder
+       * @throws IOException if the publisher is closed, or has failed to send a batch
+       */
+      public FlipBuilder begin()throws IOException{
+        lock.lock();
+        boolean waited=false;
+        try{
+          while(failure==null&&!closed&&full()){
+            if(!waited){
+              blocked.incrementAndGet();
+              waited=true;
+            }
+            sent.awaitUninterruptibly();
+          }
+          if(failure!=null)
+            throw new IOException("Publisher failed",failure);
+          if(closed)
+            throw new IOException("Publisher closed");
+          before=current.size();
+          return current;
+        }catch(IOException|RuntimeException e){
+          lock.unlock();
+          throw e;
+        }
+      }
+      /**
+       * Completes adding rows, discarding any incomplete row, and unlocks the publisher
+       */
+      public void end(){
+        try{
+          current.discardRow();
+          boolean started=before==0&&current.size()>0;
+          if(started)
+            first=System.nanoTime();
+          // the sender learns the deadline of a new batch, or sends a full one
+          if(started||full())
+            due.signal();
+        }finally{
+          lock.unlock();
+        }
+      }
+    }
+    /**
+     * Creates a publisher sending batches on a connection
+     * @param c The connection to send on, which the publisher does not close
+     * @param function The function called with the name of a table and a batch of its rows, e.g. {@code .u.upd}
+     * @param maxRows Number of rows at which a batch is sent
+     * @param maxBytes Approximate serialized length at which a batch is sent, as estimated by
+     * {@link FlipBuilder#dataSize()}
+     * @param maxLatencyNanos Time in nanoseconds after which a batch is sent once its first row has been added
+     * @throws IllegalArgumentException if maxRows, maxBytes or maxLatencyNanos is less than 1
+     */
+    public Publisher(c c,String function,int maxRows,long maxBytes,long maxLatencyNanos){
+      if(maxRows<1||maxBytes<1||maxLatencyNanos<1)
+        throw new IllegalArgumentException("Invalid publisher limits: "+maxRows+" rows, "+maxBytes+" bytes, "+maxLatencyNanos+"ns");
+      this.c=c;
+      this.function=function;
+      this.maxRows=maxRows;
+      this.maxBytes=maxBytes;
+      this.maxLatency=maxLatencyNanos;
+      sender=KThreads.start(this::send,"kdb-publisher");
+    }
+    /**
+     * Adds a table to which rows are batched
+     * @param name Name of the table, as passed to the function
+     * @param columns Names of the columns
+     * @param types q type char of each column, as accepted by {@link FlipBuilder#FlipBuilder(String[],String)}
+     * @return the table
+     */
+    public Table table(String name,String[] columns,String types){
+      Table t=new Table(name,columns,types);
+      lock.lock();
+      try{
+        tables.add(t);
+      }finally{
+        lock.unlock();
+      }
+      return t;
+    }
+    /** Sends batches as they become due, until the publisher is closed and every row has been sent */
+    private void send(){
+      lock.lock();
+      try{
+        while(true){
+          long now=System.nanoTime();
+          long wait=Long.MAX_VALUE;
+          Table t=null;
+          for(Table x:tables){
+            if(x.current.size()==0||x.spare==null)
+              continue;
+            if(closed||failure!=null||x.full()||now-x.first>=maxLatency){
+              t=x;
+              break;
+            }
+            wait=Math.min(wait,x.first+maxLatency-now);
+          }
+          if(t==null){
+            if(closed)
+              return;
+            if(wait==Long.MAX_VALUE)
+              due.awaitUninterruptibly();
+            else
+              try{
+                due.awaitNanos(wait);
+              }catch(InterruptedException e){
+                // the sender stops only once the publisher is closed and its rows sent
+              }
+            continue;
+          }
+          FlipBuilder batch=t.current;
+          long first=t.first;
+          int n=batch.size();
+          t.current=t.spare;
+          t.spare=null;
+          sent.signalAll();
+          Exception error=failure;
+          lock.unlock();
+          try{
+            if(error==null){
+              batch.flush(c,function,t.name);
+              record(n,System.nanoTime()-first);
+            }
+          }catch(IOException|RuntimeException e){
+            error=e;
+          }finally{
+            batch.clear();
+            lock.lock();
+            t.spare=batch;
+            sent.signalAll();
+          }
+          if(error!=null){
+            failure=error;
+            dropped.addAndGet(n);
+          }
+        }
+      }finally{
+        lock.unlock();
+      }
+    }
+    private void record(int n,long nanos){
+      batches.incrementAndGet();
+      rowsSent.addAndGet(n);
+      delay.addAndGet(nanos);
+      // only the sender records batches
+      if(n>maxBatch.get())
+        maxBatch.set(n);
+      if(nanos>maxDelay.get())
+        maxDelay.set(nanos);
+    }
+    /**
+     * Returns the number of batches sent
+     * @return the number of batches
+     */
+    public long getBatches(){
+      return batches.get();
+    }
+    /**
+     * Returns the number of rows sent
+     * @return the number of rows
+     */
+    public long getRows(){
+      return rowsSent.get();
+    }
+    /**
+     * Returns the number of rows in the largest batch sent
+     * @return the number of rows
+     */
+    public long getMaxBatchRows(){
+      return maxBatch.get();
+    }
+    /**
+     * Returns the mean time for which the first row of a batch waited before the batch was sent
+     * @return the mean delay in nanoseconds, or 0 if no batch has been sent
+     */
+    public long getMeanDelayNanos(){
+      long n=batches.get();
+      return n==0?0:delay.get()/n;
+    }
+    /**
+     * Returns the longest time for which the first row of a batch waited before the batch was sent
+     * @return the maximum delay in nanoseconds
+     */
+    public long getMaxDelayNanos(){
+      return maxDelay.get();
+    }
+    /**
+     * Returns the number of rows not sent, being those of the batch which failed to be sent and of every batch after it
+     * @return the number of rows
+     */
+    public long getDroppedRows(){
+      return dropped.get();
+    }
+    /**
+     * Returns the number of times {@link Table#begin()} waited for a batch to be sent
+     * @return the number of waits
+     */
+    public long getBlocked(){
+      return blocked.get();
+    }
+    /**
+     * Sends the rows batched, and stops the thread sending them. The connection is not closed.
+     * @throws IOException if a batch could not be sent, in which case {@link #getDroppedRows()} counts the rows lost
+     */
+    @Override
+    public void close()throws IOException{
+      lock.lock();
+      try{
+        closed=true;
+        due.signal();
+        sent.signalAll();
+      }finally{
+        lock.unlock();
+      }
+      try{
+        sender.join();
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new java.io.InterruptedIOException("Interrupted awaiting batches to be sent");
+      }
+      if(failure!=null)
+        throw new IOException("Publisher failed",failure);
+    }
+  }
+  /**
+   * {@code RingWriter} hands async messages from many producer threads to a single thread writing them to a connection,
+   * through a bounded lock-free ring buffer. Each producer serializes its message before enqueuing it, with a codec taken
+   * from a pool rather than that of the connection, so that producers contend only on claiming a slot of the ring, rather
+   * than on the connection's write lock for the whole of serialization and the write. The writer takes the messages in the
+   * order their slots were claimed, coalescing those waiting into as few writes as fit its buffer.
+   * <p>
+   * When the ring is full, producers wait for the writer to free a slot, so that a slow connection bounds the messages
+   * queued: each spins briefly, then blocks until the writer signals that it has freed a slot. Messages are serialized with the ipc version, and the compression settings, of the connection.
+   * </p>
+   */
+  public static class RingWriter implements Closeable{
+    /** Set in {@link #tail} once the writer is closed */
+    private static final long CLOSED=Long.MIN_VALUE;
+    private final c c;
+    private final int mask;
+    private final AtomicReferenceArray<byte[]> slots;
+    /** Sequence number of the message each slot is free to take, or that plus one once it holds it */
+    private final AtomicLongArray sequences;
+    /** Sequence number of the next slot to be claimed, with CLOSED set once closed */
+    private final AtomicLong tail=new AtomicLong();
+    /** Sequence number of the next message to be written, accessed only by the writer */
+    private long head;
+    /** Codecs serializing messages, each used by one producer at a time */
+    private final ConcurrentLinkedQueue<c> codecs=new ConcurrentLinkedQueue<>();
+    /** Messages coalesced into a single write */
+    private final byte[] buffer;
+    private final Thread writer;
+    /** Whether the writer is parked, or about to park, awaiting a message */
+    private volatile boolean parked;
+    private volatile IOException failure;
+    /** Number of times a producer waiting for a slot yields before it blocks */
+    private static final int SPINS=64;
+    private final ReentrantLock freeLock=new ReentrantLock();
+    /** Signalled when the writer frees a slot while producers are blocked */
+    private final Condition freed=freeLock.newCondition();
+    /** Number of producers blocked awaiting a slot, changed only while holding freeLock */
+    private volatile int blocked;
+    /**
+     * Creates a ring writer for a connection, coalescing messages into writes of up to 64KB
+     * @param c The connection to write to, which the ring writer does not close
+     * @param capacity Number of messages which may be queued, a power of 2
+     * @throws IllegalArgumentException if capacity is not a power of 2
+     */
+    public RingWriter(c c,int capacity){
+      this(c,capacity,65536);
+    }
+    /**
+     * Creates a ring writer for a connection
+     * @param c The connection to write to, which the ring writer does not close
+     * @param capacity Number of messages which may be queued, a power of 2
+     * @param bufferSize Length of the buffer into which messages are coalesced; longer messages are written on their own
+     * @throws IllegalArgumentException if capacity is not a power of 2
+     */
+    public RingWriter(c c,int capacity,int bufferSize){
+      if(capacity<1||Integer.bitCount(capacity)!=1)
+        throw new IllegalArgumentException("Ring capacity must be a power of 2, got "+capacity);
+      this.c=c;
+      mask=capacity-1;
+      slots=new AtomicReferenceArray<>(capacity);
+      sequences=new AtomicLongArray(capacity);
+      for(int i=0;i<capacity;i++)
+        sequences.set(i,i);
+      buffer=new byte[bufferSize];
+      writer=KThreads.start(this::drain,"kdb-ring-writer");
+    }
+    /**
+     * Enqueues an async message
+     * @param x The object to send
+     * @throws IOException if the ring writer is closed or has failed to write
+     */
+    public void ks(Object x)throws IOException{
+      IOException e=failure;
+      if(e!=null)
+        throw new IOException("Ring writer failed",e);
+      c codec=codecs.poll();
+      if(codec==null){
+        codec=new c();
+        codec.ipcVersion=c.ipcVersion;
+        codec.isLoopback=c.isLoopback;
+        codec.setCompressionPolicy(c.compressionPolicy);
+      }
+      byte[] msg;
+      try{
+        msg=codec.serialize(0,x,c.zip);
+      }finally{
+        codecs.offer(codec);
+      }
+      long seq;
+      do{
+        seq=tail.get();
+        if(seq<0)
+          throw new IOException("Ring writer closed");
+      }while(!tail.compareAndSet(seq,seq+1));
+      int i=(int)seq&mask;
+      // the ring is full until the writer has taken the message which last occupied the slot
+      for(int spins=0;sequences.get(i)!=seq;spins++)
+        if(spins<SPINS)
+          Thread.yield();
+        else
+          awaitSlot(i,seq);
+      slots.lazySet(i,msg);
+      sequences.set(i,seq+1);
+      if(parked)
+        LockSupport.unpark(writer);
+    }
+    /**
+     * Blocks until the writer frees a slot for a message
+     * @param i index of the slot
+     * @param seq sequence number of the message
+     */
+    private void awaitSlot(int i,long seq){
+      freeLock.lock();
+      try{
+        blocked++;
+        // the writer frees the slot before reading blocked, so either it signals or the slot is seen to be free
+        while(sequences.get(i)!=seq)
+          freed.awaitUninterruptibly();
+      }finally{
+        blocked--;
+        freeLock.unlock();
+      }
+    }
+    /**
+     * Enqueues an async message evaluating an expression
+     * @param expr The expression to send
+     * @throws IOException if the ring writer is closed or has failed to write
+     */
+    public void ks(String expr)throws IOException{
+      ks((Object)expr.toCharArray());
+    }
+    /**
+     * Enqueues an async message invoking a function with a single argument, e.g. {@code f[x]}
+     * @param s The name of the function
+     * @param x The argument
+     * @throws IOException if the ring writer is closed or has failed to write
+     */
+    public void ks(String s,Object x)throws IOException{
+      ks(new Object[]{s.toCharArray(),x});
+    }
+    /**
+     * Enqueues an async message invoking a function with two arguments, e.g. {@code .u.upd[`trade;rows]}
+     * @param s The name of the function
+     * @param x The first argument
+     * @param y The second argument
+     * @throws IOException if the ring writer is closed or has failed to write
+     */
+    public void ks(String s,Object x,Object y)throws IOException{
+      ks(new Object[]{s.toCharArray(),x,y});
+    }
+    /**
+     * Enqueues an async message invoking a function with three arguments
+     * @param s The name of the function
+     * @param x The first argument
+     * @param y The second argument
+     * @param z The third argument
+     * @throws IOException if the ring writer is closed or has failed to write
+     */
+    public void ks(String s,Object x,Object y,Object z)throws IOException{
+      ks(new Object[]{s.toCharArray(),x,y,z});
+    }
+    /** Writes the messages enqueued, until the ring writer is closed and every message has been taken */
+    private void drain(){
+      int n=0;
+      while(true){
+        long h=head;
+        int i=(int)h&mask;
+        if(sequences.get(i)==h+1){
+          byte[] msg=slots.get(i);
+          slots.lazySet(i,null);
+          sequences.set(i,h+mask+1);
+          head=h+1;
+          if(blocked>0){
+            freeLock.lock();
+            try{
+              freed.signalAll();
+            }finally{
+              freeLock.unlock();
+            }
+          }
+          // once failed, messages are discarded so that producers waiting for a slot are released
+          if(failure==null)
+            n=append(msg,n);
+          continue;
+        }
+        if(n>0){
+          write(buffer,n);
+          n=0;
+          continue;
+        }
+        long t=tail.get();
+        if(t<0&&(t&~CLOSED)==h)
+          return;
+        if((t&~CLOSED)!=h)
+          Thread.yield();  // a slot has been claimed and is about to be filled
+        else{
+          parked=true;
+          if(sequences.get(i)!=h+1&&tail.get()==t)
+            LockSupport.park(this);
+          parked=false;
+        }
+      }
+    }
+    /**
+     * Adds a message to those coalesced, writing them first if it does not fit
+     * @param msg the message
+     * @param n length of the messages coalesced
+     * @return length of the messages coalesced after adding it
+     */
+    private int append(byte[] msg,int n){
+      if(n+msg.length>buffer.length){
+        if(n>0)
+          write(buffer,n);
+        n=0;
+        if(msg.length>buffer.length){
+          write(msg,msg.length);
+          return 0;
+        }
+      }
+      System.arraycopy(msg,0,buffer,n,msg.length);
+      return n+msg.length;
+    }
+    private void write(byte[] b,int len){
+      if(failure!=null)
+        return;
+      c.writeLock.lock();
+      try{
+        c.write(b,len);
+      }catch(IOException e){
+        failure=e;
+      }finally{
+        c.writeLock.unlock();
+      }
+    }
+    /**
+     * Stops accepting messages, and waits for the writer to write those enqueued. The connection is not closed.
+     * @throws IOException if a message could not be written
+     */
+    @Override
+    public void close()throws IOException{
+      long t;
+      do
+        t=tail.get();
+      while(t>=0&&!tail.compareAndSet(t,t|CLOSED));
+      LockSupport.unpark(writer);
+      try{
+        writer.join();
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new java.io.InterruptedIOException("Interrupted awaiting messages to be written");
+      }
+      if(failure!=null)
+        throw new IOException("Ring writer failed",failure);
+    }
+  }
+  /**
+   * Encodes a symbol as it is serialized, up to any null char it contains, followed by a null terminator
+   * @param s the symbol, or null for an empty symbol
+   * @param charset the encoding
+   * @return the encoded symbol
+   */
+  static byte[] encodeSymbol(String s,Charset charset){
+    if(s==null)
+      return new byte[1];
+    int end=s.indexOf('\000');
+    byte[] b=(end<0?s:s.substring(0,end)).getBytes(charset);
+    return Arrays.copyOf(b,b.length+1);
+  }
+  /**
+   * {@code KException} is used to indicate there was an error generated by the remote process during the processing of a sync message or if the connection failed due to access credentials.
+   * Network errors are reported as IOException.
+   */
+  public static class KException extends Exception{
+    private static final long serialVersionUID = 1554689726734674152L; // autogenerated by serialver kx.c.KException
+    KException(String s){
+      super(s);
+    }
+  }
+  /**
+   * {@code BufferPool} supplies the buffers into which outgoing messages are serialized by {@link #ks(Object) ks},
+   * {@link #k(Object) k}, {@link #kr(Object) kr} and {@link #ke(String) ke}, allowing a connection that publishes at a high
+   * rate to reuse buffers rather than allocate a new array per message.
+   * @see #setBufferPool(BufferPool)
+   */
+  public interface BufferPool{
+    /**
+     * Obtains a buffer of at least {@code size} bytes. The content of the returned buffer is undefined.
+     * @param size Minimum number of bytes required
+     * @return a buffer whose length is greater than or equal to {@code size}
+     */
+    byte[] acquire(int size);
+    /**
+     * Returns a buffer previously obtained from {@link #acquire(int)}, once the message it held has been written.
+     * @param buffer The buffer to return to the pool
+     */
+    void release(byte[] buffer);
+  }
+  /**
+   * {@code ScratchBufferPool} is a grow-only pool intended to be owned by a single connection. It retains the largest
+   * buffers released to it, so once the connection has sent its largest message no further buffers are allocated. A pool
+   * may be bounded, so that the buffers of exceptionally large messages are not retained.
+   * Instances are not thread-safe and should not be shared between connections.
+   */
+  public static class ScratchBufferPool implements BufferPool{
+    /** Retained buffers; two are needed when a message is compressed. */
+    private final byte[][] buffers=new byte[2][];
+    /** Length of the largest buffer retained */
+    private final int maxRetained;
+    /** Creates an empty pool, retaining buffers of any length. */
+    public ScratchBufferPool(){
+      this(Integer.MAX_VALUE);
+    }
+    /**
+     * Creates an empty pool, retaining only buffers of up to the given length
+     * @param maxRetained Length in bytes of the largest buffer retained; longer buffers are dropped when released
+     * @throws IllegalArgumentException if maxRetained is negative
+     */
+    public ScratchBufferPool(int maxRetained){
+      if(maxRetained<0)
+        throw new IllegalArgumentException("Maximum retained length must not be negative, got "+maxRetained);
+      this.maxRetained=maxRetained;
+    }
+    @Override
+    public byte[] acquire(int size){
+      for(int i=0;i<buffers.length;i++){
+        byte[] b=buffers[i];
+        if(b!=null&&b.length>=size){
+          buffers[i]=null;
+          return b;
+        }
+      }
+      // leave some headroom so that messages of slowly increasing size do not regrow the buffer each time, unless that
+      // would make it too long to be retained
+      long length=Math.min(Integer.MAX_VALUE-8L,size+(long)(size>>1));
+      return new byte[(int)(length>maxRetained?size:length)];
+    }
+    @Override
+    public void release(byte[] buffer){
+      if(buffer.length>maxRetained)
+        return;
+      int smallest=-1;
+      for(int i=0;i<buffers.length;i++){
+        if(buffers[i]==null){
+          buffers[i]=buffer;
+          return;
+        }
+        if(smallest<0||buffers[i].length<buffers[smallest].length)
+          smallest=i;
+      }
+      if(buffers[smallest].length<buffer.length)
+        buffers[smallest]=buffer;
+    }
+  }
+  /**
+   * {@code SizeClassBufferPool} is a thread-safe pool which may be shared between many connections. Buffers are
+   * grouped in power of two size classes, each class retaining a bounded number of buffers. Requests larger than the
+   * largest size class are allocated on demand and are not retained.
+   */
+  public static class SizeClassBufferPool implements BufferPool{
+    private final int minShift;
+    private final int maxShift;
+    private final int perClass;
+    private final AtomicReferenceArray<byte[]> slots;
+    /** Creates a pool with size classes from 1KB to 16MB, retaining up to 8 buffers per class. */
+    public SizeClassBufferPool(){
+      this(10,24,8);
+    }
+    /**
+     * Creates a pool with the given size classes.
+     * @param minShift log2 of the smallest buffer size
+     * @param maxShift log2 of the largest buffer size retained by the pool (at most 30)
+     * @param buffersPerClass Maximum number of buffers retained in each size class
+     * @throws IllegalArgumentException if the arguments do not describe a valid range of size classes
+     */
+    public SizeClassBufferPool(int minShift,int maxShift,int buffersPerClass){
+      if(minShift<0||maxShift>30||minShift>maxShift||buffersPerClass<1)
+        throw new IllegalArgumentException("Invalid size classes: minShift="+minShift+", maxShift="+maxShift+", buffersPerClass="+buffersPerClass);
+      this.minShift=minShift;
+      this.maxShift=maxShift;
+      this.perClass=buffersPerClass;
+      slots=new AtomicReferenceArray<>((maxShift-minShift+1)*buffersPerClass);
+    }
+    @Override
+    public byte[] acquire(int size){
+      int shift=Math.max(minShift,32-Integer.numberOfLeadingZeros(size-1));
+      if(shift>maxShift)
+        return new byte[size];
+      int base=(shift-minShift)*perClass;
+      for(int i=base;i<base+perClass;i++){
+        byte[] b=slots.get(i);
+        if(b!=null&&slots.compareAndSet(i,b,null))
+          return b;
+      }
+      return new byte[1<<shift];
+    }
+    @Override
+    public void release(byte[] buffer){
+      int n=buffer.length;
+      int shift=31-Integer.numberOfLeadingZeros(n);
+      if(n!=1<<shift||shift<minShift||shift>maxShift)
+        return; // not allocated by this pool
+      int base=(shift-minShift)*perClass;
+      for(int i=base;i<base+perClass;i++)
+        if(slots.get(i)==null&&slots.compareAndSet(i,null,buffer))
+          return;
+    }
+  }
+  /**
+   * {@code SymbolInternTable} maps the encoded bytes of symbols to the Strings decoded from them, so that a symbol which is
+   * received repeatedly is decoded once and all its occurrences share a single String. A lookup compares the bytes in the
+   * receive buffer with those of the cached symbols, so no objects are created on a hit. The table has a fixed number of
+   * slots, replacing cached symbols as new ones arrive once it is full, and symbols longer than a maximum length are never
+   * cached. It is thread-safe, so may be owned by one connection or shared between many.
+   * @see c#setSymbolInternTable(SymbolInternTable)
+   */
+  public static class SymbolInternTable{
+    /** Number of consecutive slots in which a symbol may be cached */
+    private static final int WAYS=4;
+    private final int maxLength;
+    private final int mask;
+    private final Symbol[] slots;
+    /**
+     * A cached symbol. Immutable, so that it can be published to other threads through the slot array. The bytes of a
+     * symbol of up to 7 bytes are packed into {@code key}, so that it is matched without reading another array.
+     */
+    private static final class Symbol{
+      final long key;
+      final byte[] bytes;
+      final String s;
+      final Charset charset;
+      Symbol(long key,byte[] bytes,String s,Charset charset){
+        this.key=key;
+        this.bytes=bytes;
+        this.s=s;
+        this.charset=charset;
+      }
+    }
+    /** Creates a table of 16384 slots, caching symbols of up to 64 bytes. */
+    public SymbolInternTable(){
+      this(16384,64);
+    }
+    /**
+     * Creates a table of the given size.
+     * @param capacity Number of symbols which can be cached, rounded up to a power of two
+     * @param maxLength Length in bytes of the longest symbol to cache
+     * @throws IllegalArgumentException if capacity is less than 4 or more than 2^30, or maxLength is negative
+     */
+    public SymbolInternTable(int capacity,int maxLength){
+      if(capacity<WAYS||capacity>1<<30||maxLength<0)
+        throw new IllegalArgumentException("Invalid symbol intern table: capacity="+capacity+", maxLength="+maxLength);
+      this.maxLength=maxLength;
+      int size=Integer.highestOneBit(capacity-1)<<1;
+      mask=size-1;
+      slots=new Symbol[size];
+    }
+    /**
+     * Returns the String for the symbol encoded in {@code len} bytes of {@code b}, decoding and caching it if it is not
+     * already cached
+     * @param b buffer holding the encoded symbol
+     * @param off position of the symbol in {@code b}
+     * @param len length of the symbol in bytes, excluding its null terminator
+     * @param charset encoding of the symbol
+     * @return the decoded symbol
+     */
+    String intern(byte[] b,int off,int len,Charset charset){
+      if(len>maxLength)
+        return new String(b,off,len,charset);
+      long key=len;
+      if(len<=7) // the bytes, below the length in the top byte
+        for(int i=off+len-1;i>=off;i--)
+          key=key<<8|(b[i]&0xff);
+      else
+        for(int i=off;i<off+len;i++)
+          key=31*key+b[i];
+      long mixed=key*0x9E3779B97F4A7C15L;
+      int h=(int)(mixed>>>32);
+      int base=h&mask;
+      int free=-1;
+      for(int i=0;i<WAYS;i++){
+        int k=(base+i)&mask;
+        Symbol e=slots[k];
+        if(e==null){
+          if(free<0)
+            free=k;
+        }else if(e.key==key&&e.charset.equals(charset)&&(len<=7?e.bytes==null:e.bytes!=null&&matches(e.bytes,b,off,len)))
+          return e.s;  // a packed key may equal the hash of a longer symbol, so only keys of the same kind match
+      }
+      String s=new String(b,off,len,charset);
+      // when all the slots for this hash are occupied, replace one chosen by bits of the hash not used to index them
+      slots[free>=0?free:(base+((int)mixed>>>30))&mask]=new Symbol(key,len<=7?null:Arrays.copyOfRange(b,off,off+len),s,charset);
+      return s;
+    }
+    private static boolean matches(byte[] key,byte[] b,int off,int len){
+      if(key.length!=len)
+        return false;
+      for(int i=0;i<len;i++)
+        if(key[i]!=b[off+i])
+          return false;
+      return true;
+    }
+  }
+  /**
+   * {@code SymbolEncodingCache} maps symbols to their encoded bytes, so that a symbol which is sent repeatedly is encoded
+   * once. Lookups use the hash code cached by each String, comparing by identity before value. The cache has a fixed number
+   * of slots, replacing cached symbols as new ones are sent once it is full, and symbols longer than a maximum length are
+   * never cached. It is thread-safe, so may be owned by one connection or shared between many.
+   * @see c#setSymbolEncodingCache(SymbolEncodingCache)
+   */
+  public static class SymbolEncodingCache{
+    /** Number of consecutive slots in which a symbol may be cached */
+    private static final int WAYS=4;
+    private final int maxLength;
+    private final int mask;
+    private final Encoded[] slots;
+    /** A cached symbol. Immutable, so that it can be published to other threads through the slot array. */
+    private static final class Encoded{
+      final String s;
+      final byte[] bytes;
+      final Charset charset;
+      Encoded(String s,byte[] bytes,Charset charset){
+        this.s=s;
+        this.bytes=bytes;
+        this.charset=charset;
+      }
+    }
+    /** Creates a cache of 16384 slots, caching symbols of up to 64 chars. */
+    public SymbolEncodingCache(){
+      this(16384,64);
+    }
+    /**
+     * Creates a cache of the given size.
+     * @param capacity Number of symbols which can be cached, rounded up to a power of two
+     * @param maxLength Length in chars of the longest symbol to cache
+     * @throws IllegalArgumentException if capacity is less than 4 or more than 2^30, or maxLength is negative
+     */
+    public SymbolEncodingCache(int capacity,int maxLength){
+      if(capacity<WAYS||capacity>1<<30||maxLength<0)
+        throw new IllegalArgumentException("Invalid symbol encoding cache: capacity="+capacity+", maxLength="+maxLength);
+      this.maxLength=maxLength;
+      int size=Integer.highestOneBit(capacity-1)<<1;
+      mask=size-1;
+      slots=new Encoded[size];
+    }
+    /**
+     * Returns the encoded bytes of a symbol, followed by its null terminator, encoding and caching them if they are not
+     * already cached
+     * @param s the symbol
+     * @param charset the encoding
+     * @return the encoded symbol, which must not be modified, or null if the symbol is too long to cache
+     */
+    byte[] encode(String s,Charset charset){
+      if(s==null||s.length()>maxLength)
+        return null;
+      int h=s.hashCode();
+      h^=h>>>16;
+      int base=h&mask;
+      int free=-1;
+      for(int i=0;i<WAYS;i++){
+        int k=(base+i)&mask;
+        Encoded e=slots[k];
+        if(e==null){
+          if(free<0)
+            free=k;
+        }else if((e.s==s||e.s.equals(s))&&e.charset.equals(charset))
+          return e.bytes;
+      }
+      byte[] b=encodeSymbol(s,charset);
+      // when all the slots for this hash are occupied, replace one chosen by bits of the hash not used to index them
+      slots[free>=0?free:(base+(h>>>30))&mask]=new Encoded(s,b,charset);
+      return b;
+    }
+  }
+  /**
+   * {@code Compressor} compresses and uncompresses kdb+ IPC messages, reusing its hash table, and the buffer messages are
+   * uncompressed into, from one message to the next. Instances are not thread-safe: a connection owns one for the messages
+   * it sends and another for those it receives.
+   * @see <a href="https://code.kx.com/q/ref/ipc/#compression">IPC compression</a>
+   */
+  public static class Compressor{
+    /**
+     * Length below which a message is never compressed, as the 12 bytes of its compressed header, and the 17 bytes of a
+     * flag byte and the 8 items following it, would not fit in half its length
+     */
+    static final int MIN_LENGTH=2*(12+17);
+    /** Positions of the last occurrence of each hash of two consecutive bytes */
+    private final int[] table=new int[256];
+    /**
+     * Buffers for the messages sent by a connection without a buffer pool, which are needed twice when compressed, of which
+     * those of up to {@code maxRetained} bytes are retained
+     */
+    final ScratchBufferPool buffers;
+    private final int maxRetained;
+    /** Buffer into which messages are uncompressed, or null */
+    private byte[] output;
+    /** Pool on which large messages are compressed in segments, or null to compress every message sequentially */
+    private ForkJoinPool pool;
+    private int segmentSize;
+    /** Segments of the last message compressed in parallel, reused for the next */
+    private Segment[] segments=new Segment[0];
+    /** Buffers for the sample taken by {@link #sample(byte[],int,int)}, and for its compression */
+    private byte[] sample=new byte[0];
+    private byte[] sampleOut=new byte[0];
+    /** Creates a compressor retaining the buffers of messages of up to 16MB. */
+    public Compressor(){
+      this(1<<24);
+    }
+    /**
+     * Creates a compressor
+     * @param maxRetained Length of the largest message whose buffers, compressed or uncompressed, are retained for the next
+     * message
+     */
+    public Compressor(int maxRetained){
+      this.maxRetained=maxRetained;
+      buffers=new ScratchBufferPool(Math.max(0,maxRetained));
+    }
+    /**
+     * Sets the pool on which large messages are compressed in parallel. A message of at least two segments is divided into
+     * segments of the given size, each compressed with its own hash table, so that the back-references of a segment never
+     * reach into those before it. The compressed segments are then stitched into a single stream, which kdb+ uncompresses
+     * as it does any other, at the cost of a slightly lower compression ratio for the matches lost at segment boundaries.
+     * @param pool The pool to compress segments on, e.g. {@link ForkJoinPool#commonPool()}, or null to compress every
+     * message sequentially. Default is null.
+     * @param segmentSize Length of each segment in bytes, at least 4096
+     * @throws IllegalArgumentException if segmentSize is less than 4096
+     */
+    public void setParallelism(ForkJoinPool pool,int segmentSize){
+      if(pool!=null&&segmentSize<4096)
+        throw new IllegalArgumentException("Segment size must be at least 4096 bytes, got "+segmentSize);
+      this.pool=pool;
+      this.segmentSize=segmentSize;
+    }
+    /**
+     * Compresses a message, if that makes it smaller
+     * @param msg a serialized message, which is not compressed
+     * @return the compressed message, or {@code msg} if it does not compress to less than half its length
+     */
+    public byte[] compress(byte[] msg){
+      byte[] dst=new byte[msg.length/2];
+      int n=compress(msg,msg.length,dst);
+      return n<0?msg:Arrays.copyOf(dst,n);
+    }
+    /**
+     * Uncompresses a message
+     * @param msg a serialized message
+     * @return the uncompressed message, or {@code msg} if it is not compressed
+     */
+    public byte[] uncompress(byte[] msg){
+      return msg[2]!=1?msg:uncompress(msg,false);
+    }
+    /**
+     * Compresses the message in the first {@code t} bytes of {@code y} into {@code dst}, abandoning the attempt if the
+     * compressed message would not be less than half the length
+     * @param y the message
+     * @param t length of the message
+     * @param dst buffer of at least t/2 bytes
+     * @return length of the compressed message, or -1 if it was abandoned
+     */
+    int compress(byte[] y,int t,byte[] dst){
+      return pool!=null&&t-8>=2*segmentSize?compressSegments(y,t,dst):compressSequential(y,t,dst);
+    }
+    /**
+     * Estimates how well a message compresses by compressing a sample of it, made up of 8 slices spread evenly through it.
+     * Tables are serialized column by column, so the slices fall in different columns of a large table.
+     * @param msg a serialized message, which is not compressed
+     * @param length length of the message
+     * @param sampleSize number of bytes to sample, at least 64
+     * @return the ratio of the length of the sample to its compressed length, or 1 if it does not compress to less than half
+     * its length
+     */
+    public double sample(byte[] msg,int length,int sampleSize){
+      int slice=sampleSize/8;
+      int t=length-8<=sampleSize?length:8+8*slice;
+      if(sample.length<t){
+        sample=new byte[t];
+        sampleOut=new byte[t/2];
+      }
+      if(t==length)
+        System.arraycopy(msg,0,sample,0,length);
+      else{
+        System.arraycopy(msg,0,sample,0,8);
+        int step=(length-8-slice)/7;
+        for(int k=0;k<8;k++)
+          System.arraycopy(msg,8+k*step,sample,8+k*slice,slice);
+      }
+      int n=compressSequential(sample,t,sampleOut);
+      return n<0?1:(double)t/n;
+    }
+    private int compressSequential(byte[] y,int t,byte[] dst){
+      if(t<MIN_LENGTH)
+        return -1;
+      byte i=0;
+      boolean g;
+      int f=0;
+      int h0=0;
+      int h=0;
+      int e=t/2;
+      int c=12;
+      int d=c;
+      int p=0;
+      int q;
+      int r;
+      int s0=0;
+      int s=8;
+      int[] a=table;
+      Arrays.fill(a,0);
+      System.arraycopy(y,0,dst,0,4);
+      dst[2]=1;
+      ByteArrayAccess.putIntLE(dst,8,t);
+      for(;s<t;i*=2){
+        if(0==i){
+          if(d>e-17)
+            return -1;
+          i=1;
+          dst[c]=(byte)f;
+          c=d++;
+          f=0;
+        }
+        g=(s>t-3)||(0==(p=a[h=0xFF&(y[s]^y[s+1])]))||(0!=(y[s]^y[p]));
+        if(0<s0){
+          a[h0]=s0;
+          s0=0;
+        }
+        if(g){
+          h0=h;
+          s0=s;
+          dst[d++]=y[s++];
+        }else{
+          a[h]=s;
+          f|=i;
+          p+=2;
+          r=s+=2;
+          q=Math.min(s+255,t);
+          while(y[p]==y[s]&&++s<q)
+            ++p;
+          dst[d++]=(byte)h;
+          dst[d++]=(byte)(s-r);
+        }
+      }
+      dst[c]=(byte)f;
+      ByteArrayAccess.putIntLE(dst,4,d);
+      return d;
+    }
+    /**
+     * Compresses a message in segments on the pool. Each segment is first compressed into its own buffers, holding the
+     * literal bytes and matches separately from their flags, or left as literal bytes if it does not compress; once the
+     * length of every segment is known, each is copied to its place in {@code dst}, interleaving a flag byte before every 8
+     * items of the whole stream.
+     * @param y the message
+     * @param t length of the message
+     * @param dst buffer of at least t/2 bytes
+     * @return length of the compressed message, or -1 if it was abandoned
+     */
+    private int compressSegments(byte[] y,int t,byte[] dst){
+      int count=(t-8+segmentSize-1)/segmentSize;
+      if(segments.length<count){
+        int n=segments.length;
+        segments=Arrays.copyOf(segments,count);
+        for(;n<count;n++)
+          segments[n]=new Segment();
+      }
+      for(int i=0;i<count;i++){
+        segments[i].start=8+i*segmentSize;
+        segments[i].end=Math.min(segments[i].start+segmentSize,t);
+      }
+      pool.invoke(new SegmentTask(y,null,0,count,count));
+      int items=0;
+      int d=12;
+      for(int i=0;i<count;i++){
+        Segment x=segments[i];
+        x.item=items;
+        x.offset=d;
+        d+=x.d+((items+x.n+7)>>3)-((items+7)>>3);
+        items+=x.n;
+      }
+      if(d>t/2)
+        return -1;
+      pool.invoke(new SegmentTask(y,dst,0,count,count));
+      System.arraycopy(y,0,dst,0,4);
+      dst[2]=1;
+      ByteArrayAccess.putIntLE(dst,4,d);
+      ByteArrayAccess.putIntLE(dst,8,t);
+      return d;
+    }
+    /**
+     * Copies the items of a compressed segment to its place in the stream, preceding each group of 8 items which starts
+     * within it by their flags
+     * @param y the message
+     * @param i index of the segment
+     * @param count number of segments in the message
+     * @param dst the compressed message
+     */
+    private void assemble(byte[] y,int i,int count,byte[] dst){
+      Segment x=segments[i];
+      byte[] b=x.literal?y:x.items;
+      int o=x.offset;
+      int src=x.literal?x.start:0;
+      // items completing a group which starts in an earlier segment, whose flags were written with it
+      int m=Math.min(x.n,(8-(x.item&7))&7);
+      for(int l=0;l<x.n;l+=m){
+        if(l>0||m==0){
+          m=Math.min(8,x.n-l);
+          dst[o++]=(byte)(m==8?x.flags(l,8):flags(i,l,count));
+        }
+        int n=m+Integer.bitCount(x.flags(l,m));
+        System.arraycopy(b,src,dst,o,n);
+        o+=n;
+        src+=n;
+      }
+    }
+    /**
+     * Returns the flags of the 8 items from item {@code l} of a segment, which continue into the following segments
+     * @param i index of the segment
+     * @param l index of the item within the segment
+     * @param count number of segments in the message
+     * @return the flags, with that of item {@code l} in the lowest bit
+     */
+    private int flags(int i,int l,int count){
+      int f=0;
+      for(int k=0;k<8;k++,l++){
+        while(l>=segments[i].n){
+          l-=segments[i].n;
+          if(++i==count)
+            return f;
+        }
+        f|=segments[i].flags(l,1)<<k;
+      }
+      return f;
+    }
+    /** Compresses, or assembles, a range of the segments of a message, dividing it between the threads of the pool */
+    private final class SegmentTask extends RecursiveAction{
+      private static final long serialVersionUID=1L;
+      private final byte[] y;
+      /** The compressed message to assemble the segments into, or null to compress them */
+      private final byte[] dst;
+      private final int lo;
+      private final int hi;
+      private final int count;
+      SegmentTask(byte[] y,byte[] dst,int lo,int hi,int count){
+        this.y=y;
+        this.dst=dst;
+        this.lo=lo;
+        this.hi=hi;
+        this.count=count;
+      }
+      @Override
+      protected void compute(){
+        if(hi-lo>1){
+          int mid=(lo+hi)>>>1;
+          invokeAll(new SegmentTask(y,dst,lo,mid,count),new SegmentTask(y,dst,mid,hi,count));
+        }else if(dst==null)
+          segments[lo].compress(y);
+        else
+          assemble(y,lo,count,dst);
+      }
+    }
+    /**
+     * A segment of a message compressed in parallel. Its positions are those within the whole message, so that the
+     * positions its matches refer to are those kdb+ records as it uncompresses the stream.
+     */
+    private static final class Segment{
+      private final int[] table=new int[256];
+      /** Literal bytes, and the hash and length of each match, unless the segment is sent as literal bytes */
+      byte[] items=new byte[0];
+      /** A bit per item, set for a match */
+      private byte[] flags;
+      int start;
+      int end;
+      /** Whether the segment did not compress to less than its length, and so is sent as literal bytes */
+      boolean literal;
+      /** Number of items */
+      int n;
+      /** Length of the items */
+      int d;
+      /** Index within the stream of the first item */
+      int item;
+      /** Offset within the compressed message of the first item */
+      int offset;
+      /**
+       * Returns the flags of items of the segment
+       * @param l index of the first item
+       * @param m number of items, at most 8
+       * @return the flags, with that of item {@code l} in the lowest bit
+       */
+      int flags(int l,int m){
+        if(literal)
+          return 0;
+        int b=l>>3;
+        return (((flags[b]&0xff)|(flags[b+1]&0xff)<<8)>>>(l&7))&((1<<m)-1);
+      }
+      /**
+       * Compresses the segment, as {@link Compressor#compress(byte[],int,byte[])} compresses a message but starting with an
+       * empty hash table
+       * @param y the message
+       */
+      void compress(byte[] y){
+        int limit=end-start;
+        if(items.length<limit+2){
+          items=new byte[limit+2];
+          flags=new byte[limit/8+3];
+        }
+        boolean g;
+        int h0=0;
+        int h=0;
+        int p=0;
+        int q;
+        int r;
+        int s0=0;
+        int s=start;
+        int t=end;
+        int d=0;
+        int i=0;
+        int[] a=table;
+        byte[] x=items;
+        byte[] f=flags;
+        Arrays.fill(a,0);
+        Arrays.fill(f,(byte)0);
+        for(;s<t;i++){
+          if(d>limit){
+            literal=true;
+            n=this.d=t-start;
+            return;
+          }
+          g=(s>t-3)||(0==(p=a[h=0xFF&(y[s]^y[s+1])]))||(0!=(y[s]^y[p]));
+          if(0<s0){
+            a[h0]=s0;
+            s0=0;
+          }
+          if(g){
+            h0=h;
+            s0=s;
+            x[d++]=y[s++];
+          }else{
+            a[h]=s;
+            f[i>>3]|=1<<(i&7);
+            p+=2;
+            r=s+=2;
+            q=Math.min(s+255,t);
+            while(y[p]==y[s]&&++s<q)
+              ++p;
+            x[d++]=(byte)h;
+            x[d++]=(byte)(s-r);
+          }
+        }
+        literal=false;
+        n=i;
+        this.d=d;
+      }
+    }
+    /**
+     * Uncompresses a compressed message
+     * @param src the compressed message
+     * @param retain whether the buffer returned may be reused for the next message uncompressed
+     * @return a buffer holding the uncompressed message, which may be longer than it when retained
+     */
+    byte[] uncompress(byte[] src,boolean retain){
+      boolean littleEndian=src[0]==1;
+      int length=littleEndian?ByteArrayAccess.getIntLE(src,8):ByteArrayAccess.getIntBE(src,8);
+      byte[] dst;
+      if(retain&&output!=null&&output.length>=length)
+        dst=output;
+      else{
+        dst=new byte[length];
+        if(retain&&length<=maxRetained)
+          output=dst;
+      }
+      System.arraycopy(src,0,dst,0,4);
+      dst[2]=0;
+      if(littleEndian)
+        ByteArrayAccess.putIntLE(dst,4,length);
+      else
+        ByteArrayAccess.putIntBE(dst,4,length);
+      int[] aa=table;
+      Arrays.fill(aa,0);
+      int n=0;
+      int r;
+      int f=0;
+      int s=8;
+      int p=s;
+      int i=0;
+      int d=12;
+      while(s<length){
+        if(i==0){
+          f=0xff&src[d++];
+          i=1;
+        }
+        if((f&i)!=0){
+          r=aa[0xff&src[d++]];
+          dst[s++]=dst[r++];
+          dst[s++]=dst[r++];
+          n=0xff&src[d++];
+          for(int m=0;m<n;m++)
+            dst[s+m]=dst[r+m];
+        }else
+          dst[s++]=src[d++];
+        while(p<s-1)
+          aa[(0xff&dst[p])^(0xff&dst[p+1])]=p++;
+        if((f&i)!=0)
+          p=s+=n;
+        i=(i<<1)&0xff;
+      }
+      return dst;
+    }
+  }
+  /**
+   * {@code CompressionPolicy} decides which outgoing messages are compressed, when compression is {@link #zip(boolean)
+   * enabled}. By default a message is compressed when it is longer than 2000 bytes and the connection is not to a local
+   * interface, and sent uncompressed when it does not compress to less than half its length. A policy may be shared between
+   * connections, so must be thread-safe.
+   * @see AdaptiveCompressionPolicy
+   */
+  public interface CompressionPolicy{
+    /**
+     * Decides whether to compress a message. Messages too short to compress to less than half their length are never
+     * offered to the policy.
+     * @param msg the serialized message
+     * @param length length of the message
+     * @param loopback whether the connection is to a local interface
+     * @param compressor the compressor of the connection, through which the message may be {@link
+     * Compressor#sample(byte[],int,int) sampled}
+     * @return true to attempt to compress the message
+     */
+    boolean shouldCompress(byte[] msg,int length,boolean loopback,Compressor compressor);
+    /**
+     * Records the outcome of an attempt to compress a message
+     * @param length length of the message
+     * @param compressedLength length of the compressed message, or -1 if it did not compress to less than half its length
+     * and was sent uncompressed
+     * @param nanos time taken by the attempt in nanoseconds
+     */
+    void compressed(int length,int compressedLength,long nanos);
+  }
+  /**
+   * {@code AdaptiveCompressionPolicy} compresses a message only where that is expected to save time on the wire. Messages of
+   * at least 4 times the sample size are {@link Compressor#sample(byte[],int,int) sampled} first, so that one which will not
+   * compress to less than half its length, e.g. a column of random doubles, is sent without attempting to compress it in
+   * full. Smaller messages are judged by the ratios recently achieved, and are still attempted now and then while those fall
+   * short, so that the policy recovers when the data changes. When the bandwidth of the link is set, a message is only
+   * compressed if the time to compress it, at the rate recently achieved, is less than the time its compression would save
+   * on the wire.
+   * <p>
+   * Counters of the messages attempted, abandoned and skipped, and of the ratio achieved, are kept for monitoring.
+   * </p>
+   */
+  public static class AdaptiveCompressionPolicy implements CompressionPolicy{
+    /** Weight of the latest attempt in the recent fraction and compression rate */
+    private static final double WEIGHT=0.25;
+    /** While recent ratios fall short, one in this many messages judged by them is attempted regardless */
+    private static final int PROBE=16;
+    private volatile int minLength=2000;
+    private volatile boolean compressLoopback;
+    private volatile int sampleSize=16384;
+    private volatile double bandwidth;
+    /** Recent fraction of their length to which messages compressed, or NaN before the first attempt */
+    private volatile double recentFraction=Double.NaN;
+    /** Recent compression rate in bytes per nanosecond, or NaN before the first attempt */
+    private volatile double rate=Double.NaN;
+    private final AtomicLong attempts=new AtomicLong();
+    private final AtomicLong abandoned=new AtomicLong();
+    private final AtomicLong skips=new AtomicLong();
+    private final AtomicLong uncompressedBytes=new AtomicLong();
+    private final AtomicLong compressedBytes=new AtomicLong();
+    private final AtomicInteger judged=new AtomicInteger();
+    /**
+     * Sets the length a message must exceed to be compressed. Default is 2000 bytes.
+     * @param length Minimum length in bytes, at least 0
+     * @throws IllegalArgumentException if length is negative
+     */
+    public void setMinLength(int length){
+      if(length<0)
+        throw new IllegalArgumentException("Minimum length must not be negative, got "+length);
+      minLength=length;
+    }
+    /**
+     * Sets whether messages sent to a local interface are compressed. Default is false.
+     * @param b true to compress messages sent to a local interface
+     */
+    public void setCompressLoopback(boolean b){
+      compressLoopback=b;
+    }
+    /**
+     * Sets the number of bytes sampled from a message to estimate how well it compresses. Default is 16384.
+     * @param size Number of bytes sampled, at least 64, or 0 to judge every message by the ratios recently achieved
+     * @throws IllegalArgumentException if size is between 1 and 63
+     */
+    public void setSampleSize(int size){
+      if(size!=0&&size<64)
+        throw new IllegalArgumentException("Sample size must be 0 or at least 64 bytes, got "+size);
+      sampleSize=size;
+    }
+    /**
+     * Sets the bandwidth of the link, against which the time to compress a message is weighed
+     * @param bytesPerSecond Bandwidth in bytes per second, or 0 if unknown, to compress every message expected to compress
+     * to less than half its length. Default is 0.
+     */
+    public void setBandwidth(double bytesPerSecond){
+      bandwidth=bytesPerSecond;
+    }
+    @Override
+    public boolean shouldCompress(byte[] msg,int length,boolean loopback,Compressor compressor){
+      if(!decide(msg,length,loopback,compressor)){
+        skips.incrementAndGet();
+        return false;
+      }
+      return true;
+    }
+    private boolean decide(byte[] msg,int length,boolean loopback,Compressor compressor){
+      if(length<=minLength||(loopback&&!compressLoopback))
+        return false;
+      int size=sampleSize;
+      double ratio;
+      if(size>0&&length>=4*size)
+        ratio=compressor.sample(msg,length,size);
+      else{
+        ratio=1/recentFraction;
+        if(Double.isNaN(ratio))
+          return true;
+        if(ratio<2)
+          return judged.incrementAndGet()%PROBE==0;
+      }
+      if(ratio<2)
+        return false;
+      double b=bandwidth;
+      double r=rate;
+      // seconds saved on the wire against seconds spent compressing
+      return b<=0||Double.isNaN(r)||length*(1-1/ratio)/b>length/r*1e-9;
+    }
+    @Override
+    public void compressed(int length,int compressedLength,long nanos){
+      attempts.incrementAndGet();
+      if(compressedLength<0)
+        abandoned.incrementAndGet();
+      else{
+        uncompressedBytes.addAndGet(length);
+        compressedBytes.addAndGet(compressedLength);
+      }
+      double fraction=compressedLength<0?1:(double)compressedLength/length;
+      double r=recentFraction;
+      recentFraction=Double.isNaN(r)?fraction:r+WEIGHT*(fraction-r);
+      if(nanos>0){
+        double x=(double)length/nanos;
+        r=rate;
+        rate=Double.isNaN(r)?x:r+WEIGHT*(x-r);
+      }
+    }
+    /**
+     * Returns the number of messages whose compression has been attempted
+     * @return the number of attempts
+     */
+    public long getAttempts(){
+      return attempts.get();
+    }
+    /**
+     * Returns the number of messages attempted which did not compress to less than half their length, and were sent
+     * uncompressed
+     * @return the number of abandoned attempts
+     */
+    public long getAbandoned(){
+      return abandoned.get();
+    }
+    /**
+     * Returns the number of messages sent uncompressed without an attempt to compress them
+     * @return the number of skipped messages
+     */
+    public long getSkips(){
+      return skips.get();
+    }
+    /**
+     * Returns the ratio achieved over all the messages compressed, of their uncompressed to their compressed length
+     * @return the ratio, or 0 if no message has been compressed
+     */
+    public double getRatio(){
+      long n=compressedBytes.get();
+      return n==0?0:(double)uncompressedBytes.get()/n;
+    }
+    /**
+     * Returns the ratio recently achieved, of the uncompressed to the compressed length averaged over the latest attempts,
+     * weighted towards the most recent, and counting those abandoned as 1
+     * @return the ratio, or NaN if no message has been attempted
+     */
+    public double getRecentRatio(){
+      return 1/recentFraction;
+    }
+  }
+  /**
+   * {@code bufferPool} supplies the buffers used to serialize messages written to the connection, or null to allocate a new
+   * buffer for every message, other than those compressed.
+   */
+  private BufferPool bufferPool;
+  /**
+   * Sets the pool of buffers into which messages written to the connection are serialized. By default a new buffer is
+   * allocated for every message, unless the connection compresses the messages it sends, in which case the buffers of
+   * those of up to 16MB are reused, as a compressed message needs two. Buffers returned by {@link #serialize(int,Object,boolean)} are never taken from the pool,
+   * as ownership of those passes to the caller.
+   * @param pool The pool to use, e.g. a {@link ScratchBufferPool} per connection or a {@link SizeClassBufferPool} shared
+   * between connections. null to allocate a new buffer for each message.
+   */
+  public void setBufferPool(BufferPool pool){
+    bufferPool=pool;
+  }
+  /**
+   * Returns the pool of buffers used to serialize messages written to the connection
+   * @return the current buffer pool, or null if none is set
+   */
+  public BufferPool getBufferPool(){
+    return bufferPool;
+  }
+  private byte[] allocate(BufferPool pool,int size){
+    return pool==null?new byte[size]:pool.acquire(size);
+  }
+  /**
+   * Returns the compressor of the messages sent, creating it when first needed
+   * @return the compressor
+   */
+  private Compressor writeCompressor(){
+    if(wCompressor==null)
+      wCompressor=new Compressor();
+    return wCompressor;
+  }
+  /**
+   * Compresses the message in wBuff, if that makes it less than half its length
+   * @param pool pool to take buffers from, or null to allocate them
+   * @return length of the compressed message, or -1 if it was left uncompressed
+   */
+  private int compress(BufferPool pool){
+    byte[] y=wBuff;
+    byte[] dst=allocate(pool,wBuffPos/2);
+    int n=writeCompressor().compress(y,wBuffPos,dst);
+    if(n<0){
+      if(pool!=null)
+        pool.release(dst);
+      return n;
+    }
+    wBuff=dst;
+    wBuffPos=n;
+    if(pool!=null)
+      pool.release(y);
+    return n;
+  }
+  /**
+   * Uncompresses the message in rBuff, leaving rLimit at its end. The buffer it is uncompressed into is reused for the next
+   * message, unless column views over it may have been returned.
+   */
+  private void uncompress(){
+    if(rCompressor==null)
+      rCompressor=new Compressor();
+    rBuff=rCompressor.uncompress(rBuff,!columnViews&&!lazyTables);
+    rLimit=isLittleEndian?ByteArrayAccess.getIntLE(rBuff,4):ByteArrayAccess.getIntBE(rBuff,4);
+    rBuffPos=8;
+  }
+  /**
+   * Sets whether messages are serialized in a single pass. By default the size of a message is first calculated by
+   * {@link #nx(Object)} so that it can be serialized into a buffer of exactly the right length. In single pass mode the
+   * message is serialized into a buffer which grows as required (taken from the {@link #setBufferPool(BufferPool) buffer
+   * pool} when one is set), and the length in the message header is written once serialization completes. This avoids walking
+   * lists, and encoding strings, twice, at the cost of copying the message when the buffer grows or when a message is
+   * returned by {@link #serialize(int,Object,boolean)}.
+   * @param b true to serialize in a single pass. Default is false.
+   */
+  public void setSinglePassSerialization(boolean b){
+    singlePass=b;
+  }
+  /**
+   * Sets the size of the chunks in which large messages are written. A message whose serialized length exceeds the chunk
+   * size is not materialized in a single array: its header, carrying the length calculated by {@link #nx(Object)}, and its
+   * contents are serialized into a buffer of the chunk size which is written to the connection each time it fills, so that
+   * the memory used to send it is bounded by the chunk size rather than the size of the message. Streamed messages are never
+   * compressed. As the start of a streamed message has already been sent when a later part of it fails to serialize (for
+   * example a guid vector to a pre kdb+3.0 process), such a failure leaves the connection unusable and it should be closed.
+   * Smaller messages, and those returned by {@link #serialize(int,Object,boolean)}, are unaffected.
+   * @param chunkSize size of a chunk in bytes, at least 64, or 0 to disable streaming. Default is 0.
+   */
+  public void setWriteChunkSize(int chunkSize){
+    if(chunkSize!=0&&chunkSize<64)
+      throw new IllegalArgumentException("Chunk size must be 0 or at least 64 bytes, got "+chunkSize);
+    writeChunkSize=chunkSize;
+  }
+  /**
+   * Sets the length from which vectors are written with a gathering write, on a connection made through a socket channel
+   * (as Unix domain socket connections are). A byte vector, or a little endian {@link ColumnView} such as those of a
+   * received message or of a {@link FlipBuilder#view() FlipBuilder}, of at least this many bytes is not copied into the
+   * message buffer: the message is written as a sequence of buffers of which it is one, over its own array. Other vectors
+   * are serialized into the message buffer as usual, as their ipc bytes must be encoded. Messages which may be compressed,
+   * as they must be contiguous, and those streamed in chunks, are unaffected.
+   * @param threshold length of a vector in bytes, at least 64, or 0 to disable gathering writes. Default is 0.
+   */
+  public void setGatherThreshold(int threshold){
+    if(threshold!=0&&threshold<64)
+      throw new IllegalArgumentException("Gather threshold must be 0 or at least 64 bytes, got "+threshold);
+    gatherThreshold=threshold;
+  }
+  /**
+   * Sets the pool on which the columns of large tables, and the items of a message which is a large general list such as the
+   * arguments of a bulk load {@code (".u.upd";`trade;table)}, are serialized in parallel. The length of each column or item
+   * is calculated as by {@link #nx(Object)}, and if they total at least the given number of bytes each is then serialized
+   * on the pool into its own region of the message buffer. General lists nested within a message, messages streamed in
+   * chunks, and those written with gathering writes, are serialized on the writing thread.
+   * @param pool The pool to serialize columns and items on, e.g. {@link ForkJoinPool#commonPool()}, or null to serialize
+   * every message on the writing thread. Default is null.
+   * @param threshold Length in bytes of the columns of a table, or items of a message, from which they are serialized in
+   * parallel, at least 0
+   * @throws IllegalArgumentException if threshold is negative
+   */
+  public void setEncodePool(ForkJoinPool pool,int threshold){
+    if(threshold<0)
+      throw new IllegalArgumentException("Encode threshold must not be negative, got "+threshold);
+    writeLock.lock();
+    try{
+      encodePool=pool;
+      encodeThreshold=threshold;
+      encoders=pool==null?null:new ConcurrentLinkedQueue<>();
+    }finally{
+      writeLock.unlock();
+    }
+  }
+  /**
+   * {@code Gather} records the vectors of a message which are written from their own arrays rather than serialized, and the
+   * positions in the message buffer at which they belong
+   */
+  private static final class Gather{
+    private int[] positions=new int[8];
+    private ByteBuffer[] vectors=new ByteBuffer[8];
+    private int n;
+    /** Total length of the vectors */
+    private long bytes;
+    /**
+     * Records a vector to be written from its own array, if its ipc bytes exist
+     * @param position position in the message buffer at which the vector's elements belong
+     * @param x the vector
+     * @return true if recorded, false if the vector must be serialized
+     */
+    boolean add(int position,Object x){
+      ByteBuffer vector;
+      if(x instanceof byte[])
+        vector=ByteBuffer.wrap((byte[])x);
+      else if(x instanceof ColumnView&&((ColumnView)x).littleEndian){
+        ColumnView v=(ColumnView)x;
+        vector=ByteBuffer.wrap(v.b,v.p,v.n*v.width);
+      }else
+        return false;
+      if(n==positions.length){
+        positions=Arrays.copyOf(positions,2*n);
+        vectors=Arrays.copyOf(vectors,2*n);
+      }
+      positions[n]=position;
+      vectors[n++]=vector;
+      bytes+=vector.remaining();
+      return true;
+    }
+    /**
+     * Returns the buffers making up the message, alternating between the message buffer and the vectors
+     * @param b the message buffer
+     * @param end length of the message buffer
+     * @return the buffers to write
+     */
+    ByteBuffer[] buffers(byte[] b,int end){
+      ByteBuffer[] buffers=new ByteBuffer[2*n+1];
+      int p=0;
+      for(int i=0;i<n;i++){
+        buffers[2*i]=ByteBuffer.wrap(b,p,positions[i]-p);
+        buffers[2*i+1]=vectors[i];
+        p=positions[i];
+      }
+      buffers[2*n]=ByteBuffer.wrap(b,p,end-p);
+      return buffers;
+    }
+    void clear(){
+      Arrays.fill(vectors,0,n,null);
+      n=0;
+      bytes=0;
+    }
+  }
+  /**
+   * Sets the size of the window through which large incoming messages are decoded. A message longer than the window is not
+   * read in full before being decoded: its contents are read into the window, and decoded into the resulting arrays, as they
+   * arrive, so that decoding overlaps the transfer and the raw bytes of the message are never held whole. The window grows if
+   * a single symbol or char vector is longer than it. Compressed messages are always read in full, as they must be
+   * uncompressed before they can be decoded.
+   * @param chunkSize size of the window in bytes, at least 64, or 0 to always read messages in full. Default is 0.
+   */
+  public void setReadChunkSize(int chunkSize){
+    if(chunkSize!=0&&chunkSize<64)
+      throw new IllegalArgumentException("Chunk size must be 0 or at least 64 bytes, got "+chunkSize);
+    readChunkSize=chunkSize;
+  }
+  /**
+   * Sets whether short, int, long, real and float vectors (types 5 to 9) are decoded as views over the bytes of the received
+   * message, i.e. as {@link ShortColumn}, {@link IntColumn}, {@link LongColumn}, {@link FloatColumn} and
+   * {@link DoubleColumn}, rather than copied to new arrays. This avoids the copy, and the memory it takes, for vectors which
+   * are scanned once. A view keeps the whole message reachable, and those decoded by {@link #deserialize(byte[])} are backed
+   * by the supplied array, which must not be modified while they are in use. Messages streamed through the
+   * {@link #setReadChunkSize(int) read window} are always copied, as the window is reused.
+   * @param b true to decode views. Default is false.
+   */
+  public void setColumnViews(boolean b){
+    columnViews=b;
+  }
+  /**
+   * Sets whether temporal vectors (types 12 to 19) are decoded as columns of the values by which kdb+ represents them, i.e.
+   * as {@link TimestampColumn}, {@link MonthColumn}, {@link DateColumn}, {@link DatetimeColumn}, {@link TimespanColumn},
+   * {@link MinuteColumn}, {@link SecondColumn} and {@link TimeColumn}, rather than as arrays of Instant, LocalDate etc. This
+   * avoids an object per element, which are instead created only as elements are accessed. The columns can be serialized,
+   * and can also be created directly from primitive arrays to publish temporal data without creating an object per element.
+   * @param b true to decode temporal columns. Default is false.
+   */
+  public void setTemporalColumns(boolean b){
+    temporalColumns=b;
+  }
+  /**
+   * Sets whether tables are decoded as {@link LazyFlip}s, whose columns are decoded only as they are first accessed. The
+   * columns of a received table are indexed by a pass which skips over their bytes, without creating any object for their
+   * elements, so that a wide table of which few columns are read costs little more to decode than those columns. Keyed
+   * tables are decoded as dictionaries of two lazy tables. The message is retained by each table until all its columns are
+   * decoded, and those decoded by {@link #deserialize(byte[])} are backed by the supplied array, which must not be modified
+   * while they are in use. Messages streamed through the {@link #setReadChunkSize(int) read window} are always decoded in
+   * full, as the window is reused.
+   * @param b true to decode tables lazily. Default is false.
+   */
+  public void setLazyTables(boolean b){
+    lazyTables=b;
+  }
+  /**
+   * Sets the pool on which the columns of large tables are decoded in parallel. The columns of a received table are indexed
+   * by a pass which skips over their bytes, computing the length of each fixed-width vector from its count, and if they
+   * span at least the given number of bytes each is then decoded on the pool by a decoder of its own. Tables decoded
+   * lazily, through {@link DecodeOptions}, or from messages streamed through the {@link #setReadChunkSize(int) read window}
+   * are decoded as they would be without a pool.
+   * @param pool The pool to decode columns on, e.g. {@link ForkJoinPool#commonPool()}, or null to decode every table on the
+   * reading thread. Default is null.
+   * @param threshold Length in bytes of the columns of a table from which they are decoded in parallel, at least 0
+   * @throws IllegalArgumentException if threshold is negative
+   */
+  public void setDecodePool(ForkJoinPool pool,int threshold){
+    if(threshold<0)
+      throw new IllegalArgumentException("Decode threshold must not be negative, got "+threshold);
+    decodePool=pool;
+    decodeThreshold=threshold;
+  }
+  /**
+   * Sets the table used to intern received symbols, including those of symbol vectors. Tick data typically repeats a small
+   * number of symbols many times, and interning them avoids decoding a new String for each occurrence, and retaining many
+   * copies of each.
+   * @param table The table to use, which may be shared between connections, or null to decode every symbol. Default is null.
+   */
+  public void setSymbolInternTable(SymbolInternTable table){
+    symbolTable=table;
+  }
+  /**
+   * Ensures {@code n} bytes can be read at rBuffPos, reading more of a streamed message if required
+   * @param n number of bytes about to be read
+   */
+  private void need(int n){
+    if(n>rLimit-rBuffPos&&!fill(n))
+      throw new RuntimeException("Malformed message: truncated at offset "+rBuffPos);
+  }
+  /**
+   * Returns the number of elements of {@code size} bytes which can be read at rBuffPos, reading more of a streamed message if
+   * none are available
+   * @param size size of an element in bytes
+   * @param n number of elements wanted
+   * @return between 1 and {@code n} elements
+   */
+  private int avail(int size,int n){
+    int m=(rLimit-rBuffPos)/size;
+    if(m==0){
+      need(size);
+      m=(rLimit-rBuffPos)/size;
+    }
+    return Math.min(m,n);
+  }
+  /**
+   * Moves the unread bytes of a streamed message to the start of the window and reads from the connection until at least
+   * {@code n} bytes are available, growing the window if it is smaller than {@code n}
+   * @param n number of bytes required at rBuffPos
+   * @return false if the message is not being streamed, or ends before {@code n} bytes
+   */
+  private boolean fill(int n){
+    int have=rLimit-rBuffPos;
+    if(!rStreaming||n-have>rRemaining)
+      return false;
+    byte[] b=n>rBuff.length?new byte[Math.max(n,2*rBuff.length)]:rBuff;
+    System.arraycopy(rBuff,rBuffPos,b,0,have);
+    rBuff=b;
+    rBuffPos=0;
+    rLimit=have;
+    try{
+      while(rLimit<n){
+        int m=read(rBuff,rLimit,Math.min(rRemaining,rBuff.length-rLimit));
+        rLimit+=m;
+        rRemaining-=m;
+      }
+    }catch(IOException e){
+      throw new UncheckedIOException(e);
+    }
+    return true;
+  }
+  /**
+   * Reads up to {@code len} bytes from the connection, blocking until at least one is available
+   * @param b buffer to read into
+   * @param off offset in {@code b} of the first byte read
+   * @param len maximum number of bytes to read
+   * @return number of bytes read
+   * @throws IOException if an I/O error occurs, or the connection has been closed
+   */
+  private int read(byte[] b,int off,int len) throws IOException{
+    int m=channel==null?inStream.read(b,off,len):channel.read(ByteBuffer.wrap(b,off,len));
+    if(m<0)
+      throw new java.io.EOFException("end of stream");
+    return m;
+  }
+  /**
+   * Sets the cache of encoded symbols used when serializing symbols and symbol vectors. Feeds typically send a small number
+   * of symbols many times, and caching their encoded bytes avoids encoding, and sizing, each occurrence. Symbol vectors
+   * which are known to repeat a few symbols can instead be sent as a {@link SymbolColumn}.
+   * @param cache The cache to use, which may be shared between connections, or null to encode every symbol. Default is null.
+   */
+  public void setSymbolEncodingCache(SymbolEncodingCache cache){
+    symbolCache=cache;
+  }
+  /**
+   * Ensures {@code n} bytes can be written at wBuffPos, growing wBuff if serializing in a single pass, or writing the chunk
+   * out when streaming, in which case {@code n} must not exceed the chunk size
+   * @param n number of bytes about to be written
+   * @throws IOException if a chunk could not be written to the connection
+   */
+  private void reserve(long n) throws IOException{
+    if(n>wCap-wBuffPos)
+      grow(n);
+  }
+  /**
+   * Makes room for {@code n} bytes as {@link #reserve(long)} does, reporting whether they fit, which they may not when
+   * streaming
+   * @param n number of bytes about to be written
+   * @return true if {@code n} bytes can be written at wBuffPos
+   * @throws IOException if a chunk could not be written to the connection
+   */
+  private boolean room(long n) throws IOException{
+    reserve(n);
+    return n<=wCap-wBuffPos;
+  }
+  private void grow(long n) throws IOException{
+    if(wStreaming){
+      write(wBuff,wBuffPos);
+      wBuffPos=0;
+      return;
+    }
+    long need=wBuffPos+n;
+    if(need>Integer.MAX_VALUE-8)
+      throw new RuntimeException("Unable to serialize message larger than 2GB");
+    byte[] b=allocate(wPool,(int)Math.min(Integer.MAX_VALUE-8L,Math.max(need,2L*wBuff.length)));
+    System.arraycopy(wBuff,0,b,0,wBuffPos);
+    if(wPool!=null)
+      wPool.release(wBuff);
+    wBuff=b;
+    wCap=b.length;
+  }
+  /**
+   * Write byte to serialization buffer and increment buffer position
+   * @param x byte to write to buffer
+   */
+  void w(byte x){
+    wBuff[wBuffPos++]=x;
+  }
+  /** null integer, i.e. 0Ni */
+  static int ni=Integer.MIN_VALUE;
+  /** null long, i.e. 0N */
+  static long nj=Long.MIN_VALUE;
+  /** null float, i.e. 0Nf or 0n */
+  static double nf=Double.NaN;
+  /**
+   * Deserialize boolean from byte buffer
+   * @return Deserialized boolean
+   */
+  boolean rb(){
+    return 0!=rBuff[rBuffPos++];
+  }
+  /**
+   * Write boolean to serialization buffer
+   * @param x boolean to serialize
+   */
+  void w(boolean x){
+    w((byte)(x?1:0));
+  }
+  /**
+   * Deserialize char from byte buffer
+   * @return Deserialized char
+   */
+  char rc(){
+    return (char)(rBuff[rBuffPos++]&0xff);
+  }
+  /**
+   * Write char to serialization buffer
+   * @param c char to serialize
+   */
+  void w(char c){
+    w((byte)c);
+  }
+  /**
+   * Deserialize short from byte buffer
+   * @return Deserialized short
+   */
+  short rh(){
+    int p=rBuffPos;
+    short v=isLittleEndian?ByteArrayAccess.getShortLE(rBuff,p):ByteArrayAccess.getShortBE(rBuff,p);
+    rBuffPos=p+2;
+    return v;
+  }
+  /**
+   * Write short to serialization buffer in big endian format
+   * @param h short to serialize
+   */
+  void w(short h){
+    ByteArrayAccess.putShortLE(wBuff,wBuffPos,h);
+    wBuffPos+=2;
+  }
+  /**
+   * Deserialize int from byte buffer
+   * @return Deserialized int
+   */
+  int ri(){
+    int p=rBuffPos;
+    int v=isLittleEndian?ByteArrayAccess.getIntLE(rBuff,p):ByteArrayAccess.getIntBE(rBuff,p);
+    rBuffPos=p+4;
+    return v;
+  }
+  /**
+   * Write int to serialization buffer in big endian format
+   * @param i int to serialize
+   */
+  void w(int i){
+    ByteArrayAccess.putIntLE(wBuff,wBuffPos,i);
+    wBuffPos+=4;
+  }
+  /**
+   * Deserialize UUID from byte buffer
+   * @return Deserialized UUID
    */
   UUID rg(){
     int p=rBuffPos;
@@ -1007,7 +4575,9 @@ public class c{
    * @return Deserialized date
    */
   LocalDate rd(){
-    int dateAsInt=ri();
+    return localDate(ri());
+  }
+  private static LocalDate localDate(int dateAsInt){
     return (dateAsInt==ni?LocalDate.MIN:LocalDate.ofEpochDay(10957L+dateAsInt));
   }
   private static int convertLocalDate(LocalDate d){
@@ -1030,7 +4600,9 @@ public class c{
    * @return Deserialized time
    */
   LocalTime rt(){
-    int v=ri();
+    return localTime(ri());
+  }
+  private static LocalTime localTime(int v){
     // 86,400,00 is the max ms for LocalTime (24:00:00), after that we circle back to 00:00:00
     if(v==ni)
       return LOCAL_TIME_NULL;
@@ -1056,7 +4628,9 @@ public class c{
    * @return Deserialized date
    */
   LocalDateTime rz(){
-    double f=rf();
+    return localDateTime(rf());
+  }
+  private static LocalDateTime localDateTime(double f){
     if(Double.isNaN(f))
       return LocalDateTime.MIN;
     long millisSince2000=Math.round(MILLS_IN_DAY*f);
@@ -1084,7 +4658,9 @@ public class c{
    * @return Deserialized timestamp
    */
   Instant rp(){
-    long timeAsLong=rj();
+    return instant(rj());
+  }
+  private static Instant instant(long timeAsLong){
     if(timeAsLong==nj)
       return Instant.MIN;
     long d=timeAsLong<0?(timeAsLong+1)/NANOS_IN_SEC-1:timeAsLong/NANOS_IN_SEC;
@@ -1109,30 +4685,113 @@ public class c{
    */
   String rs() throws UnsupportedEncodingException{
     int startPos=rBuffPos;
-    while(rBuffPos<rBuff.length&&rBuff[rBuffPos]!=0)
-      rBuffPos++;
-    if(rBuffPos>=rBuff.length)
-      throw new RuntimeException("Malformed message: symbol at offset "+startPos+" is not null-terminated");
-    String s=(startPos==rBuffPos)?"":new String(rBuff,startPos,rBuffPos-startPos,encoding);
-    rBuffPos++; // skip the null terminator
+    int p=startPos;
+    for(;;){
+      while(p<rLimit&&rBuff[p]!=0)
+        p++;
+      if(p<rLimit)
+        break;
+      int scanned=p-startPos; // the symbol continues in the part of a streamed message yet to be read
+      if(!fill(scanned+1))
+        throw new RuntimeException("Malformed message: symbol at offset "+startPos+" is not null-terminated");
+      startPos=rBuffPos;
+      p=startPos+scanned;
+    }
+    SymbolInternTable table=symbolTable;
+    String s=(startPos==p)?"":table==null?new String(rBuff,startPos,p-startPos,encoding):table.intern(rBuff,startPos,p-startPos,encoding);
+    rBuffPos=p+1; // skip the null terminator
     return s;
   }
   /**
    * Write String to serialization buffer
    * @param s String to serialize
    * @throws UnsupportedEncodingException If there is an issue with the registed encoding
+   * @throws IOException if a chunk of a streamed message could not be written
    */
-  void w(String s) throws UnsupportedEncodingException{
+  void w(String s) throws IOException{
     if(s!=null){
-      int byteLen=0;
-      if(-1<(byteLen=s.indexOf('\000')))
-        s=s.substring(0,byteLen);
-      byte[] bytes=s.getBytes(encoding);
-      System.arraycopy(bytes,0,wBuff,wBuffPos,bytes.length);
-      wBuffPos+=bytes.length;
+      int end=s.indexOf('\000');
+      if(end<0)
+        end=s.length();
+      if(!(room(end+1L)&&wLatin1(s,end))){
+        byte[] bytes=(end==s.length()?s:s.substring(0,end)).getBytes(encoding);
+        wBytes(bytes,0,bytes.length);
+      }
     }
+    reserve(1);
     wBuff[wBuffPos++]=0;
   }
+  /**
+   * Write a symbol to serialization buffer, copying its encoded bytes from the symbol cache if one is set
+   * @param s symbol to serialize
+   * @throws IOException if a chunk of a streamed message could not be written
+   */
+  private void wSymbol(String s) throws IOException{
+    SymbolEncodingCache cache=symbolCache;
+    byte[] b=cache==null?null:cache.encode(s,encoding);
+    if(b==null)
+      w(s);
+    else
+      wBytes(b,0,b.length);
+  }
+  /**
+   * Copies bytes to the serialization buffer, a chunk at a time when streaming
+   * @param b bytes to copy
+   * @param off offset of the first byte in {@code b}
+   * @param len number of bytes to copy
+   * @throws IOException if a chunk of a streamed message could not be written
+   */
+  private void wBytes(byte[] b,int off,int len) throws IOException{
+    for(;;){
+      int m=(int)Math.min(len,(long)wCap-wBuffPos);
+      System.arraycopy(b,off,wBuff,wBuffPos,m);
+      wBuffPos+=m;
+      off+=m;
+      len-=m;
+      if(len==0)
+        return;
+      grow(len);
+    }
+  }
+  /**
+   * Writes the first {@code end} chars of a String directly to the serialization buffer when the encoding is ISO-8859-1,
+   * avoiding the intermediate byte[] of {@code String.getBytes}
+   * @param s String to serialize
+   * @param end Number of chars to write
+   * @return false if the encoding is not ISO-8859-1 or the chars are not all Latin-1, in which case nothing is written
+   */
+  private boolean wLatin1(String s,int end){
+    if(!StandardCharsets.ISO_8859_1.equals(encoding))
+      return false;
+    byte[] b=wBuff;
+    int p=wBuffPos;
+    for(int i=0;i<end;i++){
+      char ch=s.charAt(i);
+      if(ch>0xff)
+        return false;
+      b[p++]=(byte)ch;
+    }
+    wBuffPos=p;
+    return true;
+  }
+  /**
+   * Writes a char[] directly to the serialization buffer when the encoding is ISO-8859-1
+   * @param a chars to serialize
+   * @return false if the encoding is not ISO-8859-1 or the chars are not all Latin-1, in which case nothing is written
+   */
+  private boolean wLatin1(char[] a){
+    if(!StandardCharsets.ISO_8859_1.equals(encoding))
+      return false;
+    byte[] b=wBuff;
+    int p=wBuffPos;
+    for(char ch:a){
+      if(ch>0xff)
+        return false;
+      b[p++]=(byte)ch;
+    }
+    wBuffPos=p;
+    return true;
+  }
   /**
    * Deserializes the contents of the incoming message buffer {@code b}.
    * @return deserialised object
@@ -1141,7 +4800,10 @@ public class c{
   Object r() throws UnsupportedEncodingException{
     int i=0;
     int n;
+    need(1);
     int t=rBuff[rBuffPos++];
+    if(t<0&&t>=-19)
+      need(nt[-t]);
     if(t<0)
       switch(t){
         case -1:
@@ -1186,21 +4848,50 @@ public class c{
         rs();
         return r();
       }
-      if(t<104)
+      if(t<104){
+        need(1);
         return rBuff[rBuffPos++]==0&&t==101?null:"func";
+      }
       if(t>105)
         r();
-      else
+      else{
+        need(4);
         for(n=ri();i<n;i++)
           r();
+      }
       return "func";
     }
     if(t==99)
       return new Dict(r(),r());
+    need(t==98?1:5);
     rBuffPos++;
-    if(t==98)
-      return new Flip((Dict)r());
-    n=ri();
+    if(t==98){
+      if(rOptions!=null)
+        return projectedFlip();
+      if(rStreaming)
+        return new Flip((Dict)r());
+      return lazyTables?lazyFlip():decodePool!=null?parallelFlip():new Flip((Dict)r());
+    }
+    return rVector(t,ri());
+  }
+  /**
+   * Decodes the elements of a vector, or the items of a general list, whose count has been read
+   * @param t kdb+ type of the vector
+   * @param n number of elements to decode
+   * @return deserialised vector
+   * @throws UnsupportedEncodingException If the named charset is not supported
+   */
+  private Object rVector(int t,int n) throws UnsupportedEncodingException{
+    int i=0;
+    if(columnViews&&t>=5&&t<=9&&!rStreaming){
+      need(n*nt[t]);
+      Column v=view(t,n);
+      rBuffPos+=n*nt[t];
+      return v;
+    }
+    if(temporalColumns&&t>=12&&t<=19)
+      return temporalColumn(t,n);
+    int m;
     switch(t){
       case 0:
         Object[] objArr=new Object[n];
@@ -1209,53 +4900,79 @@ public class c{
         return objArr;
       case 1:
         boolean[] boolArr=new boolean[n];
-        i=rBuffPos;
-        byte[] b=rBuff;
-        for(int j=0;j<n;j++)
+        for(int j=0;j<n;){
+          m=j+avail(1,n-j);
+          i=rBuffPos;
+          byte[] b=rBuff;
+          for(;j<m;j++)
             boolArr[j]=b[i++]!=0;
-        rBuffPos=i;
+          rBuffPos=i;
+        }
         return boolArr;
       case 2:
         UUID[] uuidArr=new UUID[n];
-        i=rBuffPos;
-        for(int j=0;j<n;j++){
-          long msb=ByteArrayAccess.getLongBE(rBuff,i);
-          long lsb=ByteArrayAccess.getLongBE(rBuff,i+8);
-          uuidArr[j]=new UUID(msb,lsb);
-          i+=16;
-        }
-        rBuffPos=i;
+        for(int j=0;j<n;){
+          m=j+avail(16,n-j);
+          i=rBuffPos;
+          for(;j<m;j++){
+            long msb=ByteArrayAccess.getLongBE(rBuff,i);
+            long lsb=ByteArrayAccess.getLongBE(rBuff,i+8);
+            uuidArr[j]=new UUID(msb,lsb);
+            i+=16;
+          }
+          rBuffPos=i;
+        }
         return uuidArr;
       case 4:
-        byte[] byteArr = Arrays.copyOfRange(rBuff, rBuffPos, rBuffPos + n);
-        rBuffPos += n;
+        byte[] byteArr=new byte[n];
+        for(int j=0;j<n;j+=m){
+          m=avail(1,n-j);
+          System.arraycopy(rBuff,rBuffPos,byteArr,j,m);
+          rBuffPos+=m;
+        }
         return byteArr;
       case 5:
         short[] shortArr=new short[n];
-        ByteArrayAccess.getShorts(rBuff,rBuffPos,shortArr,isLittleEndian);
-        rBuffPos+=n*2;
+        for(int j=0;j<n;j+=m){
+          m=avail(2,n-j);
+          ByteArrayAccess.getShorts(rBuff,rBuffPos,shortArr,j,m,isLittleEndian);
+          rBuffPos+=m*2;
+        }
         return shortArr;
       case 6:
         int[] intArr=new int[n];
-        ByteArrayAccess.getInts(rBuff,rBuffPos,intArr,isLittleEndian);
-        rBuffPos+=n*4;
+        for(int j=0;j<n;j+=m){
+          m=avail(4,n-j);
+          ByteArrayAccess.getInts(rBuff,rBuffPos,intArr,j,m,isLittleEndian);
+          rBuffPos+=m*4;
+        }
         return intArr;
       case 7:
         long[] longa=new long[n];
-        ByteArrayAccess.getLongs(rBuff,rBuffPos,longa,isLittleEndian);
-        rBuffPos+=n*8;
+        for(int j=0;j<n;j+=m){
+          m=avail(8,n-j);
+          ByteArrayAccess.getLongs(rBuff,rBuffPos,longa,j,m,isLittleEndian);
+          rBuffPos+=m*8;
+        }
         return longa;
       case 8:
         float[] floatArr=new float[n];
-        ByteArrayAccess.getFloats(rBuff,rBuffPos,floatArr,isLittleEndian);
-        rBuffPos += n*4;
+        for(int j=0;j<n;j+=m){
+          m=avail(4,n-j);
+          ByteArrayAccess.getFloats(rBuff,rBuffPos,floatArr,j,m,isLittleEndian);
+          rBuffPos+=m*4;
+        }
         return floatArr;
       case 9:
         double[] doubleArr=new double[n];
-        ByteArrayAccess.getDoubles(rBuff,rBuffPos,doubleArr,isLittleEndian);
-        rBuffPos += n*8;
+        for(int j=0;j<n;j+=m){
+          m=avail(8,n-j);
+          ByteArrayAccess.getDoubles(rBuff,rBuffPos,doubleArr,j,m,isLittleEndian);
+          rBuffPos+=m*8;
+        }
         return doubleArr;
       case 10:
+        need(n); // chars are decoded from contiguous bytes, as a multi-byte encoding may not be split
         char[] charArr=new String(rBuff,rBuffPos,n,encoding).toCharArray();
         rBuffPos+=n;
         return charArr;
@@ -1266,43 +4983,51 @@ public class c{
         return stringArr;
       case 12:
         Instant[] timestampArr=new Instant[n];
-        for(;i<n;i++)
-          timestampArr[i]=rp();
+        while(i<n)
+          for(m=i+avail(8,n-i);i<m;i++)
+            timestampArr[i]=rp();
         return timestampArr;
       case 13:
         Month[] monthArr=new Month[n];
-        for(;i<n;i++)
-          monthArr[i]=rm();
+        while(i<n)
+          for(m=i+avail(4,n-i);i<m;i++)
+            monthArr[i]=rm();
         return monthArr;
       case 14:
         LocalDate[] dateArr=new LocalDate[n];
-        for(;i<n;i++)
-          dateArr[i]=rd();
+        while(i<n)
+          for(m=i+avail(4,n-i);i<m;i++)
+            dateArr[i]=rd();
         return dateArr;
       case 15:
         LocalDateTime[] dateUtilArr=new LocalDateTime[n];
-        for(;i<n;i++)
-          dateUtilArr[i]=rz();
+        while(i<n)
+          for(m=i+avail(8,n-i);i<m;i++)
+            dateUtilArr[i]=rz();
         return dateUtilArr;
       case 16:
         Timespan[] timespanArr=new Timespan[n];
-        for(;i<n;i++)
-          timespanArr[i]=rn();
+        while(i<n)
+          for(m=i+avail(8,n-i);i<m;i++)
+            timespanArr[i]=rn();
         return timespanArr;
       case 17:
         Minute[] minArr=new Minute[n];
-        for(;i<n;i++)
-          minArr[i]=ru();
+        while(i<n)
+          for(m=i+avail(4,n-i);i<m;i++)
+            minArr[i]=ru();
         return minArr;
       case 18:
         Second[] secArr=new Second[n];
-        for(;i<n;i++)
-          secArr[i]=rv();
+        while(i<n)
+          for(m=i+avail(4,n-i);i<m;i++)
+            secArr[i]=rv();
         return secArr;
       case 19:
         LocalTime[] timeArr=new LocalTime[n];
-        for(;i<n;i++)
-          timeArr[i]=rt();
+        while(i<n)
+          for(m=i+avail(4,n-i);i<m;i++)
+            timeArr[i]=rt();
         return timeArr;
       default:
         // An unhandled type (e.g. an enumeration, types 20-76) must fail loudly: silently returning
@@ -1312,6 +5037,329 @@ public class c{
           +". Types 20-76 are enumerations; resolve them with `value` on the kdb+ side before sending.");
     }
   }
+  /**
+   * Decodes a table whose columns are decoded as they are accessed, indexing them by skipping over their bytes
+   * @return a {@link LazyFlip}, or a {@link Flip} if its columns are not a general list
+   * @throws UnsupportedEncodingException If the named charset is not supported
+   */
+  private Flip lazyFlip() throws UnsupportedEncodingException{
+    need(1);
+    if(rBuff[rBuffPos]!=99)
+      return new Flip((Dict)r());
+    rBuffPos++;
+    Object names=r();
+    need(6);
+    if(!(names instanceof String[])||rBuff[rBuffPos]!=0)
+      return new Flip(new Dict(names,r()));
+    rBuffPos+=2;
+    int n=ri();
+    int[] offsets=new int[n];
+    for(int i=0;i<n;i++){
+      offsets[i]=rBuffPos;
+      skip();
+    }
+    c decoder=decoder();
+    decoder.lazyTables=true;
+    return new LazyFlip((String[])names,decoder,offsets);
+  }
+  /**
+   * Decodes a table, decoding its columns in parallel on {@code decodePool} if they span at least {@code decodeThreshold}
+   * bytes
+   * @return the table
+   * @throws UnsupportedEncodingException If the named charset is not supported
+   */
+  private Flip parallelFlip() throws UnsupportedEncodingException{
+    need(1);
+    if(rBuff[rBuffPos]!=99)
+      return new Flip((Dict)r());
+    rBuffPos++;
+    Object names=r();
+    need(6);
+    if(!(names instanceof String[])||rBuff[rBuffPos]!=0)
+      return new Flip(new Dict(names,r()));
+    rBuffPos+=2;
+    int n=ri();
+    int start=rBuffPos;
+    int[] offsets=new int[n];
+    for(int i=0;i<n;i++){
+      offsets[i]=rBuffPos;
+      skip();
+    }
+    Object[] y=new Object[n];
+    if(n<2||rBuffPos-start<decodeThreshold){
+      int end=rBuffPos;
+      rBuffPos=start;
+      for(int i=0;i<n;i++)
+        y[i]=r();
+      rBuffPos=end;
+    }else
+      decodePool.invoke(new ColumnTask(this,offsets,y,0,n));
+    return new Flip((String[])names,y);
+  }
+  /**
+   * Creates a decoder of the message being read, with the settings of this connection
+   * @return the decoder, whose rBuffPos is yet to be set
+   */
+  private c decoder(){
+    c decoder=new c();
+    decoder.rBuff=rBuff;
+    decoder.rLimit=rLimit;
+    decoder.isLittleEndian=isLittleEndian;
+    decoder.columnViews=columnViews;
+    decoder.temporalColumns=temporalColumns;
+    decoder.symbolTable=symbolTable;
+    return decoder;
+  }
+  /** Decodes a range of the columns of a table, dividing it between the threads of the pool */
+  private static final class ColumnTask extends RecursiveAction{
+    private static final long serialVersionUID=1L;
+    private final transient c source;
+    private final int[] offsets;
+    private final Object[] y;
+    private final int lo;
+    private final int hi;
+    ColumnTask(c source,int[] offsets,Object[] y,int lo,int hi){
+      this.source=source;
+      this.offsets=offsets;
+      this.y=y;
+      this.lo=lo;
+      this.hi=hi;
+    }
+    @Override
+    protected void compute(){
+      if(hi-lo>1){
+        int mid=(lo+hi)>>>1;
+        invokeAll(new ColumnTask(source,offsets,y,lo,mid),new ColumnTask(source,offsets,y,mid,hi));
+        return;
+      }
+      c decoder=source.decoder();
+      decoder.rBuffPos=offsets[lo];
+      try{
+        y[lo]=decoder.r();
+      }catch(UnsupportedEncodingException e){
+        throw new RuntimeException(e);  // the encoding was already used to decode the column names
+      }
+    }
+  }
+  /**
+   * Advances rBuffPos past an object without decoding it, failing as {@link #r()} would on a malformed message or unsupported
+   * type
+   */
+  private void skip(){
+    need(1);
+    int t=rBuff[rBuffPos++];
+    if(t<0){
+      if(t==-11)
+        skipSymbol();
+      else if(t>=-19&&t!=-3){
+        need(nt[-t]);
+        rBuffPos+=nt[-t];
+      }else
+        throw new RuntimeException("Unable to deserialize unsupported kdb+ type: "+t);
+      return;
+    }
+    if(t>99){
+      if(t==100){
+        skipSymbol();
+        skip();
+      }else if(t<104){
+        need(1);
+        rBuffPos++;
+      }else if(t>105)
+        skip();
+      else{
+        need(4);
+        for(int i=0,n=ri();i<n;i++)
+          skip();
+      }
+      return;
+    }
+    if(t==99){
+      skip();
+      skip();
+      return;
+    }
+    need(t==98?1:5);
+    rBuffPos++;
+    if(t==98){
+      skip();
+      return;
+    }
+    int n=ri();
+    if(t==0)
+      for(int i=0;i<n;i++)
+        skip();
+    else if(t==11)
+      for(int i=0;i<n;i++)
+        skipSymbol();
+    else if(t<=19&&t!=3)
+      discard((long)n*nt[t]);
+    else
+      throw new RuntimeException("Unable to deserialize unsupported kdb+ type: "+t
+        +". Types 20-76 are enumerations; resolve them with `value` on the kdb+ side before sending.");
+  }
+  private void skipSymbol(){
+    for(;;){
+      int p=rBuffPos;
+      while(p<rLimit&&rBuff[p]!=0)
+        p++;
+      if(p<rLimit){
+        rBuffPos=p+1;
+        return;
+      }
+      // the rest of the symbol is in the part of a streamed message yet to be read
+      rBuffPos=p;
+      if(!fill(1))
+        throw new RuntimeException("Malformed message: symbol at offset "+rBuffPos+" is not null-terminated");
+    }
+  }
+  /**
+   * Advances rBuffPos past {@code n} bytes, reading through them if the message is streamed
+   * @param n number of bytes to skip
+   */
+  private void discard(long n){
+    if(n<0)
+      throw new RuntimeException("Malformed message: truncated at offset "+rBuffPos);
+    while(n>0){
+      int m=avail(1,(int)Math.min(n,Integer.MAX_VALUE));
+      rBuffPos+=m;
+      n-=m;
+    }
+  }
+  /**
+   * Decodes a table, skipping the columns and rows excluded by {@code rOptions}
+   * @return the table of the columns and rows wanted
+   * @throws UnsupportedEncodingException If the named charset is not supported
+   */
+  private Flip projectedFlip() throws UnsupportedEncodingException{
+    need(1);
+    if(rBuff[rBuffPos]!=99)
+      return new Flip((Dict)r());
+    rBuffPos++;
+    Object names=r();
+    need(6);
+    if(!(names instanceof String[])||rBuff[rBuffPos]!=0)
+      return new Flip(new Dict(names,r()));
+    rBuffPos+=2;
+    String[] x=(String[])names;
+    int n=ri();
+    boolean[] wanted=rOptions.wanted(x);
+    int k=0;
+    for(boolean b:wanted)
+      if(b)
+        k++;
+    String[] keep=new String[k];
+    Object[] y=new Object[k];
+    for(int i=0,j=0;i<n;i++){
+      if(!wanted[i]){
+        skip();
+        continue;
+      }
+      keep[j]=x[i];
+      y[j++]=rColumn();
+    }
+    return new Flip(keep,y);
+  }
+  /**
+   * Decodes the rows of a column within the row window of {@code rOptions}, skipping the others
+   * @return deserialised column
+   * @throws UnsupportedEncodingException If the named charset is not supported
+   */
+  private Object rColumn() throws UnsupportedEncodingException{
+    need(1);
+    int t=rBuff[rBuffPos];
+    if(!rOptions.rows||t<0||t>19||t==3)
+      return r();
+    need(6);
+    rBuffPos+=2;
+    int n=ri();
+    int first=rOptions.first(n);
+    int m=rOptions.count(n);
+    skipElements(t,first);
+    Object v=rVector(t,m);
+    skipElements(t,n-first-m);
+    return v;
+  }
+  /**
+   * Advances rBuffPos past elements of a vector, or items of a general list, without decoding them
+   * @param t kdb+ type of the vector
+   * @param n number of elements to skip
+   */
+  private void skipElements(int t,int n){
+    if(t==0)
+      for(int i=0;i<n;i++)
+        skip();
+    else if(t==11)
+      for(int i=0;i<n;i++)
+        skipSymbol();
+    else
+      discard((long)n*nt[t]);
+  }
+  /**
+   * Decodes a temporal vector of {@code n} elements into a column of its values
+   * @param t kdb+ type of the vector, 12 to 19
+   * @param n number of elements
+   * @return the column
+   */
+  private Column temporalColumn(int t,int n){
+    int m;
+    if(t==15){
+      double[] a=new double[n];
+      for(int j=0;j<n;j+=m){
+        m=avail(8,n-j);
+        ByteArrayAccess.getDoubles(rBuff,rBuffPos,a,j,m,isLittleEndian);
+        rBuffPos+=m*8;
+      }
+      return new DatetimeColumn(a);
+    }
+    if(t==12||t==16){
+      long[] a=new long[n];
+      for(int j=0;j<n;j+=m){
+        m=avail(8,n-j);
+        ByteArrayAccess.getLongs(rBuff,rBuffPos,a,j,m,isLittleEndian);
+        rBuffPos+=m*8;
+      }
+      return t==12?new TimestampColumn(a):new TimespanColumn(a);
+    }
+    int[] a=new int[n];
+    for(int j=0;j<n;j+=m){
+      m=avail(4,n-j);
+      ByteArrayAccess.getInts(rBuff,rBuffPos,a,j,m,isLittleEndian);
+      rBuffPos+=m*4;
+    }
+    switch(t){
+      case 13:
+        return new MonthColumn(a);
+      case 14:
+        return new DateColumn(a);
+      case 17:
+        return new MinuteColumn(a);
+      case 18:
+        return new SecondColumn(a);
+      default:
+        return new TimeColumn(a);
+    }
+  }
+  /**
+   * Creates a view of the vector of {@code n} elements at rBuffPos
+   * @param t kdb+ type of the vector, 5 to 9
+   * @param n number of elements
+   * @return the view
+   */
+  private Column view(int t,int n){
+    switch(t){
+      case 5:
+        return new ShortColumn(rBuff,rBuffPos,n,isLittleEndian);
+      case 6:
+        return new IntColumn(rBuff,rBuffPos,n,isLittleEndian);
+      case 7:
+        return new LongColumn(rBuff,rBuffPos,n,isLittleEndian);
+      case 8:
+        return new FloatColumn(rBuff,rBuffPos,n,isLittleEndian);
+      default:
+        return new DoubleColumn(rBuff,rBuffPos,n,isLittleEndian);
+    }
+  }
 
 //object.getClass().isArray()   t(int[]) is .5 isarray is .1 lookup .05
   /**
@@ -1396,6 +5444,8 @@ public class c{
       return 17;
     if (x instanceof Second[])
       return 18;
+    if (x instanceof Column)
+      return ((Column)x).type();
     if (x instanceof Flip)
       return 98;
     if (x instanceof Dict)
@@ -1445,7 +5495,7 @@ public class c{
     if (x instanceof Dict)
       return n(((Dict)x).x);
     if (x instanceof Flip)
-      return n(((Flip)x).y[0]);
+      return n(((Flip)x).column(0));
     if(x instanceof char[]){
       char[] a=(char[])x;
       if(StandardCharsets.ISO_8859_1.equals(encoding)){
@@ -1461,8 +5511,22 @@ public class c{
       }
       return new String(a).getBytes(encoding).length;
     }
+    if(x instanceof Column)
+      return ((Column)x).size();
     return Array.getLength(x);
   }
+  /**
+   * Calculates the number of bytes required to serialize a symbol, including its null terminator, using the symbol cache if
+   * one is set
+   * @param s symbol to be serialized
+   * @return number of bytes required to serialise a symbol
+   * @throws UnsupportedEncodingException  If the named charset is not supported
+   */
+  private int nsz(String s) throws UnsupportedEncodingException{
+    SymbolEncodingCache cache=symbolCache;
+    byte[] b=cache==null?null:cache.encode(s,encoding);
+    return b==null?1+ns(s):b.length;
+  }
   /**
    * Calculates the number of bytes which would be required to serialize the supplied object.
    * @param x Object to be serialized
@@ -1476,28 +5540,153 @@ public class c{
     if(type==99)
       return 1+nx(((Dict)x).x)+nx(((Dict)x).y);
     if(type==98)
-      return 3+nx(((Flip)x).x)+nx(((Flip)x).y);
+      return 3+nx(((Flip)x).x)+nx(((Flip)x).columns());
     if(type<0)
-      return type==-11?2+ns((String)x):1+nt[-type];
+      return type==-11?1+nsz((String)x):1+nt[-type];
     int numBytes=6;
     int numElements=n(x);
-    if(type==0||type==11)
+    if(x instanceof SymbolColumn){
+      SymbolColumn v=(SymbolColumn)x;
+      byte[][] symbols=v.encode(encoding);
+      for(int idx=0;idx<numElements;++idx)
+        numBytes+=symbols[v.codes[idx]].length;
+    }else if(type==0||type==11)
       for(int idx=0;idx<numElements;++idx)
-        numBytes+=type==0?nx(((Object[])x)[idx]):1+ns(((String[])x)[idx]);
+        numBytes+=type==0?nx(((Object[])x)[idx]):nsz(((String[])x)[idx]);
     else
       numBytes+=numElements*nt[type];
     return numBytes;
   }
 
+  /**
+   * Serializes the columns of a table, or items of a message, on {@code encodePool}, each into its region of wBuff, if they
+   * are at least {@code encodeThreshold} bytes long
+   * @param x columns or items, whose list type, attributes and count have been written
+   * @return true if the items were written, or false if they are too short to be serialized in parallel
+   * @throws IOException if the buffer could not be grown
+   */
+  private boolean wParallel(Object[] x) throws IOException{
+    int n=x.length;
+    int start=wBuffPos;
+    int[] offsets=new int[n+1];
+    long p=start;
+    for(int i=0;i<n;i++){
+      offsets[i]=(int)Math.min(p,Integer.MAX_VALUE);
+      p+=nx(x[i]);
+    }
+    long length=p-start;
+    if(length<encodeThreshold)
+      return false;
+    if(p>Integer.MAX_VALUE-8)
+      throw new RuntimeException("Unable to serialize message larger than 2GB");
+    offsets[n]=(int)p;
+    reserve(length+17);  // the type and largest atom reserved before each item may reach beyond the last
+    ItemTask task=new ItemTask(this,x,offsets,0,n,Math.max(1,length/(4L*encodePool.getParallelism())));
+    encodePool.invoke(task);
+    if(task.mismatch){
+      // an item's length differs from that calculated, as that of a char vector may in a multi-byte encoding
+      wBuffPos=start;
+      for(Object v:x)
+        w(v);
+    }else
+      wBuffPos=(int)p;
+    return true;
+  }
+  /** Serializes a range of the columns of a table, or items of a message, dividing it between the threads of the pool */
+  private static final class ItemTask extends RecursiveAction{
+    private static final long serialVersionUID=1L;
+    private final transient c source;
+    private final Object[] x;
+    /** Position in wBuff of each item, and of the end of the last */
+    private final int[] offsets;
+    private final int lo;
+    private final int hi;
+    /** Length in bytes below which a range of items is serialized by a single task */
+    private final long grain;
+    /** Whether an item of the range was not serialized within its region */
+    volatile boolean mismatch;
+    ItemTask(c source,Object[] x,int[] offsets,int lo,int hi,long grain){
+      this.source=source;
+      this.x=x;
+      this.offsets=offsets;
+      this.lo=lo;
+      this.hi=hi;
+      this.grain=grain;
+    }
+    @Override
+    protected void compute(){
+      if(hi-lo>1&&offsets[hi]-offsets[lo]>grain){
+        int mid=(lo+hi)>>>1;
+        ItemTask a=new ItemTask(source,x,offsets,lo,mid,grain);
+        ItemTask b=new ItemTask(source,x,offsets,mid,hi,grain);
+        invokeAll(a,b);
+        mismatch=a.mismatch||b.mismatch;
+        return;
+      }
+      // writers are reused, as a connection allocates streams and locks
+      c writer=source.encoders.poll();
+      if(writer==null)
+        writer=new c();
+      writer.ipcVersion=source.ipcVersion;
+      writer.symbolCache=source.symbolCache;
+      // a table among the items of a message has its columns serialized on the pool too
+      writer.encodePool=source.encodePool;
+      writer.encodeThreshold=source.encodeThreshold;
+      writer.encoders=source.encoders;
+      writer.wBuff=source.wBuff;
+      writer.wCap=source.wCap;
+      try{
+        for(int i=lo;i<hi&&!mismatch;i++){
+          writer.wBuffPos=offsets[i];
+          writer.w(x[i]);
+          mismatch=writer.wBuffPos!=offsets[i+1]||writer.wBuff!=source.wBuff;
+        }
+      }catch(IOException e){
+        throw new UncheckedIOException(e);
+      }finally{
+        writer.wBuff=null;
+        writer.symbolCache=null;
+        source.encoders.offer(writer);
+      }
+    }
+  }
+  /**
+   * Serializes a message, of which the items of a general list, such as the arguments of a function call, may be serialized
+   * on {@code encodePool}. The items of the lists it contains are serialized on the writing thread, other than the columns
+   * of tables.
+   * @param x the message
+   * @throws IOException if the buffer could not be grown
+   */
+  private void wMessage(Object x) throws IOException{
+    if(encodePool!=null&&x instanceof Object[]&&t(x)==0&&((Object[])x).length>1&&!wStreaming&&wGather==null)
+      wItems((Object[])x);
+    else
+      w(x);
+  }
+  /**
+   * Serializes a general list, of which the items are serialized on {@code encodePool} if they are long enough
+   * @param x items of the list
+   * @throws IOException if the buffer could not be grown
+   */
+  private void wItems(Object[] x) throws IOException{
+    reserve(6);
+    wBuff[wBuffPos++]=0;
+    wBuff[wBuffPos++]=0;
+    w(x.length);
+    if(!wParallel(x))
+      for(Object v:x)
+        w(v);
+  }
   /**
    * Serialize object in big endian format
    * @param x Object to serialize
    * @throws UnsupportedEncodingException If the named charset (encoding) is not supported
+   * @throws IOException if a chunk of a streamed message could not be written
    */
-  void w(Object x) throws UnsupportedEncodingException{
-    int i=0;
+  void w(Object x) throws IOException{
     int n;
     int type=t(x);
+    reserve(17); // type and the largest atom, or type, attributes and count of a list
     w((byte)type);
     if(type<0)
       switch(type){
@@ -1529,7 +5718,7 @@ public class c{
           w(((Character)x).charValue());
           return;
         case -11:
-          w((String)x);
+          wSymbol((String)x);
           return;
         case -12:
           w((Instant)x);
@@ -1571,7 +5760,29 @@ public class c{
       Flip r=(Flip)x;
       wBuff[wBuffPos++]=99;
       w(r.x);
-      w(r.y);
+      Object[] y=r.columns();
+      if(encodePool!=null&&y.length>1&&!wStreaming&&wGather==null)
+        wItems(y);
+      else
+        w(y);
+      return;
+    }
+    if(type==10){
+      char[] chars=(char[])x;
+      if(room(4L+chars.length)){
+        int p=wBuffPos;
+        wBuffPos+=4;
+        if(wLatin1(chars)){
+          ByteArrayAccess.putIntLE(wBuff,p,chars.length);
+          return;
+        }
+        wBuffPos=p;
+      }
+      // the count of a char vector is its encoded length
+      byte[] chara=new String(chars).getBytes(encoding);
+      reserve(4);
+      w(chara.length);
+      wBytes(chara,0,chara.length);
       return;
     }
     n=n(x);
@@ -1582,383 +5793,1914 @@ public class c{
         for(Object v:obja)
           w(v);
         return;
-      case 1: 
-        boolean[] boola=(boolean[])x;
-        i=wBuffPos;
-        for(boolean v:boola)
-            wBuff[i++]=(byte)(v?1:0);
-        wBuffPos=i;
-        return;
       case 2: 
         if(ipcVersion<3)
           throw new RuntimeException("Guid not valid pre kdb+3.0");
+        break;
+      case 11:
+        if(x instanceof SymbolColumn){
+          SymbolColumn v=(SymbolColumn)x;
+          byte[][] symbols=v.encode(encoding);
+          for(int j=0;j<n;j++){
+            byte[] b=symbols[v.codes[j]];
+            wBytes(b,0,b.length);
+          }
+          return;
+        }
+        String[] stringa=(String[])x;
+        for(String v:stringa)
+          wSymbol(v);
+        return;
+      case 12:
+        if(ipcVersion<1)
+          throw new RuntimeException("Instant not valid pre kdb+2.6");
+        break;
+      case 16:
+        if(ipcVersion<1)
+          throw new RuntimeException("Timespan not valid pre kdb+2.6");
+        break;
+    }
+    int size=nt[type];
+    if(wGather!=null&&(long)n*size>=gatherThreshold&&wGather.add(wBuffPos,x))
+      return;
+    for(int off=0;off<n;){
+      int m=n-off;
+      if((long)m*size>wCap-wBuffPos){
+        grow((long)m*size);
+        m=Math.min(m,(wCap-wBuffPos)/size); // when streaming, as many as fit in the chunk
+      }
+      w(type,x,off,m);
+      off+=m;
+    }
+  }
+  /**
+   * Writes the elements {@code off} to {@code off+len} of a vector of fixed width elements to the serialization buffer,
+   * which must have room for them
+   * @param type kdb+ type of the vector
+   * @param x vector to serialize
+   * @param off index of the first element to write
+   * @param len number of elements to write
+   */
+  private void w(int type,Object x,int off,int len){
+    if(x instanceof Column){
+      ((Column)x).write(wBuff,wBuffPos,off,len);
+      wBuffPos+=len*nt[type];
+      return;
+    }
+    int i=wBuffPos;
+    int end=off+len;
+    switch(type){
+      case 1: 
+        boolean[] boola=(boolean[])x;
+        for(int j=off;j<end;j++)
+          wBuff[i++]=(byte)(boola[j]?1:0);
+        break;
+      case 2: 
         UUID[] uuida=(UUID[])x;
-        i=wBuffPos;
-        for(UUID v:uuida){
-          ByteArrayAccess.putLongBE(wBuff,i,v.getMostSignificantBits());
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putLongBE(wBuff,i,uuida[j].getMostSignificantBits());
           i+=8;
-          ByteArrayAccess.putLongBE(wBuff,i,v.getLeastSignificantBits());
+          ByteArrayAccess.putLongBE(wBuff,i,uuida[j].getLeastSignificantBits());
           i+=8;
         }
-        wBuffPos=i;
-        return;
+        break;
       case 4:
-        byte[] bytea=(byte[])x;
-        System.arraycopy(bytea,0,wBuff,wBuffPos,bytea.length);
-        wBuffPos+=bytea.length;
-        return;
+        System.arraycopy((byte[])x,off,wBuff,i,len);
+        i+=len;
+        break;
       case 5:
-        short[] shorta=(short[])x;
-        ByteArrayAccess.putShortsLE(wBuff,wBuffPos,shorta);
-        wBuffPos+=shorta.length*2;
-        return;
+        ByteArrayAccess.putShortsLE(wBuff,i,(short[])x,off,len);
+        i+=len*2;
+        break;
       case 6:
-        int[] inta=(int[])x;
-        ByteArrayAccess.putIntsLE(wBuff,wBuffPos,inta);
-        wBuffPos+=inta.length*4;
-        return;
+        ByteArrayAccess.putIntsLE(wBuff,i,(int[])x,off,len);
+        i+=len*4;
+        break;
       case 7:
-        long[] longa=(long[])x;
-        ByteArrayAccess.putLongsLE(wBuff,wBuffPos,longa);
-        wBuffPos+=longa.length*8;
-        return;
+        ByteArrayAccess.putLongsLE(wBuff,i,(long[])x,off,len);
+        i+=len*8;
+        break;
       case 8:
-        float[] floata=(float[])x;
-        ByteArrayAccess.putFloatsLE(wBuff,wBuffPos,floata);
-        wBuffPos+=floata.length*4;
-        return;
+        ByteArrayAccess.putFloatsLE(wBuff,i,(float[])x,off,len);
+        i+=len*4;
+        break;
       case 9:
-        double[] doublea=(double[])x;
-        ByteArrayAccess.putDoublesLE(wBuff,wBuffPos,doublea);
-        wBuffPos+=doublea.length*8;
-        return;
-      case 10:
-        byte[] chara=new String((char[])x).getBytes(encoding);
-        System.arraycopy(chara,0,wBuff,wBuffPos,chara.length);
-        wBuffPos+=chara.length;
-        return;
-      case 11:
-        String[] stringa=(String[])x;
-        for(String v:stringa)
-          w(v);
-        return;
+        ByteArrayAccess.putDoublesLE(wBuff,i,(double[])x,off,len);
+        i+=len*8;
+        break;
       case 12:
-        if(ipcVersion<1)
-          throw new RuntimeException("Instant not valid pre kdb+2.6");
         Instant[] instanta=(Instant[])x;
-        i=wBuffPos;
-        for (Instant v:instanta) {
-          ByteArrayAccess.putLongLE(wBuff,i,convertInstant(v));
-          i += 8;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putLongLE(wBuff,i,convertInstant(instanta[j]));
+          i+=8;
         }
-        wBuffPos=i;
-        return;
+        break;
       case 13:
         Month[] montha=(Month[])x;
-        i=wBuffPos;
-        for (Month v:montha) {
-          ByteArrayAccess.putIntLE(wBuff,i,v.i);
-          i += 4;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putIntLE(wBuff,i,montha[j].i);
+          i+=4;
         }
-        wBuffPos=i;
-        return;
+        break;
       case 14:
         LocalDate[] localdatea=(LocalDate[])x;
-        i=wBuffPos;
-        for(LocalDate v:localdatea){
-          ByteArrayAccess.putIntLE(wBuff,i,convertLocalDate(v));
-          i += 4;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putIntLE(wBuff,i,convertLocalDate(localdatea[j]));
+          i+=4;
         }
-        wBuffPos=i;
-        return;
+        break;
       case 15:
         LocalDateTime[] localdatetimea=(LocalDateTime[])x;
-        i=wBuffPos;
-        for(LocalDateTime v:localdatetimea){
-          ByteArrayAccess.putLongLE(wBuff,i,Double.doubleToLongBits(convertLocalDateTime(v)));
-          i += 8;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putLongLE(wBuff,i,Double.doubleToLongBits(convertLocalDateTime(localdatetimea[j])));
+          i+=8;
         }
-        wBuffPos=i;
-        return;
+        break;
       case 16:
-        if(ipcVersion<1)
-          throw new RuntimeException("Timespan not valid pre kdb+2.6");
         Timespan[] timespana=(Timespan[])x;
-        i=wBuffPos;
-        for (Timespan v:timespana) {
-          ByteArrayAccess.putLongLE(wBuff,i,v.j);
-          i += 8;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putLongLE(wBuff,i,timespana[j].j);
+          i+=8;
+        }
+        break;
+      case 17:
+        Minute[] minutea=(Minute[])x;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putIntLE(wBuff,i,minutea[j].i);
+          i+=4;
+        }
+        break;
+      case 18:
+        Second[] seconda=(Second[])x;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putIntLE(wBuff,i,seconda[j].i);
+          i+=4;
+        }
+        break;
+      case 19:
+        LocalTime[] localtimea=(LocalTime[])x;
+        for(int j=off;j<end;j++){
+          ByteArrayAccess.putIntLE(wBuff,i,convertLocalTime(localtimea[j]));
+          i+=4;
+        }
+        break;
+    }
+    wBuffPos=i;
+  }
+
+  /**
+   * Serialises {@code x} object as {@code byte[]} array.
+   * @param msgType type of the ipc message (0 – async, 1 – sync, 2 – response)
+   * @param x object to serialise
+   * @param zip true if to attempt compress serialised output (given uncompressed serialized data also has a length
+   * greater than 2000 bytes and connection is not localhost)
+   * @return {@code wBuff} containing serialised representation
+   *
+   * @throws IOException should not throw
+   */
+  public byte[] serialize(int msgType,Object x,boolean zip)throws IOException{
+    writeLock.lock();
+    try{
+      if(!singlePass){
+        serialize(msgType,x,zip,null);
+        return wBuffPos==wBuff.length?wBuff:Arrays.copyOf(wBuff,wBuffPos);
+      }
+      // the message is copied to an array of its exact length, so the working buffer can be reused
+      BufferPool pool=bufferPool;
+      if(pool==null){
+        if(serializeScratch==null)
+          serializeScratch=new ScratchBufferPool();
+        pool=serializeScratch;
+      }
+      serialize(msgType,x,zip,pool);
+      byte[] result=Arrays.copyOf(wBuff,wBuffPos);
+      pool.release(wBuff);
+      wBuff=null;
+      return result;
+    }finally{
+      writeLock.unlock();
+    }
+  }
+  /**
+   * Serialises {@code x} into {@code wBuff}, leaving {@code wBuffPos} at the end of the message. The buffer may be longer
+   * than the message when taken from a pool, or when the message has been compressed.
+   * @param msgType type of the ipc message (0 – async, 1 – sync, 2 – response)
+   * @param x object to serialise
+   * @param zip true if to attempt compress serialised output
+   * @param pool pool to take buffers from, or null to allocate them
+   * @throws IOException should not throw
+   */
+  private void serialize(int msgType,Object x,boolean zip,BufferPool pool)throws IOException{
+    if(singlePass){
+      wBuff=allocate(pool,wSizeHint);
+      wPool=pool;
+      wCap=wBuff.length;
+      wBuffPos=8;
+      try{
+        wMessage(x);
+      }finally{
+        wCap=Integer.MAX_VALUE;
+        wPool=null;
+      }
+      wSizeHint=Math.max(64,wBuffPos);
+      ByteArrayAccess.putIntLE(wBuff,4,wBuffPos);
+      header(msgType,zip,pool);
+    }else
+      serialize(msgType,x,zip,pool,8+nx(x));
+  }
+  /**
+   * Serialises {@code x} into a {@code wBuff} of at least its known length
+   * @param msgType type of the ipc message (0 – async, 1 – sync, 2 – response)
+   * @param x object to serialise
+   * @param zip true if to attempt compress serialised output
+   * @param pool pool to take buffers from, or null to allocate them
+   * @param length length of the serialized message, as calculated by {@link #nx(Object)}, plus 8 for the header
+   * @throws IOException should not throw
+   */
+  private void serialize(int msgType,Object x,boolean zip,BufferPool pool,int length)throws IOException{
+    wBuff=allocate(pool,length);
+    wBuffPos=4;
+    w(length);
+    wMessage(x);
+    header(msgType,zip,pool);
+  }
+  /**
+   * Completes the header of the message serialized in {@code wBuff}, compressing it if requested and worthwhile
+   * @param msgType type of the ipc message (0 – async, 1 – sync, 2 – response)
+   * @param zip true if to attempt compress serialised output
+   * @param pool pool to take buffers from, or null to allocate them
+   */
+  private void header(int msgType,boolean zip,BufferPool pool){
+    wBuff[0]=1;  /* little endian */
+    wBuff[1]=(byte)msgType;
+    wBuff[2]=0;
+    wBuff[3]=0;
+    if(!zip||wBuffPos<Compressor.MIN_LENGTH)  // too short to compress, whatever the policy
+      return;
+    CompressionPolicy policy=compressionPolicy;
+    if(policy==null){
+      if(wBuffPos>2000&&!isLoopback)
+        compress(pool);
+    }else if(policy.shouldCompress(wBuff,wBuffPos,isLoopback,writeCompressor())){
+      int length=wBuffPos;
+      long start=System.nanoTime();
+      int n=compress(pool);
+      policy.compressed(length,n,System.nanoTime()-start);
+    }
+  }
+
+  /**
+   * Deserialises {@code buffer} q ipc as an object
+   * @param buffer byte[] to deserialise object from
+   * @return deserialised object
+   * @throws KException if buffer contains kdb+ error object.
+   * @throws UnsupportedEncodingException  If the named charset is not supported
+   */
+  public Object deserialize(byte[]buffer)throws KException, UnsupportedEncodingException{
+    return deserialize(buffer,null);
+  }
+  /**
+   * Deserialises {@code buffer} q ipc as an object, decoding only the columns and rows of its tables selected by
+   * {@code options}
+   * @param buffer byte[] to deserialise object from
+   * @param options columns and rows to decode, or null to decode the message in full
+   * @return deserialised object
+   * @throws KException if buffer contains kdb+ error object.
+   * @throws UnsupportedEncodingException  If the named charset is not supported
+   */
+  public Object deserialize(byte[]buffer,DecodeOptions options)throws KException, UnsupportedEncodingException{
+    readLock.lock();
+    try{
+      rOptions=options;
+      rBuff=buffer;
+      isLittleEndian=rBuff[0]==1;  // endianness of the msg
+      boolean compressed=rBuff[2]==1;
+      rBuffPos=8;
+      if(compressed)
+        uncompress();
+      else
+        rLimit=rBuff.length;
+      if(rBuff[8]==-128){
+        rBuffPos=9;
+        throw new KException(rs());
+      }
+      return r(); // deserialize the message
+    }finally{
+      rOptions=null;
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Parses {@code buffer} q ipc, passing its contents to a visitor rather than deserialising it as objects
+   * @param buffer byte[] to parse
+   * @param visitor visitor to receive the contents of the message
+   * @throws KException if buffer contains kdb+ error object.
+   * @throws UnsupportedEncodingException  If the named charset is not supported
+   */
+  public void parse(byte[]buffer,KVisitor visitor)throws KException, UnsupportedEncodingException{
+    readLock.lock();
+    try{
+      rBuff=buffer;
+      isLittleEndian=rBuff[0]==1;  // endianness of the msg
+      boolean compressed=rBuff[2]==1;
+      rBuffPos=8;
+      if(compressed)
+        uncompress();
+      else
+        rLimit=rBuff.length;
+      if(rBuff[8]==-128){
+        rBuffPos=9;
+        throw new KException(rs());
+      }
+      visit(visitor);
+    }finally{
+      readLock.unlock();
+    }
+  }
+  /**
+   * Passes the object at rBuffPos to a visitor, as {@link #r()} would decode it
+   * @param v the visitor
+   * @throws UnsupportedEncodingException If the named charset is not supported
+   */
+  private void visit(KVisitor v) throws UnsupportedEncodingException{
+    need(1);
+    int t=rBuff[rBuffPos++];
+    if(t<0&&t>=-19)
+      need(nt[-t]);
+    if(t<0){
+      switch(t){
+        case -1:
+          v.onBoolean(rb());
+          return;
+        case -2:
+          long msb=ByteArrayAccess.getLongBE(rBuff,rBuffPos);
+          long lsb=ByteArrayAccess.getLongBE(rBuff,rBuffPos+8);
+          rBuffPos+=16;
+          v.onGuid(msb,lsb);
+          return;
+        case -4:
+          v.onByte(rBuff[rBuffPos++]);
+          return;
+        case -5:
+          v.onShort(rh());
+          return;
+        case -6:
+        case -13:
+        case -14:
+        case -17:
+        case -18:
+        case -19:
+          v.onInt(t,ri());
+          return;
+        case -7:
+        case -12:
+        case -16:
+          v.onLong(t,rj());
+          return;
+        case -8:
+          v.onReal(re());
+          return;
+        case -9:
+        case -15:
+          v.onFloat(t,rf());
+          return;
+        case -10:
+          v.onChar(rc());
+          return;
+        case -11:
+          int p=rBuffPos;
+          skipSymbol();
+          v.onSymbol(rBuff,p,rBuffPos-1-p);
+          return;
+      }
+      throw new RuntimeException("Unable to deserialize unsupported kdb+ type: "+t);
+    }
+    if(t>99){
+      if(t==100){
+        skipSymbol();
+        visit(v);  // a lambda is decoded as its source
+        return;
+      }
+      if(t<104){
+        need(1);
+        if(rBuff[rBuffPos++]==0&&t==101)
+          v.onNull();
+        else
+          v.onFunction(t);
+        return;
+      }
+      rBuffPos--;
+      skip();
+      v.onFunction(t);
+      return;
+    }
+    if(t==99){
+      v.onDictStart();
+      visit(v);
+      visit(v);
+      v.onDictEnd();
+      return;
+    }
+    need(t==98?1:5);
+    rBuffPos++;
+    if(t==98){
+      v.onTableStart();
+      visit(v);
+      v.onTableEnd();
+      return;
+    }
+    int n=ri();
+    if(t==0||t==11){
+      v.onListStart(t,n);
+      for(int i=0;i<n;i++){
+        if(t==0)
+          visit(v);
+        else{
+          int p=rBuffPos;
+          skipSymbol();
+          v.onSymbol(rBuff,p,rBuffPos-1-p);
         }
-        wBuffPos=i;
+      }
+      v.onListEnd(t);
+      return;
+    }
+    if(t>19||t==3)
+      throw new RuntimeException("Unable to deserialize unsupported kdb+ type: "+t
+        +". Types 20-76 are enumerations; resolve them with `value` on the kdb+ side before sending.");
+    long length=(long)n*nt[t];
+    if(n<0||length>rLimit-rBuffPos)
+      throw new RuntimeException("Malformed message: truncated at offset "+rBuffPos);
+    int p=rBuffPos;
+    rBuffPos+=(int)length;
+    if(t==10)
+      v.onChars(rBuff,p,n);
+    else
+      v.onVector(t,rBuff,p,n,isLittleEndian);
+  }
+
+  private void write(byte[] buf) throws IOException{
+    write(buf,buf.length);
+  }
+
+  private void write(byte[] buf,int len) throws IOException{
+    if(channel==null)
+      outStream.write(buf,0,len);
+    else{
+      ByteBuffer b=ByteBuffer.wrap(buf,0,len);
+      while(b.hasRemaining())
+        channel.write(b);
+    }
+  }
+
+  /**
+   * Serialize and write the data to the registered connection
+   * @param msgType The message type to use within the message (0 – async, 1 – sync, 2 – response)
+   * @param x The contents of the message
+   * @throws IOException due to an issue serializing/sending the provided data
+   */
+  protected void w(int msgType,Object x) throws IOException{
+    writeLock.lock();
+    try{
+      BufferPool pool=bufferPool;
+      if(pool==null&&zip&&!isLoopback){
+        // a message which is compressed needs a second buffer, so both are reused rather than allocated for each message,
+        // unless the message is too long for the compressor to retain its buffers
+        pool=writeCompressor().buffers;
+      }
+      if(gatherThreshold>0&&channel!=null&&!(zip&&(compressionPolicy!=null||!isLoopback))){
+        gather(msgType,x,pool);
         return;
-      case 17:
-        Minute[] minutea=(Minute[])x;
-        i=wBuffPos;
-        for (Minute v:minutea) {
-          ByteArrayAccess.putIntLE(wBuff,i,v.i);
-          i += 4;
+      }
+      if(writeChunkSize>0){
+        int length=8+nx(x);
+        if(length>writeChunkSize){
+          stream(msgType,x,length,pool);
+          return;
         }
-        wBuffPos=i;
-        return;
-      case 18:
-        Second[] seconda=(Second[])x;
-        i=wBuffPos;
-        for (Second v:seconda) {
-          ByteArrayAccess.putIntLE(wBuff,i,v.i);
-          i += 4;
+        serialize(msgType,x,zip,pool,length);
+      }else
+        serialize(msgType,x,zip,pool);
+      try{
+        write(wBuff,wBuffPos);
+      }finally{
+        if(pool!=null){
+          pool.release(wBuff);
+          wBuff=null;
         }
-        wBuffPos=i;
-        return;
-      case 19:
-        LocalTime[] localtimea=(LocalTime[])x;
-        i=wBuffPos;
-        for (LocalTime v:localtimea) {
-          ByteArrayAccess.putIntLE(wBuff,i,convertLocalTime(v));
-          i += 4;
+      }
+    }finally{
+      writeLock.unlock();
+    }
+  }
+  /**
+   * Serializes and writes a message to the channel, writing vectors of at least {@code gatherThreshold} bytes from their own
+   * arrays, with a gathering write, rather than copying them into the message buffer
+   * @param msgType The message type to use within the message (0 – async, 1 – sync, 2 – response)
+   * @param x The contents of the message
+   * @param pool pool to take the message buffer from, or null to allocate it
+   * @throws IOException due to an issue serializing/sending the provided data
+   */
+  private void gather(int msgType,Object x,BufferPool pool) throws IOException{
+    Gather g=gather;
+    if(g==null)
+      gather=g=new Gather();
+    // the message buffer grows as required, as the length calculated by nx would include the vectors written separately
+    wBuff=allocate(pool,wSizeHint);
+    wPool=pool;
+    wCap=wBuff.length;
+    wBuffPos=8;
+    wGather=g;
+    try{
+      try{
+        w(x);
+      }finally{
+        wCap=Integer.MAX_VALUE;
+        wPool=null;
+        wGather=null;
+      }
+      long length=wBuffPos+g.bytes;
+      if(length>Integer.MAX_VALUE)
+        throw new RuntimeException("Unable to serialize message larger than 2GB");
+      wSizeHint=Math.max(64,wBuffPos);
+      ByteArrayAccess.putIntLE(wBuff,4,(int)length);
+      header(msgType,false,pool);
+      if(g.n==0)
+        write(wBuff,wBuffPos);
+      else{
+        ByteBuffer[] buffers=g.buffers(wBuff,wBuffPos);
+        for(int i=0;i<buffers.length;){
+          channel.write(buffers,i,buffers.length-i);
+          while(i<buffers.length&&!buffers[i].hasRemaining())
+            i++;
         }
-        wBuffPos=i;
-        return;
+      }
+    }finally{
+      g.clear();
+      if(pool!=null)
+        pool.release(wBuff);
+      wBuff=null;
     }
   }
-
   /**
-   * Serialises {@code x} object as {@code byte[]} array.
-   * @param msgType type of the ipc message (0 – async, 1 – sync, 2 – response)
-   * @param x object to serialise
-   * @param zip true if to attempt compress serialised output (given uncompressed serialized data also has a length
-   * greater than 2000 bytes and connection is not localhost)
-   * @return {@code wBuff} containing serialised representation
-   *
-   * @throws IOException should not throw
+   * Serializes and writes a message to the connection in chunks of {@code writeChunkSize} bytes
+   * @param msgType The message type to use within the message (0 – async, 1 – sync, 2 – response)
+   * @param x The contents of the message
+   * @param length length of the serialized message, as calculated by {@link #nx(Object)}, plus 8 for the header
+   * @param pool pool to take the chunk buffer from, or null to allocate it
+   * @throws IOException due to an issue serializing/sending the provided data
    */
-  public byte[] serialize(int msgType,Object x,boolean zip)throws IOException{
-    int length=8+nx(x);
-    synchronized(outStream){
-      wBuff=new byte[length];
-      wBuff[0]=1;  /* little endian */
+  private void stream(int msgType,Object x,int length,BufferPool pool) throws IOException{
+    wBuff=allocate(pool,writeChunkSize);
+    wCap=writeChunkSize;
+    wStreaming=true;
+    try{
+      wBuff[0]=1; /* little endian */
       wBuff[1]=(byte)msgType;
+      wBuff[2]=0;
+      wBuff[3]=0;
       wBuffPos=4;
       w(length);
       w(x);
-      if(zip&&wBuffPos>2000&&!isLoopback)
-        compress();
-      return wBuff;
+      write(wBuff,wBuffPos);
+    }finally{
+      wStreaming=false;
+      wCap=Integer.MAX_VALUE;
+      if(pool!=null)
+        pool.release(wBuff);
+      wBuff=null;
     }
   }
-
   /**
-   * Deserialises {@code buffer} q ipc as an object
-   * @param buffer byte[] to deserialise object from
-   * @return deserialised object
-   * @throws KException if buffer contains kdb+ error object.
-   * @throws UnsupportedEncodingException  If the named charset is not supported
+   * Sends a response message to the remote kdb+ process. This should be called only during processing of an incoming sync message.
+   * @param obj Object to send to the remote
+   * @throws IOException if not expecting any response
    */
-  public Object deserialize(byte[]buffer)throws KException, UnsupportedEncodingException{
-    synchronized(inStream){
-      rBuff=buffer;
-      isLittleEndian=rBuff[0]==1;  // endianness of the msg
-      boolean compressed=rBuff[2]==1;
-      rBuffPos=8;
-      if(compressed)
-        uncompress();
-      if(rBuff[8]==-128){
-        rBuffPos=9;
-        throw new KException(rs());
+  public void kr(Object obj) throws IOException{
+    if(sync==0)
+      throw new IOException("Unexpected response msg");
+    sync--;
+    w(2,obj);
+  }
+  /**
+   * Sends an error as a response message to the remote kdb+ process. This should be called only during processing of an incoming sync message.
+   * @param text The error message text
+   * @throws IOException unexpected error message
+   */
+  public void ke(String text) throws IOException{
+    if(sync==0)
+      throw new IOException("Unexpected error msg");
+    sync--;
+    int n=2+ns(text)+8;
+    writeLock.lock();
+    try{
+      BufferPool pool=bufferPool;
+      wBuff=allocate(pool,n);
+      wBuff[0]=1; /* little endian */
+      wBuff[1]=2;
+      wBuff[2]=0;
+      wBuff[3]=0;
+      wBuffPos=4;
+      w(n);
+      w((byte)-128);
+      w(text);
+      try{
+        write(wBuff,wBuffPos);
+      }finally{
+        if(pool!=null){
+          pool.release(wBuff);
+          wBuff=null;
+        }
       }
-      return r(); // deserialize the message
+    }finally{
+      writeLock.unlock();
     }
   }
-
-  private void write(byte[] buf) throws IOException{
-    if(channel==null)
-      outStream.write(buf);
-    else
-      channel.write(ByteBuffer.wrap(buf));
+  /**
+   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
+   * socket. On return, there is no guarantee that this msg has already been processed by the remote process.
+   * @param expr The expression to send
+   * @throws IOException if an I/O error occurs.
+   */
+  public void ks(String expr) throws IOException{
+    w(0,expr.toCharArray());
   }
-
   /**
-   * Serialize and write the data to the registered connection
-   * @param msgType The message type to use within the message (0 – async, 1 – sync, 2 – response)
-   * @param x The contents of the message
-   * @throws IOException due to an issue serializing/sending the provided data
+   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
+   * socket. On return, there is no guarantee that this msg has already been processed by the remote process.
+   * @param obj The object to send
+   * @throws IOException if an I/O error occurs.
    */
-  protected void w(int msgType,Object x) throws IOException{
-    synchronized(outStream){
-      byte[] buffer=serialize(msgType,x,zip);
-      write(buffer);
+  public void ks(Object obj) throws IOException{
+    w(0,obj);
+  }
+  /**
+   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
+   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
+   * invoke a function in kdb+ which takes a single argument and does not return a value. e.g. to invoke f[x] use
+   * ks("f",x); to invoke a lambda, use ks("{x}",x);
+   * @param s The name of the function, or a lambda itself
+   * @param x The argument to the function named in s
+   * @throws IOException if an I/O error occurs.
+   */
+  public void ks(String s,Object x) throws IOException{
+    Object[] a={s.toCharArray(),x};
+    w(0,a);
+  }
+  /**
+   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
+   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
+   * invoke a function in kdb+ which takes 2 arguments and does not return a value. e.g. to invoke f[x;y] use ks("f",x,y);
+   * to invoke a lambda, use ks("{x+y}",x,y);
+   * @param s The name of the function, or a lambda itself
+   * @param x The first argument to the function named in s
+   * @param y The second argument to the function named in s
+   * @throws IOException if an I/O error occurs.
+   */
+  public void ks(String s,Object x,Object y) throws IOException{
+    Object[] a={s.toCharArray(),x,y};
+    w(0,a);
+  }
+  /**
+   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
+   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
+   * invoke a function in kdb+ which takes 3 arguments and does not return a value. e.g. to invoke f[x;y;z] use
+   * ks("f",x,y,z); to invoke a lambda, use ks("{x+y+z}",x,y,z);
+   * @param s The name of the function, or a lambda itself
+   * @param x The first argument to the function named in s
+   * @param y The second argument to the function named in s
+   * @param z The third argument to the function named in s
+   * @throws IOException if an I/O error occurs.
+   */
+  public void ks(String s,Object x,Object y,Object z) throws IOException{
+    Object[] a={s.toCharArray(),x,y,z};
+    w(0,a);
+  }
+  /**
+   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
+   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
+   * invoke a function in kdb+ which takes 4 arguments and does not return a value. e.g. to invoke f[param1;param2;param3;param4] use
+   * ks("f",param1,param2,param3,param4); to invoke a lambda, use ks("{[param1;param2;param3;param4] param1+param2+param3+param4}",param1,param2,param3,param4);
+   * @param s The name of the function, or a lambda itself
+   * @param param1 The first argument to the function named in s
+   * @param param2 The second argument to the function named in s
+   * @param param3 The third argument to the function named in s
+   * @param param4 The fourth argument to the function named in s
+   * @throws IOException if an I/O error occurs.
+   */
+  public void ks(String s,Object param1, Object param2,Object param3,Object param4) throws IOException{
+    Object[] a={s.toCharArray(),param1,param2,param3,param4};
+    w(0,a);
+  }
+  /**
+   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
+   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
+   * invoke a function in kdb+ which takes 5 arguments and does not return a value. e.g. to invoke f[param1;param2;param3;param4;param5] use
+   * ks("f",param1,param2,param3,param4,param5); to invoke a lambda, use ks("{[param1;param2;param3;param4;param5] param1+param2+param3+param4+param5}",param1,param2,param3,param4,param5);
+   * @param s The name of the function, or a lambda itself
+   * @param param1 The first argument to the function named in s
+   * @param param2 The second argument to the function named in s
+   * @param param3 The third argument to the function named in s
+   * @param param4 The fourth argument to the function named in s
+   * @param param5 The fifth argument to the function named in s
+   * @throws IOException if an I/O error occurs.
+   */
+  public void ks(String s,Object param1, Object param2,Object param3,Object param4,Object param5) throws IOException{
+    Object[] a={s.toCharArray(),param1,param2,param3,param4,param5};
+    w(0,a);
+  }
+  /**
+   * Reads an incoming message from the remote kdb+ process. This blocks until a single message has been received and
+   * deserialized. This is called automatically during a sync request via k(String s,..). It can be called explicitly when
+   * subscribing to a publisher.
+   * @return an Object array of {messageType,deserialised object}
+   * @throws KException if response contains an error
+   * @throws IOException if an I/O error occurs.
+   * @throws UnsupportedEncodingException If the named charset is not supported
+   */
+  public Object[] readMsg() throws KException,IOException,UnsupportedEncodingException{
+    readLock.lock();
+    try{
+      if(channel==null){
+        rBuff=new byte[8];
+        inStream.readFully(rBuff); // read the msg header
+      }else{
+        ByteBuffer buf=ByteBuffer.allocate(8);
+        while(0!=buf.remaining())if(-1==channel.read(buf))throw new java.io.EOFException("end of stream");
+        rBuff=buf.array();
+      }
+      isLittleEndian=rBuff[0]==1;  // endianness of the msg
+      if(rBuff[1]==1) // msg types are 0 - async, 1 - sync, 2 - response
+        sync++;   // an incoming sync message means the remote will expect a response message
+      rBuffPos=4;
+      DecodeOptions options=rBuff[1]==2?responseOptions:null;
+      if(readChunkSize>0&&rBuff[2]!=1){
+        int length=ri();
+        if(length>readChunkSize){
+          rOptions=options;
+          try{
+            return new Object[]{rBuff[1],readStreamed(length)};
+          }finally{
+            rOptions=null;
+          }
+        }
+        rBuffPos=4;
+      }
+      if(channel==null){
+        rBuff=Arrays.copyOf(rBuff,ri());
+        inStream.readFully(rBuff,8,rBuff.length-8); // read the incoming message in full
+      }else{
+        ByteBuffer buf=ByteBuffer.allocate(ri());
+        buf.put(rBuff,0,rBuff.length);
+        while(0!=buf.remaining())if(-1==channel.read(buf))throw new java.io.EOFException("end of stream");
+        rBuff=buf.array();
+      }
+      return new Object[]{rBuff[1],deserialize(rBuff,options)};
+    }finally{
+      readLock.unlock();
+    }
+  }
+  /**
+   * Decodes the contents of a message through the window of {@code readChunkSize} bytes, reading them from the connection as
+   * they are required. The message header has been read into rBuff.
+   * @param length length of the message, including its header
+   * @return the deserialised object
+   * @throws KException if the message contains a kdb+ error object
+   * @throws IOException if an I/O error occurs
+   */
+  private Object readStreamed(int length) throws KException,IOException{
+    isLittleEndian=rBuff[0]==1;
+    if(rChunk==null||rChunk.length!=readChunkSize)
+      rChunk=new byte[readChunkSize];
+    rBuff=rChunk;
+    rBuffPos=0;
+    rLimit=0;
+    rRemaining=length-8;
+    rStreaming=true;
+    boolean aligned=true;
+    try{
+      need(1);
+      if(rBuff[0]==-128){
+        rBuffPos=1;
+        throw new KException(rs());
+      }
+      return r();
+    }catch(UncheckedIOException e){
+      aligned=false;
+      throw e.getCause();
+    }finally{
+      rStreaming=false;
+      // a message which failed to decode is consumed in full, leaving the connection at the start of the next one
+      while(aligned&&rRemaining>0)
+        rRemaining-=read(rChunk,0,Math.min(rRemaining,rChunk.length));
+      rRemaining=0;
     }
   }
   /**
-   * Sends a response message to the remote kdb+ process. This should be called only during processing of an incoming sync message.
-   * @param obj Object to send to the remote
-   * @throws IOException if not expecting any response
+   * Reads an incoming message from the remote kdb+ process. This blocks until a single message has been received and
+   * deserialized. This is called automatically during a sync request via k(String s,..). It can be called explicitly when
+   * subscribing to a publisher.
+   * @return the deserialised object
+   * @throws KException if response contains an error
+   * @throws IOException if an I/O error occurs.
+   * @throws UnsupportedEncodingException If the named charset is not supported
    */
-  public void kr(Object obj) throws IOException{
-    if(sync==0)
-      throw new IOException("Unexpected response msg");
-    sync--;
-    w(2,obj);
+  public Object k() throws KException,IOException,UnsupportedEncodingException{
+    return readMsg()[1];
   }
   /**
-   * Sends an error as a response message to the remote kdb+ process. This should be called only during processing of an incoming sync message.
+   * Serialises an error as a response message
    * @param text The error message text
-   * @throws IOException unexpected error message
+   * @return the serialized message
+   * @throws IOException should not throw
    */
-  public void ke(String text) throws IOException{
-    if(sync==0)
-      throw new IOException("Unexpected error msg");
-    sync--;
+  byte[] serializeError(String text) throws IOException{
     int n=2+ns(text)+8;
-    synchronized(outStream){
+    writeLock.lock();
+    try{
       wBuff=new byte[n];
       wBuff[0]=1; /* little endian */
       wBuff[1]=2;
+      wBuff[2]=0;
+      wBuff[3]=0;
       wBuffPos=4;
       w(n);
       w((byte)-128);
       w(text);
-      write(wBuff);
+      byte[] b=wBuff;
+      wBuff=null;
+      return b;
+    }finally{
+      writeLock.unlock();
     }
   }
   /**
-   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
-   * socket. On return, there is no guarantee that this msg has already been processed by the remote process.
-   * @param expr The expression to send
-   * @throws IOException if an I/O error occurs.
+   * {@code NioListener} receives the async and sync messages arriving on a {@link NioConnection}, and is told when it closes.
+   * It is called on the I/O thread of the {@link EventLoop} servicing the connection, so must not block.
    */
-  public void ks(String expr) throws IOException{
-    w(0,expr.toCharArray());
+  public interface NioListener{
+    /**
+     * The default implementation discards async messages and responds to sync messages with an error, as the default
+     * {@link MsgHandler} does
+     * @param conn The connection that received the message
+     * @param msgType The type of the message received (0 – async, 1 – sync)
+     * @param msg The message contents
+     * @throws IOException if the message cannot be processed, which closes the connection
+     */
+    default void onMessage(NioConnection conn,byte msgType,Object msg)throws IOException{
+      if(msgType==1)
+        conn.ke("unable to process sync requests");
+      else
+        System.err.println("discarded unexpected incoming async msg!");
+    }
+    /**
+     * Called once the connection has closed, after any responses still awaited have failed. A RuntimeException it throws is
+     * passed to the uncaught exception handler of the I/O thread, which goes on to service its other connections.
+     * @param conn The connection that closed
+     * @param cause The failure that closed the connection, or null if it was closed by {@link NioConnection#close()} or
+     * {@link EventLoop#close()}
+     */
+    default void onClose(NioConnection conn,Throwable cause){
+    }
   }
   /**
-   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
-   * socket. On return, there is no guarantee that this msg has already been processed by the remote process.
-   * @param obj The object to send
-   * @throws IOException if an I/O error occurs.
+   * {@code EventLoop} services many non-blocking kdb+ connections from a fixed number of I/O threads, rather than pinning a
+   * thread to each connection. Each thread multiplexes its share of the connections with a {@link Selector}, framing
+   * incoming messages by the length in their header and writing outgoing messages as the sockets accept them. Connections
+   * are opened by {@link #connect(String,int,String,NioListener)}, and are assigned to the threads in turn.
    */
-  public void ks(Object obj) throws IOException{
-    w(0,obj);
+  public static class EventLoop implements Closeable{
+    private final Worker[] workers;
+    private final AtomicInteger next=new AtomicInteger();
+    private volatile boolean closed;
+    /**
+     * Creates an event loop and starts its I/O threads, which are daemon threads
+     * @param threads Number of I/O threads
+     * @throws IOException if a selector cannot be opened
+     * @throws IllegalArgumentException if threads is less than 1
+     */
+    public EventLoop(int threads) throws IOException{
+      if(threads<1)
+        throw new IllegalArgumentException("Invalid event loop threads: "+threads);
+      workers=new Worker[threads];
+      for(int i=0;i<threads;i++){
+        try{
+          workers[i]=new Worker(Selector.open(),"kdb-event-loop-"+i);
+        }catch(IOException e){
+          while(i-->0)
+            workers[i].selector.close();
+          throw e;
+        }
+      }
+      for(Worker worker:workers)
+        worker.start();
+    }
+    /**
+     * Connects to a kdb+ process over TCP. The handshake is completed before returning, after which the connection is
+     * serviced by one of the I/O threads. The maximum transmissible message size is 2GB due to a limitation with the maximum
+     * array size in Java, therefore <a href="https://code.kx.com/q/basics/ipc/#handshake">capability 3</a> will be used
+     * within the kdb+ handshake.
+     * @param host Host of remote q process
+     * @param port Port of remote q process
+     * @param usernamepassword Username and password as "username:password" for remote authorization
+     * @param listener Listener for incoming async and sync messages, or null to use the default {@link NioListener}
+     * @return the connection
+     * @throws KException if access denied
+     * @throws IOException if an I/O error occurs, or the event loop has been closed
+     */
+    public NioConnection connect(String host,int port,String usernamepassword,NioListener listener) throws KException,IOException{
+      if(closed)
+        throw new IOException("Event loop closed");
+      SocketChannel channel=SocketChannel.open(new InetSocketAddress(host,port));
+      try{
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        c codec=new c();
+        codec.isLoopback=isLoopback(((InetSocketAddress)channel.getRemoteAddress()).getAddress());
+        codec.wBuff=new byte[2+ns(usernamepassword)];
+        codec.wBuffPos=0;
+        codec.w(usernamepassword+"\3");
+        ByteBuffer buf=ByteBuffer.wrap(codec.wBuff);
+        while(buf.hasRemaining())
+          channel.write(buf);
+        codec.wBuff=null;
+        buf=ByteBuffer.allocate(1);
+        if(1!=channel.read(buf))
+          throw new KException(ACCESS);
+        codec.ipcVersion=Math.min(buf.get(0),3);
+        channel.configureBlocking(false);
+        Worker worker=workers[(next.getAndIncrement()&Integer.MAX_VALUE)%workers.length];
+        NioConnection conn=new NioConnection(worker,channel,codec,listener==null?new NioListener(){}:listener);
+        conn.schedule();
+        return conn;
+      }catch(KException|IOException|RuntimeException e){
+        channel.close();
+        throw e;
+      }
+    }
+    /**
+     * Closes every connection and stops the I/O threads, waiting for them to finish unless called from one of them.
+     * Messages not yet written are discarded.
+     */
+    @Override
+    public void close(){
+      closed=true;
+      for(Worker worker:workers){
+        worker.running=false;
+        worker.selector.wakeup();
+      }
+      boolean interrupted=false;
+      for(Worker worker:workers){
+        while(worker!=Thread.currentThread()&&worker.isAlive()){
+          try{
+            worker.join();
+          }catch(InterruptedException e){
+            interrupted=true;
+          }
+        }
+      }
+      if(interrupted)
+        Thread.currentThread().interrupt();
+    }
+    /** An I/O thread, and the connections scheduled for it to update. */
+    private static final class Worker extends Thread{
+      final Selector selector;
+      final ConcurrentLinkedQueue<NioConnection> scheduled=new ConcurrentLinkedQueue<>();
+      /** Buffer into which each readable socket is read, before its bytes are copied to the messages they belong to */
+      final ByteBuffer readBuffer=ByteBuffer.allocate(65536);
+      volatile boolean running=true;
+      Worker(Selector selector,String name){
+        super(name);
+        this.selector=selector;
+        setDaemon(true);
+      }
+      void schedule(NioConnection conn){
+        scheduled.add(conn);
+        selector.wakeup();
+      }
+      @Override
+      public void run(){
+        IOException failure=null;
+        try{
+          while(running){
+            selector.select();
+            NioConnection conn;
+            while((conn=scheduled.poll())!=null)
+              conn.update();
+            Iterator<SelectionKey> it=selector.selectedKeys().iterator();
+            while(it.hasNext()){
+              SelectionKey key=it.next();
+              it.remove();
+              ((NioConnection)key.attachment()).ready(key,readBuffer);
+            }
+          }
+        }catch(IOException e){
+          failure=e;
+        }finally{
+          for(SelectionKey key:new ArrayList<>(selector.keys()))
+            ((NioConnection)key.attachment()).closed(failure);
+          NioConnection conn;
+          while((conn=scheduled.poll())!=null)
+            conn.closed(failure);
+          try{
+            selector.close();
+          }catch(IOException e){
+            // nothing is left to report it to
+          }
+        }
+      }
+    }
   }
   /**
-   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
-   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
-   * invoke a function in kdb+ which takes a single argument and does not return a value. e.g. to invoke f[x] use
-   * ks("f",x); to invoke a lambda, use ks("{x}",x);
-   * @param s The name of the function, or a lambda itself
-   * @param x The argument to the function named in s
-   * @throws IOException if an I/O error occurs.
+   * {@code ResponseQueue} holds the futures of the sync requests sent on a connection, in the order they were sent, and
+   * completes them in turn as their responses arrive, kdb+ responding to sync messages in order. Guarded by itself.
    */
-  public void ks(String s,Object x) throws IOException{
-    Object[] a={s.toCharArray(),x};
-    w(0,a);
+  private static final class ResponseQueue{
+    private final ArrayDeque<CompletableFuture<Object>> futures=new ArrayDeque<>();
+    synchronized void add(CompletableFuture<Object> future){
+      futures.add(future);
+    }
+    synchronized CompletableFuture<Object> peek(){
+      return futures.peek();
+    }
+    /**
+     * Removes the future of a request which could not be sent
+     * @param future the future, the last queued
+     */
+    synchronized void remove(CompletableFuture<Object> future){
+      futures.removeLastOccurrence(future);
+    }
+    /**
+     * Completes the future of the oldest request with its response
+     * @param x the deserialised response, if not an error
+     * @param error the error the request resulted in, or null
+     * @param executor the executor to complete the future on, or null to complete it on the calling thread
+     * @throws IOException if no response is awaited
+     */
+    void complete(Object x,KException error,Executor executor) throws IOException{
+      CompletableFuture<Object> future;
+      synchronized(this){
+        future=futures.poll();
+      }
+      if(future==null)
+        throw new IOException("Unexpected response msg");
+      if(executor==null)
+        complete(future,x,error);
+      else
+        executor.execute(()->complete(future,x,error));
+    }
+    private static void complete(CompletableFuture<Object> future,Object x,KException error){
+      if(error!=null)
+        future.completeExceptionally(error);
+      else
+        future.complete(x);
+    }
+    /**
+     * Removes the futures of every request awaiting its response
+     * @return the futures removed, to be failed once no lock is held
+     */
+    synchronized CompletableFuture<?>[] drain(){
+      CompletableFuture<?>[] drained=futures.toArray(new CompletableFuture<?>[0]);
+      futures.clear();
+      return drained;
+    }
+    static void fail(CompletableFuture<?>[] futures,Throwable e){
+      for(CompletableFuture<?> future:futures)
+        future.completeExceptionally(e);
+    }
   }
   /**
-   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
-   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
-   * invoke a function in kdb+ which takes 2 arguments and does not return a value. e.g. to invoke f[x;y] use ks("f",x,y);
-   * to invoke a lambda, use ks("{x+y}",x,y);
-   * @param s The name of the function, or a lambda itself
-   * @param x The first argument to the function named in s
-   * @param y The second argument to the function named in s
-   * @throws IOException if an I/O error occurs.
+   * {@code NioConnection} is a non-blocking connection to a kdb+ process, serviced by an {@link EventLoop}. Messages are
+   * serialized on the calling thread and queued to be written by the I/O thread, so sending never blocks on the socket.
+   * Sync requests return a {@link CompletableFuture} of their response, matched to them in the order they were sent, and
+   * many may be outstanding at once. Futures are completed, and the {@link NioListener} called, on the I/O thread.
    */
-  public void ks(String s,Object x,Object y) throws IOException{
-    Object[] a={s.toCharArray(),x,y};
-    w(0,a);
+  public static class NioConnection implements Closeable{
+    private final EventLoop.Worker worker;
+    private final SocketChannel channel;
+    private final c codec;
+    private final NioListener listener;
+    /** Messages waiting to be written, and the futures of the sync requests awaiting responses, guarded by writes */
+    private final ArrayDeque<ByteBuffer> writes=new ArrayDeque<>();
+    private final ResponseQueue responses=new ResponseQueue();
+    /** Indicates whether the connection has been closed to new messages */
+    private boolean closed;
+    private final AtomicBoolean scheduled=new AtomicBoolean();
+    /** Number of incoming sync messages which still expect a response */
+    private final AtomicInteger sync=new AtomicInteger();
+    /** The following are accessed only by the I/O thread */
+    private SelectionKey key;
+    private boolean finished;
+    private final byte[] header=new byte[8];
+    private byte[] msg;
+    private int msgPos;
+
+    NioConnection(EventLoop.Worker worker,SocketChannel channel,c codec,NioListener listener){
+      this.worker=worker;
+      this.channel=channel;
+      this.codec=codec;
+      this.listener=listener;
+    }
+    /**
+     * Returns the {@link c} which serializes and deserializes the messages of this connection, through which options such
+     * as compression, column views and symbol caches may be set
+     * @return the codec of this connection
+     */
+    public c getCodec(){
+      return codec;
+    }
+    /**
+     * Indicates whether messages may still be sent on this connection
+     * @return false once the connection has been closed, or has failed
+     */
+    public boolean isOpen(){
+      synchronized(writes){
+        return !closed;
+      }
+    }
+    /**
+     * Sends a sync message to the remote kdb+ process, without waiting for its response
+     * @param x The object to send
+     * @return a future of the deserialised response, which fails with a {@link KException} if request evaluation resulted
+     * in an error, or with an IOException if the connection closes first
+     * @throws IOException if the connection is closed, or {@code x} cannot be serialized
+     */
+    public CompletableFuture<Object> k(Object x) throws IOException{
+      CompletableFuture<Object> response=new CompletableFuture<>();
+      send(codec.serialize(1,x,codec.zip),response);
+      return response;
+    }
+    /**
+     * Sends a sync message to the remote kdb+ process, without waiting for its response
+     * @param expr The expression to send
+     * @return a future of the deserialised response
+     * @throws IOException if the connection is closed
+     */
+    public CompletableFuture<Object> k(String expr) throws IOException{
+      return k(expr.toCharArray());
+    }
+    /**
+     * Sends a sync message to the remote kdb+ process, without waiting for its response
+     * @param s The name of the function to call
+     * @param x The parameter to the function
+     * @return a future of the deserialised response
+     * @throws IOException if the connection is closed, or the parameter cannot be serialized
+     */
+    public CompletableFuture<Object> k(String s,Object x) throws IOException{
+      Object[] a={s.toCharArray(),x};
+      return k(a);
+    }
+    /**
+     * Sends a sync message to the remote kdb+ process, without waiting for its response
+     * @param s The name of the function to call
+     * @param x The first parameter to the function
+     * @param y The second parameter to the function
+     * @return a future of the deserialised response
+     * @throws IOException if the connection is closed, or the parameters cannot be serialized
+     */
+    public CompletableFuture<Object> k(String s,Object x,Object y) throws IOException{
+      Object[] a={s.toCharArray(),x,y};
+      return k(a);
+    }
+    /**
+     * Sends a sync message to the remote kdb+ process, without waiting for its response
+     * @param s The name of the function to call
+     * @param x The first parameter to the function
+     * @param y The second parameter to the function
+     * @param z The third parameter to the function
+     * @return a future of the deserialised response
+     * @throws IOException if the connection is closed, or the parameters cannot be serialized
+     */
+    public CompletableFuture<Object> k(String s,Object x,Object y,Object z) throws IOException{
+      Object[] a={s.toCharArray(),x,y,z};
+      return k(a);
+    }
+    /**
+     * Sends an async message to the remote kdb+ process. On return the message has been queued to be written.
+     * @param x The object to send
+     * @throws IOException if the connection is closed, or {@code x} cannot be serialized
+     */
+    public void ks(Object x) throws IOException{
+      send(codec.serialize(0,x,codec.zip),null);
+    }
+    /**
+     * Sends an async message to the remote kdb+ process. On return the message has been queued to be written.
+     * @param expr The expression to send
+     * @throws IOException if the connection is closed
+     */
+    public void ks(String expr) throws IOException{
+      ks(expr.toCharArray());
+    }
+    /**
+     * Sends an async message to the remote kdb+ process. On return the message has been queued to be written.
+     * @param s The name of the function to call
+     * @param x The parameter to the function
+     * @throws IOException if the connection is closed, or the parameter cannot be serialized
+     */
+    public void ks(String s,Object x) throws IOException{
+      Object[] a={s.toCharArray(),x};
+      ks(a);
+    }
+    /**
+     * Sends an async message to the remote kdb+ process. On return the message has been queued to be written.
+     * @param s The name of the function to call
+     * @param x The first parameter to the function
+     * @param y The second parameter to the function
+     * @throws IOException if the connection is closed, or the parameters cannot be serialized
+     */
+    public void ks(String s,Object x,Object y) throws IOException{
+      Object[] a={s.toCharArray(),x,y};
+      ks(a);
+    }
+    /**
+     * Sends an async message to the remote kdb+ process. On return the message has been queued to be written.
+     * @param s The name of the function to call
+     * @param x The first parameter to the function
+     * @param y The second parameter to the function
+     * @param z The third parameter to the function
+     * @throws IOException if the connection is closed, or the parameters cannot be serialized
+     */
+    public void ks(String s,Object x,Object y,Object z) throws IOException{
+      Object[] a={s.toCharArray(),x,y,z};
+      ks(a);
+    }
+    /**
+     * Sends a response message to the remote kdb+ process. Responses must be sent in the order the sync messages they
+     * answer were received.
+     * @param obj Object to send to the remote
+     * @throws IOException if not expecting any response, or the connection is closed
+     */
+    public void kr(Object obj) throws IOException{
+      if(sync.getAndUpdate(n->n>0?n-1:n)==0)
+        throw new IOException("Unexpected response msg");
+      send(codec.serialize(2,obj,codec.zip),null);
+    }
+    /**
+     * Sends an error as a response message to the remote kdb+ process. Responses must be sent in the order the sync
+     * messages they answer were received.
+     * @param text The error message text
+     * @throws IOException if not expecting any response, or the connection is closed
+     */
+    public void ke(String text) throws IOException{
+      if(sync.getAndUpdate(n->n>0?n-1:n)==0)
+        throw new IOException("Unexpected error msg");
+      send(codec.serializeError(text),null);
+    }
+    /**
+     * Closes the connection once the messages already sent have been written. Responses still awaited fail.
+     */
+    @Override
+    public void close(){
+      synchronized(writes){
+        if(closed)
+          return;
+        closed=true;
+      }
+      schedule();
+    }
+    private void send(byte[] b,CompletableFuture<Object> response) throws IOException{
+      synchronized(writes){
+        if(closed)
+          throw new IOException("Connection closed");
+        writes.add(ByteBuffer.wrap(b));
+        if(response!=null)
+          responses.add(response);
+      }
+      schedule();
+    }
+    /** Asks the I/O thread to register the connection, write its queued messages, or close it. */
+    void schedule(){
+      if(scheduled.compareAndSet(false,true))
+        worker.schedule(this);
+    }
+    void update(){
+      scheduled.set(false);
+      try{
+        if(key==null&&!finished)
+          key=channel.register(worker.selector,SelectionKey.OP_READ,this);
+        flush();
+      }catch(IOException|RuntimeException e){
+        closed(e);
+      }
+    }
+    void ready(SelectionKey key,ByteBuffer in){
+      try{
+        if(key.isReadable())
+          read(in);
+        if(key.isValid()&&key.isWritable())
+          flush();
+      }catch(IOException|RuntimeException e){
+        closed(e);
+      }
+    }
+    /**
+     * Writes queued messages until the socket will accept no more, asking to be told when it can accept more if any remain
+     */
+    private void flush() throws IOException{
+      if(finished)
+        return;
+      boolean done;
+      synchronized(writes){
+        ByteBuffer b;
+        while((b=writes.peek())!=null){
+          channel.write(b);
+          if(b.hasRemaining())
+            break;
+          writes.poll();
+        }
+        int ops=writes.isEmpty()?SelectionKey.OP_READ:SelectionKey.OP_READ|SelectionKey.OP_WRITE;
+        if(key.interestOps()!=ops)
+          key.interestOps(ops);
+        done=closed&&writes.isEmpty();
+      }
+      if(done)
+        closed(null);
+    }
+    /**
+     * Reads what the socket has available, decoding each message as its last byte arrives
+     */
+    private void read(ByteBuffer in) throws IOException{
+      while(!finished){
+        in.clear();
+        int n=channel.read(in);
+        if(n<0)
+          throw new EOFException("end of stream");
+        in.flip();
+        while(in.hasRemaining()&&!finished)
+          frame(in);
+        if(n<in.capacity())
+          return;
+      }
+    }
+    private void frame(ByteBuffer in) throws IOException{
+      if(msg==null){
+        int n=Math.min(8-msgPos,in.remaining());
+        in.get(header,msgPos,n);
+        msgPos+=n;
+        if(msgPos<8)
+          return;
+        int length=header[0]==1?ByteArrayAccess.getIntLE(header,4):ByteArrayAccess.getIntBE(header,4);
+        if(length<9)
+          throw new IOException("Malformed message: length "+length);
+        msg=Arrays.copyOf(header,length);
+      }
+      int n=Math.min(msg.length-msgPos,in.remaining());
+      in.get(msg,msgPos,n);
+      msgPos+=n;
+      if(msgPos==msg.length){
+        byte[] b=msg;
+        msg=null;
+        msgPos=0;
+        dispatch(b);
+      }
+    }
+    private void dispatch(byte[] b) throws IOException{
+      byte msgType=b[1]; // msg types are 0 - async, 1 - sync, 2 - response
+      Object x=null;
+      KException error=null;
+      try{
+        x=codec.deserialize(b);
+      }catch(KException e){
+        error=e;
+      }
+      if(msgType==2){
+        responses.complete(x,error,codec.responseExecutor);
+        return;
+      }
+      if(error!=null)
+        throw new IOException("Unexpected error msg",error);
+      if(msgType==1)
+        sync.incrementAndGet();
+      listener.onMessage(this,msgType,x);
+    }
+    /**
+     * Releases the connection once it has closed or failed, failing the responses still awaited and notifying the listener
+     * @param cause the failure, or null if the connection was closed on request
+     */
+    void closed(Throwable cause){
+      if(finished)
+        return;
+      finished=true;
+      CompletableFuture<?>[] failed;
+      synchronized(writes){
+        closed=true;
+        writes.clear();
+        failed=responses.drain();
+      }
+      if(key!=null)
+        key.cancel();
+      try{
+        channel.close();
+      }catch(IOException e){
+        if(cause==null)
+          cause=e;
+        else
+          cause.addSuppressed(e);
+      }
+      ResponseQueue.fail(failed,new IOException("Connection closed",cause));
+      try{
+        listener.onClose(this,cause);
+      }catch(RuntimeException x){
+        // the I/O thread continues to service the other connections, reporting the failure as an uncaught exception would be
+        Thread t=Thread.currentThread();
+        t.getUncaughtExceptionHandler().uncaughtException(t,x);
+      }
+    }
   }
   /**
-   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
-   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
-   * invoke a function in kdb+ which takes 3 arguments and does not return a value. e.g. to invoke f[x;y;z] use
-   * ks("f",x,y,z); to invoke a lambda, use ks("{x+y+z}",x,y,z);
-   * @param s The name of the function, or a lambda itself
-   * @param x The first argument to the function named in s
-   * @param y The second argument to the function named in s
-   * @param z The third argument to the function named in s
-   * @throws IOException if an I/O error occurs.
+   * {@code Connector} opens a new connection for a {@link ConnectionPool}, e.g. through one of the {@link c} constructors.
    */
-  public void ks(String s,Object x,Object y,Object z) throws IOException{
-    Object[] a={s.toCharArray(),x,y,z};
-    w(0,a);
+  public interface Connector{
+    /**
+     * Opens a new connection
+     * @return the connection
+     * @throws KException if access is denied
+     * @throws IOException if an I/O error occurs
+     */
+    c connect() throws KException,IOException;
   }
   /**
-   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
-   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
-   * invoke a function in kdb+ which takes 4 arguments and does not return a value. e.g. to invoke f[param1;param2;param3;param4] use
-   * ks("f",param1,param2,param3,param4); to invoke a lambda, use ks("{[param1;param2;param3;param4] param1+param2+param3+param4}",param1,param2,param3,param4);
-   * @param s The name of the function, or a lambda itself
-   * @param param1 The first argument to the function named in s
-   * @param param2 The second argument to the function named in s
-   * @param param3 The third argument to the function named in s
-   * @param param4 The fourth argument to the function named in s
-   * @throws IOException if an I/O error occurs.
+   * {@code ConnectionPool} shares a bounded set of connections between many threads. Connections are opened as they are
+   * first needed, or by {@link #prestart()}, up to a maximum size, and kept open for reuse while idle. Callers beyond the
+   * maximum wait for a connection to be released, for at most the checkout timeout. Connections idle for longer than the
+   * idle timeout are closed, down to a minimum size, and those idle for longer than the validation interval are checked
+   * with a sync ping, bounded by the validation timeout, before being handed out.
+   * <p>
+   * Idle connections are held in a lock-free deque, the most recently released first, so that a few connections stay warm
+   * while the least used age and are evicted, and those in use in a concurrent set, so that only connections taken from
+   * the pool are returned to it, once each. Checkout and release only contend on the semaphore bounding the number of
+   * connections in use, which is not fair, so that a permit is taken with a single compare-and-set while any are free;
+   * waiting callers are therefore not served strictly in turn.
+   * </p>
    */
-  public void ks(String s,Object param1, Object param2,Object param3,Object param4) throws IOException{
-    Object[] a={s.toCharArray(),param1,param2,param3,param4};
-    w(0,a);
+  public static class ConnectionPool implements Closeable{
+    private final Connector connector;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Idle> idle=new ConcurrentLinkedDeque<>();
+    /** Connections taken from the pool and not yet returned */
+    private final Set<c> inUse=ConcurrentHashMap.newKeySet();
+    /** Number of open connections, in use or idle */
+    private final AtomicInteger open=new AtomicInteger();
+    private volatile int minSize;
+    private volatile long checkoutTimeout=30000;
+    private volatile long idleTimeout=600000;
+    private volatile long validateAfter=30000;
+    private volatile long validationTimeout=5000;
+    private volatile boolean closed;
+    /** An idle connection and when it was released. Immutable, so that it can be published through the deque. */
+    private static final class Idle{
+      final c conn;
+      final long since;
+      Idle(c conn,long since){
+        this.conn=conn;
+        this.since=since;
+      }
+    }
+    /**
+     * Creates a pool of connections opened by a {@link Connector}
+     * @param connector Opens each connection
+     * @param maxSize Maximum number of connections open at once
+     * @throws IllegalArgumentException if maxSize is less than 1
+     */
+    public ConnectionPool(Connector connector,int maxSize){
+      if(maxSize<1)
+        throw new IllegalArgumentException("Invalid connection pool size: "+maxSize);
+      this.connector=connector;
+      this.maxSize=maxSize;
+      permits=new Semaphore(maxSize);
+    }
+    /**
+     * Creates a pool of connections to a kdb+ process over TCP, opened by {@link c#c(String,int,String,boolean)}
+     * @param host Host of remote q process
+     * @param port Port of remote q process
+     * @param usernamepassword Username and password as "username:password" for remote authorization
+     * @param useTLS whether to use TLS to encrypt the connections
+     * @param maxSize Maximum number of connections open at once
+     * @throws IllegalArgumentException if maxSize is less than 1
+     */
+    public ConnectionPool(String host,int port,String usernamepassword,boolean useTLS,int maxSize){
+      this(()->new c(host,port,usernamepassword,useTLS),maxSize);
+    }
+    /**
+     * Sets the number of connections below which idle connections are not evicted. Connections are opened as they are
+     * needed, unless opened ahead of time by {@link #prestart()}. Default is 0.
+     * @param minSize Minimum number of connections kept open
+     * @throws IllegalArgumentException if minSize is negative or more than the maximum size
+     */
+    public void setMinSize(int minSize){
+      if(minSize<0||minSize>maxSize)
+        throw new IllegalArgumentException("Invalid connection pool minimum size: "+minSize);
+      this.minSize=minSize;
+    }
+    /**
+     * Sets how long {@link #acquire()} waits for a connection when the maximum number are in use. Default is 30 seconds.
+     * @param millis Timeout in milliseconds
+     */
+    public void setCheckoutTimeout(long millis){
+      checkoutTimeout=millis;
+    }
+    /**
+     * Sets how long a connection may be idle before it is evicted. Default is 10 minutes.
+     * @param millis Timeout in milliseconds
+     */
+    public void setIdleTimeout(long millis){
+      idleTimeout=millis;
+    }
+    /**
+     * Sets how long a connection may be idle before it is validated with a sync ping when next acquired. Default is 30
+     * seconds.
+     * @param millis Interval in milliseconds, or 0 to validate every connection as it is acquired
+     */
+    public void setValidateAfter(long millis){
+      validateAfter=millis;
+    }
+    /**
+     * Sets how long the sync ping validating an idle connection may wait for its response, after which the connection is
+     * discarded. Default is 5 seconds.
+     * @param millis Timeout in milliseconds, at least 1
+     * @throws IllegalArgumentException if millis is less than 1
+     */
+    public void setValidationTimeout(long millis){
+      if(millis<1)
+        throw new IllegalArgumentException("Validation timeout must be at least 1ms, got "+millis);
+      validationTimeout=millis;
+    }
+    /**
+     * Opens connections until the minimum number are open, adding them to the idle connections, so that the first callers
+     * need not wait for connections to be opened
+     * @return the number of connections opened
+     * @throws KException if access is denied when opening a connection
+     * @throws IOException if the pool is closed, or an I/O error occurs when opening a connection
+     */
+    public int prestart() throws KException,IOException{
+      int opened=0;
+      for(int n;(n=open.get())<minSize;){
+        if(closed)
+          throw new IOException("Connection pool closed");
+        if(!open.compareAndSet(n,n+1))
+          continue;
+        c conn;
+        try{
+          conn=connector.connect();
+        }catch(KException|IOException|RuntimeException e){
+          open.decrementAndGet();
+          throw e;
+        }
+        idle.offerLast(new Idle(conn,System.currentTimeMillis()));
+        opened++;
+      }
+      return opened;
+    }
+    /**
+     * Returns the number of open connections, whether in use or idle
+     * @return the number of open connections
+     */
+    public int getOpen(){
+      return open.get();
+    }
+    /**
+     * Returns the number of idle connections
+     * @return the number of idle connections
+     */
+    public int getIdle(){
+      return idle.size();
+    }
+    /**
+     * Takes a connection from the pool, reusing an idle connection if there is one, otherwise opening a new one. The
+     * connection must be returned by {@link #release(c)}, or by {@link #invalidate(c)} if it has failed.
+     * @return the connection
+     * @throws KException if access is denied when opening a connection
+     * @throws IOException if the pool is closed, no connection is released within the checkout timeout, or an I/O error
+     * occurs when opening a connection
+     */
+    public c acquire() throws KException,IOException{
+      if(closed)
+        throw new IOException("Connection pool closed");
+      try{
+        if(!permits.tryAcquire(checkoutTimeout,TimeUnit.MILLISECONDS))
+          throw new IOException("Timed out awaiting a connection after "+checkoutTimeout+"ms");
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new java.io.InterruptedIOException("Interrupted awaiting a connection");
+      }
+      try{
+        Idle x;
+        while((x=idle.pollFirst())!=null){
+          if(System.currentTimeMillis()-x.since<validateAfter||validate(x.conn)){
+            inUse.add(x.conn);
+            return x.conn;
+          }
+          discard(x.conn);
+        }
+        c conn=connector.connect();
+        open.incrementAndGet();
+        inUse.add(conn);
+        return conn;
+      }catch(KException|IOException|RuntimeException e){
+        permits.release();
+        throw e;
+      }
+    }
+    /**
+     * Returns a connection to the pool once the caller has finished with it, closing it if the pool has been closed, and
+     * evicting any connections idle for longer than the idle timeout
+     * @param conn A connection taken from the pool by {@link #acquire()}
+     * @throws IllegalArgumentException if the connection was not taken from this pool, or has already been returned
+     */
+    public void release(c conn){
+      checkIn(conn);
+      idle.offerFirst(new Idle(conn,System.currentTimeMillis()));
+      permits.release();
+      if(closed)
+        drain();
+      else
+        evictIdle();
+    }
+    /**
+     * Closes a connection taken from the pool which has failed, rather than returning it to the pool
+     * @param conn A connection taken from the pool by {@link #acquire()}
+     * @throws IllegalArgumentException if the connection was not taken from this pool, or has already been returned
+     */
+    public void invalidate(c conn){
+      checkIn(conn);
+      discard(conn);
+      permits.release();
+    }
+    /**
+     * Sends a sync message on a connection taken from the pool, returning the connection once the response has been read.
+     * A connection on which an I/O error occurs is closed.
+     * @param x The object to send
+     * @return deserialised response to request {@code x}
+     * @throws KException if request evaluation resulted in an error
+     * @throws IOException if no connection can be acquired, or an I/O error occurs.
+     */
+    public Object k(Object x) throws KException,IOException{
+      c conn=acquire();
+      Object result;
+      try{
+        result=conn.k(x);
+      }catch(IOException|RuntimeException e){
+        invalidate(conn);
+        throw e;
+      }catch(KException e){
+        release(conn);
+        throw e;
+      }
+      release(conn);
+      return result;
+    }
+    /**
+     * Sends a sync message on a connection taken from the pool, returning the connection once the response has been read.
+     * @param expr The expression to send
+     * @return deserialised response to request {@code x}
+     * @throws KException if request evaluation resulted in an error
+     * @throws IOException if no connection can be acquired, or an I/O error occurs.
+     */
+    public Object k(String expr) throws KException,IOException{
+      return k(expr.toCharArray());
+    }
+    /**
+     * Closes connections which have been idle for longer than the idle timeout, the least recently used first, while more
+     * than the minimum number are open. Called on each release, so need only be called when the pool may be left unused.
+     */
+    public void evictIdle(){
+      long now=System.currentTimeMillis();
+      Idle x;
+      while(open.get()>minSize&&(x=idle.peekLast())!=null&&now-x.since>=idleTimeout){
+        if(idle.removeLastOccurrence(x))
+          discard(x.conn);
+      }
+    }
+    /**
+     * Closes the pool and its idle connections. Connections in use are closed as they are released.
+     */
+    @Override
+    public void close(){
+      closed=true;
+      drain();
+    }
+    private void drain(){
+      Idle x;
+      while((x=idle.pollFirst())!=null)
+        discard(x.conn);
+    }
+    /**
+     * Marks a connection as no longer in use
+     * @param conn the connection being returned
+     * @throws IllegalArgumentException if the connection is not in use
+     */
+    private void checkIn(c conn){
+      if(!inUse.remove(conn))
+        throw new IllegalArgumentException("Connection was not taken from this pool, or has already been returned");
+    }
+    /**
+     * Checks a connection by sending it a sync ping, waiting at most the validation timeout for its response
+     * @param conn the connection
+     * @return whether the ping was answered in time
+     */
+    private boolean validate(c conn){
+      long timeout=validationTimeout;
+      try{
+        Socket s=conn.s;
+        if(s==null){
+          // a socket channel does not time out blocking reads, so the response is awaited on the thread reading responses
+          conn.kAsync("::").get(timeout,TimeUnit.MILLISECONDS);
+          return true;
+        }
+        int soTimeout=s.getSoTimeout();
+        s.setSoTimeout((int)Math.min(timeout,Integer.MAX_VALUE));
+        try{
+          conn.k("::");
+        }finally{
+          s.setSoTimeout(soTimeout);
+        }
+        return true;
+      }catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        return false;
+      }catch(KException|IOException|ExecutionException|TimeoutException|RuntimeException e){
+        return false;
+      }
+    }
+    private void discard(c conn){
+      open.decrementAndGet();
+      try{
+        conn.close();
+      }catch(IOException e){
+        // the connection is discarded either way
+      }
+    }
   }
   /**
-   * Sends an async message to the remote kdb+ process. This blocks until the serialized data has been written to the
-   * socket. On return, there is no guarantee that this msg has already been processed by the remote process. Use this to
-   * invoke a function in kdb+ which takes 5 arguments and does not return a value. e.g. to invoke f[param1;param2;param3;param4;param5] use
-   * ks("f",param1,param2,param3,param4,param5); to invoke a lambda, use ks("{[param1;param2;param3;param4;param5] param1+param2+param3+param4+param5}",param1,param2,param3,param4,param5);
-   * @param s The name of the function, or a lambda itself
-   * @param param1 The first argument to the function named in s
-   * @param param2 The second argument to the function named in s
-   * @param param3 The third argument to the function named in s
-   * @param param4 The fourth argument to the function named in s
-   * @param param5 The fifth argument to the function named in s
-   * @throws IOException if an I/O error occurs.
+   * {@code RequestHandler} processes the messages sent by the clients of an {@link IpcServer}.
    */
-  public void ks(String s,Object param1, Object param2,Object param3,Object param4,Object param5) throws IOException{
-    Object[] a={s.toCharArray(),param1,param2,param3,param4,param5};
-    w(0,a);
+  public interface RequestHandler{
+    /**
+     * Processes an incoming message. The result of a sync message is sent to the client as its response, as by
+     * {@link c#kr(Object)}, and an exception as an error, as by {@link c#ke(String)}. The result of an async message is
+     * discarded.
+     * @param c The connection that received the message
+     * @param msgType The type of the message received (0 – async, 1 – sync)
+     * @param msg The message contents
+     * @return the response to a sync message
+     * @throws Exception if the message cannot be processed
+     */
+    Object process(c c,byte msgType,Object msg) throws Exception;
+    /**
+     * Called when an async message cannot be processed, as no error can be sent to the client. The default implementation
+     * passes the exception to the uncaught exception handler of the thread.
+     * @param c The connection that received the message
+     * @param msg The message contents
+     * @param e The exception thrown by {@link #process(c,byte,Object)}
+     */
+    default void onError(c c,Object msg,Exception e){
+      Thread t=Thread.currentThread();
+      t.getUncaughtExceptionHandler().uncaughtException(t,e);
+    }
   }
   /**
-   * Reads an incoming message from the remote kdb+ process. This blocks until a single message has been received and
-   * deserialized. This is called automatically during a sync request via k(String s,..). It can be called explicitly when
-   * subscribing to a publisher.
-   * @return an Object array of {messageType,deserialised object}
-   * @throws KException if response contains an error
-   * @throws IOException if an I/O error occurs.
-   * @throws UnsupportedEncodingException If the named charset is not supported
+   * {@code IpcServer} serves many kdb+ clients at once. A thread accepts connections continuously, and each connection is
+   * handed to a reader thread of its own, a daemon thread or a virtual thread on Java 21, which completes the kdb+
+   * handshake, authenticates the client and then reads its messages. Each message is passed to a {@link RequestHandler} on
+   * the executor, and the next is read once it has been processed, so that the messages of a connection are processed, and
+   * its sync messages answered, in the order they were sent, as kdb+ does. An executor thread is therefore occupied only
+   * while a message is processed, and the executor may bound the number of messages processed at once, e.g. a fixed
+   * thread pool, or not, e.g. one created by {@link KThreads#newExecutor(String)}. A client which does not complete the
+   * handshake within the handshake timeout is disconnected, as is one idle for longer than the idle timeout, if set.
    */
-  public Object[] readMsg() throws KException,IOException,UnsupportedEncodingException{
-    synchronized(inStream){
-      if(channel==null){
-        rBuff=new byte[8];
-        inStream.readFully(rBuff); // read the msg header
-      }else{
-        ByteBuffer buf=ByteBuffer.allocate(8);
-        while(0!=buf.remaining())if(-1==channel.read(buf))throw new java.io.EOFException("end of stream");
-        rBuff=buf.array();
+  public static class IpcServer implements Closeable{
+    private final ServerSocket server;
+    private final IAuthenticate authenticate;
+    private final RequestHandler handler;
+    private final Executor executor;
+    private final Set<Socket> clients=ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private volatile int handshakeTimeout=10000;
+    private volatile int idleTimeout;
+    /**
+     * Creates a server which accepts connections on a server socket once started
+     * @param server {@link ServerSocket} to accept connections on using kdb+ IPC protocol
+     * @param authenticate {@link IAuthenticate} instance to authenticate incoming connections. Accepts all incoming
+     *          connections if {@code null}.
+     * @param handler Processes the messages of every connection
+     * @param executor Executor on which messages are processed
+     */
+    public IpcServer(ServerSocket server,IAuthenticate authenticate,RequestHandler handler,Executor executor){
+      this.server=server;
+      this.authenticate=authenticate;
+      this.handler=handler;
+      this.executor=executor;
+    }
+    /**
+     * Sets how long a client may take to complete the kdb+ handshake once its connection is accepted. Default is 10
+     * seconds.
+     * @param millis Timeout in milliseconds, or 0 to wait indefinitely
+     * @throws IllegalArgumentException if millis is negative
+     */
+    public void setHandshakeTimeout(int millis){
+      if(millis<0)
+        throw new IllegalArgumentException("Handshake timeout must not be negative, got "+millis);
+      handshakeTimeout=millis;
+    }
+    /**
+     * Sets how long an authenticated client may be idle, sending no message, before it is disconnected. Default is 0.
+     * @param millis Timeout in milliseconds, or 0 to wait indefinitely
+     * @throws IllegalArgumentException if millis is negative
+     */
+    public void setIdleTimeout(int millis){
+      if(millis<0)
+        throw new IllegalArgumentException("Idle timeout must not be negative, got "+millis);
+      idleTimeout=millis;
+    }
+    /**
+     * Starts the thread accepting connections, which is a daemon thread, or a virtual thread on Java 21
+     */
+    public void start(){
+      KThreads.start(this::accept,"kdb-server-"+server.getLocalPort());
+    }
+    /**
+     * Stops accepting connections, and closes the server socket and every open connection
+     * @throws IOException if an I/O error occurs when closing the server socket
+     */
+    @Override
+    public void close() throws IOException{
+      closed=true;
+      IOException failure=c.close(null,server);
+      for(Socket client:clients)
+        failure=c.close(failure,client);
+      if(null!=failure)
+        throw failure;
+    }
+    private void accept(){
+      while(!closed){
+        Socket s;
+        try{
+          s=server.accept();
+        }catch(IOException e){
+          if(server.isClosed())
+            return;
+          continue; // e.g. the client reset the connection before it was accepted
+        }
+        clients.add(s);
+        try{
+          KThreads.start(()->serve(s),"kdb-server-client-"+s.getPort());
+        }catch(RuntimeException|OutOfMemoryError e){
+          // no thread could be started for the connection
+          clients.remove(s);
+          c.close(null,s);
+        }
       }
-      isLittleEndian=rBuff[0]==1;  // endianness of the msg
-      if(rBuff[1]==1) // msg types are 0 - async, 1 - sync, 2 - response
-        sync++;   // an incoming sync message means the remote will expect a response message
-      rBuffPos=4;
-      if(channel==null){
-        rBuff=Arrays.copyOf(rBuff,ri());
-        inStream.readFully(rBuff,8,rBuff.length-8); // read the incoming message in full
-      }else{
-        ByteBuffer buf=ByteBuffer.allocate(ri());
-        buf.put(rBuff,0,rBuff.length);
-        while(0!=buf.remaining())if(-1==channel.read(buf))throw new java.io.EOFException("end of stream");
-        rBuff=buf.array();
+    }
+    /**
+     * Authenticates a client and reads its messages, processing each on the executor before reading the next
+     * @param s the socket of the connection
+     */
+    private void serve(Socket s){
+      try{
+        if(closed)
+          return;
+        s.setSoTimeout(handshakeTimeout);
+        c conn=new c(s,authenticate);
+        s.setSoTimeout(idleTimeout);
+        while(true){
+          Object[] msg=conn.readMsg();
+          byte msgType=(byte)msg[0];
+          if(msgType==0||msgType==1)
+            CompletableFuture.runAsync(()->process(conn,msgType,msg[1]),executor).join();
+        }
+      }catch(KException|IOException|RuntimeException e){
+        // the client disconnected, failed to authenticate in time, was idle for too long, or sent a message which could not
+        // be read or answered; or the executor rejected its message, e.g. as it is shut down
+      }finally{
+        clients.remove(s);
+        c.close(null,s);
+      }
+    }
+    /**
+     * Processes a message on the executor, sending the response to a sync message
+     * @param conn the connection that received the message
+     * @param msgType the type of the message received (0 – async, 1 – sync)
+     * @param x the message contents
+     */
+    private void process(c conn,byte msgType,Object x){
+      try{
+        Object result;
+        try{
+          result=handler.process(conn,msgType,x);
+        }catch(Exception e){
+          if(msgType==1)
+            conn.ke(e.getMessage()!=null?e.getMessage():e.getClass().getName());
+          else
+            handler.onError(conn,x,e);
+          return;
+        }
+        if(msgType==1)
+          conn.kr(result);
+      }catch(IOException e){
+        throw new UncheckedIOException(e);
       }
-      return new Object[]{rBuff[1],deserialize(rBuff)};
     }
-  }
-  /**
-   * Reads an incoming message from the remote kdb+ process. This blocks until a single message has been received and
-   * deserialized. This is called automatically during a sync request via k(String s,..). It can be called explicitly when
-   * subscribing to a publisher.
-   * @return the deserialised object
-   * @throws KException if response contains an error
-   * @throws IOException if an I/O error occurs.
-   * @throws UnsupportedEncodingException If the named charset is not supported
-   */
-  public Object k() throws KException,IOException,UnsupportedEncodingException{
-    return readMsg()[1];
   }
   /**
    * MsgHandler interface for processing async or sync messages during a sync request whilst awaiting a response message
@@ -2007,28 +7749,108 @@ public class c{
   /**
    * Stores the boolean in an instance variable
    * @param b The boolean to store
+   * @see #kAsync(Object)
    */
   public void setCollectResponseAsync(boolean b){collectResponseAsync=b;}
+  /**
+   * {@code responses} holds the futures of the sync requests sent by kAsync, in the order they were sent, until their
+   * responses are read
+   */
+  private final ResponseQueue responses=new ResponseQueue();
+  /**
+   * Indicates whether a thread is reading the responses to requests sent by kAsync. Guarded by responses.
+   */
+  private boolean readingResponses;
+  /**
+   * {@code responseReader} is the thread reading the responses to requests sent by kAsync, or null
+   */
+  private volatile Thread responseReader;
+  /**
+   * {@code responseExecutor} completes the futures of requests sent by kAsync, or null to complete them on the thread
+   * reading their responses
+   */
+  private volatile Executor responseExecutor;
+  /** Time for which the thread reading responses waits for further requests once none are awaited, in milliseconds */
+  private static final long RESPONSE_READER_KEEP_ALIVE=1000;
+  /**
+   * Sets the executor on which the futures of requests sent by {@link #kAsync(Object)}, or by the {@link NioConnection}
+   * of which this is the codec, are completed, and so on which their dependent actions run unless given an executor of
+   * their own. Dependent actions which call {@link #k(Object)} on this connection must run on an executor, as the thread
+   * reading responses cannot wait for one, and the executor must have a thread free to complete its future.
+   * @param executor The executor to complete futures on, or null to complete them on the thread reading responses.
+   * Default is null.
+   */
+  public void setResponseExecutor(Executor executor){
+    responseExecutor=executor;
+  }
 
   /**
    * Sends a sync message to the remote kdb+ process. This blocks until the message has been sent in full, and, if a MsgHandler
    * is set, will process any queued, incoming async or sync message in order to reach the response message.
    * If the caller has already indicated via {@code setCollectResponseAsync} that the response message will be read async, later, then return
    * without trying to read any messages at this point; the caller can collect(read) the response message by calling readMsg();
+   * If responses to requests sent by {@link #kAsync(Object)} are awaited, this request is pipelined behind them, and its
+   * response is awaited in turn.
    * @param x The object to send
    * @return deserialised response to request {@code x}
    * @throws KException if request evaluation resulted in an error
    * @throws IOException if an I/O error occurs.
    */
-  public synchronized Object k(Object x) throws KException,IOException{
-    w(1,x);
-    if(collectResponseAsync)
-      return null;
-    while(true){
-      Object[]msg=readMsg();
-      if(msgHandler==null||(byte)msg[0]==(byte)2) // if there's no handler or the msg is a response msg, return it
-        return msg[1];
-      msgHandler.processMsg(this,(byte)msg[0],msg[1]); // process async and sync requests
+  public Object k(Object x) throws KException,IOException{
+    return k((DecodeOptions)null,x);
+  }
+  /**
+   * Sends a sync message to the remote kdb+ process as {@link #k(Object)} does, decoding only the columns and rows of the
+   * tables in its response selected by {@code options}
+   * @param options columns and rows to decode, or null to decode the response in full
+   * @param x The object to send
+   * @return deserialised response to request {@code x}
+   * @throws KException if request evaluation resulted in an error
+   * @throws IOException if an I/O error occurs.
+   */
+  public Object k(DecodeOptions options,Object x) throws KException,IOException{
+    if(Thread.currentThread()==responseReader)
+      throw new IOException("Unable to await a response on the thread reading responses to kAsync requests; use kAsync");
+    CompletableFuture<Object> response;
+    requestLock.lock();
+    try{
+      boolean pipelined;
+      synchronized(responses){
+        pipelined=readingResponses;
+      }
+      if(!pipelined){
+        w(1,x);
+        if(collectResponseAsync)
+          return null;
+        responseOptions=options;
+        try{
+          while(true){
+            Object[]msg=readMsg();
+            if(msgHandler==null||(byte)msg[0]==(byte)2) // if there's no handler or the msg is a response msg, return it
+              return msg[1];
+            msgHandler.processMsg(this,(byte)msg[0],msg[1]); // process async and sync requests
+          }
+        }finally{
+          responseOptions=null;
+        }
+      }
+      // responses to requests sent by kAsync are being read, so the response to this one must be queued behind them
+      response=request(x,options);
+    }finally{
+      requestLock.unlock();
+    }
+    try{
+      return response.get();
+    }catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new java.io.InterruptedIOException("Interrupted awaiting response");
+    }catch(ExecutionException e){
+      Throwable cause=e.getCause();
+      if(cause instanceof KException)
+        throw (KException)cause;
+      if(cause instanceof IOException)
+        throw (IOException)cause;
+      throw new IOException(cause);
     }
   }
   /**
@@ -2042,6 +7864,18 @@ public class c{
   public Object k(String expr) throws KException,IOException{
     return k(expr.toCharArray());
   }
+  /**
+   * Sends a sync message evaluating an expression, decoding only the columns and rows of the tables in its response
+   * selected by {@code options}
+   * @param options columns and rows to decode, or null to decode the response in full
+   * @param expr The expression to send
+   * @return deserialised response to request {@code expr}
+   * @throws KException if request evaluation resulted in an error
+   * @throws IOException if an I/O error occurs.
+   */
+  public Object k(DecodeOptions options,String expr) throws KException,IOException{
+    return k(options,(Object)expr.toCharArray());
+  }
   /**
    * Sends a sync message to the remote kdb+ process. This blocks until the message has been sent in full, and a message
    * is received from the remote; typically the received message would be the corresponding response message. Use this to
@@ -2127,6 +7961,237 @@ public class c{
     Object[] a={s.toCharArray(),param1,param2,param3,param4,param5};
     return k(a);
   }
+  /**
+   * Sends a sync message to the remote kdb+ process, returning once the message has been sent in full rather than waiting
+   * for its response. Many requests may be outstanding at once: kdb+ responds to sync messages in order, so a thread is
+   * started to read the responses while any are awaited, completing their futures in turn and passing any incoming async
+   * or sync message to the MsgHandler, or to the default {@link MsgHandler} if none is set. Futures are completed on that
+   * thread unless a {@link #setResponseExecutor(Executor) response executor} is set, so dependent actions which may block
+   * should be run asynchronously; {@link #k(Object)} fails with an IOException if called on that thread, by a dependent
+   * action or the MsgHandler, as it would wait for itself. The thread waits a second for further requests before it
+   * ends. {@link #readMsg()} must not be called while it runs, and {@link #k(Object)} waits in turn behind the responses
+   * it awaits.
+   * @param x The object to send
+   * @return a future of the deserialised response, which fails with a {@link KException} if request evaluation resulted in
+   * an error, or with an IOException if the connection fails before the response is read
+   * @throws IOException if an I/O error occurs.
+   */
+  public CompletableFuture<Object> kAsync(Object x) throws IOException{
+    requestLock.lock();
+    try{
+      return request(x);
+    }finally{
+      requestLock.unlock();
+    }
+  }
+  /**
+   * Sends a sync message to the remote kdb+ process, without waiting for its response.
+   * @param expr The expression to send
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   * @see #kAsync(Object)
+   */
+  public CompletableFuture<Object> kAsync(String expr) throws IOException{
+    return kAsync(expr.toCharArray());
+  }
+  /**
+   * Sends a sync message to the remote kdb+ process, without waiting for its response.
+   * @param s The name of the function to call
+   * @param x The parameter to the function
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   * @see #kAsync(Object)
+   */
+  public CompletableFuture<Object> kAsync(String s,Object x) throws IOException{
+    Object[] a={s.toCharArray(),x};
+    return kAsync(a);
+  }
+  /**
+   * Sends a sync message to the remote kdb+ process, without waiting for its response.
+   * @param s The name of the function to call
+   * @param x The first parameter to the function
+   * @param y The second parameter to the function
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   * @see #kAsync(Object)
+   */
+  public CompletableFuture<Object> kAsync(String s,Object x,Object y) throws IOException{
+    Object[] a={s.toCharArray(),x,y};
+    return kAsync(a);
+  }
+  /**
+   * Sends a sync message to the remote kdb+ process, without waiting for its response.
+   * @param s The name of the function to call
+   * @param x The first parameter to the function
+   * @param y The second parameter to the function
+   * @param z The third parameter to the function
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   * @see #kAsync(Object)
+   */
+  public CompletableFuture<Object> kAsync(String s,Object x,Object y,Object z) throws IOException{
+    Object[] a={s.toCharArray(),x,y,z};
+    return kAsync(a);
+  }
+  /**
+   * Sends a sync message to the remote kdb+ process, without waiting for its response.
+   * @param s The name of the function to call
+   * @param param1 The first parameter to the function
+   * @param param2 The second parameter to the function
+   * @param param3 The third parameter to the function
+   * @param param4 The fourth parameter to the function
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   * @see #kAsync(Object)
+   */
+  public CompletableFuture<Object> kAsync(String s,Object param1,Object param2,Object param3,Object param4) throws IOException{
+    Object[] a={s.toCharArray(),param1,param2,param3,param4};
+    return kAsync(a);
+  }
+  /**
+   * Sends a sync message to the remote kdb+ process, without waiting for its response.
+   * @param s The name of the function to call
+   * @param param1 The first parameter to the function
+   * @param param2 The second parameter to the function
+   * @param param3 The third parameter to the function
+   * @param param4 The fourth parameter to the function
+   * @param param5 The fifth parameter to the function
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   * @see #kAsync(Object)
+   */
+  public CompletableFuture<Object> kAsync(String s,Object param1,Object param2,Object param3,Object param4,Object param5) throws IOException{
+    Object[] a={s.toCharArray(),param1,param2,param3,param4,param5};
+    return kAsync(a);
+  }
+  /**
+   * Queues the future of a sync request and sends it, starting a thread to read the responses if none is. Called holding
+   * requestLock, so that no response is read by {@link #k(Object)} meanwhile.
+   * @param x The object to send
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   */
+  private CompletableFuture<Object> request(Object x) throws IOException{
+    return request(x,null);
+  }
+  /**
+   * Queues the future of a sync request, whose response is decoded with {@code options}, and sends it as
+   * {@link #request(Object)} does
+   * @param x The object to send
+   * @param options columns and rows of the response to decode, or null to decode it in full
+   * @return a future of the deserialised response
+   * @throws IOException if an I/O error occurs.
+   */
+  private CompletableFuture<Object> request(Object x,DecodeOptions options) throws IOException{
+    CompletableFuture<Object> response=options==null?new CompletableFuture<>():new Response(options);
+    writeLock.lock();
+    try{
+      // the future is queued before the request is written, so it is ready for the response however soon that is read
+      boolean start;
+      synchronized(responses){
+        responses.add(response);
+        start=!readingResponses;
+        readingResponses=true;
+        if(!start)
+          responses.notifyAll();  // the reader may be waiting for further requests
+      }
+      try{
+        w(1,x);
+      }catch(IOException|RuntimeException e){
+        synchronized(responses){
+          responses.remove(response);
+          if(start)
+            readingResponses=false;
+        }
+        throw e;
+      }
+      if(start){
+        KThreads.start(this::readResponses,"kdb-responses");
+      }
+    }finally{
+      writeLock.unlock();
+    }
+    return response;
+  }
+  /**
+   * Reads messages until no responses are awaited, completing the futures of the requests sent by kAsync in turn, and
+   * waiting a while for further requests before the thread ends. If the connection fails, every future awaiting a response
+   * fails. A RuntimeException thrown by the MsgHandler is passed to the uncaught exception handler of the thread.
+   */
+  private void readResponses(){
+    MsgHandler handler=msgHandler==null?new MsgHandler(){}:msgHandler;
+    responseReader=Thread.currentThread();
+    try{
+      while(awaitRequest()){
+        try{
+          Object[] msg;
+          try{
+            msg=readMsg();
+          }catch(KException e){
+            // an error is the response to the oldest request
+            responses.complete(null,e,responseExecutor);
+            continue;
+          }
+          if((byte)msg[0]==(byte)2)
+            responses.complete(msg[1],null,responseExecutor);
+          else
+            try{
+              handler.processMsg(this,(byte)msg[0],msg[1]);
+            }catch(RuntimeException e){
+              Thread t=Thread.currentThread();
+              t.getUncaughtExceptionHandler().uncaughtException(t,e);
+            }
+        }catch(IOException|RuntimeException e){
+          CompletableFuture<?>[] failed;
+          synchronized(responses){
+            failed=responses.drain();
+            readingResponses=false;
+          }
+          ResponseQueue.fail(failed,e);
+          return;
+        }
+      }
+    }finally{
+      responseReader=null;
+    }
+  }
+  /**
+   * Waits for a response to be awaited, for at most {@link #RESPONSE_READER_KEEP_ALIVE}, setting responseOptions to its
+   * decode options
+   * @return true if a response is awaited, or false if the reader is to end
+   */
+  private boolean awaitRequest(){
+    synchronized(responses){
+      long deadline=System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(RESPONSE_READER_KEEP_ALIVE);
+      CompletableFuture<Object> next;
+      while((next=responses.peek())==null){
+        long wait=deadline-System.nanoTime();
+        try{
+          if(wait>0){
+            TimeUnit.NANOSECONDS.timedWait(responses,wait);
+            continue;
+          }
+        }catch(InterruptedException e){
+          Thread.currentThread().interrupt();
+        }
+        // the reader ends, and is started again by the next request
+        readingResponses=false;
+        responseOptions=null;
+        return false;
+      }
+      responseOptions=next instanceof Response?((Response)next).options:null;
+      return true;
+    }
+  }
+  /**
+   * {@code Response} is the future of a sync request whose response is decoded with decode options
+   */
+  private static final class Response extends CompletableFuture<Object>{
+    final DecodeOptions options;
+    Response(DecodeOptions options){
+      this.options=options;
+    }
+  }
   /**
    * Array containing the null object representation for corresponing kdb+ type number (0-19).&nbsp;
    * See data type reference <a href="https://code.kx.com/q/basics/datatypes/">https://code.kx.com/q/basics/datatypes/</a>
@@ -2162,7 +8227,7 @@ public class c{
    * a KDB+ null value for its type
    */
   public static Object at(Object x,int i){
-    x=Array.get(x,i);
+    x=x instanceof Column?((Column)x).get(i):Array.get(x,i);
     return qn(x)?null:x;
   }
   /**
@@ -2210,8 +8275,8 @@ public class c{
     System.arraycopy(a.x,0,x,0,m);
     System.arraycopy(b.x,0,x,m,n);
     Object[] y=new Object[m+n];
-    System.arraycopy(a.y,0,y,0,m);
-    System.arraycopy(b.y,0,y,m,n);
+    System.arraycopy(a.columns(),0,y,0,m);
+    System.arraycopy(b.columns(),0,y,m,n);
     return new Flip(new Dict(x,y));
   }
   /**
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 1998-2017 Kx Systems Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.kx;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the threads which block on kdb+ connections. This is the Java 21 version of the class, supplied by the
+ * multi-release jar, which creates virtual threads, so that a thread blocked on a connection does not occupy a platform
+ * thread. It is compiled by the java21-multi-release profile, which is active when the build runs on JDK 21 or later.
+ */
+public final class KThreads{
+  private KThreads(){}
+
+  /**
+   * Indicates whether the threads created are virtual threads
+   * @return true
+   */
+  public static boolean isVirtual(){
+    return true;
+  }
+
+  /**
+   * Creates an executor which does not bound the number of threads, suitable for tasks which block on connections, e.g. as
+   * the executor of a {@link c.IpcServer}, or for making requests through a {@link c.ConnectionPool}
+   * @param name prefix of the names of the threads
+   * @return an executor starting a virtual thread for each task
+   */
+  public static ExecutorService newExecutor(String name){
+    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name+"-",0).factory());
+  }
+
+  /**
+   * Starts a virtual thread
+   * @param task the task to run
+   * @param name the name of the thread
+   * @return the started thread
+   */
+  static Thread start(Runnable task,String name){
+    return Thread.ofVirtual().name(name).start(task);
+  }
+}
@@ -54,52 +54,52 @@ final class ByteArrayAccess{
     return (long)LONG_LE.get(b,p);
   }
 
-  static void getShorts(byte[] b,int p,short[] dst,boolean littleEndian){
+  static void getShorts(byte[] b,int p,short[] dst,int off,int len,boolean littleEndian){
     if(littleEndian){
-      for(int i=0;i<dst.length;i++,p+=2)
+      for(int i=off;i<off+len;i++,p+=2)
         dst[i]=(short)SHORT_LE.get(b,p);
     }else{
-      for(int i=0;i<dst.length;i++,p+=2)
+      for(int i=off;i<off+len;i++,p+=2)
         dst[i]=(short)SHORT_BE.get(b,p);
     }
   }
 
-  static void getInts(byte[] b,int p,int[] dst,boolean littleEndian){
+  static void getInts(byte[] b,int p,int[] dst,int off,int len,boolean littleEndian){
     if(littleEndian){
-      for(int i=0;i<dst.length;i++,p+=4)
+      for(int i=off;i<off+len;i++,p+=4)
         dst[i]=(int)INT_LE.get(b,p);
     }else{
-      for(int i=0;i<dst.length;i++,p+=4)
+      for(int i=off;i<off+len;i++,p+=4)
         dst[i]=(int)INT_BE.get(b,p);
     }
   }
 
-  static void getLongs(byte[] b,int p,long[] dst,boolean littleEndian){
+  static void getLongs(byte[] b,int p,long[] dst,int off,int len,boolean littleEndian){
     if(littleEndian){
-      for(int i=0;i<dst.length;i++,p+=8)
+      for(int i=off;i<off+len;i++,p+=8)
         dst[i]=(long)LONG_LE.get(b,p);
     }else{
-      for(int i=0;i<dst.length;i++,p+=8)
+      for(int i=off;i<off+len;i++,p+=8)
         dst[i]=(long)LONG_BE.get(b,p);
     }
   }
 
-  static void getFloats(byte[] b,int p,float[] dst,boolean littleEndian){
+  static void getFloats(byte[] b,int p,float[] dst,int off,int len,boolean littleEndian){
     if(littleEndian){
-      for(int i=0;i<dst.length;i++,p+=4)
+      for(int i=off;i<off+len;i++,p+=4)
         dst[i]=(float)FLOAT_LE.get(b,p);
     }else{
-      for(int i=0;i<dst.length;i++,p+=4)
+      for(int i=off;i<off+len;i++,p+=4)
         dst[i]=(float)FLOAT_BE.get(b,p);
     }
   }
 
-  static void getDoubles(byte[] b,int p,double[] dst,boolean littleEndian){
+  static void getDoubles(byte[] b,int p,double[] dst,int off,int len,boolean littleEndian){
     if(littleEndian){
-      for(int i=0;i<dst.length;i++,p+=8)
+      for(int i=off;i<off+len;i++,p+=8)
         dst[i]=(double)DOUBLE_LE.get(b,p);
     }else{
-      for(int i=0;i<dst.length;i++,p+=8)
+      for(int i=off;i<off+len;i++,p+=8)
         dst[i]=(double)DOUBLE_BE.get(b,p);
     }
   }
@@ -120,37 +120,37 @@ final class ByteArrayAccess{
     LONG_LE.set(b,p,v);
   }
 
-  static void putShortsLE(byte[] b,int p,short[] a){
-    for(short v:a){
-      SHORT_LE.set(b,p,v);
+  static void putShortsLE(byte[] b,int p,short[] a,int off,int len){
+    for(int i=off;i<off+len;i++){
+      SHORT_LE.set(b,p,a[i]);
       p+=2;
     }
   }
 
-  static void putIntsLE(byte[] b,int p,int[] a){
-    for(int v:a){
-      INT_LE.set(b,p,v);
+  static void putIntsLE(byte[] b,int p,int[] a,int off,int len){
+    for(int i=off;i<off+len;i++){
+      INT_LE.set(b,p,a[i]);
       p+=4;
     }
   }
 
-  static void putLongsLE(byte[] b,int p,long[] a){
-    for(long v:a){
-      LONG_LE.set(b,p,v);
+  static void putLongsLE(byte[] b,int p,long[] a,int off,int len){
+    for(int i=off;i<off+len;i++){
+      LONG_LE.set(b,p,a[i]);
       p+=8;
     }
   }
 
-  static void putFloatsLE(byte[] b,int p,float[] a){
-    for(float v:a){
-      INT_LE.set(b,p,Float.floatToIntBits(v));
+  static void putFloatsLE(byte[] b,int p,float[] a,int off,int len){
+    for(int i=off;i<off+len;i++){
+      INT_LE.set(b,p,Float.floatToIntBits(a[i]));
       p+=4;
     }
   }
 
-  static void putDoublesLE(byte[] b,int p,double[] a){
-    for(double v:a){
-      LONG_LE.set(b,p,Double.doubleToLongBits(v));
+  static void putDoublesLE(byte[] b,int p,double[] a,int off,int len){
+    for(int i=off;i<off+len;i++){
+      LONG_LE.set(b,p,Double.doubleToLongBits(a[i]));
       p+=8;
     }
   }
@@ -4,7 +4,21 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.UUID;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.time.LocalTime;
 import java.time.Instant;
@@ -17,6 +31,7 @@ import org.junit.Assert;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -25,6 +40,8 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.StandardCharsets;
@@ -1939,4 +1956,2061 @@ public class CTest
             co.serialize(0,Integer.valueOf(1),false)
         );
     }
+
+    @Test
+    public void testBufferPoolWritesSameFramesAsUnpooled() throws Exception {
+        final int[] outstanding = new int[1];
+        final c.ScratchBufferPool scratch = new c.ScratchBufferPool();
+        c.BufferPool counting = new c.BufferPool() {
+            @Override
+            public byte[] acquire(int size) {
+                outstanding[0]++;
+                return scratch.acquire(size);
+            }
+            @Override
+            public void release(byte[] buffer) {
+                outstanding[0]--;
+                scratch.release(buffer);
+            }
+        };
+        byte[] repetitive = new byte[5000];
+        byte[] random = new byte[5000];
+        new Random(42L).nextBytes(random);
+        Object[] messages = {repetitive, random, Integer.valueOf(1), "abc".toCharArray(), repetitive};
+
+        c plain = new c();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        plain.outStream = expected;
+        plain.zip(true);
+        c pooled = new c();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        pooled.outStream = actual;
+        pooled.zip(true);
+        pooled.setBufferPool(counting);
+        Assert.assertSame(counting, pooled.getBufferPool());
+        for (Object message : messages) {
+            plain.ks(message);
+            pooled.ks(message);
+        }
+        Assert.assertEquals(0, outstanding[0]);
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertFrameTypes(actual.toByteArray(), 0, 0, 0, 0, 0);
+        Assert.assertEquals(1, frameAt(actual.toByteArray(), 0)[2]);
+        Assert.assertEquals(0, frameAt(actual.toByteArray(), 1)[2]);
+    }
+
+    @Test
+    public void testScratchBufferPoolRetainsLargestBuffers() {
+        c.ScratchBufferPool pool = new c.ScratchBufferPool();
+        byte[] a = pool.acquire(100);
+        byte[] b = pool.acquire(1000);
+        Assert.assertTrue(a.length >= 100);
+        Assert.assertTrue(b.length >= 1000);
+        pool.release(a);
+        pool.release(b);
+        Assert.assertSame(a, pool.acquire(10));
+        pool.release(a);
+        byte[] big = new byte[5000];
+        pool.release(big); // replaces the smallest retained buffer
+        Assert.assertSame(big, pool.acquire(2000));
+        Assert.assertSame(b, pool.acquire(500));
+    }
+
+    @Test
+    public void testSizeClassBufferPool() {
+        c.SizeClassBufferPool pool = new c.SizeClassBufferPool(4, 8, 1);
+        byte[] a = pool.acquire(20);
+        Assert.assertEquals(32, a.length);
+        pool.release(a);
+        Assert.assertSame(a, pool.acquire(17));
+        pool.release(a);
+        pool.release(new byte[32]); // class already full, dropped
+        pool.release(new byte[33]); // not a pooled size, dropped
+        Assert.assertSame(a, pool.acquire(32));
+        Assert.assertNotSame(a, pool.acquire(32));
+        Assert.assertEquals(1000, pool.acquire(1000).length); // larger than the largest class
+        Assert.assertEquals(16, pool.acquire(1).length);
+        try {
+            new c.SizeClassBufferPool(8, 4, 1);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Object[] sampleMessages() {
+        long[] longs = new long[3000];
+        double[] doubles = new double[3000];
+        String[] syms = new String[3000];
+        for (int i = 0; i < longs.length; i++) {
+            longs[i] = i % 7;
+            doubles[i] = i * 0.5;
+            syms[i] = "S" + (i % 13);
+        }
+        c.Flip table = new c.Flip(new String[]{"sym", "price", "size", "time"},
+                new Object[]{syms, doubles, longs, new c.Timespan[]{new c.Timespan(1), new c.Timespan(2)}});
+        return new Object[]{
+            Boolean.TRUE, new UUID(1, 2), Byte.valueOf((byte) 3), Short.valueOf((short) 4), Integer.valueOf(5),
+            Long.valueOf(6), Float.valueOf(7.5f), Double.valueOf(8.25), Character.valueOf('c'), "sym",
+            Instant.ofEpochSecond(1_000_000_000L, 123), new c.Month(10), LocalDate.of(2020, 1, 2),
+            LocalDateTime.of(2021, 3, 4, 5, 6, 7, 8_000_000), new c.Timespan(9), new c.Minute(10), new c.Second(11),
+            LocalTime.of(12, 13, 14), null,
+            new boolean[]{true, false}, new UUID[]{new UUID(3, 4)}, new byte[]{1, 2, 3}, new short[]{1, 2},
+            new int[]{1, 2, 3}, longs, new float[]{1.5f}, doubles, "chars".toCharArray(), syms,
+            new Instant[]{Instant.ofEpochMilli(1)}, new c.Month[]{new c.Month(1)}, new LocalDate[]{LocalDate.of(2001, 1, 1)},
+            new LocalDateTime[]{LocalDateTime.of(2001, 1, 1, 1, 1)}, new c.Timespan[]{new c.Timespan(3)},
+            new c.Minute[]{new c.Minute(4)}, new c.Second[]{new c.Second(5)}, new LocalTime[]{LocalTime.of(1, 2)},
+            new Object[]{Integer.valueOf(1), "a", new long[]{1, 2}, null, new Object[]{"nested".toCharArray()}},
+            new c.Dict(new String[]{"a", "b"}, new Object[]{Long.valueOf(1), new double[]{2}}),
+            table,
+            new c.Dict(new c.Flip(new String[]{"k"}, new Object[]{new long[]{1, 2}}), new c.Flip(new String[]{"v"}, new Object[]{new String[]{"x", "y"}})),
+            new Object[]{".u.upd".toCharArray(), "quote", new Object[]{syms, doubles}},
+            "", new String[]{"", null, "a\000b"}, new char[0], new Object[0]
+        };
+    }
+
+    @Test
+    public void testSinglePassSerializationMatchesSizedSerialization() throws Exception {
+        c sized = new c();
+        c single = new c();
+        single.setSinglePassSerialization(true);
+        c pooled = new c();
+        pooled.setSinglePassSerialization(true);
+        pooled.setBufferPool(new c.ScratchBufferPool());
+        for (boolean zip : new boolean[]{false, true}) {
+            for (Object message : sampleMessages()) {
+                byte[] expected = sized.serialize(1, message, zip);
+                Assert.assertArrayEquals(expected, single.serialize(1, message, zip));
+                Assert.assertArrayEquals(expected, pooled.serialize(1, message, zip));
+            }
+        }
+        // messages written to the connection are identical too
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        sized.outStream = expected;
+        pooled.outStream = actual;
+        for (Object message : sampleMessages()) {
+            sized.ks(message);
+            pooled.ks(message);
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testSinglePassSerializationWithMultiByteEncoding() throws Exception {
+        try {
+            c.setEncoding("UTF-8");
+            c sized = new c();
+            c single = new c();
+            single.setSinglePassSerialization(true);
+            Object[] messages = {"\u00e9t\u00e9", new String[]{"\u20ac", "plain", "\u00fc\u0000trailing"},
+                "\u65e5\u672c".toCharArray(), new Object[]{"\u00e9".toCharArray(), "\u00e9"}};
+            for (Object message : messages) {
+                byte[] bytes = single.serialize(1, message, false);
+                Assert.assertArrayEquals(sized.serialize(1, message, false), bytes);
+            }
+            Assert.assertEquals("\u00e9t\u00e9", single.deserialize(single.serialize(1, "\u00e9t\u00e9", false)));
+        } finally {
+            c.setEncoding("ISO-8859-1");
+        }
+    }
+
+    @Test
+    public void testStreamedWriteMatchesSerialize() throws Exception {
+        c sized = new c();
+        c streamed = new c();
+        streamed.setWriteChunkSize(64);
+        final int[] largestWrite = {0};
+        ByteArrayOutputStream actual = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                largestWrite[0] = Math.max(largestWrite[0], len);
+                super.write(b, off, len);
+            }
+        };
+        streamed.outStream = actual;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        List<Object> messages = new ArrayList<>(Arrays.asList(sampleMessages()));
+        long[] longs = new long[1000];
+        String[] syms = new String[200];
+        for (int i = 0; i < longs.length; i++)
+            longs[i] = i * 1000003L;
+        for (int i = 0; i < syms.length; i++)
+            syms[i] = "sym" + i;
+        char[] chars = new char[300];
+        Arrays.fill(chars, 'x');
+        byte[] bytes = new byte[500];
+        Arrays.fill(bytes, (byte) 7);
+        StringBuilder longSym = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            longSym.append(i);
+        UUID[] uuids = new UUID[20];
+        Arrays.fill(uuids, new UUID(1, 2));
+        messages.add(longs);
+        messages.add(new Object[]{".u.upd", "trade", new Object[]{syms, longs, chars, bytes, uuids}});
+        messages.add(longSym.toString());
+        messages.add(new String[]{longSym.toString(), "a"});
+        for (Object message : messages) {
+            expected.write(sized.serialize(0, message, false));
+            streamed.ks(message);
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        Assert.assertTrue("largest write " + largestWrite[0], largestWrite[0] <= 64);
+        // streamed messages are not compressed, while those that fit in a chunk are unaffected
+        streamed.zip = true;
+        actual.reset();
+        streamed.ks(longs);
+        Assert.assertArrayEquals(sized.serialize(0, longs, false), actual.toByteArray());
+    }
+
+    @Test
+    public void testStreamedWriteWithMultiByteEncoding() throws Exception {
+        try {
+            c.setEncoding("UTF-8");
+            c sized = new c();
+            c streamed = new c();
+            streamed.setWriteChunkSize(64);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            streamed.outStream = actual;
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 50; i++)
+                text.append("\u20ac\u00e9");
+            Object message = new Object[]{text.toString(), text.toString().toCharArray(), new String[]{text.toString()}};
+            streamed.ks(message);
+            Assert.assertArrayEquals(sized.serialize(0, message, false), actual.toByteArray());
+        } finally {
+            c.setEncoding("ISO-8859-1");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWriteChunkSizeTooSmall() {
+        new c().setWriteChunkSize(16);
+    }
+
+    @Test
+    public void testStreamedReadMatchesDeserialize() throws Exception {
+        c codec = new c();
+        List<Object> messages = new ArrayList<>(Arrays.asList(sampleMessages()));
+        long[] longs = new long[1000];
+        String[] syms = new String[200];
+        for (int i = 0; i < longs.length; i++)
+            longs[i] = i * 1000003L;
+        for (int i = 0; i < syms.length; i++)
+            syms[i] = "sym" + i;
+        char[] chars = new char[300];
+        Arrays.fill(chars, 'x');
+        StringBuilder longSym = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            longSym.append(i);
+        messages.add(longs);
+        messages.add(new Object[]{".u.upd", "trade", new Object[]{syms, longs, chars, new byte[500], new double[100]}});
+        messages.add(new String[]{longSym.toString(), "a"});
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (Object message : messages)
+            stream.write(codec.serialize(2, message, false));
+        final byte[] bytes = stream.toByteArray();
+        c client = new c();
+        client.setReadChunkSize(64);
+        // deliver a few bytes at a time, so that reads end at arbitrary points within the message
+        client.inStream = new DataInputStream(new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        });
+        for (Object message : messages) {
+            Object[] msg = client.readMsg();
+            Assert.assertEquals((byte) 2, msg[0]);
+            Assert.assertArrayEquals(codec.serialize(2, message, false), codec.serialize(2, msg[1], false));
+        }
+        Assert.assertEquals(-1, client.inStream.read());
+    }
+
+    @Test
+    public void testStreamedReadConsumesMessageThatFailsToDecode() throws Exception {
+        c codec = new c();
+        byte[] enumeration = codec.serialize(2, new int[100], false);
+        enumeration[8] = 20; // an enumeration, which is not supported
+        byte[] error = codec.serialize(2, new int[100], false);
+        error[8] = -128;
+        byte[] message = "the text of an error which is longer than the read window".getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(message, 0, error, 9, message.length);
+        error[9 + message.length] = 0;
+        c client = new c();
+        client.setReadChunkSize(64);
+        client.inStream = new DataInputStream(new ByteArrayInputStream(
+                concat(concat(enumeration, error), codec.serialize(2, Integer.valueOf(42), false))));
+        try {
+            client.k();
+            Assert.fail("Expected an enumeration to be rejected");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Unable to deserialize unsupported kdb+ type: 20"));
+        }
+        try {
+            client.k();
+            Assert.fail("Expected a kdb+ error object");
+        } catch (c.KException e) {
+            Assert.assertEquals("the text of an error which is longer than the read window", e.getMessage());
+        }
+        Assert.assertEquals(Integer.valueOf(42), client.k());
+    }
+
+    @Test
+    public void testColumnViewsDecodeNumericVectors() throws Exception {
+        c codec = new c();
+        c.Flip table = new c.Flip(new String[]{"h", "i", "j", "e", "f", "s"}, new Object[]{
+            new short[]{1, Short.MIN_VALUE, -3}, new int[]{4, c.ni, -6}, new long[]{7L, c.nj, Long.MAX_VALUE},
+            new float[]{1.5f, Float.NaN, -2.5f}, new double[]{3.25, Double.NaN, -1e300}, new String[]{"a", "b", "c"}});
+        byte[] message = codec.serialize(2, table, false);
+        c viewer = new c();
+        viewer.setColumnViews(true);
+        c.Flip decoded = (c.Flip) viewer.deserialize(message);
+        c.ShortColumn h = (c.ShortColumn) decoded.at("h");
+        c.IntColumn i = (c.IntColumn) decoded.at("i");
+        c.LongColumn j = (c.LongColumn) decoded.at("j");
+        c.FloatColumn e = (c.FloatColumn) decoded.at("e");
+        c.DoubleColumn f = (c.DoubleColumn) decoded.at("f");
+        Assert.assertEquals(3, j.size());
+        Assert.assertEquals(Short.MIN_VALUE, h.getShort(1));
+        Assert.assertEquals(-6, i.getInt(2));
+        Assert.assertEquals(Long.MAX_VALUE, j.getLong(2));
+        Assert.assertEquals(-2.5f, e.getFloat(2), 0f);
+        Assert.assertEquals(-1e300, f.getDouble(2), 0d);
+        Assert.assertArrayEquals((long[]) table.y[2], j.toArray());
+        Assert.assertArrayEquals((double[]) table.y[4], f.toArray(), 0d);
+        Assert.assertEquals(7, j.type());
+        Assert.assertEquals(7, c.t(j));
+        Assert.assertEquals(Long.valueOf(7L), c.at(j, 0));
+        Assert.assertNull(c.at(i, 1));
+        Assert.assertEquals(ByteOrder.LITTLE_ENDIAN, j.asByteBuffer().order());
+        Assert.assertEquals(Long.MAX_VALUE, j.asByteBuffer().getLong(16));
+        // views serialize as the arrays they were decoded from
+        Assert.assertArrayEquals(message, codec.serialize(2, decoded, false));
+        try {
+            j.getLong(3);
+            Assert.fail("Expected an index beyond the view to be rejected");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+        // a copy is still made by default
+        Assert.assertTrue(((c.Flip) codec.deserialize(message)).at("j") instanceof long[]);
+    }
+
+    @Test
+    public void testColumnViewsOfBigEndianMessage() throws Exception {
+        int[] values = {1, -2, 0x01020304};
+        ByteBuffer message = ByteBuffer.allocate(8 + 6 + 4 * values.length).order(ByteOrder.BIG_ENDIAN);
+        message.put((byte) 0).put((byte) 2).put((byte) 0).put((byte) 0).putInt(message.capacity());
+        message.put((byte) 6).put((byte) 0).putInt(values.length);
+        for (int v : values)
+            message.putInt(v);
+        c viewer = new c();
+        viewer.setColumnViews(true);
+        c.IntColumn view = (c.IntColumn) viewer.deserialize(message.array());
+        Assert.assertEquals(0x01020304, view.getInt(2));
+        Assert.assertArrayEquals(values, view.toArray());
+        Assert.assertEquals(-2, view.asByteBuffer().getInt(4));
+        Assert.assertArrayEquals(new c().serialize(2, values, false), new c().serialize(2, view, false));
+    }
+
+    @Test
+    public void testTemporalColumnsDecodeWithoutObjectsPerElement() throws Exception {
+        c codec = new c();
+        Object[] vectors = {
+            new Instant[]{Instant.parse("2024-03-01T12:34:56.123456789Z"), Instant.MIN, Instant.parse("1999-12-31T23:59:59.999999999Z")},
+            new c.Month[]{new c.Month(290), new c.Month(c.ni), new c.Month(-1)},
+            new LocalDate[]{LocalDate.of(2024, 3, 1), LocalDate.MIN, LocalDate.of(1970, 1, 1)},
+            new LocalDateTime[]{LocalDateTime.of(2024, 3, 1, 12, 34, 56, 789000000), LocalDateTime.MIN},
+            new c.Timespan[]{new c.Timespan(123456789L), new c.Timespan(c.nj)},
+            new c.Minute[]{new c.Minute(61), new c.Minute(c.ni)},
+            new c.Second[]{new c.Second(3661), new c.Second(c.ni)},
+            new LocalTime[]{LocalTime.of(12, 34, 56, 789000000), c.LOCAL_TIME_NULL}};
+        c.Flip table = new c.Flip(new String[]{"p", "m", "d", "z", "n", "u", "v", "t"}, vectors);
+        byte[] message = codec.serialize(2, new Object[]{table, vectors[0]}, false);
+        c decoder = new c();
+        decoder.setTemporalColumns(true);
+        Object[] decoded = (Object[]) decoder.deserialize(message);
+        c.Flip columns = (c.Flip) decoded[0];
+        for (int i = 0; i < vectors.length; i++) {
+            c.Column column = (c.Column) columns.y[i];
+            Assert.assertEquals(c.t(vectors[i]), column.type());
+            Assert.assertArrayEquals((Object[]) vectors[i], (Object[]) column.toArray());
+            Assert.assertEquals(((Object[]) vectors[i])[0], column.get(0));
+            Assert.assertNull(c.at(column, 1));
+        }
+        c.TimestampColumn p = (c.TimestampColumn) decoded[1];
+        Assert.assertEquals(Instant.parse("2024-03-01T12:34:56.123456789Z"), p.getInstant(0));
+        Assert.assertEquals(c.nj, p.getLong(1));
+        Assert.assertEquals(LocalDate.of(1970, 1, 1), ((c.DateColumn) columns.at("d")).getLocalDate(2));
+        Assert.assertEquals(-10957, ((c.DateColumn) columns.at("d")).getInt(2));
+        // the columns serialize as the object arrays they were decoded from
+        Assert.assertArrayEquals(message, codec.serialize(2, decoded, false));
+    }
+
+    @Test
+    public void testTemporalColumnsSerializeFromPrimitives() throws Exception {
+        c codec = new c();
+        long[] nanos = {0L, 86_400_000_000_000L, c.nj, 99L};
+        // only the first three elements of the array are in the column
+        c.TimestampColumn column = new c.TimestampColumn(nanos, 3);
+        Assert.assertEquals(3, column.size());
+        Assert.assertSame(nanos, column.values());
+        Instant[] expected = {Instant.parse("2000-01-01T00:00:00Z"), Instant.parse("2000-01-02T00:00:00Z"), Instant.MIN};
+        Assert.assertArrayEquals(codec.serialize(1, expected, false), codec.serialize(1, column, false));
+        Assert.assertArrayEquals(codec.serialize(1, new LocalDate[]{LocalDate.of(2000, 1, 3)}, false),
+            codec.serialize(1, new c.DateColumn(new int[]{2}), false));
+        Assert.assertArrayEquals(codec.serialize(1, new c.Timespan[]{new c.Timespan(5)}, false),
+            codec.serialize(1, new c.TimespanColumn(new long[]{5}), false));
+        Assert.assertArrayEquals(codec.serialize(1, new LocalDateTime[]{LocalDateTime.of(2000, 1, 1, 12, 0)}, false),
+            codec.serialize(1, new c.DatetimeColumn(new double[]{0.5}), false));
+        try {
+            column.getLong(3);
+            Assert.fail("Expected an index beyond the column to be rejected");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            new c.MinuteColumn(new int[2], 3);
+            Assert.fail("Expected a length beyond the array to be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testSymbolInternTableSharesDecodedSymbols() throws Exception {
+        c codec = new c();
+        StringBuilder longSym = new StringBuilder();
+        for (int i = 0; i < 20; i++)
+            longSym.append("long");
+        byte[] first = codec.serialize(2, new Object[]{new String[]{"IBM", "MSFT", "IBM", "", longSym.toString()}, "MSFT"}, false);
+        byte[] second = codec.serialize(2, new String[]{"MSFT", "IBM", longSym.toString()}, false);
+        c.SymbolInternTable table = new c.SymbolInternTable();
+        c a = new c();
+        c b = new c();
+        a.setSymbolInternTable(table);
+        b.setSymbolInternTable(table);
+        Object[] x = (Object[]) a.deserialize(first);
+        String[] syms = (String[]) x[0];
+        String[] more = (String[]) b.deserialize(second);
+        Assert.assertArrayEquals(new String[]{"IBM", "MSFT", "IBM", "", longSym.toString()}, syms);
+        Assert.assertSame(syms[0], syms[2]);
+        Assert.assertSame(syms[1], x[1]);
+        // the table is shared by both connections
+        Assert.assertSame(syms[1], more[0]);
+        Assert.assertSame(syms[0], more[1]);
+        // symbols longer than the maximum length are not cached
+        Assert.assertEquals(syms[4], more[2]);
+        Assert.assertNotSame(syms[4], more[2]);
+    }
+
+    @Test
+    public void testSymbolInternTableReplacesSymbolsWhenFull() throws Exception {
+        c codec = new c();
+        String[] syms = new String[1000];
+        // short symbols, symbols either side of 8 bytes and those differing only in their last character
+        for (int i = 0; i < syms.length; i++)
+            syms[i] = (i % 3 == 0 ? "S" : i % 3 == 1 ? "ABCDEF" : "ABCDEFGHIJ") + (char) ('0' + i % 75) + i / 75;
+        byte[] message = codec.serialize(2, syms, false);
+        c client = new c();
+        client.setSymbolInternTable(new c.SymbolInternTable(16, 32));
+        Assert.assertArrayEquals(syms, (String[]) client.deserialize(message));
+        Assert.assertArrayEquals(syms, (String[]) client.deserialize(message));
+        try {
+            new c.SymbolInternTable(2, 8);
+            Assert.fail("Expected a table smaller than 4 slots to be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testSymbolInternTableKeysOnEncoding() throws Exception {
+        c client = new c();
+        client.setSymbolInternTable(new c.SymbolInternTable());
+        byte[] message = new c().serialize(2, "\u00e9", false);
+        Assert.assertEquals("\u00e9", client.deserialize(message));
+        try {
+            c.setEncoding("UTF-8");
+            // the same bytes decode differently under another encoding
+            Assert.assertEquals(new String(new byte[]{(byte) 0xe9}, StandardCharsets.UTF_8), client.deserialize(message));
+        } finally {
+            c.setEncoding("ISO-8859-1");
+        }
+        Assert.assertEquals("\u00e9", client.deserialize(message));
+    }
+
+    @Test
+    public void testSymbolEncodingCacheMatchesUncachedSerialization() throws Exception {
+        c plain = new c();
+        c cached = new c();
+        c.SymbolEncodingCache cache = new c.SymbolEncodingCache(16, 8);
+        cached.setSymbolEncodingCache(cache);
+        for (Object message : sampleMessages())
+            Assert.assertArrayEquals(plain.serialize(1, message, false), cached.serialize(1, message, false));
+        String[] syms = {"IBM", "MSFT", "IBM", null, "a\u0000b", "A_SYMBOL_LONGER_THAN_THE_LIMIT", "MSFT"};
+        Assert.assertArrayEquals(plain.serialize(1, syms, false), cached.serialize(1, syms, false));
+        Assert.assertArrayEquals(plain.serialize(1, "IBM", false), cached.serialize(1, "IBM", false));
+        Assert.assertSame(cache.encode("IBM", StandardCharsets.ISO_8859_1), cache.encode(new String("IBM"), StandardCharsets.ISO_8859_1));
+        Assert.assertNull(cache.encode("A_SYMBOL_LONGER_THAN_THE_LIMIT", StandardCharsets.ISO_8859_1));
+        try {
+            c.setEncoding("UTF-8");
+            String[] utf8 = {"\u20ac", "IBM", "\u20ac"};
+            Assert.assertArrayEquals(plain.serialize(1, utf8, false), cached.serialize(1, utf8, false));
+        } finally {
+            c.setEncoding("ISO-8859-1");
+        }
+    }
+
+    @Test
+    public void testSymbolColumnSerializesAsSymbolVector() throws Exception {
+        c codec = new c();
+        String[] dictionary = {"IBM", "MSFT", "", null, "\u00e9"};
+        c.SymbolColumn column = new c.SymbolColumn(new int[]{1, 0, 1, 2, 3, 4, 0, 99}, 7, dictionary);
+        String[] expected = {"MSFT", "IBM", "MSFT", "", null, "\u00e9", "IBM"};
+        Assert.assertEquals(7, column.size());
+        Assert.assertEquals(11, c.t(column));
+        Assert.assertEquals("MSFT", column.getString(2));
+        Assert.assertEquals(1, column.getCode(0));
+        Assert.assertArrayEquals(expected, column.toArray());
+        Assert.assertEquals(codec.nx(expected), codec.nx(column));
+        Assert.assertArrayEquals(codec.serialize(1, expected, false), codec.serialize(1, column, false));
+        c.Flip table = new c.Flip(new String[]{"sym", "size"}, new Object[]{column, new long[7]});
+        c.Flip tableOfStrings = new c.Flip(new String[]{"sym", "size"}, new Object[]{expected, new long[7]});
+        Assert.assertArrayEquals(codec.serialize(1, tableOfStrings, false), codec.serialize(1, table, false));
+        // symbol columns spanning several chunks of a streamed message
+        String[] many = new String[500];
+        int[] codes = new int[many.length];
+        for (int i = 0; i < many.length; i++) {
+            codes[i] = i % 3;
+            many[i] = dictionary[codes[i]];
+        }
+        c streamed = new c();
+        streamed.setWriteChunkSize(64);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        streamed.outStream = out;
+        streamed.ks(new c.SymbolColumn(codes, dictionary));
+        Assert.assertArrayEquals(codec.serialize(0, many, false), out.toByteArray());
+        try {
+            c.setEncoding("UTF-8");
+            Assert.assertArrayEquals(codec.serialize(1, expected, false), codec.serialize(1, column, false));
+        } finally {
+            c.setEncoding("ISO-8859-1");
+        }
+    }
+
+    private static Thread startEchoServer(final ServerSocket server, final AtomicReference<Throwable> failure) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    c peer = new c(server);
+                    try {
+                        while (true) {
+                            Object[] msg = peer.readMsg();
+                            Object x = msg[1];
+                            if ((byte) msg[0] == 0) {
+                                peer.ks(new Object[]{"pushed".toCharArray(), x});
+                            } else if (x instanceof char[] && "fail".equals(new String((char[]) x))) {
+                                peer.ke("boom");
+                            } else if (x instanceof char[] && "hangup".equals(new String((char[]) x))) {
+                                return;
+                            } else {
+                                peer.kr(x);
+                            }
+                        }
+                    } finally {
+                        peer.close();
+                    }
+                } catch (EOFException e) {
+                    // the client closed the connection
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "javakdb-test-server");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    @Test
+    public void testEventLoopPipelinesRequestsOnNonBlockingConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             c.EventLoop loop = new c.EventLoop(1)) {
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread peer = startEchoServer(server, failure);
+            final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+            final CountDownLatch closed = new CountDownLatch(1);
+            c.NioConnection conn = loop.connect("localhost", server.getLocalPort(), "user:pass", new c.NioListener() {
+                @Override
+                public void onMessage(c.NioConnection conn, byte msgType, Object msg) {
+                    received.add(msg);
+                }
+
+                @Override
+                public void onClose(c.NioConnection conn, Throwable cause) {
+                    if (cause == null) {
+                        closed.countDown();
+                    }
+                }
+            });
+            Assert.assertEquals(3, conn.getCodec().ipcVersion);
+            List<CompletableFuture<Object>> responses = new ArrayList<CompletableFuture<Object>>();
+            for (long i = 0; i < 100; i++) {
+                responses.add(conn.k(i));
+            }
+            // larger than the buffer each socket is read into, so it arrives over several reads
+            long[] large = new long[100000];
+            for (int i = 0; i < large.length; i++) {
+                large[i] = i;
+            }
+            CompletableFuture<Object> largeResponse = conn.k(large);
+            CompletableFuture<Object> error = conn.k("fail");
+            conn.ks("ping");
+            for (int i = 0; i < responses.size(); i++) {
+                Assert.assertEquals((long) i, responses.get(i).get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertArrayEquals(large, (long[]) largeResponse.get(5, TimeUnit.SECONDS));
+            try {
+                error.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected KException");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof c.KException);
+                Assert.assertEquals("boom", e.getCause().getMessage());
+            }
+            Object[] pushed = (Object[]) received.poll(5, TimeUnit.SECONDS);
+            Assert.assertEquals("pushed", new String((char[]) pushed[0]));
+            Assert.assertEquals("ping", new String((char[]) pushed[1]));
+            conn.close();
+            Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+            Assert.assertFalse(conn.isOpen());
+            try {
+                conn.ks("after close");
+                Assert.fail("Expected IOException");
+            } catch (IOException e) {
+                Assert.assertEquals("Connection closed", e.getMessage());
+            }
+            peer.join(5000);
+            Assert.assertFalse("server thread did not finish", peer.isAlive());
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+        }
+    }
+
+    @Test
+    public void testEventLoopFailsAwaitedResponsesWhenRemoteCloses() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             c.EventLoop loop = new c.EventLoop(2)) {
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            startEchoServer(server, failure);
+            final AtomicReference<Throwable> closeCause = new AtomicReference<Throwable>();
+            final CountDownLatch closed = new CountDownLatch(1);
+            c.NioConnection conn = loop.connect("localhost", server.getLocalPort(), "user:pass", new c.NioListener() {
+                @Override
+                public void onClose(c.NioConnection conn, Throwable cause) {
+                    closeCause.set(cause);
+                    closed.countDown();
+                }
+            });
+            Assert.assertEquals("x", new String((char[]) conn.k("x").get(5, TimeUnit.SECONDS)));
+            CompletableFuture<Object> unanswered = conn.k("hangup");
+            try {
+                unanswered.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the response to fail");
+            } catch (ExecutionException e) {
+                Assert.assertEquals("Connection closed", e.getCause().getMessage());
+            }
+            Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(closeCause.get() instanceof EOFException);
+            Assert.assertNull(failure.get());
+        }
+    }
+
+    @Test
+    public void testKAsyncPipelinesRequestsOnBlockingConnection() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread peer = startEchoServer(server, failure);
+            c client = new c("localhost", server.getLocalPort(), "user:pass");
+            try {
+                final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+                client.setMsgHandler(new c.MsgHandler() {
+                    @Override
+                    public void processMsg(c c, byte msgType, Object msg) {
+                        received.add(msg);
+                    }
+                });
+                List<CompletableFuture<Object>> responses = new ArrayList<CompletableFuture<Object>>();
+                for (long i = 0; i < 100; i++) {
+                    responses.add(client.kAsync(i));
+                }
+                CompletableFuture<Object> error = client.kAsync("fail");
+                client.ks("ping");
+                CompletableFuture<Object> last = client.kAsync("f", 1L, 2L);
+                // a blocking request is queued behind those outstanding, rather than reading their responses
+                Assert.assertEquals(7L, client.k(7L));
+                for (int i = 0; i < responses.size(); i++) {
+                    Assert.assertTrue(responses.get(i).isDone());
+                    Assert.assertEquals((long) i, responses.get(i).get());
+                }
+                try {
+                    error.get();
+                    Assert.fail("Expected KException");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof c.KException);
+                    Assert.assertEquals("boom", e.getCause().getMessage());
+                }
+                Object[] call = (Object[]) last.get();
+                Assert.assertEquals("f", new String((char[]) call[0]));
+                Assert.assertEquals(2L, call[2]);
+                Object[] pushed = (Object[]) received.poll(5, TimeUnit.SECONDS);
+                Assert.assertEquals("ping", new String((char[]) pushed[1]));
+                // once no responses are awaited, k reads its own response again
+                Assert.assertEquals(8L, client.k(8L));
+                CompletableFuture<Object> unanswered = client.kAsync("hangup");
+                try {
+                    unanswered.get(5, TimeUnit.SECONDS);
+                    Assert.fail("Expected the response to fail");
+                } catch (ExecutionException e) {
+                    Assert.assertTrue(e.getCause() instanceof EOFException);
+                }
+            } finally {
+                client.close();
+            }
+            peer.join(5000);
+            Assert.assertFalse("server thread did not finish", peer.isAlive());
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionPoolBoundsReusesValidatesAndEvictsConnections() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 2, InetAddress.getLoopbackAddress())) {
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread first = startEchoServer(server, failure);
+            Thread second = startEchoServer(server, failure);
+            c.ConnectionPool pool = new c.ConnectionPool("localhost", server.getLocalPort(), "user:pass", false, 2);
+            pool.setCheckoutTimeout(50);
+            c a = pool.acquire();
+            c b = pool.acquire();
+            Assert.assertNotSame(a, b);
+            try {
+                pool.acquire();
+                Assert.fail("Expected checkout to time out");
+            } catch (IOException e) {
+                Assert.assertEquals("Timed out awaiting a connection after 50ms", e.getMessage());
+            }
+            pool.release(a);
+            Assert.assertSame(a, pool.acquire());
+            pool.release(a);
+            pool.release(b);
+            Assert.assertEquals(2, pool.getOpen());
+            Assert.assertEquals(2, pool.getIdle());
+            Assert.assertEquals(5L, pool.k(5L));
+            // the most recently released connection is reused first
+            Assert.assertSame(b, pool.acquire());
+            try {
+                b.kAsync("hangup").get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the response to fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof EOFException);
+            }
+            pool.release(b);
+            pool.setValidateAfter(0);
+            // the failed connection is discarded on validation, and the other handed out instead
+            Assert.assertSame(a, pool.acquire());
+            Assert.assertEquals(1, pool.getOpen());
+            pool.setIdleTimeout(0);
+            pool.release(a);
+            Assert.assertEquals(0, pool.getOpen());
+            Assert.assertEquals(0, pool.getIdle());
+            pool.close();
+            try {
+                pool.acquire();
+                Assert.fail("Expected IOException");
+            } catch (IOException e) {
+                Assert.assertEquals("Connection pool closed", e.getMessage());
+            }
+            first.join(5000);
+            second.join(5000);
+            Assert.assertFalse("server thread did not finish", first.isAlive() || second.isAlive());
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+        }
+    }
+
+    @Test
+    public void testIpcServerServesClientsConcurrently() throws Exception {
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newCachedThreadPool();
+        final BlockingQueue<Object> received = new LinkedBlockingQueue<Object>();
+        final CountDownLatch bothWaiting = new CountDownLatch(2);
+        ServerSocket socket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        c.IpcServer server = new c.IpcServer(socket,
+                new c.IAuthenticate() {
+                    @Override
+                    public boolean authenticate(String s) {
+                        return s.startsWith("user:");
+                    }
+                },
+                new c.RequestHandler() {
+                    @Override
+                    public Object process(c c, byte msgType, Object msg) throws Exception {
+                        String request = msg instanceof char[] ? new String((char[]) msg) : null;
+                        if (msgType == 0) {
+                            received.add(msg);
+                        } else if ("wait".equals(request)) {
+                            // answered only once a request from each client is being processed at once
+                            bothWaiting.countDown();
+                            if (!bothWaiting.await(5, TimeUnit.SECONDS)) {
+                                throw new IllegalStateException("requests were not processed concurrently");
+                            }
+                        } else if ("fail".equals(request)) {
+                            throw new IllegalStateException("boom");
+                        }
+                        return msg;
+                    }
+                },
+                executor);
+        try {
+            server.start();
+            int port = socket.getLocalPort();
+            final c first = new c("localhost", port, "user:a");
+            final c second = new c("localhost", port, "user:b");
+            try {
+                CompletableFuture<Object> waiting = first.kAsync("wait");
+                Assert.assertEquals("wait", new String((char[]) second.k("wait")));
+                Assert.assertEquals("wait", new String((char[]) waiting.get(5, TimeUnit.SECONDS)));
+                Assert.assertEquals(3L, first.k(3L));
+                try {
+                    second.k("fail");
+                    Assert.fail("Expected KException");
+                } catch (c.KException e) {
+                    Assert.assertEquals("boom", e.getMessage());
+                }
+                second.ks("note");
+                Assert.assertEquals("note", new String((char[]) received.poll(5, TimeUnit.SECONDS)));
+                Assert.assertEquals(4L, second.k(4L));
+            } finally {
+                first.close();
+                second.close();
+            }
+            try {
+                new c("localhost", port, "intruder:x");
+                Assert.fail("Expected KException");
+            } catch (c.KException e) {
+                Assert.assertEquals("access", e.getMessage());
+            }
+        } finally {
+            server.close();
+            executor.shutdown();
+        }
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testManyThreadsShareConnectionPool() throws Exception {
+        java.util.concurrent.ExecutorService serverThreads = KThreads.newExecutor("javakdb-test-server");
+        java.util.concurrent.ExecutorService requestThreads = KThreads.newExecutor("javakdb-test-request");
+        ServerSocket socket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        c.IpcServer server = new c.IpcServer(socket, null, new c.RequestHandler() {
+            @Override
+            public Object process(c c, byte msgType, Object msg) {
+                return msg;
+            }
+        }, serverThreads);
+        final c.ConnectionPool pool = new c.ConnectionPool("localhost", socket.getLocalPort(), "user:pass", false, 4);
+        try {
+            server.start();
+            List<java.util.concurrent.Future<Object>> responses = new ArrayList<java.util.concurrent.Future<Object>>();
+            for (long i = 0; i < 200; i++) {
+                final long request = i;
+                responses.add(requestThreads.submit(new java.util.concurrent.Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return pool.k(request);
+                    }
+                }));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                Assert.assertEquals((long) i, responses.get(i).get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertTrue(pool.getOpen() <= 4);
+        } finally {
+            pool.close();
+            server.close();
+            requestThreads.shutdown();
+            serverThreads.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompressorReusesBuffersAcrossMessages() throws Exception {
+        c sender = new c();
+        c receiver = new c();
+        c.Compressor compressor = new c.Compressor();
+        Random random = new Random(42);
+        // largest first, so later messages are uncompressed into a buffer longer than them
+        for (int size : new int[]{200000, 50000, 7000, 3000}) {
+            for (int kind = 0; kind < 3; kind++) {
+                long[] values = new long[size / 8];
+                for (int i = 0; i < values.length; i++) {
+                    // runs of repeated values, short repeats which overlap their copy, and values drawn from a few
+                    values[i] = kind == 0 ? i / 100 : kind == 1 ? 0 : random.nextInt(16);
+                }
+                byte[] compressed = sender.serialize(1, values, true);
+                Assert.assertEquals(1, compressed[2]);
+                Assert.assertArrayEquals(values, (long[]) receiver.deserialize(compressed));
+                byte[] uncompressed = new c().serialize(1, values, false);
+                Assert.assertArrayEquals(compressed, compressor.compress(uncompressed));
+                Assert.assertArrayEquals(uncompressed, compressor.uncompress(compressed));
+            }
+        }
+        byte[] incompressible = new byte[5000];
+        random.nextBytes(incompressible);
+        byte[] message = sender.serialize(1, incompressible, false);
+        Assert.assertSame(message, compressor.compress(message));
+        Assert.assertSame(message, compressor.uncompress(message));
+        // with column views the buffer uncompressed into is not reused, as the views returned read from it
+        receiver.setColumnViews(true);
+        c.LongColumn first = (c.LongColumn) receiver.deserialize(sender.serialize(1, new long[1000], true));
+        receiver.deserialize(sender.serialize(1, new long[]{7, 7, 7, 7, 7, 7, 7, 7, 7, 7}, false));
+        long[] second = new long[1000];
+        Arrays.fill(second, 3);
+        receiver.deserialize(sender.serialize(1, second, true));
+        Assert.assertArrayEquals(new long[1000], first.toArray());
+    }
+
+    @Test
+    public void testParallelCompressionProducesSingleStream() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(42);
+            // runs of repeated values, values drawn from a few, and a stretch which does not compress
+            long[] values = new long[120000];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i < 40000 ? i / 100 : i < 80000 ? random.nextInt(16) : i < 90000 ? random.nextLong() : 7;
+            }
+            byte[] message = new c().serialize(1, values, false);
+            c.Compressor sequential = new c.Compressor();
+            byte[] expected = sequential.compress(message);
+            for (int segmentSize : new int[]{4096, 5001, 65536, message.length / 2}) {
+                c.Compressor compressor = new c.Compressor();
+                compressor.setParallelism(pool, segmentSize);
+                byte[] compressed = compressor.compress(message);
+                Assert.assertEquals(1, compressed[2]);
+                Assert.assertTrue(compressed.length < message.length / 2);
+                // segments lose the matches which would cross their boundaries
+                Assert.assertTrue(compressed.length >= expected.length);
+                Assert.assertArrayEquals(message, sequential.uncompress(compressed));
+                Assert.assertArrayEquals(message, compressor.uncompress(compressor.compress(message)));
+            }
+            // a message shorter than two segments is compressed sequentially
+            c.Compressor compressor = new c.Compressor();
+            compressor.setParallelism(pool, message.length / 2 + 1);
+            Assert.assertArrayEquals(expected, compressor.compress(message));
+            byte[] incompressible = new byte[100000];
+            random.nextBytes(incompressible);
+            byte[] noise = new c().serialize(1, incompressible, false);
+            compressor.setParallelism(pool, 4096);
+            Assert.assertSame(noise, compressor.compress(noise));
+            c sender = new c();
+            sender.setCompressionPool(pool, 4096);
+            byte[] sent = sender.serialize(1, values, true);
+            Assert.assertEquals(1, sent[2]);
+            Assert.assertArrayEquals(values, (long[]) new c().deserialize(sent));
+            try {
+                compressor.setParallelism(pool, 4095);
+                Assert.fail("Expected an IllegalArgumentException to be thrown");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Segment size must be at least 4096 bytes, got 4095", e.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAdaptiveCompressionPolicySkipsPayloadsWhichWillNotCompress() throws Exception {
+        Random random = new Random(42);
+        double[] noise = new double[100000];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = random.nextDouble();
+        }
+        long[] runs = new long[100000];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = i / 100;
+        }
+        c connection = new c();
+        connection.zip(true);
+        c.AdaptiveCompressionPolicy policy = new c.AdaptiveCompressionPolicy();
+        connection.setCompressionPolicy(policy);
+        // sampled, and sent without attempting to compress the whole message
+        Assert.assertEquals(0, connection.serialize(1, noise, true)[2]);
+        Assert.assertEquals(0, policy.getAttempts());
+        Assert.assertEquals(1, policy.getSkips());
+        byte[] compressed = connection.serialize(1, runs, true);
+        Assert.assertEquals(1, compressed[2]);
+        Assert.assertArrayEquals(runs, (long[]) new c().deserialize(compressed));
+        Assert.assertEquals(1, policy.getAttempts());
+        Assert.assertEquals(0, policy.getAbandoned());
+        Assert.assertEquals((double) (8 + 6 + 8 * runs.length) / compressed.length, policy.getRatio(), 1e-9);
+        Assert.assertEquals(policy.getRatio(), policy.getRecentRatio(), 1e-9);
+        // too short to compress
+        Assert.assertEquals(0, connection.serialize(1, new long[100], true)[2]);
+        Assert.assertEquals(2, policy.getSkips());
+        // without sampling, a message is judged by the ratios recently achieved, attempting one in 16 while they fall short
+        policy.setSampleSize(0);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, connection.serialize(1, noise, true)[2]);
+        }
+        Assert.assertEquals(4, policy.getAttempts());
+        Assert.assertEquals(3, policy.getAbandoned());
+        Assert.assertTrue(policy.getRecentRatio() < 2);
+        for (int i = 0; i < 15; i++) {
+            Assert.assertEquals(0, connection.serialize(1, runs, true)[2]);
+        }
+        Assert.assertEquals(17, policy.getSkips());
+        Assert.assertEquals(1, connection.serialize(1, runs, true)[2]);
+        Assert.assertEquals(1, connection.serialize(1, runs, true)[2]);
+        Assert.assertEquals(6, policy.getAttempts());
+        Assert.assertEquals(17, policy.getSkips());
+        // on a link fast enough that compression costs more time than it saves
+        c.AdaptiveCompressionPolicy fast = new c.AdaptiveCompressionPolicy();
+        fast.setBandwidth(1e15);
+        connection.setCompressionPolicy(fast);
+        Assert.assertEquals(1, connection.serialize(1, runs, true)[2]);
+        Assert.assertEquals(0, connection.serialize(1, runs, true)[2]);
+        Assert.assertEquals(1, fast.getAttempts());
+        Assert.assertEquals(1, fast.getSkips());
+        connection.isLoopback = true;
+        connection.setCompressionPolicy(policy);
+        policy.setSampleSize(16384);
+        Assert.assertEquals(0, connection.serialize(1, runs, true)[2]);
+        policy.setCompressLoopback(true);
+        Assert.assertEquals(1, connection.serialize(1, runs, true)[2]);
+        try {
+            policy.setSampleSize(63);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Sample size must be 0 or at least 64 bytes, got 63", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFlipBuilderSerializesRowsAsColumns() throws Exception {
+        c.FlipBuilder rows = new c.FlipBuilder(new String[]{"time", "sym", "price", "size", "qty", "span"}, "psfjin", 2);
+        String[] syms = {"AAPL", "MSFT", null, "AAPL"};
+        long[] time = new long[1000];
+        String[] sym = new String[1000];
+        double[] price = new double[1000];
+        long[] size = new long[1000];
+        int[] qty = new int[1000];
+        long[] span = new long[1000];
+        for (int i = 0; i < 1000; i++) {
+            time[i] = 800_000_000_000_000_000L + i;
+            sym[i] = syms[i % 4] == null ? "" : syms[i % 4];
+            price[i] = i == 7 ? Double.NaN : i / 4.0;
+            size[i] = i * 100L;
+            qty[i] = i;
+            span[i] = i * 1000L;
+            // ints widen to longs
+            rows.add(time[i]).add(syms[i % 4]).add(price[i]).add((int) size[i]).add(qty[i]).add(span[i]);
+        }
+        Assert.assertEquals(1000, rows.size());
+        c.Flip expected = new c.Flip(new String[]{"time", "sym", "price", "size", "qty", "span"},
+                new Object[]{new c.TimestampColumn(time), sym, price, size, qty, new c.TimespanColumn(span)});
+        c c = new c();
+        byte[] message = c.serialize(1, expected, false);
+        Assert.assertArrayEquals(message, c.serialize(1, rows.view(), false));
+        c.Flip built = rows.build();
+        Assert.assertArrayEquals(message, c.serialize(1, built, false));
+        Assert.assertArrayEquals(size, (long[]) built.at("size"));
+        Assert.assertArrayEquals(qty, (int[]) built.at("qty"));
+        Assert.assertArrayEquals(sym, ((c.SymbolColumn) built.at("sym")).toArray());
+        // cleared, the buffers are reused for the next batch, and the built table is unaffected
+        rows.clear();
+        Assert.assertEquals(0, rows.size());
+        rows.add(1L).add("IBM").add(2.5).add(3L).add(4).add(5L);
+        c.Flip next = rows.view();
+        Assert.assertArrayEquals(new String[]{"IBM"}, ((c.SymbolColumn) next.at("sym")).toArray());
+        Assert.assertArrayEquals(new long[]{3}, ((c.LongColumn) next.at("size")).toArray());
+        Assert.assertArrayEquals(message, c.serialize(1, built, false));
+        try {
+            rows.add("AAPL");
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Column time is of type p, not s", e.getMessage());
+        }
+        rows.add(1L);
+        try {
+            rows.view();
+            Assert.fail("Expected an IllegalStateException to be thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Row 1 is incomplete, with 1 of 6 columns added", e.getMessage());
+        }
+        try {
+            new c.FlipBuilder(new String[]{"a", "b"}, "jx");
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Unsupported type 'x' for column b", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFlipBuilderFlushSendsTableAndClears() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    c peer = new c(server);
+                    received.add(peer.readMsg()[1]);
+                    peer.close();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+            c conn = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort(), "user:pass");
+            c.FlipBuilder rows = new c.FlipBuilder(new String[]{"sym", "size"}, "sj");
+            rows.flush(conn, ".u.upd", "trade");
+            rows.add("AAPL").add(100L).add("MSFT").add(200L);
+            rows.flush(conn, ".u.upd", "trade");
+            Assert.assertEquals(0, rows.size());
+            Object[] msg = (Object[]) received.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(msg);
+            Assert.assertEquals(".u.upd", new String((char[]) msg[0]));
+            Assert.assertEquals("trade", msg[1]);
+            c.Flip table = (c.Flip) msg[2];
+            Assert.assertArrayEquals(new String[]{"sym", "size"}, table.x);
+            Assert.assertArrayEquals(new String[]{"AAPL", "MSFT"}, (String[]) table.at("sym"));
+            Assert.assertArrayEquals(new long[]{100, 200}, (long[]) table.at("size"));
+            conn.close();
+            thread.join(10000);
+            Assert.assertNull(failure.get());
+        }
+    }
+
+    @Test
+    public void testPublisherBatchesRowsBySizeAndLatency() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final BlockingQueue<Object[]> received = new LinkedBlockingQueue<>();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final AtomicBoolean slow = new AtomicBoolean();
+            Thread thread = new Thread(() -> {
+                try {
+                    c peer = new c(server);
+                    while (true) {
+                        received.add((Object[]) peer.readMsg()[1]);
+                        if (slow.get()) {
+                            Thread.sleep(5);
+                        }
+                    }
+                } catch (EOFException e) {
+                    // publisher's connection closed
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+            c conn = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort(), "user:pass");
+            c.Publisher publisher = new c.Publisher(conn, ".u.upd", 50, 1 << 20, TimeUnit.MILLISECONDS.toNanos(20));
+            final c.Publisher.Table trade = publisher.table("trade", new String[]{"sym", "size"}, "sj");
+            c.Publisher.Table quote = publisher.table("quote", new String[]{"sym", "bid"}, "sf");
+            // too few rows to fill a batch, so sent once the first has waited for the maximum latency
+            long start = System.nanoTime();
+            for (int i = 0; i < 3; i++) {
+                c.FlipBuilder rows = quote.begin();
+                try {
+                    rows.add("AAPL").add(i + 0.5);
+                } finally {
+                    quote.end();
+                }
+            }
+            Object[] msg = received.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(msg);
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+            Assert.assertEquals("quote", msg[1]);
+            Assert.assertArrayEquals(new double[]{0.5, 1.5, 2.5}, (double[]) ((c.Flip) msg[2]).at("bid"), 0);
+            // the batch is counted once its send returns, which may be after it is received
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (publisher.getBatches() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(1, publisher.getBatches());
+            Assert.assertTrue(publisher.getMaxDelayNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+            // rows from many threads, sent in batches of at most 50, while the receiver is slow enough to block them
+            slow.set(true);
+            Thread[] producers = new Thread[4];
+            for (int p = 0; p < producers.length; p++) {
+                final long base = p * 1000L;
+                producers[p] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 250; i++) {
+                            c.FlipBuilder rows = trade.begin();
+                            try {
+                                rows.add("IBM").add(base + i);
+                            } finally {
+                                trade.end();
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers) {
+                producer.join(10000);
+            }
+            publisher.close();
+            conn.close();
+            thread.join(10000);
+            Assert.assertNull(failure.get());
+            long[] sizes = new long[1000];
+            int n = 0;
+            while ((msg = received.poll()) != null) {
+                Assert.assertEquals("trade", msg[1]);
+                long[] size = (long[]) ((c.Flip) msg[2]).at("size");
+                Assert.assertTrue(size.length <= 50);
+                System.arraycopy(size, 0, sizes, n, size.length);
+                n += size.length;
+            }
+            Assert.assertEquals(1000, n);
+            Arrays.sort(sizes);
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertEquals(i / 250 * 1000 + i % 250, sizes[i]);
+            }
+            Assert.assertEquals(1003, publisher.getRows());
+            Assert.assertEquals(50, publisher.getMaxBatchRows());
+            Assert.assertTrue(publisher.getBatches() >= 21);
+            Assert.assertTrue(publisher.getBlocked() > 0);
+            Assert.assertTrue(publisher.getMeanDelayNanos() > 0);
+            try {
+                trade.begin();
+                Assert.fail("Expected an IOException to be thrown");
+            } catch (IOException e) {
+                Assert.assertEquals("Publisher closed", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testRingWriterKeepsEachProducersMessagesInOrder() throws Exception {
+        try {
+            new c.RingWriter(new c(), 12);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Ring capacity must be a power of 2, got 12", e.getMessage());
+        }
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final BlockingQueue<Object[]> received = new LinkedBlockingQueue<>();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    c peer = new c(server);
+                    while (true) {
+                        received.add((Object[]) peer.readMsg()[1]);
+                    }
+                } catch (EOFException e) {
+                    // writer's connection closed
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+            c conn = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort(), "user:pass");
+            // a ring much smaller than the messages sent, so that producers wait for slots to be freed
+            final c.RingWriter ring = new c.RingWriter(conn, 16, 256);
+            Thread[] producers = new Thread[8];
+            for (int p = 0; p < producers.length; p++) {
+                final long producer = p;
+                producers[p] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 500; i++) {
+                            ring.ks("upd", producer, (long) i);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                });
+                producers[p].start();
+            }
+            for (Thread producer : producers) {
+                producer.join(10000);
+            }
+            ring.close();
+            conn.close();
+            thread.join(10000);
+            Assert.assertNull(failure.get());
+            Assert.assertEquals(4000, received.size());
+            long[] next = new long[producers.length];
+            for (Object[] msg : received) {
+                Assert.assertArrayEquals("upd".toCharArray(), (char[]) msg[0]);
+                int producer = (int) (long) (Long) msg[1];
+                Assert.assertEquals(next[producer]++, (long) (Long) msg[2]);
+            }
+            try {
+                ring.ks("upd", 0L, 0L);
+                Assert.fail("Expected an IOException to be thrown");
+            } catch (IOException e) {
+                Assert.assertEquals("Ring writer closed", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testGatherThresholdWritesVectorsFromTheirOwnArrays() throws Exception {
+        try {
+            new c().setGatherThreshold(10);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Gather threshold must be 0 or at least 64 bytes, got 10", e.getMessage());
+        }
+        c.FlipBuilder rows = new c.FlipBuilder(new String[]{"sym", "price", "size"}, "sfj");
+        for (int i = 0; i < 1000; i++) {
+            rows.add(i % 2 == 0 ? "IBM" : "MSFT").add(i + 0.25).add((long) i);
+        }
+        byte[] large = new byte[300];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        Object[] msg = {"upd".toCharArray(), rows.view(), large, new byte[]{1, 2, 3}, new long[]{4, 5}};
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final int port = ((InetSocketAddress) server.getLocalAddress()).getPort();
+            final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    c client = new c(InetAddress.getLoopbackAddress().getHostAddress(), port, "user:pass");
+                    received.add(client.readMsg()[1]);
+                    received.add(client.readMsg()[1]);
+                    client.close();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+            c connection = new c(server);
+            try {
+                connection.setGatherThreshold(64);
+                connection.ks(msg);
+                // a message without vectors long enough to gather is written from the message buffer alone
+                connection.ks("upd", new long[]{1, 2, 3});
+            } finally {
+                connection.close();
+            }
+            thread.join(10000);
+            Assert.assertNull(failure.get());
+            Object[] x = (Object[]) received.poll();
+            Assert.assertArrayEquals("upd".toCharArray(), (char[]) x[0]);
+            c.Flip table = (c.Flip) x[1];
+            Assert.assertArrayEquals(new String[]{"sym", "price", "size"}, table.x);
+            c.Flip expected = rows.build();
+            Assert.assertArrayEquals((String[]) ((c.Column) expected.y[0]).toArray(), (String[]) table.y[0]);
+            Assert.assertArrayEquals((double[]) expected.y[1], (double[]) table.y[1], 0);
+            Assert.assertArrayEquals((long[]) expected.y[2], (long[]) table.y[2]);
+            Assert.assertArrayEquals(large, (byte[]) x[2]);
+            Assert.assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) x[3]);
+            Assert.assertArrayEquals(new long[]{4, 5}, (long[]) x[4]);
+            Object[] y = (Object[]) received.poll();
+            Assert.assertArrayEquals(new long[]{1, 2, 3}, (long[]) y[1]);
+        }
+    }
+
+    @Test
+    public void testLazyTablesDecodeColumnsOnAccess() throws Exception {
+        c codec = new c();
+        c.Flip table = new c.Flip(new String[]{"sym", "time", "price", "note", "flags", "size", "mixed"}, new Object[]{
+            new String[]{"IBM", "", "MSFT"},
+            new Instant[]{Instant.parse("2024-03-01T12:34:56.123456789Z"), Instant.MIN, Instant.EPOCH},
+            new double[]{1.5, Double.NaN, -2.5},
+            new Object[]{"a".toCharArray(), "bc".toCharArray(), new char[0]},
+            new boolean[]{true, false, true},
+            new long[]{7, c.nj, Long.MAX_VALUE},
+            new Object[]{1L, "x", new c.Dict(new String[]{"k"}, new long[]{2})}});
+        c.Dict keyed = new c.Dict(new c.Flip(new String[]{"id"}, new Object[]{new long[]{1, 2}}),
+            new c.Flip(new String[]{"v"}, new Object[]{new double[]{0.5, 1.5}}));
+        byte[] message = codec.serialize(2, new Object[]{table, keyed, 42L}, false);
+        c lazy = new c();
+        lazy.setLazyTables(true);
+        Object[] decoded = (Object[]) lazy.deserialize(message);
+        Assert.assertEquals(42L, decoded[2]);
+        c.LazyFlip flip = (c.LazyFlip) decoded[0];
+        Assert.assertArrayEquals(table.x, flip.x);
+        for (Object column : flip.y) {
+            Assert.assertNull(column);
+        }
+        Assert.assertArrayEquals((double[]) table.y[2], (double[]) flip.at("price"), 0);
+        Assert.assertNull(flip.y[5]);
+        Assert.assertSame(flip.at("price"), flip.y[2]);
+        Assert.assertEquals(3, c.n(flip));
+        Object[] eager = ((c.Flip) ((Object[]) codec.deserialize(message))[0]).y;
+        Object[] columns = flip.columns();
+        Assert.assertArrayEquals((String[]) eager[0], (String[]) columns[0]);
+        Assert.assertArrayEquals((Instant[]) eager[1], (Instant[]) columns[1]);
+        Assert.assertArrayEquals((long[]) eager[5], (long[]) columns[5]);
+        Assert.assertArrayEquals(new long[]{2}, (long[]) ((c.Dict) ((Object[]) columns[6])[2]).y);
+        c.Dict key = (c.Dict) decoded[1];
+        Assert.assertTrue(key.x instanceof c.LazyFlip);
+        Assert.assertArrayEquals(new double[]{0.5, 1.5}, (double[]) ((c.Flip) key.y).at("v"), 0);
+        Assert.assertArrayEquals(new long[]{1, 2}, (long[]) c.td(key).y[0]);
+        // tables not yet decoded in full serialize as those they were decoded from
+        Assert.assertArrayEquals(message, codec.serialize(2, lazy.deserialize(message), false));
+        // a malformed column is found when the table is indexed, as it would be when decoded eagerly
+        byte[] truncated = Arrays.copyOf(codec.serialize(2, table, false), 40);
+        ByteBuffer.wrap(truncated).order(ByteOrder.LITTLE_ENDIAN).putInt(4, truncated.length);
+        try {
+            lazy.deserialize(truncated);
+            Assert.fail("Expected a RuntimeException to be thrown");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Malformed message"));
+        }
+        // tables are decoded eagerly by default
+        Assert.assertFalse(((Object[]) codec.deserialize(message))[0] instanceof c.LazyFlip);
+    }
+
+    @Test
+    public void testDecodeOptionsSkipColumnsAndRows() throws Exception {
+        try {
+            new c.DecodeOptions().rows(-1, 2);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Row window must not be negative, got -1 2", e.getMessage());
+        }
+        final c.Flip table = new c.Flip(new String[]{"sym", "time", "price", "note", "size"}, new Object[]{
+            new String[]{"IBM", "MSFT", "", "AAPL"},
+            new Instant[]{Instant.EPOCH, Instant.MIN, Instant.parse("2024-03-01T12:34:56.123456789Z"), Instant.EPOCH},
+            new double[]{1.5, 2.5, 3.5, 4.5},
+            new Object[]{"a".toCharArray(), "bc".toCharArray(), new char[0], "def".toCharArray()},
+            new long[]{1, 2, 3, 4}});
+        c codec = new c();
+        byte[] message = codec.serialize(2, new Object[]{table, 42L}, false);
+        Object[] decoded = (Object[]) codec.deserialize(message,
+            new c.DecodeOptions().columns("size", "note", "sym", "missing").rows(1, 2));
+        c.Flip projected = (c.Flip) decoded[0];
+        Assert.assertArrayEquals(new String[]{"sym", "note", "size"}, projected.x);
+        Assert.assertArrayEquals(new String[]{"MSFT", ""}, (String[]) projected.at("sym"));
+        Assert.assertArrayEquals("bc".toCharArray(), (char[]) ((Object[]) projected.at("note"))[0]);
+        Assert.assertArrayEquals(new long[]{2, 3}, (long[]) projected.at("size"));
+        Assert.assertEquals(42L, decoded[1]);
+        // the window is clipped to the rows of the table
+        c.Flip last = (c.Flip) codec.deserialize(codec.serialize(2, table, false), new c.DecodeOptions().lastRows(10));
+        Assert.assertArrayEquals(table.x, last.x);
+        Assert.assertArrayEquals((Instant[]) table.y[1], (Instant[]) last.at("time"));
+        c.Flip empty = (c.Flip) codec.deserialize(codec.serialize(2, table, false), new c.DecodeOptions().rows(7, 2));
+        Assert.assertEquals(0, ((double[]) empty.at("price")).length);
+        // both halves of a keyed table
+        c.Dict keyed = new c.Dict(new c.Flip(new String[]{"id"}, new Object[]{new long[]{1, 2, 3}}),
+            new c.Flip(new String[]{"v", "w"}, new Object[]{new double[]{0.5, 1.5, 2.5}, new int[]{4, 5, 6}}));
+        c.Dict key = (c.Dict) codec.deserialize(codec.serialize(2, keyed, false),
+            new c.DecodeOptions().columns("id", "w").lastRows(1));
+        Assert.assertArrayEquals(new long[]{3}, (long[]) ((c.Flip) key.x).at("id"));
+        Assert.assertArrayEquals(new String[]{"w"}, ((c.Flip) key.y).x);
+        Assert.assertArrayEquals(new int[]{6}, (int[]) ((c.Flip) key.y).at("w"));
+        // responses read by k, whether in full or through the read window
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    c peer = new c(server);
+                    for (int i = 0; i < 2; i++) {
+                        peer.readMsg();
+                        peer.kr(table);
+                    }
+                    peer.close();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+            c conn = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort(), "user:pass");
+            try {
+                c.DecodeOptions options = new c.DecodeOptions().columns("price", "note").lastRows(2);
+                c.Flip response = (c.Flip) conn.k(options, "trade");
+                Assert.assertArrayEquals(new double[]{3.5, 4.5}, (double[]) response.at("price"), 0);
+                conn.setReadChunkSize(64);
+                response = (c.Flip) conn.k(options, "trade");
+                Assert.assertArrayEquals(new String[]{"price", "note"}, response.x);
+                Assert.assertArrayEquals("def".toCharArray(), (char[]) ((Object[]) response.at("note"))[1]);
+            } finally {
+                conn.close();
+            }
+            thread.join(10000);
+            Assert.assertNull(failure.get());
+        }
+    }
+
+    @Test
+    public void testObjectVisitorReproducesDeserialize() throws Exception {
+        c codec = new c();
+        c.Flip table = new c.Flip(new String[]{"sym", "time", "price"}, new Object[]{
+            new String[]{"IBM", "", "MSFT"},
+            new Instant[]{Instant.EPOCH, Instant.MIN, Instant.parse("2024-03-01T12:34:56.123456789Z")},
+            new double[]{1.5, Double.NaN, -2.5}});
+        Object[] message = {
+            true, new UUID(1, 2), (byte) 3, (short) 4, 5, 6L, 7.5f, 8.5, 'c', "sym", "",
+            Instant.parse("2024-03-01T12:34:56.123456789Z"), new c.Month(290), LocalDate.of(2024, 3, 1),
+            LocalDateTime.of(2024, 3, 1, 12, 34, 56, 789000000), new c.Timespan(123456789L), new c.Minute(61),
+            new c.Second(3661), LocalTime.of(12, 34, 56, 789000000),
+            new boolean[]{true, false}, new UUID[]{new UUID(3, 4)}, new byte[]{1, 2}, new short[]{3, Short.MIN_VALUE},
+            new int[]{4, c.ni}, new long[]{5, c.nj}, new float[]{6.5f}, new double[]{7.5}, "chars".toCharArray(),
+            new String[]{"a", "", "bc"}, new Instant[]{Instant.EPOCH}, new c.Month[]{new c.Month(1)},
+            new LocalDate[]{LocalDate.MIN}, new LocalDateTime[]{LocalDateTime.MIN}, new c.Timespan[]{new c.Timespan(1)},
+            new c.Minute[]{new c.Minute(2)}, new c.Second[]{new c.Second(3)}, new LocalTime[]{LocalTime.of(1, 2)},
+            new Object[]{new Object[0], new long[0]}, table,
+            new c.Dict(new String[]{"a", "b"}, new Object[]{1L, "x".toCharArray()}),
+            new c.Dict(new c.Flip(new String[]{"id"}, new Object[]{new long[]{1}}), table)};
+        byte[] bytes = codec.serialize(2, message, false);
+        c.ObjectVisitor visitor = new c.ObjectVisitor();
+        codec.parse(bytes, visitor);
+        Assert.assertArrayEquals(bytes, codec.serialize(2, visitor.result(), false));
+        Assert.assertArrayEquals(bytes, codec.serialize(2, codec.deserialize(bytes), false));
+        // functions: a lambda is its source, a unary primitive with 0 is (::), other functions are "func"
+        byte[] functions = {1, 2, 0, 0, 0, 0, 0, 0, 0, 0, 4, 0, 0, 0,
+            100, 0, 10, 0, 3, 0, 0, 0, '{', 'x', '}',
+            101, 0,
+            101, 5,
+            104, 1, 0, 0, 0, -7, 1, 0, 0, 0, 0, 0, 0, 0};
+        ByteBuffer.wrap(functions).order(ByteOrder.LITTLE_ENDIAN).putInt(4, functions.length);
+        visitor = new c.ObjectVisitor();
+        codec.parse(functions, visitor);
+        Object[] parsed = (Object[]) visitor.result();
+        Object[] deserialized = (Object[]) codec.deserialize(functions);
+        Assert.assertArrayEquals("{x}".toCharArray(), (char[]) parsed[0]);
+        Assert.assertArrayEquals((char[]) deserialized[0], (char[]) parsed[0]);
+        Assert.assertNull(parsed[1]);
+        Assert.assertEquals(deserialized[2], parsed[2]);
+        Assert.assertEquals("func", parsed[3]);
+        // a visitor reading values straight from the message
+        final long[] sum = new long[1];
+        final List<String> symbols = new ArrayList<>();
+        codec.parse(codec.serialize(2, new Object[]{new long[]{1, 2, 3}, new String[]{"x", "y"}}, false), new c.KVisitor() {
+            @Override
+            public void onVector(int type, byte[] b, int offset, int count, boolean littleEndian) {
+                ByteBuffer buffer = ByteBuffer.wrap(b, offset, count * 8).order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < count; i++) {
+                    sum[0] += buffer.getLong();
+                }
+            }
+
+            @Override
+            public void onSymbol(byte[] b, int offset, int length) {
+                symbols.add(new String(b, offset, length, StandardCharsets.ISO_8859_1));
+            }
+        });
+        Assert.assertEquals(6, sum[0]);
+        Assert.assertEquals(Arrays.asList("x", "y"), symbols);
+    }
+
+    @Test
+    public void testDecodePoolDecodesColumnsInParallel() throws Exception {
+        c codec = new c();
+        c.Flip table = new c.Flip(new String[]{"sym", "time", "price", "note", "size", "mixed"}, new Object[]{
+            new String[]{"IBM", "", "MSFT"},
+            new Instant[]{Instant.parse("2024-03-01T12:34:56.123456789Z"), Instant.MIN, Instant.EPOCH},
+            new double[]{1.5, Double.NaN, -2.5},
+            new Object[]{"a".toCharArray(), "bc".toCharArray(), new char[0]},
+            new long[]{7, c.nj, Long.MAX_VALUE},
+            new Object[]{1L, "x", new c.Flip(new String[]{"k"}, new Object[]{new long[]{2}})}});
+        byte[] message = codec.serialize(2, new Object[]{table, 42L}, false);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            c parallel = new c();
+            parallel.setDecodePool(pool, 0);
+            Object[] decoded = (Object[]) parallel.deserialize(message);
+            Assert.assertEquals(42L, decoded[1]);
+            Object[] columns = ((c.Flip) decoded[0]).y;
+            Object[] eager = ((c.Flip) ((Object[]) codec.deserialize(message))[0]).y;
+            Assert.assertArrayEquals((String[]) eager[0], (String[]) columns[0]);
+            Assert.assertArrayEquals((Instant[]) eager[1], (Instant[]) columns[1]);
+            Assert.assertArrayEquals((double[]) eager[2], (double[]) columns[2], 0);
+            Assert.assertArrayEquals((char[]) ((Object[]) eager[3])[1], (char[]) ((Object[]) columns[3])[1]);
+            Assert.assertArrayEquals((long[]) eager[4], (long[]) columns[4]);
+            Assert.assertArrayEquals(new long[]{2}, (long[]) ((c.Flip) ((Object[]) columns[5])[2]).at("k"));
+            Assert.assertArrayEquals(message, codec.serialize(2, decoded, false));
+            // tables smaller than the threshold decode on the reading thread
+            parallel.setDecodePool(pool, Integer.MAX_VALUE);
+            Assert.assertArrayEquals(message, codec.serialize(2, parallel.deserialize(message), false));
+            // a malformed column is found when the table is indexed, as it would be when decoded eagerly
+            byte[] truncated = Arrays.copyOf(codec.serialize(2, table, false), 40);
+            ByteBuffer.wrap(truncated).order(ByteOrder.LITTLE_ENDIAN).putInt(4, truncated.length);
+            parallel.setDecodePool(pool, 0);
+            try {
+                parallel.deserialize(truncated);
+                Assert.fail("Expected a RuntimeException to be thrown");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Malformed message"));
+            }
+            try {
+                parallel.setDecodePool(pool, -1);
+                Assert.fail("Expected an IllegalArgumentException to be thrown");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Decode threshold must not be negative, got -1", e.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testEncodePoolSerializesTableColumnsAndMessageItemsInParallel() throws Exception {
+        c codec = new c();
+        c.Flip table = new c.Flip(new String[]{"sym", "time", "price", "note", "size", "mixed"}, new Object[]{
+            new String[]{"IBM", "", "MSFT"},
+            new Instant[]{Instant.parse("2024-03-01T12:34:56.123456789Z"), Instant.MIN, Instant.EPOCH},
+            new double[]{1.5, Double.NaN, -2.5},
+            new Object[]{"a".toCharArray(), "bc".toCharArray(), new char[0]},
+            new long[]{7, c.nj, Long.MAX_VALUE},
+            new Object[]{1L, "x", new c.Flip(new String[]{"k"}, new Object[]{new long[]{2}})}});
+        c.Dict keyed = new c.Dict(new c.Flip(new String[]{"id"}, new Object[]{new long[]{1, 2}}),
+            new c.Flip(new String[]{"v"}, new Object[]{new double[]{0.5, 1.5}}));
+        Object[] payload = {table, keyed, 42L, new Object[]{"upd", new int[1000]}};
+        byte[] expected = codec.serialize(1, payload, false);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            c parallel = new c();
+            parallel.setEncodePool(pool, 0);
+            Assert.assertArrayEquals(expected, parallel.serialize(1, payload, false));
+            parallel.setSinglePassSerialization(true);
+            Assert.assertArrayEquals(expected, parallel.serialize(1, payload, false));
+            // lists shorter than the threshold are serialized on the writing thread
+            parallel.setEncodePool(pool, Integer.MAX_VALUE);
+            Assert.assertArrayEquals(expected, parallel.serialize(1, payload, false));
+            Object[] text = {"\u65e5\u672c".toCharArray(), new String[]{"\u20ac", "plain"}, "\u00e9".toCharArray()};
+            try {
+                c.setEncoding("UTF-8");
+                parallel.setEncodePool(pool, 0);
+                Assert.assertArrayEquals(codec.serialize(1, text, false), parallel.serialize(1, text, false));
+                c.Flip notes = new c.Flip(new String[]{"note", "sym"}, new Object[]{text, new String[]{"\u20ac", "a", "b"}});
+                Assert.assertArrayEquals(codec.serialize(1, notes, false), parallel.serialize(1, notes, false));
+            } finally {
+                c.setEncoding("ISO-8859-1");
+            }
+            // only the columns of tables, and the items of a message which is a general list, are serialized on the pool, so a
+            // pool which rejects tasks fails only those
+            ForkJoinPool stopped = new ForkJoinPool(1);
+            stopped.shutdown();
+            parallel.setEncodePool(stopped, 0);
+            c.Dict nested = new c.Dict(new String[]{"a", "b"}, new Object[]{new long[1000], new double[1000]});
+            Assert.assertArrayEquals(codec.serialize(1, nested, false), parallel.serialize(1, nested, false));
+            for (Object msg : new Object[]{table, new Object[]{"upd", new long[1000]}}) {
+                try {
+                    parallel.serialize(1, msg, false);
+                    Assert.fail("Expected a RejectedExecutionException to be thrown");
+                } catch (RejectedExecutionException e) {
+                    // expected
+                }
+            }
+            try {
+                parallel.setEncodePool(pool, -1);
+                Assert.fail("Expected an IllegalArgumentException to be thrown");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Encode threshold must not be negative, got -1", e.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testKAsyncCompletesOnResponseExecutorAndSurvivesHandlerFailure() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            Thread peer = startEchoServer(server, failure);
+            final c client = new c("localhost", server.getLocalPort(), "user:pass");
+            ExecutorService executor = Executors.newCachedThreadPool();
+            final BlockingQueue<Object> nestedResults = new LinkedBlockingQueue<Object>();
+            try {
+                client.setMsgHandler(new c.MsgHandler() {
+                    @Override
+                    public void processMsg(c c, byte msgType, Object msg) {
+                        // a blocking request from the thread reading responses would wait for itself, so fails
+                        try {
+                            nestedResults.add(c.k(4L));
+                        } catch (Exception e) {
+                            nestedResults.add(e);
+                        }
+                        throw new IllegalStateException("handler failed");
+                    }
+                });
+                CompletableFuture<Object> first = client.kAsync(1L);
+                client.ks("ping");
+                CompletableFuture<Object> second = client.kAsync(2L);
+                // a failing handler does not fail the responses awaited
+                Assert.assertEquals(1L, first.get(5, TimeUnit.SECONDS));
+                Assert.assertEquals(2L, second.get(5, TimeUnit.SECONDS));
+                Assert.assertTrue(nestedResults.poll(5, TimeUnit.SECONDS) instanceof IOException);
+                client.setResponseExecutor(executor);
+                Object nested = client.kAsync(5L).thenApply(x -> {
+                    try {
+                        return client.k(6L);
+                    } catch (Exception e) {
+                        return e;
+                    }
+                }).get(5, TimeUnit.SECONDS);
+                Assert.assertEquals(6L, nested);
+            } finally {
+                executor.shutdown();
+                client.close();
+            }
+            peer.join(5000);
+            Assert.assertFalse("server thread did not finish", peer.isAlive());
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionPoolRejectsForeignReturnsAndTimesOutValidation() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 2, InetAddress.getLoopbackAddress())) {
+            // a peer which completes the handshake but never responds
+            final CountDownLatch done = new CountDownLatch(1);
+            Thread peer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        c silent = new c(server);
+                        try {
+                            while (true) {
+                                silent.readMsg();
+                            }
+                        } finally {
+                            silent.close();
+                        }
+                    } catch (Exception e) {
+                        // the client closed the connection
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "javakdb-test-server");
+            peer.setDaemon(true);
+            peer.start();
+            c.ConnectionPool pool = new c.ConnectionPool("localhost", server.getLocalPort(), "user:pass", false, 2);
+            pool.setMinSize(1);
+            Assert.assertEquals(1, pool.prestart());
+            Assert.assertEquals(0, pool.prestart());
+            Assert.assertEquals(1, pool.getIdle());
+            c conn = pool.acquire();
+            pool.release(conn);
+            try {
+                pool.release(conn);
+                Assert.fail("Expected an IllegalArgumentException to be thrown");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Connection was not taken from this pool, or has already been returned", e.getMessage());
+            }
+            try {
+                pool.invalidate(new c());
+                Assert.fail("Expected an IllegalArgumentException to be thrown");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Connection was not taken from this pool, or has already been returned", e.getMessage());
+            }
+            Assert.assertEquals(1, pool.getIdle());
+            // the unanswered ping is bounded by the validation timeout, and the connection discarded
+            pool.setValidateAfter(0);
+            pool.setValidationTimeout(100);
+            pool.setCheckoutTimeout(5000);
+            server.close();
+            long start = System.nanoTime();
+            try {
+                pool.acquire();
+                Assert.fail("Expected IOException");
+            } catch (IOException e) {
+                // no new connection can be opened once the server is closed
+            }
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Assert.assertEquals(0, pool.getOpen());
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            try {
+                pool.setValidationTimeout(0);
+                Assert.fail("Expected an IllegalArgumentException to be thrown");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Validation timeout must be at least 1ms, got 0", e.getMessage());
+            }
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testIpcServerServesMoreClientsThanExecutorThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        final BlockingQueue<Exception> errors = new LinkedBlockingQueue<Exception>();
+        ServerSocket socket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        c.IpcServer server = new c.IpcServer(socket, null, new c.RequestHandler() {
+            @Override
+            public Object process(c c, byte msgType, Object msg) throws Exception {
+                if (msg instanceof char[] && "fail".equals(new String((char[]) msg))) {
+                    throw new IllegalStateException();
+                }
+                return msg;
+            }
+
+            @Override
+            public void onError(c c, Object msg, Exception e) {
+                errors.add(e);
+            }
+        }, executor);
+        server.setHandshakeTimeout(200);
+        try {
+            server.start();
+            int port = socket.getLocalPort();
+            // a client which never completes the handshake is disconnected, rather than holding a thread
+            try (Socket silent = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                silent.setSoTimeout(5000);
+                Assert.assertEquals(-1, silent.getInputStream().read());
+            }
+            c[] clients = new c[3];
+            try {
+                for (int i = 0; i < clients.length; i++) {
+                    clients[i] = new c("localhost", port, "user:pass");
+                }
+                // every client is served by the single executor thread, one message at a time
+                for (long i = 0; i < clients.length; i++) {
+                    Assert.assertEquals(i, clients[(int) i].k(i));
+                }
+                try {
+                    clients[0].k("fail");
+                    Assert.fail("Expected KException");
+                } catch (c.KException e) {
+                    Assert.assertEquals("java.lang.IllegalStateException", e.getMessage());
+                }
+                clients[1].ks("fail");
+                Assert.assertTrue(errors.poll(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+                Assert.assertEquals(7L, clients[2].k(7L));
+            } finally {
+                for (c client : clients) {
+                    if (client != null) {
+                        client.close();
+                    }
+                }
+            }
+            try {
+                server.setIdleTimeout(-1);
+                Assert.fail("Expected an IllegalArgumentException to be thrown");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Idle timeout must not be negative, got -1", e.getMessage());
+            }
+        } finally {
+            server.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompressorLeavesShortMessagesUncompressed() throws Exception {
+        c codec = new c();
+        c.Compressor compressor = new c.Compressor();
+        byte[] atom = codec.serialize(1, 42L, false);
+        Assert.assertEquals(17, atom.length);
+        Assert.assertSame(atom, compressor.compress(atom));
+        for (int n = 0; n < 64; n++) {
+            byte[] msg = codec.serialize(1, new byte[n], false);
+            byte[] compressed = compressor.compress(msg);
+            Assert.assertArrayEquals(msg, compressor.uncompress(compressed));
+        }
+        Assert.assertEquals(1.0, compressor.sample(atom, atom.length, 64), 0);
+    }
+
+    @Test
+    public void testCompressionPolicyIsNotOfferedShortMessages() throws Exception {
+        c codec = new c();
+        c.AdaptiveCompressionPolicy policy = new c.AdaptiveCompressionPolicy();
+        policy.setMinLength(0);
+        policy.setCompressLoopback(true);
+        codec.setCompressionPolicy(policy);
+        for (int n = 0; n < 64; n++) {
+            byte[] msg = codec.serialize(1, new byte[n], true);
+            Assert.assertArrayEquals(new byte[n], (byte[]) codec.deserialize(msg));
+        }
+        Assert.assertArrayEquals(codec.serialize(1, 42L, false), codec.serialize(1, 42L, true));
+        try {
+            policy.setMinLength(-1);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Minimum length must not be negative, got -1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFlipBuilderReusesEncodedSymbolsAndBoundsDictionary() throws Exception {
+        c codec = new c();
+        c.FlipBuilder rows = new c.FlipBuilder(new String[]{"sym", "size"}, "sj");
+        rows.setMaxSymbols(2);
+        rows.add("IBM").add(1L).add("MSFT").add(2L);
+        Assert.assertEquals(2 * 8 + 4 + 5, rows.dataSize());
+        c.SymbolColumn first = (c.SymbolColumn) rows.view().y[0];
+        byte[] msg = codec.serialize(1, rows.view(), false);
+        rows.clear();
+        Assert.assertEquals(2, rows.symbols());
+        rows.add("MSFT").add(3L);
+        c.SymbolColumn second = (c.SymbolColumn) rows.view().y[0];
+        // the symbols are encoded as they are added, not by each batch
+        Assert.assertSame(first.encode(StandardCharsets.ISO_8859_1), second.encode(StandardCharsets.ISO_8859_1));
+        c.Flip table = (c.Flip) codec.deserialize(msg);
+        Assert.assertArrayEquals(new String[]{"IBM", "MSFT"}, (String[]) table.y[0]);
+        rows.add("AAPL").add(4L);
+        Assert.assertEquals(3, rows.symbols());
+        msg = codec.serialize(1, rows.view(), false);
+        table = (c.Flip) codec.deserialize(msg);
+        Assert.assertArrayEquals(new String[]{"MSFT", "AAPL"}, (String[]) table.y[0]);
+        // the dictionary has outgrown its maximum, so is discarded with the rows
+        rows.clear();
+        Assert.assertEquals(0, rows.symbols());
+        rows.add("GOOG").add(5L);
+        table = (c.Flip) codec.deserialize(codec.serialize(1, rows.view(), false));
+        Assert.assertArrayEquals(new String[]{"GOOG"}, (String[]) table.y[0]);
+        Assert.assertArrayEquals(new String[]{"GOOG"}, ((c.SymbolColumn) rows.view().y[0]).dictionary());
+        try {
+            rows.setMaxSymbols(0);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Maximum symbols must be at least 1, got 0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPublisherFailsOnRuntimeExceptionAndCountsDroppedRows() throws Exception {
+        c conn = new c() {
+            @Override
+            public void ks(String s, Object x, Object y) {
+                throw new IllegalStateException("boom");
+            }
+        };
+        c.Publisher publisher = new c.Publisher(conn, ".u.upd", 1, 1 << 20, TimeUnit.SECONDS.toNanos(10));
+        c.Publisher.Table trade = publisher.table("trade", new String[]{"sym", "size"}, "sj");
+        long added = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        IOException failure = null;
+        // each row fills a batch, so begin() waits for the sender, until it reports the failure
+        while (failure == null && System.nanoTime() < deadline) {
+            try {
+                c.FlipBuilder rows = trade.begin();
+                try {
+                    rows.add("IBM").add(added);
+                } finally {
+                    trade.end();
+                }
+                added++;
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        Assert.assertNotNull(failure);
+        Assert.assertEquals("Publisher failed", failure.getMessage());
+        Assert.assertEquals("boom", failure.getCause().getMessage());
+        try {
+            publisher.close();
+            Assert.fail("Expected an IOException to be thrown");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertTrue(added > 0);
+        Assert.assertEquals(0, publisher.getRows());
+        Assert.assertEquals(added, publisher.getDroppedRows());
+    }
+
+    @Test
+    public void testScratchBufferPoolDropsBuffersLongerThanItsBound() throws Exception {
+        c.ScratchBufferPool pool = new c.ScratchBufferPool(1024);
+        byte[] small = pool.acquire(800);
+        Assert.assertEquals(800, small.length); // no headroom beyond the bound
+        byte[] large = pool.acquire(4096);
+        pool.release(large);
+        Assert.assertNotSame(large, pool.acquire(10));
+        pool.release(small);
+        Assert.assertSame(small, pool.acquire(10));
+        // a connection compressing without a buffer pool retains the buffers of a message only up to its compressor's bound
+        c.Compressor compressor = new c.Compressor(1024);
+        byte[] message = new c().serialize(1, new byte[4096], false);
+        compressor.buffers.release(message);
+        Assert.assertNotSame(message, compressor.buffers.acquire(10));
+        try {
+            new c.ScratchBufferPool(-1);
+            Assert.fail("Expected an IllegalArgumentException to be thrown");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Maximum retained length must not be negative, got -1", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRingWriterProducersBlockWhileTheRingIsFull() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final CountDownLatch reading = new CountDownLatch(1);
+            final AtomicInteger received = new AtomicInteger();
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    c peer = new c(server);
+                    // a slow peer, which reads nothing until the producers have blocked
+                    reading.await();
+                    while (true) {
+                        peer.readMsg();
+                        received.incrementAndGet();
+                    }
+                } catch (EOFException e) {
+                    // writer's connection closed
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            thread.start();
+            c conn = new c(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort(), "user:pass");
+            final c.RingWriter ring = new c.RingWriter(conn, 2, 256);
+            Thread[] producers = new Thread[2];
+            for (int p = 0; p < producers.length; p++) {
+                producers[p] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 32; i++) {
+                            ring.ks("upd", new byte[1 << 20]);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                });
+                producers[p].start();
+            }
+            // once the socket and the ring are full, the producers block rather than spin
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            boolean blocked = false;
+            while (!blocked && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+                blocked = true;
+                for (Thread producer : producers) {
+                    blocked &= producer.getState() == Thread.State.WAITING;
+                }
+            }
+            reading.countDown();
+            for (Thread producer : producers) {
+                producer.join(10000);
+            }
+            ring.close();
+            conn.close();
+            thread.join(10000);
+            Assert.assertTrue(blocked);
+            Assert.assertNull(failure.get());
+            Assert.assertEquals(64, received.get());
+        }
+    }
+
+    @Test
+    public void testSymbolInternTableDistinguishesPackedKeysFromHashes() {
+        // the hash of the 8 byte symbol equals the key into which the 5 byte symbol is packed
+        byte[] hashed = {(byte) 215, (byte) 235, (byte) 143, (byte) 237, (byte) 165, 26, 48, (byte) 162};
+        byte[] packed = {(byte) 129, 24, 40, (byte) 230, 40};
+        String longer = new String(hashed, StandardCharsets.ISO_8859_1);
+        String shorter = new String(packed, StandardCharsets.ISO_8859_1);
+        c.SymbolInternTable table = new c.SymbolInternTable(4, 64);
+        Assert.assertEquals(longer, table.intern(hashed, 0, hashed.length, StandardCharsets.ISO_8859_1));
+        Assert.assertEquals(shorter, table.intern(packed, 0, packed.length, StandardCharsets.ISO_8859_1));
+        table = new c.SymbolInternTable(4, 64);
+        Assert.assertEquals(shorter, table.intern(packed, 0, packed.length, StandardCharsets.ISO_8859_1));
+        Assert.assertEquals(longer, table.intern(hashed, 0, hashed.length, StandardCharsets.ISO_8859_1));
+        Assert.assertSame(table.intern(packed, 0, packed.length, StandardCharsets.ISO_8859_1),
+            table.intern(packed, 0, packed.length, StandardCharsets.ISO_8859_1));
+    }
 }
@@ -39,4 +39,23 @@ public class MultiReleaseJarTest {
                 && accessLocation.contains(
                     "!/META-INF/versions/9/com/kx/ByteArrayAccess.class"));
     }
+
+    @Test
+    public void testJava21ImplementationLoadedFromPackagedJar() {
+        Assume.assumeTrue(Boolean.getBoolean("javakdb.verifyMultiReleaseJar"));
+        String version = System.getProperty("java.specification.version");
+        Assume.assumeTrue(!version.startsWith("1.") && Integer.parseInt(version) >= 21);
+
+        URL threadsResource = KThreads.class.getResource("KThreads.class");
+        Assert.assertNotNull("Could not locate com/kx/KThreads.class", threadsResource);
+
+        String threadsLocation = threadsResource.toExternalForm();
+        Assert.assertTrue(
+            "Java 21+ did not load the versioned KThreads class: "
+                + threadsLocation,
+            threadsLocation.startsWith("jar:")
+                && threadsLocation.contains(
+                    "!/META-INF/versions/21/com/kx/KThreads.class"));
+        Assert.assertTrue(KThreads.isVirtual());
+    }
 }